@@ -0,0 +1,142 @@
+package engineTester;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import simulation.CollisionSystem;
+import simulation.ElasticBounce;
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+import simulation.PerfectMerge;
+import simulation.SpatialHash;
+
+/*
+ * File:	CollisionBenchmark.java
+ * Purpose:	Checks the spatial hash against an all-pairs search, times it for
+ * 			growing N with the density held fixed, and checks that perfect
+ * 			merges conserve mass & momentum, that elastic bounces conserve
+ * 			kinetic energy, and that pairs already bouncing apart aren't
+ * 			counted as collisions again.  Exits with 1 if any check fails.
+ * 			Needs no display.
+ *
+ * 			Usage:	CollisionBenchmark [maxBodies]
+ */
+public class CollisionBenchmark {
+
+	private static final double RADIUS = 0.01;
+	// Bodies per unit volume, so that a few percent of bodies touch.
+	private static final double DENSITY = 1000;
+	private static final int BRUTE_FORCE_BODIES = 20000;
+
+	public static void main(String[] args) {
+		int maxBodies = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean ok = true;
+
+		// Same pairs as checking every pair.
+		NBodySystem system = createSystem(BRUTE_FORCE_BODIES);
+		SpatialHash hash = new SpatialHash(ForkJoinPool.commonPool());
+		hash.build(system, RADIUS * 2);
+		int found = hash.findOverlaps(system);
+		long start = System.nanoTime();
+		int expected = bruteForce(system);
+		double bruteMillis = (System.nanoTime() - start) / 1e6;
+		System.out.println(String.format("N = %d:  spatial hash found %d pairs, all-pairs search %d (%.0f ms)",
+				BRUTE_FORCE_BODIES, found, expected, bruteMillis));
+		ok &= found == expected;
+
+		System.out.println("        N      pairs   build ms   query ms");
+		for (int count = 10000; count <= maxBodies; count *= 10) {
+			system = createSystem(count);
+			hash.build(system, RADIUS * 2);
+			hash.findOverlaps(system);
+			start = System.nanoTime();
+			hash.build(system, RADIUS * 2);
+			double buildMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			int pairs = hash.findOverlaps(system);
+			double queryMillis = (System.nanoTime() - start) / 1e6;
+			System.out.println(String.format("%9d %10d %10.1f %10.1f", count, pairs, buildMillis, queryMillis));
+		}
+
+		// Merging keeps total mass & momentum.
+		system = createSystem(BRUTE_FORCE_BODIES);
+		double[] before = totals(system);
+		CollisionSystem merging = new CollisionSystem(new PerfectMerge());
+		int collisions = merging.resolve(system);
+		double[] after = totals(system);
+		double massError = Math.abs(after[0] - before[0]) / before[0];
+		double momentumError = Math.abs(after[1] - before[1]) / before[3];
+		System.out.println(String.format("Perfect merge:  %d collisions, %d bodies left, mass error %.1e, "
+				+ "momentum error %.1e", collisions, system.getCount(), massError, momentumError));
+		ok &= massError < 1e-12 && momentumError < 1e-12 && system.getCount() < BRUTE_FORCE_BODIES;
+
+		// Bouncing keeps kinetic energy & momentum.
+		system = createSystem(BRUTE_FORCE_BODIES);
+		before = totals(system);
+		collisions = new CollisionSystem(new ElasticBounce()).resolve(system);
+		after = totals(system);
+		double energyError = Math.abs(after[2] - before[2]) / before[2];
+		momentumError = Math.abs(after[1] - before[1]) / before[3];
+		System.out.println(String.format("Elastic bounce:  %d collisions, energy error %.1e, momentum error %.1e",
+				collisions, energyError, momentumError));
+		ok &= energyError < 1e-12 && momentumError < 1e-12;
+
+		// Bounced pairs still overlap but now move apart, so checking again
+		// leaves them be, and the system (& the integrator) need no reset.
+		CollisionSystem bouncing = new CollisionSystem(new ElasticBounce());
+		int again = bouncing.resolve(system);
+		int still = bouncing.resolve(system);
+		System.out.println(String.format("Elastic bounce rechecked:  %d pairs still overlapping, %d bounced again, "
+				+ "then %d", bouncing.getOverlaps(), again, still));
+		ok &= bouncing.getOverlaps() > 0 && still == 0;
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Uniform cube at fixed density with random velocities.
+	private static NBodySystem createSystem(int count) {
+		NBodySystem system = InitialConditions.uniformCube(count, 1, Math.cbrt(count / DENSITY), 42);
+		Random random = new Random(7);
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		for (int i = 0; i < count; i++) {
+			vx[i] = random.nextGaussian();
+			vy[i] = random.nextGaussian();
+			vz[i] = random.nextGaussian();
+		}
+		system.setRadius(RADIUS);
+		return system;
+	}
+
+	private static int bruteForce(NBodySystem system) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] radius = system.getRadius();
+		int pairs = 0;
+		for (int i = 0; i < system.getCount(); i++) {
+			for (int j = i + 1; j < system.getCount(); j++) {
+				double dx = x[j] - x[i], dy = y[j] - y[i], dz = z[j] - z[i];
+				double reach = radius[i] + radius[j];
+				if (dx * dx + dy * dy + dz * dz < reach * reach) {
+					pairs++;
+				}
+			}
+		}
+		return pairs;
+	}
+
+	// Total mass, x momentum, kinetic energy, and sum of |momentum|.
+	private static double[] totals(NBodySystem system) {
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] m = system.getMass();
+		double mass = 0, momentum = 0, energy = 0, scale = 0;
+		for (int i = 0; i < system.getCount(); i++) {
+			double v2 = vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i];
+			mass += m[i];
+			momentum += m[i] * vx[i];
+			energy += 0.5 * m[i] * v2;
+			scale += m[i] * Math.sqrt(v2);
+		}
+		return new double[] { mass, momentum, energy, scale };
+	}
+
+}
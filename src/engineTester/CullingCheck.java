@@ -0,0 +1,136 @@
+package engineTester;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.FrustumCuller;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import renderEngine.Renderer;
+import textures.ModelTexture;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+/*
+ * File:	CullingCheck.java
+ * Purpose:	Moves a cloud of bodies & turns the camera over a number of
+ * 			frames, and checks each frame that the BVH culler keeps exactly
+ * 			the bodies a sphere-by-sphere frustum test keeps, that no body
+ * 			whose center projects into the view is culled, and that the
+ * 			instanced renderer draws just the visible ones.  Prints visible &
+ * 			culled counts and the time taken per frame, sequentially & on
+ * 			the common pool.  Exits with 1 if any check fails.  Needs no
+ * 			display.
+ *
+ * 			Usage:	CullingCheck [numBodies]
+ */
+public class CullingCheck {
+
+	private static final int FRAMES = 30;
+	private static final float SIDE = 100;
+	private static final float BODY_SCALE = 0.2f;
+	private static final float STEP = 0.05f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		boolean ok = true;
+
+		EntityStore store = new EntityStore();
+		TexturedModel model = new TexturedModel(new RawModel(1, 960), new ModelTexture(1));
+		Random random = new Random(42);
+		for (int i = 0; i < count; i++) {
+			store.add(model, (random.nextFloat() - 0.5f) * SIDE, (random.nextFloat() - 0.5f) * SIDE,
+					(random.nextFloat() - 0.5f) * SIDE, 0, 0, 0, BODY_SCALE * (0.5f + random.nextFloat()));
+		}
+		Matrix4f projection = Maths.createProjectionMatrix(Renderer.FOV, 16f / 9f, Renderer.NEAR_PLANE,
+				Renderer.FAR_PLANE);
+		Camera camera = new Camera();
+		camera.getPosition().set(0, 0, SIDE * 0.3f);
+
+		FrustumCuller sequential = new FrustumCuller(1);
+		FrustumCuller parallel = new FrustumCuller(1, ForkJoinPool.commonPool());
+		boolean[] visible = new boolean[count];
+		long sequentialNanos = 0, parallelNanos = 0;
+		int mismatches = 0, missed = 0;
+		System.out.println("frame   visible    culled   ranges");
+		for (int frame = 0; frame < FRAMES; frame++) {
+			drift(store.getBatch(0), random);
+			camera.setYaw(frame * 12);
+			camera.setPitch((frame % 5) * 6 - 12);
+
+			long start = System.nanoTime();
+			sequential.cull(store, projection, camera);
+			sequentialNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			parallel.cull(store, projection, camera);
+			parallelNanos += System.nanoTime() - start;
+
+			EntityBatch batch = store.getBatch(0);
+			Arrays.fill(visible, false);
+			int[] ranges = parallel.getRanges(0);
+			for (int r = 0; r < parallel.getRangeCount(0); r++) {
+				for (int i = ranges[r * 2]; i < ranges[r * 2 + 1]; i++) {
+					visible[i] = true;
+				}
+			}
+			mismatches += Math.abs(sequential.getVisibleCount() - parallel.getVisibleCount());
+			Frustum frustum = parallel.getFrustum();
+			Matrix4f clip = Matrix4f.mul(projection, Maths.createViewMatrix(camera), null);
+			Vector4f point = new Vector4f();
+			for (int i = 0; i < batch.getCount(); i++) {
+				float x = batch.getX()[i], y = batch.getY()[i], z = batch.getZ()[i];
+				boolean expected = frustum.intersectsSphere(x, y, z, batch.getScale()[i]);
+				mismatches += expected == visible[i] ? 0 : 1;
+				point.set(x, y, z, 1);
+				Matrix4f.transform(clip, point, point);
+				boolean centerInView = Math.abs(point.x) <= point.w && Math.abs(point.y) <= point.w
+						&& Math.abs(point.z) <= point.w;
+				missed += centerInView && !visible[i] ? 1 : 0;
+			}
+			if (frame % 5 == 0) {
+				System.out.println(String.format("%5d %9d %9d %8d", frame, parallel.getVisibleCount(),
+						parallel.getCulledCount(), parallel.getRangeCount(0)));
+			}
+		}
+		System.out.println(String.format("Mismatches against per-sphere test:  %d, visible bodies culled:  %d",
+				mismatches, missed));
+		System.out.println(String.format("Refit & cull per frame:  %.2f ms sequential, %.2f ms on %d threads, "
+				+ "%d rebuilds", sequentialNanos / 1e6 / FRAMES, parallelNanos / 1e6 / FRAMES,
+				ForkJoinPool.commonPool().getParallelism(), parallel.getHierarchy(0).getRebuilds()));
+		ok &= mismatches == 0 && missed == 0;
+
+		// The renderer draws only what survives.
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		gl.clear();
+		renderer.render(new Light(camera.getPosition(), camera.getPosition()), camera, store);
+		int drawn = (Integer) gl.getArguments("glDrawElementsInstanced").get(0)[4];
+		System.out.println(String.format("Renderer drew %d of %d bodies (%d culled)", drawn, count,
+				renderer.getCuller().getCulledCount()));
+		ok &= drawn == renderer.getCuller().getVisibleCount() && drawn < count;
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Nudges every body a little, as a slowly evolving system would.
+	private static void drift(EntityBatch batch, Random random) {
+		for (int i = 0; i < batch.getCount(); i++) {
+			batch.getX()[i] += (random.nextFloat() - 0.5f) * STEP;
+			batch.getY()[i] += (random.nextFloat() - 0.5f) * STEP;
+			batch.getZ()[i] += (random.nextFloat() - 0.5f) * STEP;
+		}
+		batch.markDirty(0, batch.getCount());
+	}
+
+}
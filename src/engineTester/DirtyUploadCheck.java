@@ -0,0 +1,406 @@
+package engineTester;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.BodyBuffer;
+import renderEngine.InstanceBuffer;
+import renderEngine.InstancedRenderer;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import renderEngine.SlotBuffer;
+import textures.ModelTexture;
+
+/*
+ * File:	DirtyUploadCheck.java
+ * Purpose:	Checks that EntityBatch coalesces dirty slots into the same
+ * 			ranges as a slot-by-slot scan, for random batches, densities &
+ * 			gaps, and across removals.  Then renders mesh & impostor frames
+ * 			with a growing share of bodies moving, in clusters (as in a few
+ * 			encounters) & scattered, with the GL calls recorded, and checks
+ * 			that after every frame the GPU's copy of the batch matches it,
+ * 			that only dirty ranges are sent while few bodies move & the
+ * 			whole batch once many do (plus, for meshes, 4 bytes a body drawn
+ * 			for its slot), and that setting bodies where they already are,
+ * 			turning, removing & adding send what they should.  Checks that
+ * 			switching between meshes & impostors sends the batch whole, and
+ * 			that frames played as MainGameLoop plays them (every entity spun)
+ * 			only send impostors' moved bodies.
+ * 			Prints the bytes uploaded per frame against a full upload.
+ * 			Exits with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	DirtyUploadCheck [numBodies]
+ */
+public class DirtyUploadCheck {
+
+	private static final int BATCHES = 200;
+	private static final int[] GAPS = { 0, 1, SlotBuffer.RANGE_GAP };
+	private static final float[] MOVING = { 0, 0.001f, 0.01f, 0.05f, 0.2f, 0.3f, 1 };
+	// Bodies moving together in a cluster.
+	private static final int CLUSTER = 50;
+	private static final float STEP = 0.01f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		boolean ok = true;
+		Random random = new Random(42);
+
+		int wrongRanges = 0;
+		for (int b = 0; b < BATCHES; b++) {
+			wrongRanges += checkRanges(random);
+		}
+		System.out.println("Batches whose dirty ranges differ from a slot-by-slot scan:  " + wrongRanges);
+		ok &= wrongRanges == 0;
+
+		ok &= checkUploads(false, count, random);
+		ok &= checkUploads(true, count, random);
+		ok &= checkSwitching(count, random);
+		ok &= checkGameLoop(count, random);
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Renders frames of one batch as meshes or impostors with a growing
+	// share of bodies moving, checking what each frame sends.
+	private static boolean checkUploads(boolean asImpostors, int count, Random random) {
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		renderer.setImpostors(asImpostors);
+		// Culling would reorder the batch; the uploads are what's checked.
+		renderer.getCuller().setEnabled(false);
+		TexturedModel model = new TexturedModel(new RawModel(1, 960), new ModelTexture(1));
+		EntityStore store = new EntityStore();
+		int[] handles = new int[count];
+		for (int i = 0; i < count; i++) {
+			handles[i] = store.add(model, random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50,
+					-random.nextFloat() * 100, 0, 0, 0, 0.05f + random.nextFloat() * 0.2f);
+		}
+		EntityBatch batch = store.getBatch(0);
+		Camera camera = new Camera();
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		renderer.render(light, camera, store);
+		SlotBuffer buffer = slotBuffer(renderer);
+		int stride = stride(renderer);
+		boolean ok = buffer.isFullUpload() && matches(gl, renderer, batch);
+		long fullBytes = (long) count * stride;
+
+		System.out.println(String.format("%-9s moving   layout      bodies   uploads       bytes  (full upload:  "
+				+ "%d)", asImpostors ? "impostor" : "mesh", fullBytes));
+		for (float moving : MOVING) {
+			for (int clustered = 1; clustered >= 0; clustered--) {
+				int moved = Math.round(moving * count);
+				boolean[] dirty = move(store, handles, moved, clustered == 1, random);
+				gl.clear();
+				renderer.render(light, camera, store);
+				boolean full = moved > SlotBuffer.FULL_UPLOAD_FRACTION * count;
+				boolean same = matches(gl, renderer, batch);
+				// Partial uploads send every moved body & few others, in as many
+				// calls as there are ranges.
+				long expected = sentWithGaps(dirty, count) * stride;
+				boolean right = full ? buffer.isFullUpload() && buffer.getBytesUploaded() == fullBytes
+						: !buffer.isFullUpload() && buffer.getBytesUploaded() == expected
+								&& gl.count("glBufferSubData") == buffer.getUploads() && gl.count("glBufferData") == 0;
+				right &= renderer.getBytesUploaded() == buffer.getBytesUploaded() + slotBytes(renderer, count);
+				System.out.println(String.format("          %5.1f%%   %-9s  %7d  %8d  %10d  %s%s", moving * 100,
+						clustered == 1 ? "clusters" : "scattered", moved, buffer.getUploads(),
+						buffer.getBytesUploaded(), full ? "full" : "ranges", same && right ? "" : "  WRONG"));
+				ok &= same && right;
+			}
+		}
+
+		// Setting bodies where they already are sends nothing.
+		for (int i = 0; i < count; i++) {
+			int slot = store.getSlot(handles[i]);
+			store.setPosition(handles[i], batch.getX()[slot], batch.getY()[slot], batch.getZ()[slot]);
+			store.setScale(handles[i], batch.getScale()[slot]);
+			store.increaseRotation(handles[i], 0, 0, 0);
+		}
+		gl.clear();
+		renderer.render(light, camera, store);
+		boolean quiet = buffer.getBytesUploaded() == 0 && gl.count("glBufferSubData") == 0
+				&& renderer.getBytesUploaded() == slotBytes(renderer, count);
+
+		// Turning a body sends it as a mesh, & nothing as an impostor.
+		store.increaseRotation(handles[1], 0, 10, 0);
+		gl.clear();
+		renderer.render(light, camera, store);
+		boolean turned = buffer.getBytesUploaded() == (asImpostors ? 0 : stride) && matches(gl, renderer, batch);
+
+		// Removing a body sends the one moved into its slot; adding past the
+		// buffer's room sends everything into bigger storage.
+		store.remove(handles[0]);
+		gl.clear();
+		renderer.render(light, camera, store);
+		boolean removed = buffer.getBytesUploaded() == stride && matches(gl, renderer, batch);
+		for (int i = 0; i < count; i++) {
+			store.add(model, random.nextFloat(), random.nextFloat(), -random.nextFloat(), 0, 0, 0, 0.1f);
+		}
+		gl.clear();
+		renderer.render(light, camera, store);
+		boolean grown = buffer.isFullUpload() && buffer.getBytesUploaded() == (long) batch.getCount() * stride
+				&& matches(gl, renderer, batch);
+		System.out.println(String.format("Nothing moved sends nothing:  %b, turning sends what shows it:  %b, "
+				+ "removal sends 1 body:  %b, growing sends all:  %b", quiet, turned, removed, grown));
+		return ok && quiet && turned && removed && grown;
+	}
+
+	// Switches a renderer between meshes & impostors with bodies moving in
+	// between:  each path's buffer missed what the other took, so must be
+	// sent whole.
+	private static boolean checkSwitching(int count, Random random) {
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		renderer.getCuller().setEnabled(false);
+		TexturedModel model = new TexturedModel(new RawModel(1, 960), new ModelTexture(1));
+		EntityStore store = new EntityStore();
+		int[] handles = new int[count];
+		for (int i = 0; i < count; i++) {
+			handles[i] = store.add(model, random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50,
+					-random.nextFloat() * 100, 0, 0, 0, 0.1f);
+		}
+		EntityBatch batch = store.getBatch(0);
+		Camera camera = new Camera();
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		boolean ok = true;
+		for (int frame = 0; frame < 4; frame++) {
+			renderer.setImpostors(frame % 2 == 1);
+			move(store, handles, count / 100, false, random);
+			gl.clear();
+			renderer.render(light, camera, store);
+			// New buffers at first, then ones whose changes the other path took.
+			ok &= slotBuffer(renderer).isFullUpload() && matches(gl, renderer, batch);
+		}
+		// Staying on a path goes back to ranges.
+		move(store, handles, count / 100, false, random);
+		gl.clear();
+		renderer.render(light, camera, store);
+		ok &= !slotBuffer(renderer).isFullUpload() && matches(gl, renderer, batch);
+		System.out.println("Switching between meshes & impostors sends all, then ranges:  " + ok);
+		return ok;
+	}
+
+	// Plays frames the way MainGameLoop does:  every entity spun, then every
+	// body set to its position in the frame (most where they already are).
+	// Impostors don't show rotation, so must only send the bodies that
+	// moved; meshes send all, as every entity turned.
+	private static boolean checkGameLoop(int count, Random random) {
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		renderer.getCuller().setEnabled(false);
+		TexturedModel model = new TexturedModel(new RawModel(1, 960), new ModelTexture(1));
+		EntityStore store = new EntityStore();
+		int[] handles = new int[count];
+		float[] frame = new float[count * 3];
+		for (int i = 0; i < count; i++) {
+			frame[i * 3] = random.nextFloat() * 100 - 50;
+			frame[i * 3 + 1] = random.nextFloat() * 100 - 50;
+			frame[i * 3 + 2] = -random.nextFloat() * 100;
+			handles[i] = store.add(model, frame[i * 3], frame[i * 3 + 1], frame[i * 3 + 2], 0, 0, 0, 0.1f);
+		}
+		EntityBatch batch = store.getBatch(0);
+		Camera camera = new Camera();
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		boolean ranges = true, full = true;
+		long most = 0;
+		for (int f = 0; f < 6; f++) {
+			renderer.setImpostors(f < 4);
+			int moved = count / 100;
+			for (int m = 0; m < moved; m++) {
+				int i = random.nextInt(count);
+				frame[i * 3] += STEP;
+				frame[i * 3 + 2] -= STEP;
+			}
+			store.increaseRotation(0, 0.5f, 0);
+			for (int i = 0; i < count; i++) {
+				store.setPosition(handles[i], frame[i * 3], frame[i * 3 + 1], frame[i * 3 + 2]);
+				store.setScale(handles[i], 0.1f);
+			}
+			gl.clear();
+			renderer.render(light, camera, store);
+			SlotBuffer buffer = slotBuffer(renderer);
+			boolean same = matches(gl, renderer, batch);
+			// The first frame sends everything anyway.
+			if (f > 0 && renderer.isImpostors()) {
+				ranges &= same && !buffer.isFullUpload() && buffer.getBytesUploaded() < (long) count * stride(renderer)
+						&& gl.count("glBufferData") == 0;
+				most = Math.max(most, buffer.getBytesUploaded());
+			} else if (!renderer.isImpostors()) {
+				full &= same && buffer.isFullUpload();
+			}
+		}
+		System.out.println(String.format("Game loop frames (all spun, 1%% moved):  impostors send ranges:  %b "
+				+ "(at most %d of %d bytes), meshes send all:  %b", ranges, most,
+				(long) count * BodyBuffer.BODY_STRIDE, full));
+		return ranges && full;
+	}
+
+	// Buffer of the batch for the path the renderer is on.
+	private static SlotBuffer slotBuffer(MasterRenderer renderer) {
+		if (renderer.isImpostors()) {
+			return renderer.getImpostorRenderer().getBodyBuffer(0);
+		}
+		return renderer.getInstancedRenderer().getInstanceBuffer(0);
+	}
+
+	private static int stride(MasterRenderer renderer) {
+		return renderer.isImpostors() ? BodyBuffer.BODY_STRIDE : InstanceBuffer.INSTANCE_STRIDE;
+	}
+
+	// Bytes of slots the mesh path streams a frame with all 'count' drawn.
+	private static long slotBytes(MasterRenderer renderer, int count) {
+		return renderer.isImpostors() ? 0 : (long) count * InstancedRenderer.SLOT_STRIDE;
+	}
+
+	// Marks random slots of a random batch dirty (densely, sparsely or in
+	// runs), removes a few, & compares takeDirtyRanges() for each gap with
+	// a slot-by-slot scan.  Returns 1 if any differ.
+	private static int checkRanges(Random random) {
+		EntityStore store = new EntityStore();
+		TexturedModel model = new TexturedModel(new RawModel(1, 3), new ModelTexture(1));
+		int count = random.nextInt(4) == 0 ? 64 * (1 + random.nextInt(4)) : random.nextInt(500);
+		for (int i = 0; i < count; i++) {
+			store.add(model, 0, 0, 0, 0, 0, 0, 1);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		EntityBatch batch = store.getBatch(0);
+		batch.clearDirty();
+		float density = random.nextFloat();
+		boolean[] dirty = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			if (random.nextFloat() < density * density) {
+				int run = 1 + random.nextInt(8);
+				for (int k = i; k < Math.min(count, i + run); k++) {
+					dirty[k] = true;
+					batch.markDirty(k);
+				}
+			}
+		}
+		// Removing moves the last slot's entity in, & leaves the last slot.
+		for (int r = 0; r < 3 && batch.getCount() > 1; r++) {
+			int slot = random.nextInt(batch.getCount());
+			int last = batch.getCount() - 1;
+			store.remove(batch.getHandles()[slot]);
+			dirty[last] = false;
+			if (slot != last) {
+				dirty[slot] = true;
+			}
+		}
+		int wrong = 0;
+		for (int g = 0; g < GAPS.length; g++) {
+			int dirtyCount = batch.getDirtyCount();
+			int expectedCount = 0;
+			for (int i = 0; i < batch.getCount(); i++) {
+				expectedCount += dirty[i] ? 1 : 0;
+			}
+			int rangeCount = batch.takeDirtyRanges(GAPS[g]);
+			int[] ranges = batch.getDirtyRanges();
+			int[] expected = scan(dirty, batch.getCount(), GAPS[g]);
+			boolean same = dirtyCount == expectedCount && rangeCount * 2 == expected.length
+					&& batch.getDirtyCount() == 0;
+			for (int k = 0; same && k < expected.length; k++) {
+				same = ranges[k] == expected[k];
+			}
+			wrong |= same ? 0 : 1;
+			// Mark them again for the next gap.
+			for (int i = 0; i < batch.getCount(); i++) {
+				if (dirty[i]) {
+					batch.markDirty(i);
+				}
+			}
+		}
+		return wrong;
+	}
+
+	// Ranges of dirty slots, joined when next to each other or less than
+	// 'gap' apart, slot by slot.
+	private static int[] scan(boolean[] dirty, int count, int gap) {
+		int[] ranges = new int[count * 2 + 2];
+		int rangeCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (!dirty[i]) {
+				continue;
+			}
+			if (rangeCount > 0 && i - ranges[rangeCount * 2 - 1] < Math.max(gap, 1)) {
+				ranges[rangeCount * 2 - 1] = i + 1;
+			} else {
+				ranges[rangeCount * 2] = i;
+				ranges[rangeCount * 2 + 1] = i + 1;
+				rangeCount++;
+			}
+		}
+		int[] found = new int[rangeCount * 2];
+		System.arraycopy(ranges, 0, found, 0, found.length);
+		return found;
+	}
+
+	// Nudges 'moved' bodies, in clusters of neighbouring slots or scattered,
+	// returning which slots moved.
+	private static boolean[] move(EntityStore store, int[] handles, int moved, boolean clustered, Random random) {
+		EntityBatch batch = store.getBatch(0);
+		int count = batch.getCount();
+		boolean[] dirty = new boolean[count];
+		int left = moved;
+		while (left > 0) {
+			int run = clustered ? Math.min(left, CLUSTER) : 1;
+			int start = random.nextInt(count - run + 1);
+			for (int slot = start; slot < start + run; slot++) {
+				if (dirty[slot]) {
+					continue;
+				}
+				dirty[slot] = true;
+				left--;
+				int handle = batch.getHandles()[slot];
+				store.setPosition(handle, batch.getX()[slot] + STEP, batch.getY()[slot], batch.getZ()[slot] - STEP);
+			}
+		}
+		return dirty;
+	}
+
+	// Bodies a partial upload sends:  the dirty ones & the clean ones in gaps
+	// too small to split at.
+	private static long sentWithGaps(boolean[] dirty, int count) {
+		int[] ranges = scan(dirty, count, SlotBuffer.RANGE_GAP);
+		long sent = 0;
+		for (int r = 0; r < ranges.length; r += 2) {
+			sent += ranges[r + 1] - ranges[r];
+		}
+		return sent;
+	}
+
+	// True if the GPU's copy of the batch holds every body's center &
+	// radius, or position, scale & rotation, for the path the renderer is
+	// on.
+	private static boolean matches(RecordingGLCalls gl, MasterRenderer renderer, EntityBatch batch) {
+		float[] uploaded = gl.getBufferData(slotBuffer(renderer).getVbo());
+		float unitRadius = renderer.getCuller().getUnitRadius();
+		for (int i = 0; i < batch.getCount(); i++) {
+			boolean same;
+			if (renderer.isImpostors()) {
+				int at = i * BodyBuffer.FLOATS_PER_BODY;
+				same = uploaded[at] == batch.getX()[i] && uploaded[at + 1] == batch.getY()[i]
+						&& uploaded[at + 2] == batch.getZ()[i] && uploaded[at + 3] == unitRadius * batch.getScale()[i];
+			} else {
+				int at = i * InstanceBuffer.FLOATS_PER_INSTANCE;
+				same = uploaded[at] == batch.getX()[i] && uploaded[at + 1] == batch.getY()[i]
+						&& uploaded[at + 2] == batch.getZ()[i] && uploaded[at + 3] == batch.getScale()[i]
+						&& uploaded[at + 4] == batch.getRotX()[i] && uploaded[at + 5] == batch.getRotY()[i]
+						&& uploaded[at + 6] == batch.getRotZ()[i];
+			}
+			if (!same) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,72 @@
+package engineTester;
+
+import java.util.Arrays;
+
+import simulation.BarnesHutSolver;
+import simulation.DirectSummationSolver;
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+
+/*
+ * File:	ForceAccuracyBenchmark.java
+ * Purpose:	Reports the force error vs. speed tradeoff of the Barnes-Hut
+ * 			solver for a range of opening angles, measured against direct
+ * 			summation on a Plummer sphere.  Needs no display.
+ *
+ * 			Usage:	ForceAccuracyBenchmark [numBodies] [theta ...]
+ */
+public class ForceAccuracyBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SOFTENING = 0.01;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		double[] thetas = { 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 1.0 };
+		if (args.length > 1) {
+			thetas = new double[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				thetas[i - 1] = Double.parseDouble(args[i]);
+			}
+		}
+
+		NBodySystem system = InitialConditions.plummerSphere(count, 1, 1, GRAVITY, 42);
+		long start = System.nanoTime();
+		new DirectSummationSolver(GRAVITY, SOFTENING).computeAccelerations(system);
+		double directMillis = (System.nanoTime() - start) / 1e6;
+		double[] refX = system.getAx().clone();
+		double[] refY = system.getAy().clone();
+		double[] refZ = system.getAz().clone();
+		System.out.println(String.format("N = %d, direct summation:  %.1f ms", count, directMillis));
+		System.out.println(" theta     build ms     refit ms   interactions/body   median err      99% err      max err");
+
+		double[] errors = new double[count];
+		for (double theta : thetas) {
+			BarnesHutSolver solver = new BarnesHutSolver(GRAVITY, SOFTENING, theta);
+			// First call builds the tree, second only refits it.
+			start = System.nanoTime();
+			solver.computeAccelerations(system);
+			double buildMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			solver.computeAccelerations(system);
+			double refitMillis = (System.nanoTime() - start) / 1e6;
+
+			relativeErrors(system, refX, refY, refZ, errors);
+			Arrays.sort(errors);
+			System.out.println(String.format("%6.2f %12.1f %12.1f %19.1f %12.2e %12.2e %12.2e", theta, buildMillis,
+					refitMillis, (double) solver.getInteractions() / count, errors[count / 2],
+					errors[(int) (count * 0.99)], errors[count - 1]));
+		}
+	}
+
+	// Relative error of every body's acceleration against the reference.
+	static void relativeErrors(NBodySystem system, double[] refX, double[] refY, double[] refZ, double[] errors) {
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		for (int i = 0; i < errors.length; i++) {
+			double dx = ax[i] - refX[i], dy = ay[i] - refY[i], dz = az[i] - refZ[i];
+			double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+			errors[i] = Math.sqrt(dx * dx + dy * dy + dz * dz) / ref;
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package engineTester;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import simulation.BarnesHutSolver;
+import simulation.ForceSolver;
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+import simulation.ParallelDirectSolver;
+
+/*
+ * File:	ForceScalingBenchmark.java
+ * Purpose:	Measures how the parallel force solvers scale from 1 thread up to
+ * 			the given number of threads, and checks that deterministic mode
+ * 			gives bitwise identical accelerations on repeated runs.  Needs no
+ * 			display.
+ *
+ * 			Usage:	ForceScalingBenchmark [numBodies] [maxThreads]
+ */
+public class ForceScalingBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SOFTENING = 0.01;
+	private static final double THETA = 0.6;
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		NBodySystem system = InitialConditions.plummerSphere(count, 1, 1, GRAVITY, 42);
+
+		System.out.println("N = " + count);
+		System.out.println("threads   direct ms   speedup   deterministic ms   reproducible   Barnes-Hut ms   speedup");
+		double directBase = 0, treeBase = 0;
+		for (int threads = 1; threads <= maxThreads; threads++) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+
+			double direct = time(new ParallelDirectSolver(GRAVITY, SOFTENING, pool, false), system);
+
+			ParallelDirectSolver deterministic = new ParallelDirectSolver(GRAVITY, SOFTENING, pool, true);
+			double deterministicMillis = time(deterministic, system);
+			double[] first = system.getAx().clone();
+			deterministic.computeAccelerations(system);
+			boolean reproducible = Arrays.equals(first, system.getAx());
+
+			double tree = time(new BarnesHutSolver(GRAVITY, SOFTENING, THETA, pool), system);
+
+			if (threads == 1) {
+				directBase = direct;
+				treeBase = tree;
+			}
+			System.out.println(String.format("%7d %11.1f %9.2f %18.1f %14s %15.1f %9.2f", threads, direct,
+					directBase / direct, deterministicMillis, reproducible ? "yes" : "NO", tree, treeBase / tree));
+			pool.shutdown();
+		}
+	}
+
+	// Best of a few runs, in milliseconds, after one warm-up run.
+	private static double time(ForceSolver solver, NBodySystem system) {
+		solver.computeAccelerations(system);
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			solver.computeAccelerations(system);
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+
+}
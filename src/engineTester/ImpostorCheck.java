@@ -0,0 +1,260 @@
+package engineTester;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.BodyBuffer;
+import renderEngine.FrustumCuller;
+import renderEngine.ImpostorRenderer;
+import renderEngine.InstancedRenderer;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import textures.ModelTexture;
+import toolbox.Maths;
+
+/*
+ * File:	ImpostorCheck.java
+ * Purpose:	Renders a frame of a million bodies as sphere impostors with the
+ * 			GL calls recorded, and checks that each batch is one instanced
+ * 			quad draw fed just the center & radius of its visible bodies.
+ * 			Then redoes the impostor shaders' math on the CPU for random
+ * 			spheres & cameras, checking that the quad covers the sphere's
+ * 			whole silhouette, that the ray-cast point lies on the sphere's
+ * 			near side with the depth a mesh there would have, and that its
+ * 			lighting in view space is fragmentShader's in world space.
+ * 			Exits with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	ImpostorCheck [numBodies]
+ */
+public class ImpostorCheck {
+
+	private static final int MODELS = 2;
+	private static final int SPHERES = 2000;
+	private static final int SILHOUETTE_POINTS = 64;
+	private static final float SHINE_DAMPER = 10;
+	private static final float TOLERANCE = 1e-3f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean ok = true;
+
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		renderer.setImpostors(true);
+		ImpostorRenderer impostors = renderer.getImpostorRenderer();
+		FrustumCuller culler = renderer.getCuller();
+		EntityStore store = new EntityStore();
+		Random random = new Random(42);
+		for (int m = 0; m < MODELS; m++) {
+			TexturedModel model = new TexturedModel(new RawModel(100 + m, 960), new ModelTexture(200 + m));
+			for (int i = 0; i < count / MODELS; i++) {
+				store.add(model, random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+						-random.nextFloat() * 200, 0, 0, 0, 0.05f + random.nextFloat() * 0.2f);
+			}
+		}
+		Camera camera = new Camera();
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		// Once to build the culler's hierarchy, then the frame measured.
+		renderer.render(light, camera, store);
+		gl.clear();
+		long start = System.nanoTime();
+		renderer.render(light, camera, store);
+		double millis = (System.nanoTime() - start) / 1e6;
+		int draws = gl.count("glDrawArraysInstanced");
+		System.out.println(String.format("%d bodies, %d visible:  %d GL calls, %d quad draws of %d instances, "
+				+ "%d mesh draws, %.1f MB uploaded (%.1f MB as mesh instances), %.1f ms CPU", store.getCount(),
+				culler.getVisibleCount(), gl.getCalls().size(), draws, impostors.getInstancesDrawn(),
+				gl.count("glDrawElementsInstanced"),
+				impostors.getBytesUploaded() / 1e6,
+				culler.getVisibleCount() * InstancedRenderer.SLOT_STRIDE / 1e6, millis));
+		// A run or more per batch, covering at least the visible bodies, &
+		// nothing uploaded as nothing moved since the last frame.
+		ok &= draws >= MODELS && draws == impostors.getDrawCalls() && gl.count("glDrawElementsInstanced") == 0;
+		ok &= impostors.getInstancesDrawn() >= culler.getVisibleCount() && impostors.getBytesUploaded() == 0;
+
+		// Each batch's buffer holds its bodies' centers & radii by slot, and
+		// every visible body is in a run drawn from it.
+		int mismatches = 0, undrawn = 0;
+		for (int b = 0; b < store.getBatchCount(); b++) {
+			EntityBatch batch = store.getBatch(b);
+			float[] uploaded = gl.getBufferData(impostors.getBodyBuffer(b).getVbo());
+			boolean[] drawn = drawnSlots(gl, impostors.getBodyBuffer(b).getVbo(), batch.getCount());
+			int[] ranges = culler.getRanges(b);
+			for (int r = 0; r < culler.getRangeCount(b); r++) {
+				for (int i = ranges[r * 2]; i < ranges[r * 2 + 1]; i++) {
+					int at = i * 4;
+					mismatches += uploaded[at] == batch.getX()[i] && uploaded[at + 1] == batch.getY()[i]
+							&& uploaded[at + 2] == batch.getZ()[i]
+							&& uploaded[at + 3] == culler.getUnitRadius() * batch.getScale()[i] ? 0 : 1;
+					undrawn += drawn[i] ? 0 : 1;
+				}
+			}
+		}
+		System.out.println("Instance data mismatches:  " + mismatches + ", visible bodies not drawn:  " + undrawn);
+		ok &= mismatches == 0 && undrawn == 0;
+
+		// Switching back draws meshes again.
+		renderer.setImpostors(false);
+		gl.clear();
+		renderer.render(light, camera, store);
+		ok &= gl.count("glDrawArraysInstanced") == 0 && gl.count("glDrawElementsInstanced") == MODELS;
+
+		// The shaders' math, sphere by sphere.
+		Matrix4f projection = impostors.getProjectionMatrix();
+		int uncovered = 0, offSurface = 0, badDepth = 0, badLighting = 0;
+		for (int s = 0; s < SPHERES; s++) {
+			camera.getPosition().set(random.nextFloat() * 10, random.nextFloat() * 10, random.nextFloat() * 10);
+			camera.setYaw(random.nextFloat() * 360);
+			camera.setPitch(random.nextFloat() * 60 - 30);
+			Matrix4f view = Maths.createViewMatrix(camera);
+			float radius = 0.05f + random.nextFloat() * 2;
+			// In view space, somewhere in front of the camera, & in the world.
+			Vector3f center = new Vector3f((random.nextFloat() - 0.5f) * 4, (random.nextFloat() - 0.5f) * 4,
+					-radius - 1 - random.nextFloat() * 50);
+			Vector3f worldCenter = transform(Matrix4f.invert(view, null), center, 1);
+			Vector3f worldLight = new Vector3f(random.nextFloat() * 20, random.nextFloat() * 20, 5);
+
+			// Quad corners, as impostorVertexShader places them, projected.
+			float distance = center.length();
+			Vector3f forward = scaled(center, 1 / distance);
+			Vector3f right = Vector3f.cross(forward,
+					Math.abs(forward.y) < 0.99f ? new Vector3f(0, 1, 0) : new Vector3f(1, 0, 0), null);
+			right.normalise();
+			Vector3f up = Vector3f.cross(right, forward, null);
+			float near = distance - radius;
+			float halfSize = near * radius / (float) Math.sqrt(distance * distance - radius * radius);
+			float[][] quad = new float[4][];
+			float[][] corners = { { -1, -1 }, { 1, -1 }, { 1, 1 }, { -1, 1 } };
+			for (int c = 0; c < 4; c++) {
+				Vector3f corner = Vector3f.add(scaled(forward, near), Vector3f.add(scaled(right,
+						halfSize * corners[c][0]), scaled(up, halfSize * corners[c][1]), null), null);
+				quad[c] = project(projection, corner);
+			}
+
+			// The silhouette:  where rays from the eye graze the sphere.
+			Vector3f rimCenter = scaled(center, 1 - radius * radius / (distance * distance));
+			float rimRadius = radius * (float) Math.sqrt(distance * distance - radius * radius) / distance;
+			for (int p = 0; p < SILHOUETTE_POINTS; p++) {
+				double angle = 2 * Math.PI * p / SILHOUETTE_POINTS;
+				Vector3f rim = Vector3f.add(rimCenter, Vector3f.add(scaled(right, rimRadius * (float) Math.cos(angle)),
+						scaled(up, rimRadius * (float) Math.sin(angle)), null), null);
+				uncovered += inside(quad, project(projection, rim)) ? 0 : 1;
+			}
+
+			// Ray-cast through a random point of the quad, as
+			// impostorFragmentShader does.
+			Vector3f onQuad = Vector3f.add(scaled(forward, near), Vector3f.add(scaled(right,
+					halfSize * (random.nextFloat() * 1.4f - 0.7f)), scaled(up, halfSize * (random.nextFloat() * 1.4f
+							- 0.7f)), null), null);
+			Vector3f ray = scaled(onQuad, 1 / onQuad.length());
+			float along = Vector3f.dot(ray, center);
+			Vector3f miss = Vector3f.sub(center, scaled(ray, along), null);
+			float discriminant = radius * radius - Vector3f.dot(miss, miss);
+			if (discriminant < 0) {
+				continue;
+			}
+			Vector3f hit = scaled(ray, along - (float) Math.sqrt(discriminant));
+			Vector3f normal = scaled(Vector3f.sub(hit, center, null), 1 / radius);
+			offSurface += Math.abs(normal.length() - 1) < TOLERANCE && Vector3f.dot(normal, ray) <= TOLERANCE ? 0 : 1;
+			// Depth is the hit's, between the sphere's nearest depth & its center's.
+			float depth = project(projection, hit)[2];
+			float nearest = project(projection, new Vector3f(center.x, center.y, center.z + radius))[2];
+			badDepth += depth >= nearest - TOLERANCE && depth <= project(projection, center)[2] + TOLERANCE ? 0 : 1;
+
+			// fragmentShader's lighting, in world space.
+			Vector3f worldHit = transform(Matrix4f.invert(view, null), hit, 1);
+			Vector3f worldNormal = scaled(Vector3f.sub(worldHit, worldCenter, null), 1 / radius);
+			float[] expected = lighting(worldNormal, Vector3f.sub(worldLight, worldHit, null),
+					Vector3f.sub(camera.getPosition(), worldHit, null));
+			float[] actual = lighting(normal, Vector3f.sub(transform(view, worldLight, 1), hit, null),
+					scaled(hit, -1));
+			badLighting += Math.abs(expected[0] - actual[0]) < TOLERANCE
+					&& Math.abs(expected[1] - actual[1]) < TOLERANCE ? 0 : 1;
+		}
+		System.out.println(String.format("%d spheres:  %d silhouette points off the quad, %d hits off the near "
+				+ "side, %d wrong depths, %d lighting differences", SPHERES, uncovered, offSurface, badDepth,
+				badLighting));
+		ok &= uncovered == 0 && offSurface == 0 && badDepth == 0 && badLighting == 0;
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Slots of the recorded draws made with a buffer bound, found from where
+	// the instance attribute pointed.
+	private static boolean[] drawnSlots(RecordingGLCalls gl, int vbo, int count) {
+		boolean[] drawn = new boolean[count];
+		List<Object[]> binds = gl.getArguments("glBindBuffer");
+		List<Object[]> pointers = gl.getArguments("glVertexAttribPointer");
+		List<Object[]> draws = gl.getArguments("glDrawArraysInstanced");
+		int bind = 0, pointer = 0, draw = 0, bound = 0;
+		long offset = 0;
+		for (String call : gl.getCalls()) {
+			if (call.equals("glBindBuffer")) {
+				bound = (Integer) binds.get(bind++)[1];
+			} else if (call.equals("glVertexAttribPointer")) {
+				offset = (Long) pointers.get(pointer++)[5];
+			} else if (call.equals("glDrawArraysInstanced")) {
+				int instances = (Integer) draws.get(draw++)[3];
+				if (bound == vbo) {
+					int first = (int) (offset / BodyBuffer.BODY_STRIDE);
+					Arrays.fill(drawn, first, Math.min(count, first + instances), true);
+				}
+			}
+		}
+		return drawn;
+	}
+
+	// Diffuse brightness & specular factor, as fragmentShader works them out.
+	private static float[] lighting(Vector3f normal, Vector3f toLight, Vector3f toCamera) {
+		Vector3f unitNormal = scaled(normal, 1 / normal.length());
+		Vector3f unitLight = scaled(toLight, 1 / toLight.length());
+		float brightness = Math.max(Vector3f.dot(unitNormal, unitLight), 0.2f);
+		// reflect(-light, normal) = -light + 2 (normal . light) normal
+		Vector3f reflected = Vector3f.add(scaled(unitLight, -1),
+				scaled(unitNormal, 2 * Vector3f.dot(unitNormal, unitLight)), null);
+		float specular = Math.max(Vector3f.dot(reflected, scaled(toCamera, 1 / toCamera.length())), 0);
+		return new float[] { brightness, (float) Math.pow(specular, SHINE_DAMPER) };
+	}
+
+	// True if a projected point lies in the projected quad (corners in order).
+	private static boolean inside(float[][] quad, float[] point) {
+		for (int c = 0; c < 4; c++) {
+			float[] a = quad[c], b = quad[(c + 1) % 4];
+			float edgeX = b[0] - a[0], edgeY = b[1] - a[1];
+			// Relative to the edge, as the silhouette touches each edge.
+			float cross = (edgeX * (point[1] - a[1]) - edgeY * (point[0] - a[0])) / (edgeX * edgeX + edgeY * edgeY);
+			if (cross < -TOLERANCE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Normalized device coordinates of a point in view space.
+	private static float[] project(Matrix4f projection, Vector3f point) {
+		Vector4f clip = Matrix4f.transform(projection, new Vector4f(point.x, point.y, point.z, 1), null);
+		return new float[] { clip.x / clip.w, clip.y / clip.w, clip.z / clip.w };
+	}
+
+	private static Vector3f transform(Matrix4f matrix, Vector3f point, float w) {
+		Vector4f result = Matrix4f.transform(matrix, new Vector4f(point.x, point.y, point.z, w), null);
+		return new Vector3f(result.x, result.y, result.z);
+	}
+
+	private static Vector3f scaled(Vector3f vector, float factor) {
+		return new Vector3f(vector.x * factor, vector.y * factor, vector.z * factor);
+	}
+
+}
@@ -0,0 +1,443 @@
+package engineTester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import entities.Camera;
+import entities.Entity;
+import entities.EntityBatch;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.FrustumCuller;
+import renderEngine.InstanceBuffer;
+import renderEngine.InstancedRenderer;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import renderEngine.RenderQueue;
+import renderEngine.Renderer;
+import shaders.InstancedShader;
+import shaders.StaticShader;
+import textures.ModelTexture;
+import toolbox.Maths;
+
+/*
+ * File:	InstancingCheck.java
+ * Purpose:	Renders a frame of entities through the instanced path with the
+ * 			GL calls recorded instead of executed, and checks that each
+ * 			TexturedModel is drawn by exactly one glDrawElementsInstanced()
+ * 			with its VAO & texture bound once, that a frame with a few
+ * 			entities turned only sends theirs & the slots drawn, that every
+ * 			entity's position, scale & rotation are in its batch's instance
+ * 			buffer at the slots its draw's attribute pointer says, nearest
+ * 			first, and that the transformation the vertex shader builds
+ * 			matches Maths.createTransformationMatrix().  Checks that render queues
+ * 			number GL names densely whatever their size, and that both
+ * 			renderers draw models whose VAO & texture names don't fit a key's
+ * 			bits, and that two models sharing a mesh & texture name, their
+ * 			entities mixed in depth, still draw with one call each.  Also
+ * 			checks that EntityStore
+ * 			handles keep pointing at the right entity as others are removed.
+ * 			Exits with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	InstancingCheck [numEntities]
+ */
+public class InstancingCheck {
+
+	private static final int MODELS = 3;
+	private static final int FRAMES = 20;
+	// Every this many entities is turned between two frames.
+	private static final int TURN_EVERY = 100;
+	private static final float TOLERANCE = 1e-4f;
+	// Depths closer than this may share a sort key, so keep their order.
+	private static final float DEPTH_STEP = (Renderer.FAR_PLANE - Renderer.NEAR_PLANE)
+			/ ((1 << RenderQueue.DEPTH_BITS) - 1);
+
+	// GL names of VAOs & textures far beyond a key's bits, as a long session
+	// or some drivers hand out.
+	private static final int[] LARGE_NAMES = { 4096, 70000, 1 << 24, 1 << 30, Integer.MAX_VALUE };
+
+	// Orders instance data float by float.
+	private static final Comparator<float[]> BY_FLOATS = new Comparator<float[]>() {
+		@Override
+		public int compare(float[] a, float[] b) {
+			for (int i = 0; i < a.length; i++) {
+				int order = Float.compare(a[i], b[i]);
+				if (order != 0) {
+					return order;
+				}
+			}
+			return 0;
+		}
+	};
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		boolean ok = true;
+
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		InstancedRenderer instanced = renderer.getInstancedRenderer();
+		// Draw everything, in the order added; CullingCheck covers culling.
+		renderer.getCuller().setEnabled(false);
+		TexturedModel[] models = new TexturedModel[MODELS];
+		for (int m = 0; m < MODELS; m++) {
+			models[m] = new TexturedModel(new RawModel(100 + m, 960 * (m + 1)), new ModelTexture(200 + m));
+		}
+		List<Entity> entities = new ArrayList<Entity>();
+		Random random = new Random(42);
+		for (int i = 0; i < count; i++) {
+			entities.add(new Entity(models[random.nextInt(MODELS)],
+					new Vector3f(random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10, -random.nextFloat() * 30),
+					random.nextFloat() * 360, random.nextFloat() * 360, random.nextFloat() * 360,
+					0.05f + random.nextFloat() * 0.2f));
+		}
+		EntityStore store = new EntityStore();
+		int[] handles = new int[count];
+		for (int i = 0; i < count; i++) {
+			handles[i] = store.add(entities.get(i));
+		}
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		Camera camera = new Camera();
+
+		gl.clear();
+		renderer.render(light, camera, store);
+		int calls = gl.getCalls().size();
+		int instancedDraws = gl.count("glDrawElementsInstanced");
+		System.out.println(String.format("%d entities, %d models:  %d GL calls, %d instanced draws, "
+				+ "%d glDrawElements, %d matrix uploads (per-entity path:  %d draws & %d matrix uploads)", count,
+				MODELS, calls, instancedDraws, gl.count("glDrawElements"), gl.count("glUniformMatrix4"), count,
+				count + 1));
+		ok &= instancedDraws == MODELS && gl.count("glDrawElements") == 0;
+		// The instance data written through one mapping, fenced once drawn.
+		ok &= gl.count("glUniformMatrix4") == 1 && gl.count("glMapBufferRange") == 1
+				&& gl.count("glFenceSync") == 1;
+		ok &= instanced.getDrawCalls() == MODELS && instanced.getInstancesDrawn() == count;
+		System.out.println(String.format("State changes:  %d (%d VAO binds, %d texture binds)",
+				instanced.getStateChanges(), gl.count("glBindVertexArray"), textureBinds(gl, GL11.GL_TEXTURE_2D)));
+		// One VAO & one texture per model, & the VAO unbound at the end.
+		ok &= instanced.getStateChanges() == 2 * MODELS && gl.count("glBindVertexArray") == MODELS + 1
+				&& textureBinds(gl, GL11.GL_TEXTURE_2D) == MODELS;
+		// All of every batch sent once.
+		ok &= instanced.getInstanceBytesUploaded() == (long) count * InstanceBuffer.INSTANCE_STRIDE;
+
+		// Turn a few entities; the next frame only sends them & the slots.
+		int turned = 0;
+		for (int i = 0; i < count; i += TURN_EVERY) {
+			store.increaseRotation(handles[i], 0, 5, 0);
+			entities.get(i).increaseRotation(0, 5, 0);
+			turned++;
+		}
+		gl.clear();
+		renderer.render(light, camera, store);
+		boolean ranges = true;
+		long sent = 0;
+		for (int b = 0; b < store.getBatchCount(); b++) {
+			ranges &= !instanced.getInstanceBuffer(b).isFullUpload();
+			sent += instanced.getInstanceBuffer(b).getBytesUploaded();
+		}
+		System.out.println(String.format("%d entities turned:  %d bytes of instance data sent, %d bytes of slots, "
+				+ "%d instance data binds", turned, instanced.getInstanceBytesUploaded(),
+				instanced.getSlotBytesUploaded(), textureBinds(gl, GL31.GL_TEXTURE_BUFFER)));
+		ok &= ranges && sent == instanced.getInstanceBytesUploaded()
+				&& sent >= (long) turned * InstanceBuffer.INSTANCE_STRIDE
+				&& sent < (long) count * InstanceBuffer.INSTANCE_STRIDE / 4
+				&& instanced.getSlotBytesUploaded() == (long) count * InstancedRenderer.SLOT_STRIDE
+				&& renderer.getBytesUploaded() == sent + instanced.getSlotBytesUploaded()
+				&& textureBinds(gl, GL31.GL_TEXTURE_BUFFER) == MODELS;
+
+		int unsorted = checkQueueSort(new Random(7), count);
+		System.out.println("Render queue keys out of order or unstable:  " + unsorted);
+		ok &= unsorted == 0;
+
+		ok &= checkLargeNames(random, count);
+		ok &= checkSharedMesh(random, count);
+
+		int mismatches = checkInstanceData(gl, instanced, models, entities);
+		System.out.println("Instance data mismatches:  " + mismatches);
+		ok &= mismatches == 0;
+
+		float worst = 0;
+		for (int i = 0; i < Math.min(count, 1000); i++) {
+			worst = Math.max(worst, shaderTransformError(entities.get(i)));
+		}
+		System.out.println(String.format("Shader transform vs Maths, largest difference:  %.2e", worst));
+		ok &= worst < TOLERANCE;
+
+		// CPU time of a frame, now that it no longer grows with matrix math.
+		long start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			gl.clear();
+			store.increaseRotation(0, 0.5f, 0);
+			renderer.render(light, camera, store);
+		}
+		System.out.println(String.format("CPU time per frame:  %.2f ms",
+				(System.nanoTime() - start) / 1e6 / FRAMES));
+
+		// Remove every third entity; the rest must still be found by handle.
+		int wrong = 0;
+		for (int i = 0; i < count; i += 3) {
+			store.remove(handles[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			if (i % 3 == 0) {
+				wrong += store.contains(handles[i]) ? 1 : 0;
+				continue;
+			}
+			Entity entity = entities.get(i);
+			EntityBatch batch = store.batchOf(handles[i]);
+			int slot = store.getSlot(handles[i]);
+			wrong += batch.getModel() == entity.getModel() && batch.getX()[slot] == entity.getPosition().x
+					&& batch.getScale()[slot] == entity.getScale() && batch.getHandles()[slot] == handles[i] ? 0 : 1;
+		}
+		System.out.println(String.format("After removing every third entity:  %d left, %d wrong handles",
+				store.getCount(), wrong));
+		ok &= wrong == 0 && store.getCount() == count - (count + 2) / 3;
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Sorts random keys (from a few states, many sharing a depth) through a
+	// RenderQueue & counts those out of order, not carrying their value, or
+	// (for equal keys) not in the order they were added.
+	private static int checkQueueSort(Random random, int count) {
+		RenderQueue queue = new RenderQueue();
+		queue.clear(new Camera());
+		long[] added = new long[count];
+		for (int i = 0; i < count; i++) {
+			added[i] = RenderQueue.key(random.nextInt(2), 1 + random.nextInt(300), 1 + random.nextInt(300),
+					random.nextInt(1000));
+			queue.add(added[i], i);
+		}
+		queue.sort();
+		long[] keys = queue.getKeys();
+		int[] values = queue.getValues();
+		int wrong = queue.size() == count ? 0 : 1;
+		for (int i = 0; i < queue.size(); i++) {
+			wrong += keys[i] == added[values[i]] ? 0 : 1;
+			if (i > 0 && (keys[i] < keys[i - 1] || keys[i] == keys[i - 1] && values[i] < values[i - 1])) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+
+	// Checks that a RenderQueue numbers names from 0 as first seen, the same
+	// each time until cleared, & renders entities of models with LARGE_NAMES
+	// VAOs & textures through both renderers, each model in its own state.
+	private static boolean checkLargeNames(Random random, int count) {
+		RenderQueue queue = new RenderQueue();
+		queue.clear(new Camera());
+		boolean dense = true;
+		int names = 1000;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < LARGE_NAMES.length; i++) {
+				dense &= queue.textureIndex(LARGE_NAMES[i]) == i && queue.vaoIndex(LARGE_NAMES[i]) == i;
+			}
+			// Enough more to grow the tables.
+			for (int i = 0; i < names; i++) {
+				dense &= queue.vaoIndex(i * 7919 + 1) == LARGE_NAMES.length + i;
+			}
+		}
+		queue.clear(new Camera());
+		dense &= queue.vaoIndex(1) == 0 && queue.vaoIndex(LARGE_NAMES[0]) == 1;
+
+		TexturedModel[] models = new TexturedModel[LARGE_NAMES.length];
+		for (int m = 0; m < models.length; m++) {
+			models[m] = new TexturedModel(new RawModel(LARGE_NAMES[m], 960),
+					new ModelTexture(LARGE_NAMES[LARGE_NAMES.length - 1 - m]));
+		}
+		EntityStore store = new EntityStore();
+		for (int i = 0; i < count; i++) {
+			store.add(models[random.nextInt(models.length)], random.nextFloat() * 20 - 10,
+					random.nextFloat() * 20 - 10, -random.nextFloat() * 30, 0, 0, 0, 0.1f);
+		}
+		Camera camera = new Camera();
+		MasterRenderer master = new MasterRenderer(new RecordingGLCalls(), 16f / 9f);
+		master.getCuller().setEnabled(false);
+		master.render(new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1)), camera, store);
+		InstancedRenderer instanced = master.getInstancedRenderer();
+		boolean instancedOk = instanced.getDrawCalls() == models.length && instanced.getInstancesDrawn() == count
+				&& instanced.getStateChanges() == 2 * models.length;
+
+		Renderer renderer = new Renderer(new StaticShader(new RecordingGLCalls()), new RecordingGLCalls(), 16f / 9f);
+		FrustumCuller culler = new FrustumCuller(1);
+		culler.setEnabled(false);
+		culler.cull(store, renderer.getProjectionMatrix(), camera);
+		renderer.render(store, culler, camera);
+		boolean rendererOk = renderer.getDrawCalls() == count && renderer.getStateChanges() == 2 * models.length;
+		System.out.println(String.format("Large GL names:  numbered densely:  %b, instanced:  %d draws, "
+				+ "%d state changes, per-entity:  %d draws, %d state changes", dense, instanced.getDrawCalls(),
+				instanced.getStateChanges(), renderer.getDrawCalls(), renderer.getStateChanges()));
+		return dense && instancedOk && rendererOk;
+	}
+
+	// Renders entities of two models sharing a mesh & texture name but not
+	// their shine, mixed in depth, & checks that each model's are still one
+	// draw, binding the VAO & texture once & each batch's instance data once.
+	private static boolean checkSharedMesh(Random random, int count) {
+		RawModel mesh = new RawModel(300, 960);
+		ModelTexture dull = new ModelTexture(400), shiny = new ModelTexture(400);
+		shiny.setShineDamper(10);
+		shiny.setReflectivity(1);
+		TexturedModel[] models = { new TexturedModel(mesh, dull), new TexturedModel(mesh, shiny) };
+		EntityStore store = new EntityStore();
+		for (int i = 0; i < count; i++) {
+			store.add(models[random.nextInt(models.length)], random.nextFloat() * 20 - 10,
+					random.nextFloat() * 20 - 10, -random.nextFloat() * 30, 0, 0, 0, 0.1f);
+		}
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer master = new MasterRenderer(gl, 16f / 9f);
+		master.getCuller().setEnabled(false);
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		Camera camera = new Camera();
+		// The second frame, as the first also binds each buffer texture to
+		// make it.
+		master.render(light, camera, store);
+		gl.clear();
+		master.render(light, camera, store);
+		InstancedRenderer instanced = master.getInstancedRenderer();
+		System.out.println(String.format("Two models sharing a mesh & texture name:  %d draws, %d state changes, "
+				+ "%d texture binds, %d instance data binds", instanced.getDrawCalls(), instanced.getStateChanges(),
+				textureBinds(gl, GL11.GL_TEXTURE_2D), textureBinds(gl, GL31.GL_TEXTURE_BUFFER)));
+		// One VAO bind & one change of shine per model; the texture is bound
+		// at most once, as the state cache may know it still is.
+		return instanced.getDrawCalls() == models.length && instanced.getInstancesDrawn() == count
+				&& instanced.getStateChanges() == 1 + models.length && textureBinds(gl, GL11.GL_TEXTURE_2D) <= 1
+				&& textureBinds(gl, GL31.GL_TEXTURE_BUFFER) == models.length;
+	}
+
+	// # of binds of a texture (not 0) to a target in the recorded calls.
+	private static int textureBinds(RecordingGLCalls gl, int target) {
+		int binds = 0;
+		for (Object[] arguments : gl.getArguments("glBindTexture")) {
+			binds += (Integer) arguments[0] == target && (Integer) arguments[1] != 0 ? 1 : 0;
+		}
+		return binds;
+	}
+
+	// Walks the recorded frame:  for each instanced draw, finds the VAO that
+	// was bound, the buffer texture bound for the instance data & where the
+	// slot attribute pointed, and compares the instance data in the slots
+	// written there with the entities of that VAO's model, in order.
+	private static int checkInstanceData(RecordingGLCalls gl, InstancedRenderer instanced, TexturedModel[] models,
+			List<Entity> entities) {
+		float[] slots = gl.getBufferData(instanced.getSlotBuffer().getVbo());
+		float[] uploaded = new float[0];
+		List<String> calls = gl.getCalls();
+		int mismatches = 0;
+		int vao = 0, unit = GL13.GL_TEXTURE0;
+		long offset = 0;
+		List<Object[]> binds = gl.getArguments("glBindVertexArray");
+		List<Object[]> units = gl.getArguments("glActiveTexture");
+		List<Object[]> textures = gl.getArguments("glBindTexture");
+		List<Object[]> pointers = gl.getArguments("glVertexAttribIPointer");
+		List<Object[]> draws = gl.getArguments("glDrawElementsInstanced");
+		int bind = 0, activate = 0, texture = 0, pointer = 0, draw = 0;
+		for (String call : calls) {
+			if (call.equals("glBindVertexArray")) {
+				vao = (Integer) binds.get(bind++)[0];
+			} else if (call.equals("glActiveTexture")) {
+				unit = (Integer) units.get(activate++)[0];
+			} else if (call.equals("glBindTexture")) {
+				Object[] arguments = textures.get(texture++);
+				if ((Integer) arguments[0] == GL31.GL_TEXTURE_BUFFER && (Integer) arguments[1] != 0) {
+					mismatches += unit == GL13.GL_TEXTURE0 + InstancedShader.INSTANCE_DATA_UNIT ? 0 : 1;
+					uploaded = gl.getBufferData(gl.getTextureBuffer((Integer) arguments[1]));
+				}
+			} else if (call.equals("glVertexAttribIPointer")) {
+				Object[] arguments = pointers.get(pointer++);
+				if ((Integer) arguments[0] == InstancedShader.INSTANCE_SLOT_ATTRIBUTE) {
+					offset = (Long) arguments[4];
+				}
+			} else if (call.equals("glDrawElementsInstanced")) {
+				Object[] arguments = draws.get(draw++);
+				TexturedModel model = models[vao - 100];
+				mismatches += (Integer) arguments[1] == model.getRawModel().getVertexCount() ? 0 : 1;
+				// The draw's instances, which must be its model's entities
+				// (in any order) & go nearest first.
+				List<float[]> expected = new ArrayList<float[]>();
+				for (Entity entity : entities) {
+					if (entity.getModel() == model) {
+						expected.add(new float[] { entity.getPosition().x, entity.getPosition().y,
+								entity.getPosition().z, entity.getScale(), entity.getRotX(), entity.getRotY(),
+								entity.getRotZ() });
+					}
+				}
+				int instances = (Integer) arguments[4];
+				List<float[]> drawn = new ArrayList<float[]>();
+				int at = (int) (offset / 4);
+				for (int i = 0; i < instances && at + i < slots.length; i++) {
+					int slot = Float.floatToRawIntBits(slots[at + i]) * InstanceBuffer.FLOATS_PER_INSTANCE;
+					if (slot < 0 || slot + 7 > uploaded.length) {
+						mismatches++;
+						break;
+					}
+					drawn.add(Arrays.copyOfRange(uploaded, slot, slot + 7));
+					// The camera looks down -z from the origin; depths are
+					// clamped to the near plane.
+					if (i > 0 && Math.max(-drawn.get(i)[2], Renderer.NEAR_PLANE) < Math.max(-drawn.get(i - 1)[2],
+							Renderer.NEAR_PLANE) - DEPTH_STEP) {
+						mismatches++;
+					}
+				}
+				Collections.sort(expected, BY_FLOATS);
+				Collections.sort(drawn, BY_FLOATS);
+				for (int i = 0; i < Math.min(expected.size(), drawn.size()); i++) {
+					mismatches += Arrays.equals(expected.get(i), drawn.get(i)) ? 0 : 1;
+				}
+				mismatches += Math.abs(expected.size() - drawn.size());
+			}
+		}
+		return mismatches + (draw == models.length ? 0 : 1);
+	}
+
+	// Largest difference between a few vertices moved by the transformation
+	// built as in instancedVertexShader, and by the matrix the per-entity
+	// path loads.
+	private static float shaderTransformError(Entity entity) {
+		Matrix4f reference = Maths.createTransformationMatrix(entity.getPosition(), entity.getRotX(),
+				entity.getRotY(), entity.getRotZ(), entity.getScale());
+		float[][] vertices = { { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 }, { 0.3f, -0.7f, 0.2f } };
+		float worst = 0;
+		for (float[] vertex : vertices) {
+			Vector4f expected = Matrix4f.transform(reference, new Vector4f(vertex[0], vertex[1], vertex[2], 1), null);
+			float[] actual = shaderTransform(entity, vertex);
+			worst = Math.max(worst, Math.abs(actual[0] - expected.x));
+			worst = Math.max(worst, Math.abs(actual[1] - expected.y));
+			worst = Math.max(worst, Math.abs(actual[2] - expected.z));
+		}
+		return worst;
+	}
+
+	// rotate_x * rotate_y * rotate_z * scale * vertex + position, as the
+	// vertex shader does it.
+	private static float[] shaderTransform(Entity entity, float[] vertex) {
+		float[] v = { vertex[0] * entity.getScale(), vertex[1] * entity.getScale(), vertex[2] * entity.getScale() };
+		double z = Math.toRadians(entity.getRotZ());
+		v = new float[] { (float) (Math.cos(z) * v[0] - Math.sin(z) * v[1]),
+				(float) (Math.sin(z) * v[0] + Math.cos(z) * v[1]), v[2] };
+		double y = Math.toRadians(entity.getRotY());
+		v = new float[] { (float) (Math.cos(y) * v[0] + Math.sin(y) * v[2]), v[1],
+				(float) (-Math.sin(y) * v[0] + Math.cos(y) * v[2]) };
+		double x = Math.toRadians(entity.getRotX());
+		v = new float[] { v[0], (float) (Math.cos(x) * v[1] - Math.sin(x) * v[2]),
+				(float) (Math.sin(x) * v[1] + Math.cos(x) * v[2]) };
+		Vector3f position = entity.getPosition();
+		return new float[] { v[0] + position.x, v[1] + position.y, v[2] + position.z };
+	}
+
+}
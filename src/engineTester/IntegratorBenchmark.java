@@ -0,0 +1,104 @@
+package engineTester;
+
+import simulation.AarsethCriterion;
+import simulation.DirectSummationSolver;
+import simulation.HermiteIntegrator;
+import simulation.InitialConditions;
+import simulation.Integrator;
+import simulation.LeapfrogIntegrator;
+import simulation.NBodySystem;
+
+/*
+ * File:	IntegratorBenchmark.java
+ * Purpose:	Counts the force evaluations the integrators need for a clustered
+ * 			system:  a Plummer sphere in which some bodies are replaced by
+ * 			tight binaries.  Runs Hermite once with shared timesteps (every
+ * 			body on the shortest step) and once with block timesteps, plus a
+ * 			fixed-step leapfrog for reference, and reports the relative
+ * 			energy error of each.  Needs no display.
+ *
+ * 			Usage:	IntegratorBenchmark [numBodies] [numBinaries] [endTime]
+ */
+public class IntegratorBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SOFTENING = 1e-4;
+	private static final double BINARY_SEPARATION = 0.01;
+	private static final double MAX_TIMESTEP = 0.125;
+	private static final double ETA = 0.02;
+	private static final double LEAPFROG_TIMESTEP = 1.0 / 1024;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+		int binaries = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		double endTime = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+
+		System.out.println("N = " + count + ", " + binaries + " binaries, t = " + endTime);
+		System.out.println("integrator           force evaluations   per body-time   energy error        ms");
+
+		HermiteIntegrator shared = new HermiteIntegrator(GRAVITY, SOFTENING, MAX_TIMESTEP, new AarsethCriterion(ETA));
+		shared.setSharedTimesteps(true);
+		long sharedEvaluations = run("Hermite, shared", shared, count, binaries, endTime);
+
+		HermiteIntegrator block = new HermiteIntegrator(GRAVITY, SOFTENING, MAX_TIMESTEP, new AarsethCriterion(ETA));
+		long blockEvaluations = run("Hermite, block", block, count, binaries, endTime);
+
+		run("leapfrog, dt=1/1024", new LeapfrogIntegrator(new DirectSummationSolver(GRAVITY, SOFTENING),
+				LEAPFROG_TIMESTEP), count, binaries, endTime);
+
+		System.out.println(String.format("Block timesteps need %.1fx fewer force evaluations than shared ones.",
+				(double) sharedEvaluations / blockEvaluations));
+	}
+
+	// Integrates a fresh copy of the test system to 'endTime' and prints a row.
+	private static long run(String name, Integrator integrator, int count, int binaries, double endTime) {
+		NBodySystem system = createSystem(count, binaries);
+		double startEnergy = energy(system);
+		long start = System.nanoTime();
+		integrator.advanceTo(system, endTime);
+		double millis = (System.nanoTime() - start) / 1e6;
+		double error = Math.abs((energy(system) - startEnergy) / startEnergy);
+		long evaluations = integrator.getForceEvaluations();
+		System.out.println(String.format("%-20s %18d %15.0f %14.2e %9.0f", name, evaluations,
+				evaluations / (count * endTime), error, millis));
+		return evaluations;
+	}
+
+	// Plummer sphere whose first 'binaries' bodies each become a circular
+	// pair, moving with the velocity the single body had.
+	private static NBodySystem createSystem(int count, int binaries) {
+		NBodySystem system = InitialConditions.plummerSphere(count, 1, 1, GRAVITY, 42);
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] mass = system.getMass();
+		for (int b = 0; b < binaries && 2 * b + 1 < count; b++) {
+			int i = 2 * b, j = i + 1;
+			double m = mass[i];
+			double half = BINARY_SEPARATION / 2;
+			double speed = Math.sqrt(GRAVITY * 2 * m / BINARY_SEPARATION) / 2;
+			system.setBody(j, x[i] - half, y[i], z[i], vx[i], vy[i] - speed, vz[i], m);
+			system.setBody(i, x[i] + half, y[i], z[i], vx[i], vy[i] + speed, vz[i], m);
+		}
+		InitialConditions.moveToCenterOfMassFrame(system);
+		return system;
+	}
+
+	// Total kinetic plus (softened) potential energy.
+	private static double energy(NBodySystem system) {
+		int n = system.getCount();
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] mass = system.getMass();
+		double eps2 = SOFTENING * SOFTENING;
+		double kinetic = 0, potential = 0;
+		for (int i = 0; i < n; i++) {
+			kinetic += 0.5 * mass[i] * (vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i]);
+			for (int j = i + 1; j < n; j++) {
+				double dx = x[j] - x[i], dy = y[j] - y[i], dz = z[j] - z[i];
+				potential -= GRAVITY * mass[i] * mass[j] / Math.sqrt(dx * dx + dy * dy + dz * dz + eps2);
+			}
+		}
+		return kinetic + potential;
+	}
+
+}
@@ -0,0 +1,69 @@
+package engineTester;
+
+import simulation.DirectSummationSolver;
+import simulation.ForceSolver;
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+import simulation.VectorizedDirectSolver;
+
+/*
+ * File:	KernelBenchmark.java
+ * Purpose:	Checks the vectorized direct-summation kernel against the scalar
+ * 			one and compares their single-core wall time.  Needs no display.
+ * 			Exits with an error if the kernels disagree by more than single
+ * 			precision round-off allows.
+ *
+ * 			Usage:	KernelBenchmark [numBodies]
+ */
+public class KernelBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SOFTENING = 0.01;
+	private static final int RUNS = 5;
+	// Largest relative error accepted from the float kernel.
+	private static final double TOLERANCE = 1e-3;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		NBodySystem system = InitialConditions.plummerSphere(count, 1, 1, GRAVITY, 42);
+
+		DirectSummationSolver scalar = new DirectSummationSolver(GRAVITY, SOFTENING);
+		double scalarMillis = time(scalar, system);
+		double[] refX = system.getAx().clone();
+		double[] refY = system.getAy().clone();
+		double[] refZ = system.getAz().clone();
+
+		double vectorMillis = time(new VectorizedDirectSolver(GRAVITY, SOFTENING), system);
+		double[] errors = new double[count];
+		ForceAccuracyBenchmark.relativeErrors(system, refX, refY, refZ, errors);
+		double worst = 0;
+		for (double error : errors) {
+			worst = Math.max(worst, error);
+		}
+
+		// Both kernels compute the same accelerations, so wall time is the
+		// fair comparison, however many pairs each evaluates to get there.
+		System.out.println(String.format("N = %d", count));
+		System.out.println(String.format("Scalar:      %8.1f ms", scalarMillis));
+		System.out.println(String.format("Vectorized:  %8.1f ms  (%.2fx the scalar kernel's speed)", vectorMillis,
+				scalarMillis / vectorMillis));
+		System.out.println(String.format("Largest relative error:  %.2e", worst));
+		if (!(worst <= TOLERANCE)) {
+			System.err.println("ERROR:  VECTORIZED KERNEL DISAGREES WITH SCALAR KERNEL!!!");
+			System.exit(1);
+		}
+	}
+
+	// Best of a few runs, in milliseconds, after one warm-up run.
+	private static double time(ForceSolver solver, NBodySystem system) {
+		solver.computeAccelerations(system);
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			solver.computeAccelerations(system);
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,161 @@
+package engineTester;
+
+import java.util.Random;
+
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
+import entities.Light;
+import models.LodModel;
+import models.MeshData;
+import models.RawModel;
+import models.SphereGenerator;
+import models.TexturedModel;
+import renderEngine.DisplayManager;
+import renderEngine.FrustumCuller;
+import renderEngine.InstancedRenderer;
+import renderEngine.LevelOfDetail;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import textures.ModelTexture;
+
+/*
+ * File:	LodCheck.java
+ * Purpose:	Checks the levels of detail of the body spheres:  that generated
+ * 			spheres face outward with unit normals, that a body hovering at
+ * 			a level threshold doesn't flicker between meshes, that each
+ * 			visible body is drawn once at a level its size on screen allows,
+ * 			and prints how many vertices a swarm costs near & far, with &
+ * 			without levels of detail.  Exits with 1 if any check fails.
+ * 			Needs no display.
+ *
+ * 			Usage:	LodCheck [numBodies]
+ */
+public class LodCheck {
+
+	private static final int[][] SPHERES = { { 8, 12 }, { 5, 8 }, { 3, 4 } };
+	private static final float[] MIN_PIXELS = { 32, 12, 4, 0 };
+	// Indices of the finest level, like the ball model's.
+	private static final int BALL_INDICES = 960;
+	private static final float SIDE = 100;
+	private static final float[] DISTANCES = { 60, 700 };
+	private static final float TOLERANCE = 1e-5f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		boolean ok = true;
+
+		// Generated spheres.
+		RawModel[] levels = new RawModel[SPHERES.length + 1];
+		levels[0] = new RawModel(100, BALL_INDICES);
+		for (int i = 0; i < SPHERES.length; i++) {
+			MeshData mesh = SphereGenerator.generate(SPHERES[i][0], SPHERES[i][1]);
+			int inward = checkSphere(mesh);
+			System.out.println(String.format("Sphere %dx%d:  %d vertices, %d triangles, %d facing inward",
+					SPHERES[i][0], SPHERES[i][1], mesh.getVertexCount(), mesh.getTriangleCount(), inward));
+			ok &= inward == 0;
+			levels[i + 1] = new RawModel(101 + i, mesh.getIndices().length);
+		}
+		LodModel lodModel = new LodModel(levels, MIN_PIXELS);
+
+		// A body wobbling 10% about a threshold keeps its level.
+		int changes = 0, plainChanges = 0;
+		int level = -1, plainLevel = lodModel.levelFor(MIN_PIXELS[1] * 1.1f);
+		for (int frame = 0; frame < 200; frame++) {
+			float pixels = MIN_PIXELS[1] * (1 + 0.1f * (float) Math.sin(frame * 0.7));
+			int next = LevelOfDetail.chooseLevel(lodModel, pixels, level);
+			changes += level >= 0 && next != level ? 1 : 0;
+			level = next;
+			int plain = lodModel.levelFor(pixels);
+			plainChanges += plain != plainLevel ? 1 : 0;
+			plainLevel = plain;
+		}
+		System.out.println(String.format("Level changes at a threshold over 200 frames:  %d with hysteresis, "
+				+ "%d without", changes, plainChanges));
+		ok &= changes == 0 && plainChanges > 0;
+
+		// A swarm seen near & far.
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		InstancedRenderer instanced = renderer.getInstancedRenderer();
+		FrustumCuller culler = renderer.getCuller();
+		TexturedModel model = new TexturedModel(levels[0], new ModelTexture(1));
+		EntityStore store = new EntityStore();
+		Random random = new Random(42);
+		for (int i = 0; i < count; i++) {
+			store.add(model, (random.nextFloat() - 0.5f) * SIDE, (random.nextFloat() - 0.5f) * SIDE,
+					(random.nextFloat() - 0.5f) * SIDE, 0, 0, 0, 0.5f + random.nextFloat());
+		}
+		Camera camera = new Camera();
+		Light light = new Light(camera.getPosition(), camera.getPosition());
+		float pixelsPerUnit = instanced.getProjectionMatrix().m11 * DisplayManager.HEIGHT / 2;
+		System.out.println("distance   visible   draws    vertices (no LOD)   per level");
+		for (float distance : DISTANCES) {
+			camera.getPosition().set(0, 0, distance + SIDE / 2);
+			model.setLevelsOfDetail(null);
+			renderer.render(light, camera, store);
+			long plainVertices = instanced.getVerticesDrawn();
+			model.setLevelsOfDetail(lodModel);
+			gl.clear();
+			// Twice, so levels settle from their hysteresis.
+			renderer.render(light, camera, store);
+			renderer.render(light, camera, store);
+			long vertices = instanced.getVerticesDrawn();
+
+			// Every visible body drawn once, at a level its size allows.
+			LevelOfDetail choice = instanced.getLevelOfDetail(0);
+			EntityBatch batch = store.getBatch(0);
+			StringBuilder perLevel = new StringBuilder();
+			int placed = 0, misplaced = 0;
+			for (int l = 0; l < lodModel.getLevelCount(); l++) {
+				perLevel.append(' ').append(choice.getLevelCount(l));
+				for (int s = choice.getLevelStart(l); s < choice.getLevelStart(l) + choice.getLevelCount(l); s++) {
+					int slot = choice.getSlots()[s];
+					float dx = batch.getX()[slot] - camera.getPosition().x;
+					float dy = batch.getY()[slot] - camera.getPosition().y;
+					float dz = batch.getZ()[slot] - camera.getPosition().z;
+					float pixels = batch.getScale()[slot] * pixelsPerUnit
+							/ (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+					boolean allowed = l >= lodModel.levelFor(pixels * (1 + LevelOfDetail.HYSTERESIS + TOLERANCE))
+							&& l <= lodModel.levelFor(pixels * (1 - LevelOfDetail.HYSTERESIS - TOLERANCE));
+					misplaced += allowed ? 0 : 1;
+					placed++;
+				}
+			}
+			System.out.println(String.format("%8.0f %9d %7d %11d (%d) %s", distance, culler.getVisibleCount(),
+					instanced.getDrawCalls(), vertices, plainVertices, perLevel));
+			ok &= placed == culler.getVisibleCount() && instanced.getInstancesDrawn() == placed && misplaced == 0;
+			ok &= vertices < plainVertices;
+		}
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// # of triangles of a unit sphere facing inward, or with normals that
+	// aren't unit length & radial.
+	private static int checkSphere(MeshData mesh) {
+		float[] p = mesh.getPositions(), n = mesh.getNormals();
+		int[] indices = mesh.getIndices();
+		int bad = 0;
+		for (int v = 0; v < mesh.getVertexCount() * 3; v += 3) {
+			float length = (float) Math.sqrt(n[v] * n[v] + n[v + 1] * n[v + 1] + n[v + 2] * n[v + 2]);
+			if (Math.abs(length - 1) > TOLERANCE || Math.abs(n[v] - p[v]) > TOLERANCE) {
+				bad++;
+			}
+		}
+		for (int t = 0; t < indices.length; t += 3) {
+			int a = indices[t] * 3, b = indices[t + 1] * 3, c = indices[t + 2] * 3;
+			float ux = p[b] - p[a], uy = p[b + 1] - p[a + 1], uz = p[b + 2] - p[a + 2];
+			float vx = p[c] - p[a], vy = p[c + 1] - p[a + 1], vz = p[c + 2] - p[a + 2];
+			float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			// The face normal must point away from the center.
+			if (nx * (p[a] + p[b] + p[c]) + ny * (p[a + 1] + p[b + 1] + p[c + 1])
+					+ nz * (p[a + 2] + p[b + 2] + p[c + 2]) <= 0) {
+				bad++;
+			}
+		}
+		return bad;
+	}
+
+}
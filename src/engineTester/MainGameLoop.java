@@ -1,18 +1,19 @@
 package engineTester;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
-import entities.Entity;
+import entities.EntityStore;
 import entities.Light;
+import models.LodModel;
+import models.MeshOptimizer;
 import models.RawModel;
+import models.SphereGenerator;
 import models.TexturedModel;
 import renderEngine.DisplayManager;
 import renderEngine.Loader;
@@ -20,7 +21,27 @@ import renderEngine.MasterRenderer;
 import renderEngine.OBJLoader;
 import renderEngine.Renderer;
 import shaders.StaticShader;
+import simulation.AarsethCriterion;
+import simulation.BarnesHutSolver;
+import simulation.CollisionSystem;
+import simulation.ElasticBounce;
+import simulation.FastMultipoleSolver;
+import simulation.ForceSolver;
+import simulation.HermiteIntegrator;
+import simulation.InitialConditions;
+import simulation.MergePolicy;
+import simulation.NBodySystem;
+import simulation.ParallelDirectSolver;
+import simulation.PerfectMerge;
+import simulation.Simulation;
 import textures.ModelTexture;
+import trajectory.BinaryTrajectoryReader;
+import trajectory.PrefetchingTrajectorySource;
+import trajectory.SnapshotBuffer;
+import trajectory.SnapshotPlayer;
+import trajectory.TextTrajectoryLoader;
+import trajectory.TrajectoryFormat;
+import trajectory.TrajectorySource;
 
 /*
  * File:	MainGameLoop.java
@@ -36,49 +57,113 @@ public class MainGameLoop {
 	private static Light light;
 	private static Camera camera;
 	private static MasterRenderer renderer;
-	private static List<Entity> entities;
+	private static EntityStore entities;
+	// Handle of each body's entity, in frame order.
+	private static int[] bodyHandles;
+	// Positions (& radii) shown this frame, between the two latest snapshots.
+	private static float[] frame;
 
 	private static int numBodies;
-	private static int bodyRadius;	// Figure out how to use this with scale below!
+	private static int bodyRadius;
+	// Floats per body in each frame, 4 when frames carry radii.
+	private static int floatsPerBody;
 	private static int timesteps;
 
-	private static FileReader input = null;
-	private static Scanner scan = null;
-	
-
-	private static Boolean pdb = true;
+	private static final String TEXT_INPUT_FILE = "gui_input.txt";
+	private static final String BINARY_INPUT_FILE = "gui_input" + TrajectoryFormat.FILE_EXTENSION;
+	// # of timesteps the background reader may decode ahead of the display.
+	private static final int PREFETCH_FRAMES = 16;
+	// Timesteps stepped per second, whatever the frame rate of the display.
+	private static final float PLAYBACK_FPS = 120;
+
+	// Coarser spheres (stacks, slices) drawn for bodies whose radius on
+	// screen falls under the matching number of pixels.  The ball model
+	// (about 320 triangles) is drawn above the first threshold.
+	private static final int[][] LOD_SPHERES = { { 8, 12 }, { 5, 8 }, { 3, 4 } };
+	private static final float[] LOD_MIN_PIXELS = { 32, 12, 4, 0 };
+	// Runs with more bodies than this start out drawn as sphere impostors;
+	// IMPOSTOR_KEY switches between them & meshes.
+	private static final int IMPOSTOR_BODIES = 100000;
+	private static final int IMPOSTOR_KEY = Keyboard.KEY_I;
+	private static boolean impostorKeyDown = false;
+
+	// Settings for runs simulated inside the engine
+	// ("--simulate [numBodies] [hermite] [bounce]").
+	private static final String SIMULATE_OPTION = "--simulate";
+	private static final int SIM_DEFAULT_BODIES = 1000;
+	private static final int SIM_FRAMES = 10000;
+	private static final int SIM_STEPS_PER_FRAME = 1;
+	private static final int SIM_BODY_RADIUS = 5;
+	private static final double SIM_GRAVITY = 1;
+	private static final double SIM_TOTAL_MASS = 1;
+	private static final double SIM_SCALE_RADIUS = 3;
+	private static final double SIM_SOFTENING = 0.05;
+	private static final double SIM_TIMESTEP = 0.01;
+	// Above this many bodies direct summation is too slow, so use Barnes-Hut.
+	private static final int SIM_DIRECT_LIMIT = 20000;
+	private static final double SIM_THETA = 0.6;
+	// Above this many, even Barnes-Hut is too slow, so use the multipole solver.
+	private static final int SIM_MULTIPOLE_LIMIT = 1000000;
+	private static final int SIM_MULTIPOLE_ORDER = 4;
+	private static final double SIM_MULTIPOLE_THETA = 0.7;
+	// Direct-summation Hermite with block timesteps instead of leapfrog.
+	private static final String SIM_HERMITE_OPTION = "hermite";
+	private static final double SIM_HERMITE_ETA = 0.02;
+	// Colliding bodies merge, unless this option makes them bounce instead.
+	private static final String SIM_BOUNCE_OPTION = "bounce";
+
+	// Reads ahead when replaying a file, or null when simulating.
+	private static PrefetchingTrajectorySource prefetcher = null;
+	// Steps the run on its own thread.
+	private static SnapshotPlayer player = null;
+
+	// Prints each body's starting position, for debugging.
+	private static boolean pdb = false;
 
 	public static void main(String[] args) {
 
-		init();
+		init(args);
 //		while (!Display.isCloseRequested()) {
 
 		// The Game Loop!
-		// Starts at timestep 1 since we already loaded up 0th building entity list.
-		for (int i = 1; i < timesteps; i++) {
+		// Runs until every timestep has been shown.  The 0th timestep was
+		// already used to build the entity list.
+		while (!player.isFinished(System.nanoTime())) {
 
 			// Move the camera to where user requested it to be moved.
 			camera.move();
 
-			// For each entity, for each frame, process the entity.
-			for (Entity entity : entities) {
-
-				// Rotate the entities just for shits n giggles.
-				entity.increaseRotation(0, 0.5f, 0);
-
-				// Pull positional coordinates from input file.
-				Vector3f position = new Vector3f(scan.nextFloat(), scan.nextFloat(), scan.nextFloat());
-
-				if (pdb) {System.out.println(position.x + "  " + position.y + "  " + position.z);}
-
-				// Set the position of the current entity.
-				entity.setPosition(position);
-
-				// Process the current entity.
-				renderer.processEntity(entity);
+			// Switch between meshes & impostors when the key goes down.
+			boolean keyDown = Keyboard.isKeyDown(IMPOSTOR_KEY);
+			if (keyDown && !impostorKeyDown) {
+				renderer.setImpostors(!renderer.isImpostors());
+			}
+			impostorKeyDown = keyDown;
+
+			// Take the newest timestep if the stepping thread has published one,
+			// then show the bodies part of the way from the one before to it,
+			// so they move smoothly however fast either side runs.
+			updateSnapshots();
+			SnapshotBuffer snapshots = player.getSnapshots();
+			snapshots.interpolate(snapshots.getAlpha(System.nanoTime()), frame);
+
+			// Rotate the entities just for shits n giggles.
+			entities.increaseRotation(0, 0.5f, 0);
+
+			// For each body, move its entity.
+			int offset = 0;
+			for (int handle : bodyHandles) {
+				float xpos = frame[offset];
+				float ypos = frame[offset + 1];
+				float zpos = frame[offset + 2];
+
+				// Set the position & size of the current entity in place.
+				entities.setPosition(handle, xpos, ypos, zpos);
+				entities.setScale(handle, bodyScale(frame, offset));
+				offset += floatsPerBody;
 			}
 			// Render each frame.
-			renderer.render(light, camera);
+			renderer.render(light, camera, entities);
 
 			// Update the display each frame.
 			DisplayManager.updateDisplay();
@@ -88,21 +173,60 @@ public class MainGameLoop {
 		terminate();
 	}
 
-	private static void init() {
-		// Open up file and scanner.
+	private static void init(String[] args) {
+		// Use the input file (or --simulate) given on the command line, otherwise
+		// prefer the binary trajectory over the text one when it has been converted.
+		String inputFile = TEXT_INPUT_FILE;
+		if (args.length > 0) {
+			inputFile = args[0];
+		} else if (new File(BINARY_INPUT_FILE).exists()) {
+			inputFile = BINARY_INPUT_FILE;
+		}
+
+		// Open up the trajectory & start stepping it in the background.
 		try {
-			input = new FileReader("gui_input.txt");
-			scan = new Scanner(input);
+			TrajectorySource source;
+			if (inputFile.equals(SIMULATE_OPTION)) {
+				// Compute the run right here instead of replaying a file.
+				int count = args.length > 1 ? Integer.parseInt(args[1]) : SIM_DEFAULT_BODIES;
+				boolean hermite = false, bounce = false;
+				for (int i = 2; i < args.length; i++) {
+					hermite |= args[i].equals(SIM_HERMITE_OPTION);
+					bounce |= args[i].equals(SIM_BOUNCE_OPTION);
+				}
+				source = createSimulation(count, hermite, bounce);
+			} else if (inputFile.endsWith(TrajectoryFormat.FILE_EXTENSION)) {
+				source = new BinaryTrajectoryReader(inputFile);
+			} else {
+				// Parse the whole text file up front on every core.
+				TextTrajectoryLoader textLoader = new TextTrajectoryLoader();
+				source = textLoader.load(inputFile);
+				System.out.println("Loaded " + inputFile + " in " + textLoader.getLoadMillis() + " ms ("
+						+ String.format("%.1f", textLoader.getThroughput()) + " MB/s).");
+			}
+			// Decode files ahead of time, so disk hiccups don't hold up stepping.
+			if (!(source instanceof Simulation)) {
+				prefetcher = new PrefetchingTrajectorySource(source, PREFETCH_FRAMES);
+				source = prefetcher;
+			}
 
 			// Read in # of bodies, radius of bodies, & how many timesteps.
-			numBodies = scan.nextInt();
-			bodyRadius = scan.nextInt();
-			timesteps = scan.nextInt();
-			
-		} catch (FileNotFoundException e) {
+			numBodies = source.getNumBodies();
+			bodyRadius = source.getBodyRadius();
+			timesteps = source.getTimesteps();
+			floatsPerBody = source.getFloatsPerBody();
+
+			// Waits for the 0th timestep, which is needed to build the entities.
+			player = new SnapshotPlayer(source, PLAYBACK_FPS);
+			frame = new float[numBodies * floatsPerBody];
+			System.arraycopy(player.getSnapshots().getLatest(), 0, frame, 0, frame.length);
+		} catch (IOException e) {
+			System.err.println("ERROR:  COULD NOT READ INPUT FILE!!!");
 			e.printStackTrace();
+			System.exit(-1);
 		}
-		
+
+
 		// Open up the display.
 		DisplayManager.createDisplay();
 
@@ -119,17 +243,27 @@ public class MainGameLoop {
 		modelTexture.setShineDamper(10);
 		modelTexture.setReflectivity(1);
 
+		// Draw far away bodies with fewer triangles.
+		RawModel[] levels = new RawModel[LOD_SPHERES.length + 1];
+		levels[0] = rawModel;
+		for (int i = 0; i < LOD_SPHERES.length; i++) {
+			levels[i + 1] = loader.loadToVAO(
+					MeshOptimizer.optimize(SphereGenerator.generate(LOD_SPHERES[i][0], LOD_SPHERES[i][1])));
+		}
+		texturedModel.setLevelsOfDetail(new LodModel(levels, LOD_MIN_PIXELS));
 	
-		// Make Entity List, with each entity using the TexturedModel.
-		entities = new ArrayList<Entity>();
+		// Make the entities, each using the TexturedModel.
+		entities = new EntityStore();
+		bodyHandles = new int[numBodies];
 		for (int i = 0; i < numBodies; i++) {
-			float xpos = scan.nextFloat();
-			float ypos = scan.nextFloat();
-			float zpos = scan.nextFloat();
+			int offset = i * floatsPerBody;
+			float xpos = frame[offset];
+			float ypos = frame[offset + 1];
+			float zpos = frame[offset + 2];
 			if (pdb) {System.out.println(xpos + "  " + ypos + "  " + zpos);}
 
-			// TODO:	TIE IN BODY RADIUS WITH THE SCALE VARIABLE!!! (accurately)
-			entities.add(new Entity(texturedModel, new Vector3f(xpos, ypos, zpos), 0, 0, 0, 0.2f));
+			// The ball model has a radius of 1, so scale it by the body's radius.
+			bodyHandles[i] = entities.add(texturedModel, xpos, ypos, zpos, 0, 0, 0, bodyScale(frame, offset));
 		}
 
 
@@ -141,13 +275,83 @@ public class MainGameLoop {
 
 		// Create the MasterRenderer
 		renderer = new MasterRenderer();
+		renderer.setImpostors(numBodies > IMPOSTOR_BODIES);
 	}
 	
+	// Rendering scale of the body at 'offset' in a frame:  its own radius if
+	// the frame has one, else the radius from the header.  Merged-away bodies
+	// have a radius of 0 and vanish.
+	private static float bodyScale(float[] frame, int offset) {
+		if (floatsPerBody > TrajectoryFormat.FLOATS_PER_BODY) {
+			return frame[offset + 3];
+		}
+		return bodyRadius * TrajectoryFormat.RADIUS_UNIT;
+	}
+
+	// Sets up a Plummer sphere in front of the camera, whose bodies merge or
+	// bounce when they touch.
+	private static Simulation createSimulation(int count, boolean hermite, boolean bounce) {
+		NBodySystem system = InitialConditions.plummerSphere(count, SIM_TOTAL_MASS, SIM_SCALE_RADIUS, SIM_GRAVITY,
+				System.nanoTime());
+		system.translate(0, 0, -15);
+		double frameInterval = SIM_TIMESTEP * SIM_STEPS_PER_FRAME;
+		MergePolicy policy = bounce ? new ElasticBounce() : new PerfectMerge();
+		CollisionSystem collisions = new CollisionSystem(policy, ForkJoinPool.commonPool());
+		Simulation simulation;
+		if (hermite) {
+			// Bodies step on their own, synchronizing once per frame.
+			HermiteIntegrator integrator = new HermiteIntegrator(SIM_GRAVITY, SIM_SOFTENING, frameInterval,
+					new AarsethCriterion(SIM_HERMITE_ETA));
+			simulation = new Simulation(system, integrator, frameInterval, SIM_FRAMES, SIM_BODY_RADIUS);
+			simulation.setCollisions(collisions);
+			return simulation;
+		}
+		ForceSolver solver;
+		if (count <= SIM_DIRECT_LIMIT) {
+			solver = new ParallelDirectSolver(SIM_GRAVITY, SIM_SOFTENING);
+		} else if (count <= SIM_MULTIPOLE_LIMIT) {
+			solver = new BarnesHutSolver(SIM_GRAVITY, SIM_SOFTENING, SIM_THETA, ForkJoinPool.commonPool());
+		} else {
+			solver = new FastMultipoleSolver(SIM_GRAVITY, SIM_SOFTENING, SIM_MULTIPOLE_ORDER, SIM_MULTIPOLE_THETA,
+					ForkJoinPool.commonPool());
+		}
+		simulation = new Simulation(system, solver, SIM_TIMESTEP, SIM_STEPS_PER_FRAME, SIM_FRAMES, SIM_BODY_RADIUS);
+		simulation.setCollisions(collisions);
+		return simulation;
+	}
+
+	// Takes the newest timestep from the stepping thread, if it has one.
+	private static void updateSnapshots() {
+		try {
+			player.update();
+		} catch (IOException e) {
+			System.err.println("ERROR:  COULD NOT READ INPUT FILE!!!");
+			e.printStackTrace();
+			System.exit(-1);
+		} catch (RuntimeException e) {
+			System.err.println("ERROR:  COULD NOT STEP THE SIMULATION!!!");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
 	private static void terminate() {
+		// Report how often each side of the prefetch ring had to wait.
+		if (prefetcher != null) {
+			System.out.println("Trajectory reader stalls:  " + prefetcher.getProducerStalls()
+					+ " (stepping was the bottleneck), stepping stalls:  " + prefetcher.getConsumerStalls()
+					+ " (reader was the bottleneck).");
+		}
+		// And how the stepping & display kept up with each other.
+		SnapshotBuffer snapshots = player.getSnapshots();
+		System.out.println("Timesteps published:  " + snapshots.getPublished() + ", shown:  " + snapshots.getTaken()
+				+ ", dropped:  " + snapshots.getDropped() + " (display was the bottleneck), late:  "
+				+ player.getLateFrames() + " (stepping was the bottleneck), stepping flat out:  "
+				+ String.format("%.1f", player.getThroughput()) + " timesteps/s.");
+
 		// CLEANUP, CLEANUP, EVERYBODY CLEAN UP!
 		try {
-			input.close();
-			scan.close();
+			player.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
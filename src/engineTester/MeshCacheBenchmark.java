@@ -0,0 +1,137 @@
+package engineTester;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import models.MeshData;
+import models.MeshOptimizer;
+import renderEngine.MeshCache;
+import renderEngine.OBJLoader;
+
+/*
+ * File:	MeshCacheBenchmark.java
+ * Purpose:	Writes a set of .obj models to a scratch directory and times
+ * 			loading them all by parsing, through MeshCache the first time
+ * 			(parsing & writing the caches), and through MeshCache again
+ * 			(mapping the caches & reading every byte, as the upload would).
+ * 			Checks the cached data is exactly what parsing & optimizing
+ * 			gives, and that caches are rebuilt when their .obj is edited or
+ * 			the cache is damaged, but not when the .obj is merely touched.
+ * 			Exits with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	MeshCacheBenchmark [numModels] [stacks] [slices]
+ */
+public class MeshCacheBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int models = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int stacks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int slices = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		boolean ok = true;
+
+		File directory = File.createTempFile("meshes", "");
+		directory.delete();
+		directory.mkdir();
+		String[] files = new String[models];
+		long bytes = 0;
+		for (int m = 0; m < models; m++) {
+			File file = new File(directory, "model" + m + ".obj");
+			ObjLoadBenchmark.writeSphere(file, stacks, slices + m);
+			files[m] = file.getPath();
+			bytes += file.length();
+		}
+		System.out.println(String.format("%d models, %.1f MB of .obj", models, bytes / 1e6));
+
+		long start = System.nanoTime();
+		MeshData[] parsed = new MeshData[models];
+		for (int m = 0; m < models; m++) {
+			parsed[m] = OBJLoader.loadMesh(files[m]);
+		}
+		long parseNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int rebuilt = 0;
+		for (int m = 0; m < models; m++) {
+			rebuilt += MeshCache.open(files[m]).isRebuilt() ? 1 : 0;
+		}
+		long firstNanos = System.nanoTime() - start;
+		ok &= rebuilt == models;
+
+		start = System.nanoTime();
+		MeshCache[] cached = new MeshCache[models];
+		long checksum = 0;
+		rebuilt = 0;
+		for (int m = 0; m < models; m++) {
+			cached[m] = MeshCache.open(files[m]);
+			rebuilt += cached[m].isRebuilt() ? 1 : 0;
+			checksum += touch(cached[m].getVertexData()) + touch(cached[m].getIndexData());
+		}
+		long cachedNanos = System.nanoTime() - start;
+		ok &= rebuilt == 0;
+		System.out.println(String.format("Parsing:             %6.1f ms", parseNanos / 1e6));
+		System.out.println(String.format("Building the caches: %6.1f ms", firstNanos / 1e6));
+		System.out.println(String.format("From the caches:     %6.1f ms (%.0fx faster than parsing, checksum %x)",
+				cachedNanos / 1e6, (double) parseNanos / cachedNanos, checksum));
+
+		// Exactly what parsing gives.
+		int mismatches = 0;
+		for (int m = 0; m < models; m++) {
+			ByteBuffer expected = MeshCache.build(MeshOptimizer.optimize(parsed[m]), 0, 0, 0);
+			expected.position(MeshCache.HEADER_SIZE);
+			ByteBuffer vertices = expected.slice();
+			vertices.limit(cached[m].getVertexData().remaining());
+			expected.position(MeshCache.HEADER_SIZE + vertices.limit());
+			mismatches += vertices.equals(cached[m].getVertexData()) ? 0 : 1;
+			mismatches += expected.slice().equals(cached[m].getIndexData()) ? 0 : 1;
+			mismatches += cached[m].getIndexCount() == parsed[m].getIndices().length ? 0 : 1;
+			mismatches += cached[m].getMin()[1] == -1 && cached[m].getMax()[1] == 1 ? 0 : 1;
+		}
+		System.out.println("Cached data mismatches:  " + mismatches);
+		ok &= mismatches == 0;
+
+		// Edited, touched, edited without changing size or time, & damaged.
+		FileWriter writer = new FileWriter(files[0], true);
+		writer.write("# edited\n");
+		writer.close();
+		File touched = new File(files[1]);
+		touched.setLastModified(touched.lastModified() + 10000);
+		File sameSize = new File(files[2]);
+		long time = sameSize.lastModified();
+		RandomAccessFile edit = new RandomAccessFile(sameSize, "rw");
+		edit.seek(2);
+		edit.write('u');
+		edit.close();
+		sameSize.setLastModified(time + 10000);
+		RandomAccessFile damage = new RandomAccessFile(MeshCache.getCacheFile(files[3]), "rw");
+		damage.setLength(damage.length() - 4);
+		damage.close();
+		boolean edited = MeshCache.open(files[0]).isRebuilt();
+		boolean touchedRebuilt = MeshCache.open(files[1]).isRebuilt();
+		boolean hashed = MeshCache.open(files[2]).isRebuilt();
+		boolean damaged = MeshCache.open(files[3]).isRebuilt();
+		boolean again = MeshCache.open(files[1]).isRebuilt();
+		System.out.println(String.format("Rebuilt when edited:  %b, touched:  %b, edited in place:  %b, "
+				+ "damaged:  %b, touched & reopened:  %b", edited, touchedRebuilt, hashed, damaged, again));
+		ok &= edited && !touchedRebuilt && hashed && damaged && !again;
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Reads every byte of a buffer, as uploading it would.
+	private static long touch(ByteBuffer buffer) {
+		long sum = 0;
+		for (int i = 0; i + 8 <= buffer.limit(); i += 8) {
+			sum += buffer.getLong(i);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,173 @@
+package engineTester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.Light;
+import models.MeshData;
+import models.MeshOptimizer;
+import models.RawModel;
+import models.SphereGenerator;
+import models.TexturedModel;
+import renderEngine.MasterRenderer;
+import renderEngine.MeshCache;
+import renderEngine.OBJLoader;
+import renderEngine.RecordingGLCalls;
+import textures.ModelTexture;
+
+/*
+ * File:	MeshOptimizerCheck.java
+ * Purpose:	Runs MeshOptimizer over generated spheres, an exported .obj &
+ * 			the same with its triangles shuffled, and prints the ACMR of
+ * 			each before & after for two cache sizes, along with the time
+ * 			taken.  Checks that the optimized mesh draws exactly the same
+ * 			triangles with the same winding & attributes, that vertices are
+ * 			numbered in order of first use, and that small meshes are cached
+ * 			& drawn with 16-bit indices.  Exits with 1 if any check fails.
+ * 			Needs no display.
+ *
+ * 			Usage:	MeshOptimizerCheck
+ */
+public class MeshOptimizerCheck {
+
+	private static final int[] CACHE_SIZES = { 16, 32 };
+
+	public static void main(String[] args) throws IOException {
+		boolean ok = true;
+		File file = File.createTempFile("exported", ".obj");
+		ObjLoadBenchmark.writeSphere(file, 100, 200);
+		MeshData exported = OBJLoader.loadMesh(file.getPath());
+
+		String[] names = { "sphere 16x24", "sphere 64x128", "exported .obj", "shuffled .obj" };
+		MeshData[] meshes = { SphereGenerator.generate(16, 24), SphereGenerator.generate(64, 128), exported,
+				shuffle(exported, new Random(42)) };
+		System.out.println("mesh            triangles  ACMR@16 before -> after  ACMR@32 before -> after   time");
+		for (int m = 0; m < meshes.length; m++) {
+			MeshData mesh = meshes[m];
+			long start = System.nanoTime();
+			int[] reordered = MeshOptimizer.optimizeVertexCache(mesh.getIndices(), mesh.getVertexCount(),
+					MeshOptimizer.CACHE_SIZE);
+			MeshData optimized = MeshOptimizer.optimizeVertexFetch(new MeshData(mesh.getPositions(),
+					mesh.getTextureCoordinates(), mesh.getNormals(), reordered));
+			double millis = (System.nanoTime() - start) / 1e6;
+
+			StringBuilder line = new StringBuilder(String.format("%-15s %9d", names[m], mesh.getTriangleCount()));
+			for (int cacheSize : CACHE_SIZES) {
+				float before = MeshOptimizer.averageCacheMissRatio(mesh.getIndices(), mesh.getVertexCount(), cacheSize);
+				float after = MeshOptimizer.averageCacheMissRatio(optimized.getIndices(), optimized.getVertexCount(),
+						cacheSize);
+				line.append(String.format("  %10.3f -> %5.3f", before, after));
+				ok &= after <= before + 1e-6f;
+			}
+			line.append(String.format("  %6.1f ms", millis));
+			System.out.println(line);
+
+			boolean sameTriangles = Arrays.equals(canonical(mesh.getIndices()), canonical(reordered));
+			boolean sameCorners = sameCorners(mesh, reordered, optimized);
+			boolean firstUseOrder = firstUseOrder(optimized.getIndices());
+			if (!sameTriangles || !sameCorners || !firstUseOrder) {
+				System.out.println(String.format("  same triangles:  %b, same attributes:  %b, first-use order:  %b",
+						sameTriangles, sameCorners, firstUseOrder));
+				ok = false;
+			}
+		}
+		// The reordered exported mesh must beat the exporter's order.
+		float exportedBefore = MeshOptimizer.averageCacheMissRatio(exported.getIndices(), exported.getVertexCount(),
+				MeshOptimizer.CACHE_SIZE);
+		float exportedAfter = MeshOptimizer.averageCacheMissRatio(MeshOptimizer.optimize(exported).getIndices(),
+				exported.getVertexCount(), MeshOptimizer.CACHE_SIZE);
+		ok &= exportedAfter < exportedBefore;
+
+		// Small meshes are cached & drawn with 16-bit indices.
+		MeshCache cache = MeshCache.open(file.getPath());
+		boolean shortCache = cache.getIndexType() == GL11.GL_UNSIGNED_SHORT
+				&& cache.getIndexData().remaining() == cache.getIndexCount() * 2;
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f);
+		EntityStore store = new EntityStore();
+		store.add(new TexturedModel(new RawModel(1, cache.getIndexCount(), cache.getIndexType()), new ModelTexture(1)),
+				0, 0, -5, 0, 0, 0, 1);
+		renderer.render(new Light(new Vector3f(), new Vector3f()), new Camera(), store);
+		boolean shortDraw = (Integer) gl.getArguments("glDrawElementsInstanced").get(0)[2] == GL11.GL_UNSIGNED_SHORT;
+		System.out.println(String.format("%d vertices cached with %d-byte indices, drawn as %s", cache.getVertexCount(),
+				cache.getIndexData().remaining() / cache.getIndexCount(), shortDraw ? "GL_UNSIGNED_SHORT" : "?"));
+		ok &= shortCache && shortDraw;
+		MeshCache.getCacheFile(file.getPath()).delete();
+		file.delete();
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// The mesh with its triangles in random order (windings kept).
+	private static MeshData shuffle(MeshData mesh, Random random) {
+		int[] indices = mesh.getIndices().clone();
+		for (int t = mesh.getTriangleCount() - 1; t > 0; t--) {
+			int other = random.nextInt(t + 1);
+			for (int k = 0; k < 3; k++) {
+				int swap = indices[t * 3 + k];
+				indices[t * 3 + k] = indices[other * 3 + k];
+				indices[other * 3 + k] = swap;
+			}
+		}
+		return new MeshData(mesh.getPositions(), mesh.getTextureCoordinates(), mesh.getNormals(), indices);
+	}
+
+	// Each triangle rotated to start at its lowest index (so winding is
+	// kept), packed into a long & sorted.
+	private static long[] canonical(int[] indices) {
+		long[] triangles = new long[indices.length / 3];
+		for (int t = 0; t < triangles.length; t++) {
+			int a = indices[t * 3], b = indices[t * 3 + 1], c = indices[t * 3 + 2];
+			while (a > b || a > c) {
+				int swap = a;
+				a = b;
+				b = c;
+				c = swap;
+			}
+			triangles[t] = ((long) a << 42) | ((long) b << 21) | c;
+		}
+		Arrays.sort(triangles);
+		return triangles;
+	}
+
+	// True if every corner of the renumbered mesh has the attributes of the
+	// same corner before renumbering.
+	private static boolean sameCorners(MeshData mesh, int[] reordered, MeshData optimized) {
+		int[] indices = optimized.getIndices();
+		for (int i = 0; i < indices.length; i++) {
+			int from = reordered[i], to = indices[i];
+			for (int k = 0; k < 3; k++) {
+				if (mesh.getPositions()[from * 3 + k] != optimized.getPositions()[to * 3 + k]
+						|| mesh.getNormals()[from * 3 + k] != optimized.getNormals()[to * 3 + k]) {
+					return false;
+				}
+			}
+			for (int k = 0; k < 2; k++) {
+				if (mesh.getTextureCoordinates()[from * 2 + k] != optimized.getTextureCoordinates()[to * 2 + k]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean firstUseOrder(int[] indices) {
+		int next = 0;
+		for (int index : indices) {
+			if (index > next) {
+				return false;
+			}
+			next = Math.max(next, index + 1);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,139 @@
+package engineTester;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import simulation.BarnesHutSolver;
+import simulation.FastMultipoleSolver;
+import simulation.ForceSolver;
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+
+/*
+ * File:	MultipoleBenchmark.java
+ * Purpose:	Wall time & force error of the Fast Multipole solver against
+ * 			direct summation, over a range of N and expansion orders, with
+ * 			Barnes-Hut alongside for comparison.  Direct summation is too
+ * 			slow to run in full at large N, so it is done exactly for a random
+ * 			sample of bodies, and its full time is extrapolated from that.
+ * 			Needs no display.
+ *
+ * 			Usage:	MultipoleBenchmark [numBodies ...]
+ */
+public class MultipoleBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SOFTENING = 0.01;
+	private static final double THETA = 0.7;
+	private static final double BARNES_HUT_THETA = 0.6;
+	private static final int[] ORDERS = { 2, 4, 6 };
+	private static final int SAMPLE = 1000;
+
+	public static void main(String[] args) {
+		int[] counts = { 10000, 100000, 1000000 };
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("        N   solver       build ms   refit ms   median err      99% err      max err");
+		for (int count : counts) {
+			NBodySystem system = InitialConditions.plummerSphere(count, 1, 1, GRAVITY, 42);
+
+			// Exact accelerations of a random sample of bodies.
+			int samples = Math.min(SAMPLE, count);
+			int[] sample = sample(count, samples);
+			double[] refX = new double[samples], refY = new double[samples], refZ = new double[samples];
+			long start = System.nanoTime();
+			direct(system, SOFTENING, sample, refX, refY, refZ);
+			double directMillis = (System.nanoTime() - start) / 1e6 * count / samples;
+			System.out.println(String.format("%9d   direct     %10.0f (extrapolated)", count, directMillis));
+
+			double[] errors = new double[samples];
+			for (int order : ORDERS) {
+				FastMultipoleSolver solver = new FastMultipoleSolver(GRAVITY, SOFTENING, order, THETA,
+						ForkJoinPool.commonPool());
+				double[] times = time(solver, system);
+				sampleErrors(system, sample, refX, refY, refZ, errors);
+				print(count, "FMM p=" + order, times, errors);
+			}
+			BarnesHutSolver tree = new BarnesHutSolver(GRAVITY, SOFTENING, BARNES_HUT_THETA,
+					ForkJoinPool.commonPool());
+			double[] times = time(tree, system);
+			sampleErrors(system, sample, refX, refY, refZ, errors);
+			print(count, "BH  " + BARNES_HUT_THETA, times, errors);
+		}
+	}
+
+	// Times the first call, which builds the tree, then the second, which
+	// only refits it.
+	private static double[] time(ForceSolver solver, NBodySystem system) {
+		long start = System.nanoTime();
+		solver.computeAccelerations(system);
+		double build = (System.nanoTime() - start) / 1e6;
+		start = System.nanoTime();
+		solver.computeAccelerations(system);
+		double refit = (System.nanoTime() - start) / 1e6;
+		return new double[] { build, refit };
+	}
+
+	private static void print(int count, String name, double[] times, double[] errors) {
+		Arrays.sort(errors);
+		int n = errors.length;
+		System.out.println(String.format("%9d   %-10s %10.0f %10.0f %12.2e %12.2e %12.2e", count, name, times[0],
+				times[1], errors[n / 2], errors[(int) (n * 0.99)], errors[n - 1]));
+	}
+
+	// Random bodies to check, or all of them if there are few enough.
+	static int[] sample(int count, int samples) {
+		int[] sample = new int[samples];
+		Random random = new Random(7);
+		for (int i = 0; i < samples; i++) {
+			sample[i] = samples == count ? i : random.nextInt(count);
+		}
+		return sample;
+	}
+
+	// Direct summation for the sampled bodies only.
+	static void direct(NBodySystem system, double softening, int[] sample, double[] refX, double[] refY,
+			double[] refZ) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] m = system.getMass();
+		double eps2 = softening * softening;
+		for (int s = 0; s < sample.length; s++) {
+			int i = sample[s];
+			double ax = 0, ay = 0, az = 0;
+			for (int j = 0; j < system.getCount(); j++) {
+				if (j == i) {
+					continue;
+				}
+				double dx = x[j] - x[i], dy = y[j] - y[i], dz = z[j] - z[i];
+				double r2 = dx * dx + dy * dy + dz * dz + eps2;
+				double invR = 1.0 / Math.sqrt(r2);
+				double f = m[j] * invR * invR * invR;
+				ax += dx * f;
+				ay += dy * f;
+				az += dz * f;
+			}
+			refX[s] = ax * GRAVITY;
+			refY[s] = ay * GRAVITY;
+			refZ[s] = az * GRAVITY;
+		}
+	}
+
+	// Relative error of each sampled body's acceleration against the reference.
+	static void sampleErrors(NBodySystem system, int[] sample, double[] refX, double[] refY,
+			double[] refZ, double[] errors) {
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		for (int s = 0; s < sample.length; s++) {
+			int i = sample[s];
+			double dx = ax[i] - refX[s], dy = ay[i] - refY[s], dz = az[i] - refZ[s];
+			double ref = Math.sqrt(refX[s] * refX[s] + refY[s] * refY[s] + refZ[s] * refZ[s]);
+			errors[s] = Math.sqrt(dx * dx + dy * dy + dz * dz) / ref;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package engineTester;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.MeshData;
+import renderEngine.OBJLoader;
+
+/*
+ * File:	ObjLoadBenchmark.java
+ * Purpose:	Writes a high-poly sphere as an .obj file (with a texture seam
+ * 			& quads, like exported models have), then loads it with the
+ * 			byte-scanning OBJLoader & with the String.split & boxed-list
+ * 			parsing it replaced, and compares their times.  Checks that
+ * 			every triangle corner gets exactly the position, texture
+ * 			coordinates & normal the file gives it, seams included, and that
+ * 			there is one vertex per distinct triplet.  Exits with 1 if any
+ * 			check fails.  Needs no display.
+ *
+ * 			Usage:	ObjLoadBenchmark [stacks] [slices] [input.obj]
+ */
+public class ObjLoadBenchmark {
+
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws IOException {
+		int stacks = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int slices = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+		File file;
+		if (args.length > 2) {
+			file = new File(args[2]);
+		} else {
+			file = File.createTempFile("sphere", ".obj");
+			file.deleteOnExit();
+			writeSphere(file, stacks, slices);
+		}
+		System.out.println(String.format("%s:  %.1f MB", file.getName(), file.length() / 1e6));
+
+		// Best of a few runs each, so the JIT has warmed up.
+		MeshData mesh = null;
+		long fast = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			mesh = OBJLoader.loadMesh(file.getPath());
+			fast = Math.min(fast, System.nanoTime() - start);
+		}
+		Reference reference = null;
+		long slow = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			reference = new Reference(file);
+			slow = Math.min(slow, System.nanoTime() - start);
+		}
+		System.out.println(String.format("String.split & lists:  %6d ms", slow / 1000000));
+		System.out.println(String.format("Byte scanning:         %6d ms (%.1fx faster)", fast / 1000000,
+				(double) slow / fast));
+
+		// Every corner as the file describes it.
+		int[] indices = mesh.getIndices();
+		int mismatches = 0;
+		boolean ok = indices.length == reference.corners.size();
+		for (int i = 0; ok && i < indices.length; i++) {
+			int vertex = indices[i];
+			float[] corner = reference.corners.get(i);
+			for (int k = 0; k < 3; k++) {
+				mismatches += mesh.getPositions()[vertex * 3 + k] == corner[k] ? 0 : 1;
+				mismatches += mesh.getNormals()[vertex * 3 + k] == corner[5 + k] ? 0 : 1;
+			}
+			mismatches += mesh.getTextureCoordinates()[vertex * 2] == corner[3] ? 0 : 1;
+			mismatches += mesh.getTextureCoordinates()[vertex * 2 + 1] == corner[4] ? 0 : 1;
+		}
+		System.out.println(String.format("%d triangles, %d vertices for %d distinct triplets (%d positions in the "
+				+ "file, %d more for seams), %d attribute mismatches", indices.length / 3, mesh.getVertexCount(),
+				reference.triplets, reference.positions, mesh.getVertexCount() - reference.positions, mismatches));
+		ok &= mismatches == 0 && mesh.getVertexCount() == reference.triplets;
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// A UV sphere as an exporter would write it:  one position & normal per
+	// grid point (the seam & poles shared), texture coordinates duplicated
+	// along the seam, and quads.
+	static void writeSphere(File file, int stacks, int slices) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write("# UV sphere, " + stacks + " x " + slices + "\no sphere\n");
+		for (int i = 0; i <= stacks; i++) {
+			double theta = Math.PI * i / stacks;
+			for (int j = 0; j < slices; j++) {
+				double phi = 2 * Math.PI * j / slices;
+				float x = (float) (Math.sin(theta) * Math.sin(phi));
+				float y = (float) Math.cos(theta);
+				float z = (float) (Math.sin(theta) * Math.cos(phi));
+				writer.write("v " + x + " " + y + " " + z + "\n");
+				writer.write("vn " + x + " " + y + " " + z + "\n");
+			}
+		}
+		for (int i = 0; i <= stacks; i++) {
+			for (int j = 0; j <= slices; j++) {
+				writer.write("vt " + (float) j / slices + " " + (1 - (float) i / stacks) + "\n");
+			}
+		}
+		for (int i = 0; i < stacks; i++) {
+			for (int j = 0; j < slices; j++) {
+				int[] rows = { i, i + 1, i + 1, i };
+				int[] columns = { j, j, j + 1, j + 1 };
+				writer.write("f");
+				for (int c = 0; c < 4; c++) {
+					int position = rows[c] * slices + columns[c] % slices + 1;
+					int texture = rows[c] * (slices + 1) + columns[c] + 1;
+					writer.write(" " + position + "/" + texture + "/" + position);
+				}
+				writer.write("\n");
+			}
+		}
+		writer.close();
+	}
+
+	// The line-by-line String parsing OBJLoader used to do, but keeping each
+	// triangle corner's own attributes so seams survive.
+	private static class Reference {
+
+		// Position, texture coordinates (flipped) & normal of every corner.
+		List<float[]> corners = new ArrayList<float[]>();
+		int positions;
+		int triplets;
+
+		Reference(File file) throws IOException {
+			List<Vector3f> vertices = new ArrayList<Vector3f>();
+			List<Vector2f> textures = new ArrayList<Vector2f>();
+			List<Vector3f> normals = new ArrayList<Vector3f>();
+			Map<String, Integer> distinct = new HashMap<String, Integer>();
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] currLine = line.split(" ");
+				if (line.startsWith("v ")) {
+					vertices.add(new Vector3f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2]),
+							Float.parseFloat(currLine[3])));
+				} else if (line.startsWith("vt ")) {
+					textures.add(new Vector2f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2])));
+				} else if (line.startsWith("vn ")) {
+					normals.add(new Vector3f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2]),
+							Float.parseFloat(currLine[3])));
+				} else if (line.startsWith("f ")) {
+					float[][] face = new float[currLine.length - 1][];
+					for (int c = 1; c < currLine.length; c++) {
+						if (!distinct.containsKey(currLine[c])) {
+							distinct.put(currLine[c], distinct.size());
+						}
+						String[] vertexData = currLine[c].split("/");
+						Vector3f position = vertices.get(Integer.parseInt(vertexData[0]) - 1);
+						Vector2f texture = textures.get(Integer.parseInt(vertexData[1]) - 1);
+						Vector3f normal = normals.get(Integer.parseInt(vertexData[2]) - 1);
+						face[c - 1] = new float[] { position.x, position.y, position.z, texture.x, 1 - texture.y,
+								normal.x, normal.y, normal.z };
+					}
+					for (int c = 2; c < face.length; c++) {
+						corners.add(face[0]);
+						corners.add(face[c - 1]);
+						corners.add(face[c]);
+					}
+				}
+			}
+			reader.close();
+			positions = vertices.size();
+			triplets = distinct.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+package engineTester;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import simulation.InitialConditions;
+import simulation.NBodySystem;
+import simulation.ParticleMeshSolver;
+
+/*
+ * File:	ParticleMeshBenchmark.java
+ * Purpose:	Wall time & force error of the Particle-Mesh solver on a uniform
+ * 			cube.  Isolated mode is checked against direct summation softened
+ * 			by one grid cell (PM can't resolve anything smaller), on a sample
+ * 			of bodies.  Periodic mode is checked on a lattice whose masses
+ * 			follow a sine wave along x, which has an exact solution, and for
+ * 			the net force on a uniform cube, which should vanish.  Needs no
+ * 			display.
+ *
+ * 			Usage:	ParticleMeshBenchmark [numBodies] [gridSize ...]
+ */
+public class ParticleMeshBenchmark {
+
+	private static final double GRAVITY = 1;
+	private static final double SIDE = 10;
+	private static final int SAMPLE = 1000;
+	// Relative amplitude of the periodic test's density wave.
+	private static final double WAVE_AMPLITUDE = 0.5;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int[] grids = { 16, 32, 64 };
+		if (args.length > 1) {
+			grids = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				grids[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		NBodySystem system = InitialConditions.uniformCube(count, 1, SIDE, 42);
+		int samples = Math.min(SAMPLE, count);
+		int[] sample = MultipoleBenchmark.sample(count, samples);
+		double[] refX = new double[samples], refY = new double[samples], refZ = new double[samples];
+		double[] errors = new double[samples];
+
+		System.out.println("N = " + count + ", uniform cube");
+		System.out.println(" grid   mode        first ms   next ms   median err     90% err   net force / mean");
+		for (int grid : grids) {
+			// Isolated, against direct summation softened by a cell.
+			ParticleMeshSolver isolated = new ParticleMeshSolver(GRAVITY, grid, false, pool);
+			double[] times = time(isolated, system);
+			MultipoleBenchmark.direct(system, isolated.getCellSize(), sample, refX, refY, refZ);
+			MultipoleBenchmark.sampleErrors(system, sample, refX, refY, refZ, errors);
+			Arrays.sort(errors);
+			System.out.println(String.format("%5d   isolated %11.0f %9.0f %12.2e %11.2e %18.2e", grid, times[0],
+					times[1], errors[samples / 2], errors[samples * 9 / 10], netForce(system)));
+
+			// Periodic, over a box matching the cube.
+			ParticleMeshSolver periodic = new ParticleMeshSolver(GRAVITY, grid, true, pool);
+			periodic.setBox(0, 0, 0, SIDE);
+			times = time(periodic, system);
+			System.out.println(String.format("%5d   periodic %11.0f %9.0f   wave test max err %.2e %9.2e", grid,
+					times[0], times[1], waveError(grid), netForce(system)));
+		}
+	}
+
+	// Times the first call, which sets up the FFT & Green's function, then
+	// the second.
+	private static double[] time(ParticleMeshSolver solver, NBodySystem system) {
+		long start = System.nanoTime();
+		solver.computeAccelerations(system);
+		double first = (System.nanoTime() - start) / 1e6;
+		start = System.nanoTime();
+		solver.computeAccelerations(system);
+		double next = (System.nanoTime() - start) / 1e6;
+		return new double[] { first, next };
+	}
+
+	// Largest error of the periodic solver on one body per cell with masses
+	// m0 (1 + A cos(k x)), relative to the exact amplitude of the resulting
+	// acceleration, a_x = -4 pi G rho0 A sin(k x) / k.
+	private static double waveError(int grid) {
+		NBodySystem lattice = new NBodySystem(grid * grid * grid);
+		double cell = SIDE / grid;
+		double k = 2 * Math.PI / SIDE;
+		double mass = 1.0 / lattice.getCount();
+		int body = 0;
+		for (int i = 0; i < grid; i++) {
+			double x = (i + 0.5) * cell;
+			for (int j = 0; j < grid; j++) {
+				for (int l = 0; l < grid; l++) {
+					lattice.setBody(body++, x, (j + 0.5) * cell, (l + 0.5) * cell, 0, 0, 0,
+							mass * (1 + WAVE_AMPLITUDE * Math.cos(k * x)));
+				}
+			}
+		}
+		ParticleMeshSolver solver = new ParticleMeshSolver(GRAVITY, grid, true);
+		solver.setBox(0, 0, 0, SIDE);
+		solver.computeAccelerations(lattice);
+
+		double density = 1 / (SIDE * SIDE * SIDE);
+		double amplitude = 4 * Math.PI * GRAVITY * density * WAVE_AMPLITUDE / k;
+		double worst = 0;
+		for (int i = 0; i < lattice.getCount(); i++) {
+			double exact = -amplitude * Math.sin(k * lattice.getX()[i]);
+			worst = Math.max(worst, Math.abs(lattice.getAx()[i] - exact));
+		}
+		return worst / amplitude;
+	}
+
+	// Size of the total force, relative to the mean size of each body's.
+	private static double netForce(NBodySystem system) {
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		double[] m = system.getMass();
+		double fx = 0, fy = 0, fz = 0, total = 0;
+		for (int i = 0; i < system.getCount(); i++) {
+			fx += m[i] * ax[i];
+			fy += m[i] * ay[i];
+			fz += m[i] * az[i];
+			total += m[i] * Math.sqrt(ax[i] * ax[i] + ay[i] * ay[i] + az[i] * az[i]);
+		}
+		return Math.sqrt(fx * fx + fy * fy + fz * fz) / total;
+	}
+
+}
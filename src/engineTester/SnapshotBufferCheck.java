@@ -0,0 +1,268 @@
+package engineTester;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import trajectory.MemoryTrajectory;
+import trajectory.SnapshotBuffer;
+import trajectory.SnapshotPlayer;
+import trajectory.TrajectorySource;
+
+/*
+ * File:	SnapshotBufferCheck.java
+ * Purpose:	Publishes snapshots through a SnapshotBuffer from one thread as
+ * 			fast as it can while another takes them as fast as it can, and
+ * 			checks that no snapshot taken is ever torn (half one step, half
+ * 			another), that steps only go forwards with the previous snapshot
+ * 			being the one last taken, and that every snapshot is either taken
+ * 			or counted as dropped.  Checks that interpolation goes from the
+ * 			previous snapshot to the latest as time passes.  Then plays runs
+ * 			through a SnapshotPlayer with the display much slower & much
+ * 			faster than the run, and with a run slower than its rate, and
+ * 			checks that the run keeps its own pace whatever the display does,
+ * 			that the display never waits on the run, and that a fast display
+ * 			shows motion between steps, never going backwards.  Last, plays
+ * 			runs whose source fails partway, with an IOException & with a
+ * 			RuntimeException, and checks that a loop run until the player
+ * 			finishes always hears of the failure from update().  Exits with 1
+ * 			if any check fails.  Needs no display.
+ *
+ * 			Usage:	SnapshotBufferCheck
+ */
+public class SnapshotBufferCheck {
+
+	private static final int FLOATS = 30000;
+	private static final int SNAPSHOTS = 20000;
+	// Runs played, each PLAY_FRAMES frames at PLAY_FPS:  how long the display
+	// & the source each take per frame, in ms.
+	private static final int PLAY_FRAMES = 60;
+	private static final float PLAY_FPS = 120;
+	private static final int[][] PLAYS = { { 50, 0 }, { 1, 0 }, { 1, 20 } };
+	private static final String[] PLAY_NAMES = { "slow display", "fast display", "slow run" };
+	// Leeway on how long a run takes, for a busy machine.
+	private static final double SLACK = 0.3;
+	// Longest update() may take, in ns:  far less than a frame, as it never
+	// waits for the run.
+	private static final long MAX_UPDATE_NANOS = 5000000;
+	// Frames a failing source gives before it throws, & longest a failing
+	// run may take to report it, in ns.
+	private static final int FAIL_AFTER = 3;
+	private static final long MAX_FAIL_NANOS = 5000000000L;
+
+	public static void main(String[] args) throws IOException {
+		boolean ok = true;
+		ok &= checkConcurrent();
+		ok &= checkInterpolation();
+		System.out.println("run           seconds  (paced)  shown  dropped  late  longest update ms  "
+				+ "in-between  backwards  ok");
+		for (int p = 0; p < PLAYS.length; p++) {
+			ok &= checkPlay(PLAY_NAMES[p], PLAYS[p][0], PLAYS[p][1]);
+		}
+		ok &= checkFailure("IOException", new IOException("Failed on purpose."));
+		ok &= checkFailure("RuntimeException", new IllegalStateException("Failed on purpose."));
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Publishes SNAPSHOTS snapshots, each filled with its step #, while this
+	// thread takes & checks them.
+	private static boolean checkConcurrent() {
+		final SnapshotBuffer snapshots = new SnapshotBuffer(new float[FLOATS]);
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int step = 1; step <= SNAPSHOTS; step++) {
+					float[] back = snapshots.getBackSlot();
+					for (int i = 0; i < back.length; i++) {
+						back[i] = step;
+					}
+					snapshots.publish();
+				}
+			}
+		});
+		producer.start();
+		int torn = 0, backwards = 0, wrongPrevious = 0;
+		long lastStep = 0;
+		boolean producing = true;
+		while (producing) {
+			producing = producer.isAlive();
+			if (!snapshots.update()) {
+				continue;
+			}
+			long step = snapshots.getLatestStep();
+			backwards += step > lastStep ? 0 : 1;
+			wrongPrevious += snapshots.getPreviousStep() == lastStep ? 0 : 1;
+			torn += tornFloats(snapshots.getLatest(), step) + tornFloats(snapshots.getPrevious(), lastStep);
+			lastStep = step;
+		}
+		// One more, in case the last was published after the last look.
+		snapshots.update();
+		boolean counted = snapshots.getTaken() + snapshots.getDropped() == SNAPSHOTS
+				&& snapshots.getPublished() == SNAPSHOTS && snapshots.getLatestStep() == SNAPSHOTS;
+		System.out.println(String.format("%d snapshots of %d floats:  %d taken, %d dropped, %d torn floats, "
+				+ "%d backwards, %d wrong previous, all counted:  %b", SNAPSHOTS, FLOATS, snapshots.getTaken(),
+				snapshots.getDropped(), torn, backwards, wrongPrevious, counted));
+		return torn == 0 && backwards == 0 && wrongPrevious == 0 && counted && snapshots.getTaken() > 1;
+	}
+
+	// # of floats in a snapshot other than its step #.
+	private static int tornFloats(float[] snapshot, long step) {
+		int torn = 0;
+		for (float value : snapshot) {
+			torn += value == step ? 0 : 1;
+		}
+		return torn;
+	}
+
+	// Publishes a few snapshots a while apart, checking how far between the
+	// two latest is shown as time passes.
+	private static boolean checkInterpolation() {
+		SnapshotBuffer snapshots = new SnapshotBuffer(new float[] { 0, 10 });
+		float[] shown = new float[2];
+		// Nothing to go between yet.
+		boolean ok = snapshots.getAlpha(System.nanoTime()) == 1;
+		int notMonotonic = 0;
+		for (int step = 1; step <= 3; step++) {
+			LockSupport.parkNanos(20000000);
+			float[] back = snapshots.getBackSlot();
+			back[0] = step;
+			back[1] = 10 + step * 2;
+			snapshots.publish();
+			ok &= snapshots.update() && !snapshots.update();
+			long start = System.nanoTime();
+			float alpha = snapshots.getAlpha(start), last = -1;
+			ok &= alpha < 0.5f;
+			for (long t = start; t < start + 60000000L; t += 1000000) {
+				alpha = snapshots.getAlpha(t);
+				notMonotonic += alpha >= last && alpha >= 0 && alpha <= 1 ? 0 : 1;
+				last = alpha;
+			}
+			// Held at the latest once the interval between them has passed.
+			ok &= alpha == 1;
+			snapshots.interpolate(0, shown);
+			ok &= shown[0] == step - 1 && shown[1] == 10 + (step - 1) * 2;
+			snapshots.interpolate(1, shown);
+			ok &= shown[0] == step && shown[1] == 10 + step * 2;
+			snapshots.interpolate(0.5f, shown);
+			ok &= shown[0] == step - 0.5f && shown[1] == 10 + step * 2 - 1;
+		}
+		System.out.println(String.format("Interpolation:  %d times going back or out of [0, 1], right:  %b",
+				notMonotonic, ok));
+		return ok && notMonotonic == 0;
+	}
+
+	// Plays PLAY_FRAMES frames at PLAY_FPS, the display taking 'displayMillis'
+	// per frame & the source 'sourceMillis' per frame.
+	private static boolean checkPlay(String name, int displayMillis, final int sourceMillis) throws IOException {
+		float[][] frames = new float[PLAY_FRAMES][1];
+		for (int f = 0; f < PLAY_FRAMES; f++) {
+			frames[f][0] = f;
+		}
+		MemoryTrajectory source = new MemoryTrajectory(1, 1, frames) {
+			@Override
+			public boolean nextFrame(float[] dest) {
+				LockSupport.parkNanos(sourceMillis * 1000000L);
+				return super.nextFrame(dest);
+			}
+		};
+		long start = System.nanoTime();
+		SnapshotPlayer player = new SnapshotPlayer(source, PLAY_FPS);
+		SnapshotBuffer snapshots = player.getSnapshots();
+		float[] shown = new float[1];
+		float last = 0;
+		int inBetween = 0, backwards = 0;
+		long longestUpdate = 0;
+		while (!player.isFinished(System.nanoTime())) {
+			long before = System.nanoTime();
+			player.update();
+			longestUpdate = Math.max(longestUpdate, System.nanoTime() - before);
+			snapshots.interpolate(snapshots.getAlpha(System.nanoTime()), shown);
+			inBetween += shown[0] != Math.floor(shown[0]) ? 1 : 0;
+			backwards += shown[0] < last ? 1 : 0;
+			last = shown[0];
+			LockSupport.parkNanos(displayMillis * 1000000L);
+		}
+		long end = System.nanoTime();
+		double seconds = (end - start) / 1e9;
+		// Finished means the last step is shown in full.
+		snapshots.interpolate(snapshots.getAlpha(end), shown);
+		last = shown[0];
+		player.close();
+		// The run keeps its pace (or the source's, if slower) whatever the
+		// display's, give or take the last interval & a display frame.
+		double paced = (PLAY_FRAMES - 1) / Math.min(PLAY_FPS, 1000.0 / sourceMillis);
+		double most = paced * (1 + SLACK) + 2.0 / PLAY_FPS + 2 * displayMillis / 1000.0 + sourceMillis / 1000.0;
+		boolean ok = seconds > paced * (1 - SLACK) && seconds < most && last == PLAY_FRAMES - 1 && backwards == 0
+				&& snapshots.getLatestStep() == PLAY_FRAMES - 1 && longestUpdate < MAX_UPDATE_NANOS;
+		if (displayMillis * PLAY_FPS > 1000) {
+			// Too slow to show every step, so some are dropped, not queued.
+			ok &= snapshots.getDropped() > 0;
+		} else {
+			// Fast enough to show motion between steps.
+			ok &= inBetween > 0;
+		}
+		if (sourceMillis * PLAY_FPS > 1000) {
+			ok &= player.getLateFrames() > 0;
+		}
+		System.out.println(String.format("%-12s  %7.2f  %7.2f  %5d  %7d  %4d  %17.3f  %10d  %9d  %b", name, seconds,
+				paced, snapshots.getTaken(), snapshots.getDropped(), player.getLateFrames(), longestUpdate / 1e6,
+				inBetween, backwards, ok));
+		return ok;
+	}
+
+	// Plays a run whose source throws 'failure' after FAIL_AFTER frames, the
+	// way MainGameLoop does:  update() until the player finishes.
+	private static boolean checkFailure(String name, final Throwable failure) throws IOException {
+		TrajectorySource source = new TrajectorySource() {
+			private int given = 0;
+
+			@Override
+			public int getNumBodies() {
+				return 1;
+			}
+
+			@Override
+			public int getBodyRadius() {
+				return 1;
+			}
+
+			@Override
+			public int getTimesteps() {
+				return PLAY_FRAMES;
+			}
+
+			@Override
+			public boolean nextFrame(float[] dest) throws IOException {
+				if (given++ == FAIL_AFTER) {
+					if (failure instanceof IOException) {
+						throw (IOException) failure;
+					}
+					throw (RuntimeException) failure;
+				}
+				return given <= PLAY_FRAMES;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		SnapshotPlayer player = new SnapshotPlayer(source, 0);
+		Throwable caught = null;
+		long start = System.nanoTime();
+		while (caught == null && !player.isFinished(System.nanoTime()) && System.nanoTime() - start < MAX_FAIL_NANOS) {
+			try {
+				player.update();
+			} catch (IOException e) {
+				caught = e;
+			} catch (RuntimeException e) {
+				caught = e;
+			}
+			LockSupport.parkNanos(1000000);
+		}
+		player.close();
+		boolean ok = caught == failure;
+		System.out.println(String.format("Source failing with %s:  reported by update():  %b", name, ok));
+		return ok;
+	}
+
+}
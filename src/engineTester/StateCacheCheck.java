@@ -0,0 +1,635 @@
+package engineTester;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.CachingGLCalls;
+import renderEngine.FrustumCuller;
+import renderEngine.GLCalls;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import renderEngine.Renderer;
+import shaders.StaticShader;
+import textures.ModelTexture;
+
+/*
+ * File:	StateCacheCheck.java
+ * Purpose:	Checks CachingGLCalls.  First, scripted calls go through it to
+ * 			a RecordingGLCalls, each expected to be passed on or dropped.
+ * 			Then frames are rendered, by the instanced & per-entity paths,
+ * 			into a fake GL that keeps the state a driver would, with
+ * 			caching on & off:  the state every draw sees must be the same
+ * 			either way.  Prints the calls made & saved per frame.  Exits
+ * 			with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	StateCacheCheck [numEntities]
+ */
+public class StateCacheCheck {
+
+	private static final int MODELS = 4;
+	private static final int FRAMES = 5;
+	// Two buffers holding the same matrix.
+	private static final FloatBuffer[] MATRICES = { BufferUtils.createFloatBuffer(16),
+			BufferUtils.createFloatBuffer(16) };
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		boolean ok = true;
+
+		for (int k = 0; k < 16; k++) {
+			MATRICES[0].put(k, k);
+			MATRICES[1].put(k, k);
+		}
+		int wrong = checkScript();
+		System.out.println("Scripted calls passed on or dropped wrongly:  " + wrong);
+		ok &= wrong == 0;
+
+		System.out.println("path          frame   calls (uncached)   saved   same state at every draw");
+		for (int path = 0; path < 2; path++) {
+			StateGL cachedGL = new StateGL(), plainGL = new StateGL();
+			Frames cached = new Frames(cachedGL, path == 0, count), plain = new Frames(plainGL, path == 0, count);
+			plain.cache.setEnabled(false);
+			for (int frame = 0; frame < FRAMES; frame++) {
+				cachedGL.draws.clear();
+				plainGL.draws.clear();
+				int callsBefore = cachedGL.calls, plainBefore = plainGL.calls;
+				cached.render(frame);
+				plain.render(frame);
+				boolean same = cachedGL.draws.equals(plainGL.draws) && !cachedGL.draws.isEmpty();
+				int calls = cachedGL.calls - callsBefore, uncached = plainGL.calls - plainBefore;
+				System.out.println(String.format("%-12s %6d %7d (%8d) %7d   %b", path == 0 ? "instanced" : "per entity",
+						frame, calls, uncached, cached.cache.getCallsSaved(), same));
+				ok &= same && calls + cached.cache.getCallsSaved() == uncached
+						&& calls == cached.cache.getCallsPassed();
+				// Once warm, a frame repeats the light, view & shine uniforms,
+				// the capabilities & the clear color.
+				ok &= frame == 0 || cached.cache.getCallsSaved() > 0;
+			}
+		}
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Makes calls through a cache & counts those whose passing on (or not)
+	// isn't what a driver's state says it should be.
+	private static int checkScript() {
+		RecordingGLCalls recorded = new RecordingGLCalls();
+		CachingGLCalls gl = new CachingGLCalls(recorded);
+		int wrong = 0;
+		int p = gl.glCreateProgram(), q = gl.glCreateProgram();
+
+		wrong += expect(gl, recorded, true, "glUseProgram", p);
+		wrong += expect(gl, recorded, false, "glUseProgram", p);
+		wrong += expect(gl, recorded, true, "glUniform1f", 3, 1);
+		wrong += expect(gl, recorded, false, "glUniform1f", 3, 1);
+		wrong += expect(gl, recorded, true, "glUniform1f", 3, 2);
+		// Ints differing only in bits a float couldn't hold still pass on.
+		wrong += expect(gl, recorded, true, "glUniform1i", 6, 1 << 30);
+		wrong += expect(gl, recorded, false, "glUniform1i", 6, 1 << 30);
+		wrong += expect(gl, recorded, true, "glUniform1i", 6, (1 << 30) + 1);
+		wrong += expect(gl, recorded, true, "glUniform3f", 4, 1, 2, 3);
+		wrong += expect(gl, recorded, false, "glUniform3f", 4, 1, 2, 3);
+		wrong += expect(gl, recorded, true, "glUniform3f", 4, 1, 2, 4);
+		wrong += expect(gl, recorded, true, "glUniformMatrix4", 5, 0, 0);
+		wrong += expect(gl, recorded, false, "glUniformMatrix4", 5, 0, 1);
+		wrong += expect(gl, recorded, true, "glUniformMatrix4", 5, 1, 1);
+		// Uniforms are per program.
+		wrong += expect(gl, recorded, true, "glUseProgram", q);
+		wrong += expect(gl, recorded, true, "glUniform1f", 3, 2);
+		wrong += expect(gl, recorded, true, "glUseProgram", p);
+		wrong += expect(gl, recorded, false, "glUniform1f", 3, 2);
+		// Linking resets them.
+		wrong += expect(gl, recorded, true, "glLinkProgram", p);
+		wrong += expect(gl, recorded, true, "glUniform1f", 3, 2);
+		// Location -1 is never shadowed.
+		wrong += expect(gl, recorded, true, "glUniform1f", -1, 2);
+		wrong += expect(gl, recorded, true, "glUniform1f", -1, 2);
+
+		// Textures are per unit, & only known once the unit is.
+		wrong += expect(gl, recorded, true, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+		wrong += expect(gl, recorded, true, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+		wrong += expect(gl, recorded, true, "glActiveTexture", GL13.GL_TEXTURE0);
+		wrong += expect(gl, recorded, true, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+		wrong += expect(gl, recorded, false, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+		wrong += expect(gl, recorded, true, "glActiveTexture", GL13.GL_TEXTURE1);
+		wrong += expect(gl, recorded, true, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+		wrong += expect(gl, recorded, false, "glActiveTexture", GL13.GL_TEXTURE1);
+		// Only 2D textures are shadowed, & other targets don't touch them.
+		wrong += expect(gl, recorded, true, "glBindTexture", GL31.GL_TEXTURE_BUFFER, 8);
+		wrong += expect(gl, recorded, true, "glBindTexture", GL31.GL_TEXTURE_BUFFER, 8);
+		wrong += expect(gl, recorded, false, "glBindTexture", GL11.GL_TEXTURE_2D, 7);
+
+		// Attribute arrays are per VAO.
+		wrong += expect(gl, recorded, true, "glBindVertexArray", 1);
+		wrong += expect(gl, recorded, true, "glEnableVertexAttribArray", 0);
+		wrong += expect(gl, recorded, false, "glEnableVertexAttribArray", 0);
+		wrong += expect(gl, recorded, true, "glBindVertexArray", 2);
+		wrong += expect(gl, recorded, true, "glEnableVertexAttribArray", 0);
+		wrong += expect(gl, recorded, true, "glDisableVertexAttribArray", 0);
+		wrong += expect(gl, recorded, true, "glBindVertexArray", 1);
+		wrong += expect(gl, recorded, false, "glEnableVertexAttribArray", 0);
+		// Deleting the bound VAO binds 0.
+		wrong += expect(gl, recorded, true, "glDeleteVertexArrays", 1);
+		wrong += expect(gl, recorded, false, "glBindVertexArray", 0);
+
+		// Capabilities, buffers, clear color.
+		wrong += expect(gl, recorded, true, "glEnable", GL11.GL_DEPTH_TEST);
+		wrong += expect(gl, recorded, false, "glEnable", GL11.GL_DEPTH_TEST);
+		wrong += expect(gl, recorded, true, "glDisable", GL11.GL_DEPTH_TEST);
+		wrong += expect(gl, recorded, true, "glBindBuffer", GL15.GL_ARRAY_BUFFER, 3);
+		wrong += expect(gl, recorded, false, "glBindBuffer", GL15.GL_ARRAY_BUFFER, 3);
+		wrong += expect(gl, recorded, true, "glBindBuffer", GL15.GL_ELEMENT_ARRAY_BUFFER, 3);
+		wrong += expect(gl, recorded, true, "glBindBuffer", GL15.GL_ELEMENT_ARRAY_BUFFER, 3);
+		wrong += expect(gl, recorded, true, "glClearColor", 5, 1, 1, 10);
+		wrong += expect(gl, recorded, false, "glClearColor", 5, 1, 1, 10);
+
+		// After forget() everything but uniforms passes on again.
+		gl.forget();
+		wrong += expect(gl, recorded, true, "glEnable", GL11.GL_DEPTH_TEST);
+		wrong += expect(gl, recorded, true, "glBindBuffer", GL15.GL_ARRAY_BUFFER, 3);
+		wrong += expect(gl, recorded, true, "glUseProgram", p);
+		wrong += expect(gl, recorded, false, "glUniform1f", 3, 2);
+		return wrong;
+	}
+
+	// Makes a call through the cache; 0 if it reached the recorder exactly
+	// when it should have.  Matrices are 0 to 15, from one of two buffers.
+	private static int expect(CachingGLCalls gl, RecordingGLCalls recorded, boolean passedOn, String name,
+			int... arguments) {
+		int before = recorded.getCalls().size();
+		if (name.equals("glUseProgram")) {
+			gl.glUseProgram(arguments[0]);
+		} else if (name.equals("glLinkProgram")) {
+			gl.glLinkProgram(arguments[0]);
+		} else if (name.equals("glUniform1f")) {
+			gl.glUniform1f(arguments[0], arguments[1]);
+		} else if (name.equals("glUniform1i")) {
+			gl.glUniform1i(arguments[0], arguments[1]);
+		} else if (name.equals("glUniform3f")) {
+			gl.glUniform3f(arguments[0], arguments[1], arguments[2], arguments[3]);
+		} else if (name.equals("glUniformMatrix4")) {
+			FloatBuffer matrix = MATRICES[arguments[2]];
+			gl.glUniformMatrix4(arguments[0], arguments[1] == 1, matrix);
+		} else if (name.equals("glActiveTexture")) {
+			gl.glActiveTexture(arguments[0]);
+		} else if (name.equals("glBindTexture")) {
+			gl.glBindTexture(arguments[0], arguments[1]);
+		} else if (name.equals("glBindVertexArray")) {
+			gl.glBindVertexArray(arguments[0]);
+		} else if (name.equals("glDeleteVertexArrays")) {
+			gl.glDeleteVertexArrays(arguments[0]);
+		} else if (name.equals("glEnableVertexAttribArray")) {
+			gl.glEnableVertexAttribArray(arguments[0]);
+		} else if (name.equals("glDisableVertexAttribArray")) {
+			gl.glDisableVertexAttribArray(arguments[0]);
+		} else if (name.equals("glEnable")) {
+			gl.glEnable(arguments[0]);
+		} else if (name.equals("glDisable")) {
+			gl.glDisable(arguments[0]);
+		} else if (name.equals("glBindBuffer")) {
+			gl.glBindBuffer(arguments[0], arguments[1]);
+		} else if (name.equals("glClearColor")) {
+			gl.glClearColor(arguments[0] / 10f, arguments[1] / 10f, arguments[2] / 10f, arguments[3] / 10f);
+		} else {
+			throw new IllegalArgumentException(name);
+		}
+		return (recorded.getCalls().size() > before) == passedOn ? 0 : 1;
+	}
+
+	// A store of entities & a renderer for them (instanced, or per entity)
+	// over the given GL, behind a cache.
+	private static class Frames {
+
+		CachingGLCalls cache;
+		private MasterRenderer master;
+		private StaticShader shader;
+		private Renderer renderer;
+		private FrustumCuller culler = new FrustumCuller(1);
+		private EntityStore store = new EntityStore();
+		private Light light = new Light(new Vector3f(0, 10, 0), new Vector3f(1, 1, 1));
+		private Camera camera = new Camera();
+
+		Frames(GLCalls gl, boolean instanced, int count) {
+			if (instanced) {
+				master = new MasterRenderer(gl, 16f / 9f);
+				cache = master.getStateCache();
+			} else {
+				cache = new CachingGLCalls(gl);
+				shader = new StaticShader(cache);
+				renderer = new Renderer(shader, cache, 16f / 9f);
+			}
+			// Two models share a texture, with different shine.
+			TexturedModel[] models = new TexturedModel[MODELS];
+			for (int m = 0; m < MODELS; m++) {
+				ModelTexture texture = new ModelTexture(200 + m / 2 * 2);
+				texture.setShineDamper(1 + m);
+				models[m] = new TexturedModel(new RawModel(100 + m % 3, 960), texture);
+			}
+			Random random = new Random(42);
+			for (int i = 0; i < count; i++) {
+				store.add(models[random.nextInt(MODELS)], random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10,
+						-random.nextFloat() * 30, 0, 0, 0, 0.1f + random.nextFloat() * 0.2f);
+			}
+		}
+
+		// Renders a frame; the camera only moves on the last.
+		void render(int frame) {
+			if (frame == FRAMES - 1) {
+				camera.setYaw(5);
+			}
+			store.increaseRotation(0, 1, 0);
+			if (master != null) {
+				master.render(light, camera, store);
+				return;
+			}
+			cache.beginFrame();
+			culler.cull(store, renderer.getProjectionMatrix(), camera);
+			renderer.prepare();
+			shader.start();
+			shader.loadLight(light);
+			shader.loadViewMatrix(camera);
+			renderer.render(store, culler, camera);
+			shader.stop();
+		}
+
+	}
+
+	// Keeps the state a driver would & notes it at every draw.  Names
+	// count up from 1; uniform locations are per name.
+	private static class StateGL implements GLCalls {
+
+		List<String> draws = new ArrayList<String>();
+		int calls;
+
+		private int nextName = 1;
+		private Map<String, Integer> locations = new HashMap<String, Integer>();
+		private int program, vertexArray, arrayBuffer, activeUnit = GL13.GL_TEXTURE0;
+		// Texture bound to each unit & target.
+		private Map<String, Integer> textures = new TreeMap<String, Integer>();
+		private TreeSet<Integer> capabilities = new TreeSet<Integer>();
+		private Map<Integer, TreeSet<Integer>> enabledArrays = new HashMap<Integer, TreeSet<Integer>>();
+		private Map<Integer, Map<Integer, String>> uniforms = new HashMap<Integer, Map<Integer, String>>();
+		private int cullFace;
+		private String clearColor = "";
+
+		private void draw(String what) {
+			calls++;
+			TreeSet<Integer> arrays = enabledArrays.get(vertexArray);
+			draws.add(what + " program " + program + " vao " + vertexArray + " arrays " + arrays + " buffer "
+					+ arrayBuffer + " unit " + activeUnit + " textures " + textures + " capabilities "
+					+ capabilities + " cull " + cullFace + " clear " + clearColor + " uniforms "
+					+ new TreeMap<Integer, String>(uniformsOf(program)));
+		}
+
+		private Map<Integer, String> uniformsOf(int program) {
+			Map<Integer, String> values = uniforms.get(program);
+			if (values == null) {
+				values = new HashMap<Integer, String>();
+				uniforms.put(program, values);
+			}
+			return values;
+		}
+
+		private TreeSet<Integer> arraysOf(int array) {
+			TreeSet<Integer> arrays = enabledArrays.get(array);
+			if (arrays == null) {
+				arrays = new TreeSet<Integer>();
+				enabledArrays.put(array, arrays);
+			}
+			return arrays;
+		}
+
+		private void uniform(int location, String value) {
+			calls++;
+			if (location >= 0) {
+				uniformsOf(program).put(location, value);
+			}
+		}
+
+		@Override
+		public void glEnable(int capability) {
+			calls++;
+			capabilities.add(capability);
+		}
+
+		@Override
+		public void glDisable(int capability) {
+			calls++;
+			capabilities.remove(capability);
+		}
+
+		@Override
+		public void glCullFace(int mode) {
+			calls++;
+			cullFace = mode;
+		}
+
+		@Override
+		public void glClearColor(float red, float green, float blue, float alpha) {
+			calls++;
+			clearColor = red + " " + green + " " + blue + " " + alpha;
+		}
+
+		@Override
+		public void glClear(int mask) {
+			calls++;
+		}
+
+		@Override
+		public int glCreateShader(int type) {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public void glShaderSource(int shader, CharSequence source) {
+			calls++;
+		}
+
+		@Override
+		public void glCompileShader(int shader) {
+			calls++;
+		}
+
+		@Override
+		public int glGetShaderi(int shader, int name) {
+			calls++;
+			return name == GL20.GL_COMPILE_STATUS ? GL11.GL_TRUE : 0;
+		}
+
+		@Override
+		public String glGetShaderInfoLog(int shader, int maxLength) {
+			calls++;
+			return "";
+		}
+
+		@Override
+		public void glDeleteShader(int shader) {
+			calls++;
+		}
+
+		@Override
+		public int glCreateProgram() {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public void glAttachShader(int program, int shader) {
+			calls++;
+		}
+
+		@Override
+		public void glDetachShader(int program, int shader) {
+			calls++;
+		}
+
+		@Override
+		public void glBindAttribLocation(int program, int index, CharSequence name) {
+			calls++;
+		}
+
+		@Override
+		public void glLinkProgram(int program) {
+			calls++;
+			uniforms.remove(program);
+		}
+
+		@Override
+		public void glValidateProgram(int program) {
+			calls++;
+		}
+
+		@Override
+		public void glUseProgram(int program) {
+			calls++;
+			this.program = program;
+		}
+
+		@Override
+		public void glDeleteProgram(int program) {
+			calls++;
+			uniforms.remove(program);
+		}
+
+		@Override
+		public int glGetUniformLocation(int program, CharSequence name) {
+			calls++;
+			String key = program + " " + name;
+			if (!locations.containsKey(key)) {
+				locations.put(key, locations.size());
+			}
+			return locations.get(key);
+		}
+
+		@Override
+		public void glUniform1f(int location, float value) {
+			uniform(location, Float.toString(value));
+		}
+
+		@Override
+		public void glUniform1i(int location, int value) {
+			uniform(location, Integer.toString(value));
+		}
+
+		@Override
+		public void glUniform3f(int location, float x, float y, float z) {
+			uniform(location, x + " " + y + " " + z);
+		}
+
+		@Override
+		public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+			float[] values = new float[matrices.remaining()];
+			matrices.duplicate().get(values);
+			uniform(location, transpose + " " + Arrays.toString(values));
+		}
+
+		@Override
+		public int glGenVertexArrays() {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public void glBindVertexArray(int array) {
+			calls++;
+			vertexArray = array;
+		}
+
+		@Override
+		public void glDeleteVertexArrays(int array) {
+			calls++;
+			enabledArrays.remove(array);
+			if (vertexArray == array) {
+				vertexArray = 0;
+			}
+		}
+
+		@Override
+		public void glEnableVertexAttribArray(int index) {
+			calls++;
+			arraysOf(vertexArray).add(index);
+		}
+
+		@Override
+		public void glDisableVertexAttribArray(int index) {
+			calls++;
+			arraysOf(vertexArray).remove(index);
+		}
+
+		@Override
+		public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+				long offset) {
+			calls++;
+		}
+
+		@Override
+		public void glVertexAttribIPointer(int index, int size, int type, int stride, long offset) {
+			calls++;
+		}
+
+		@Override
+		public void glVertexAttribDivisor(int index, int divisor) {
+			calls++;
+		}
+
+		@Override
+		public int glGenBuffers() {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public void glBindBuffer(int target, int buffer) {
+			calls++;
+			if (target == GL15.GL_ARRAY_BUFFER) {
+				arrayBuffer = buffer;
+			}
+		}
+
+		@Override
+		public void glBufferData(int target, long size, int usage) {
+			calls++;
+		}
+
+		@Override
+		public void glBufferSubData(int target, long offset, FloatBuffer data) {
+			calls++;
+		}
+
+		@Override
+		public void glDeleteBuffers(int buffer) {
+			calls++;
+			if (arrayBuffer == buffer) {
+				arrayBuffer = 0;
+			}
+		}
+
+		@Override
+		public void glBufferStorage(int target, long size, int flags) {
+			calls++;
+		}
+
+		@Override
+		public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+			calls++;
+			return BufferUtils.createByteBuffer((int) length);
+		}
+
+		@Override
+		public boolean glUnmapBuffer(int target) {
+			calls++;
+			return true;
+		}
+
+		@Override
+		public long glFenceSync(int condition, int flags) {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public int glClientWaitSync(long sync, int flags, long timeout) {
+			calls++;
+			return GL32.GL_ALREADY_SIGNALED;
+		}
+
+		@Override
+		public void glDeleteSync(long sync) {
+			calls++;
+		}
+
+		@Override
+		public void glActiveTexture(int unit) {
+			calls++;
+			activeUnit = unit;
+		}
+
+		@Override
+		public void glBindTexture(int target, int texture) {
+			calls++;
+			textures.put((activeUnit - GL13.GL_TEXTURE0) + " " + target, texture);
+		}
+
+		@Override
+		public int glGenTextures() {
+			calls++;
+			return nextName++;
+		}
+
+		@Override
+		public void glDeleteTextures(int texture) {
+			calls++;
+			for (Map.Entry<String, Integer> bound : textures.entrySet()) {
+				if (bound.getValue() == texture) {
+					bound.setValue(0);
+				}
+			}
+		}
+
+		@Override
+		public void glTexBuffer(int target, int internalFormat, int buffer) {
+			calls++;
+		}
+
+		@Override
+		public void glDrawElements(int mode, int count, int type, long offset) {
+			draw("elements " + count);
+		}
+
+		@Override
+		public void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+			draw("instanced " + count + " x " + instances);
+		}
+
+		@Override
+		public void glDrawArraysInstanced(int mode, int first, int count, int instances) {
+			draw("arrays " + count + " x " + instances);
+		}
+
+	}
+
+}
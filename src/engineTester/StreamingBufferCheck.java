@@ -0,0 +1,230 @@
+package engineTester;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.InstanceBuffer;
+import renderEngine.MasterRenderer;
+import renderEngine.RecordingGLCalls;
+import renderEngine.StreamingBuffer;
+import shaders.InstancedShader;
+import textures.ModelTexture;
+
+/*
+ * File:	StreamingBufferCheck.java
+ * Purpose:	Streams frames through a StreamingBuffer in each mode with the
+ * 			GL calls recorded, and checks that frames go round the ring of
+ * 			regions, that each region's fence is only waited on when the ring
+ * 			comes back to it (blocking, & counted as a stall, only if the GPU
+ * 			hasn't passed it), that no more fences live than there are
+ * 			regions, that mapped frames are mapped unsynchronized &
+ * 			invalidated while persistent ones are mapped once, that growing
+ * 			keeps working, and that the orphaning fallback uploads into fresh
+ * 			storage.  Then renders the same frames through the instanced
+ * 			renderer in every mode and checks they draw the same instance
+ * 			data, found through the slots streamed.  Exits with 1 if any check fails.  Needs no
+ * 			display.
+ *
+ * 			Usage:	StreamingBufferCheck
+ */
+public class StreamingBufferCheck {
+
+	private static final String[] MODE_NAMES = { "persistent", "mapped", "orphaned" };
+	private static final int FRAMES = 9;
+	private static final int FLOATS = 100;
+	private static final int ENTITIES = 5000;
+	private static final int MODELS = 2;
+
+	public static void main(String[] args) {
+		boolean ok = true;
+		System.out.println("mode        calls/frame  waits  stalls  fences  ok");
+		for (int mode = StreamingBuffer.PERSISTENT; mode <= StreamingBuffer.ORPHANED; mode++) {
+			ok &= checkRing(mode);
+		}
+
+		// The renderer draws the same instances whichever way it streams.
+		float[][] reference = null;
+		for (int mode = StreamingBuffer.PERSISTENT; mode <= StreamingBuffer.ORPHANED; mode++) {
+			float[][] drawn = renderFrames(mode);
+			if (reference == null) {
+				reference = drawn;
+			}
+			boolean same = Arrays.deepEquals(reference, drawn);
+			System.out.println(String.format("Renderer, %-10s  %d frames, %d instance floats, same as %s:  %b",
+					MODE_NAMES[mode], drawn.length, drawn[0].length, MODE_NAMES[0], same));
+			ok &= same && drawn[0].length > 0;
+		}
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// Streams frames of FLOATS floats, the GPU keeping up at first & then
+	// falling behind, then a bigger frame & an empty one.
+	private static boolean checkRing(int mode) {
+		boolean ok = true;
+		RecordingGLCalls gl = new RecordingGLCalls();
+		StreamingBuffer buffer = new StreamingBuffer(gl, mode, FLOATS * 4);
+		int regions = mode == StreamingBuffer.ORPHANED ? 1 : StreamingBuffer.REGIONS;
+		int vbo = buffer.getVbo();
+		gl.clear();
+		int maxFences = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			ok &= streamFrame(gl, buffer, frame, FLOATS, frame % regions * buffer.getRegionSize());
+			maxFences = Math.max(maxFences, gl.getFenceCount());
+			// The GPU keeps up for the first frames, then falls behind, so the
+			// last frames find it still reading their regions.
+			if (frame < FRAMES - 2 * StreamingBuffer.REGIONS) {
+				gl.signalFences();
+			}
+		}
+		int calls = gl.getCalls().size();
+		int waits = gl.count("glClientWaitSync");
+		int stalls = buffer.getStalls();
+		if (mode == StreamingBuffer.ORPHANED) {
+			// Fresh storage & an upload every frame, no fences.
+			ok &= gl.count("glBufferData") == FRAMES && gl.count("glBufferSubData") == FRAMES;
+			ok &= gl.count("glFenceSync") == 0 && waits == 0 && stalls == 0;
+		} else {
+			// A fence a frame, each waited on (without blocking if passed)
+			// when its region comes round again.
+			ok &= gl.count("glFenceSync") == FRAMES && maxFences <= StreamingBuffer.REGIONS;
+			ok &= stalls == StreamingBuffer.REGIONS && waits == FRAMES - StreamingBuffer.REGIONS + stalls;
+			ok &= gl.count("glBufferData") == 0 && gl.count("glBufferSubData") == 0;
+		}
+		if (mode == StreamingBuffer.MAPPED) {
+			// Each frame mapped on its own, without the driver syncing.
+			ok &= gl.count("glMapBufferRange") == FRAMES && gl.count("glUnmapBuffer") == FRAMES;
+			for (Object[] map : gl.getArguments("glMapBufferRange")) {
+				int access = (Integer) map[3];
+				ok &= (access & GL30.GL_MAP_UNSYNCHRONIZED_BIT) != 0 && (access & GL30.GL_MAP_INVALIDATE_RANGE_BIT) != 0
+						&& (Long) map[2] == FLOATS * 4L;
+			}
+		} else if (mode == StreamingBuffer.PERSISTENT) {
+			// Mapped once, when created.
+			ok &= gl.count("glMapBufferRange") == 0 && gl.count("glUnmapBuffer") == 0;
+		}
+
+		// A frame bigger than a region grows them, dropping the old fences.
+		long oldRegionSize = buffer.getRegionSize();
+		gl.clear();
+		ok &= streamFrame(gl, buffer, FRAMES, FLOATS * 10, 0);
+		ok &= buffer.getRegionSize() >= FLOATS * 40L && buffer.getRegionSize() > oldRegionSize;
+		ok &= gl.getFenceCount() == (mode == StreamingBuffer.ORPHANED ? 0 : 1);
+		if (mode == StreamingBuffer.PERSISTENT) {
+			// Immutable storage can't grow, so it takes a new buffer.
+			ok &= buffer.getVbo() != vbo && gl.count("glDeleteBuffers") == 1 && gl.count("glBufferStorage") == 1
+					&& ((Integer) gl.getArguments("glBufferStorage").get(0)[2] & GL44.GL_MAP_PERSISTENT_BIT) != 0;
+		} else {
+			ok &= buffer.getVbo() == vbo;
+		}
+
+		// An empty frame maps nothing.
+		gl.clear();
+		buffer.map(0);
+		buffer.unmap();
+		buffer.fence();
+		ok &= buffer.getBytesStreamed() == 0 && gl.count("glMapBufferRange") == 0 && gl.count("glBufferSubData") == 0;
+
+		buffer.cleanUp();
+		ok &= gl.getFenceCount() == 0;
+		System.out.println(String.format("%-10s  %11.1f  %5d  %6d  %6d  %b", MODE_NAMES[mode], (float) calls / FRAMES,
+				waits, stalls, maxFences, ok));
+		return ok;
+	}
+
+	// Streams a frame of 'floats' floats numbered after it, checking that
+	// they land 'expectedOffset' bytes into the buffer.
+	private static boolean streamFrame(RecordingGLCalls gl, StreamingBuffer buffer, int frame, int floats,
+			long expectedOffset) {
+		FloatBuffer data = buffer.map(floats);
+		for (int k = 0; k < floats; k++) {
+			data.put(frame * 100000 + k);
+		}
+		long offset = buffer.unmap();
+		buffer.fence();
+		float[] contents = gl.getBufferData(buffer.getVbo());
+		boolean ok = offset == expectedOffset && offset % 4 == 0 && buffer.getBytesStreamed() == floats * 4L;
+		for (int k = 0; k < floats && ok; k++) {
+			ok = contents[(int) (offset / 4) + k] == frame * 100000 + k;
+		}
+		return ok;
+	}
+
+	// Renders frames of the same bodies with the camera moving & returns the
+	// instance floats each frame's draws read.
+	private static float[][] renderFrames(int mode) {
+		RecordingGLCalls gl = new RecordingGLCalls();
+		MasterRenderer renderer = new MasterRenderer(gl, 16f / 9f, mode);
+		EntityStore store = new EntityStore();
+		Random random = new Random(42);
+		for (int m = 0; m < MODELS; m++) {
+			TexturedModel model = new TexturedModel(new RawModel(100 + m, 960), new ModelTexture(200 + m));
+			for (int i = 0; i < ENTITIES / MODELS; i++) {
+				store.add(model, random.nextFloat() * 40 - 20, random.nextFloat() * 40 - 20, -random.nextFloat() * 60,
+						random.nextFloat() * 360, random.nextFloat() * 360, 0, 0.05f + random.nextFloat() * 0.2f);
+			}
+		}
+		Camera camera = new Camera();
+		Light light = new Light(new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+		float[][] drawn = new float[FRAMES][];
+		for (int frame = 0; frame < FRAMES; frame++) {
+			camera.getPosition().x = frame * 0.5f;
+			gl.clear();
+			renderer.render(light, camera, store);
+			drawn[frame] = drawnInstances(gl, renderer.getInstancedRenderer().getSlotBuffer().getVbo());
+			gl.signalFences();
+		}
+		return drawn;
+	}
+
+	// The floats the instances of each draw read, draw after draw, found
+	// from where the slot attribute pointed in the slot VBO when it was
+	// drawn & the instance data's buffer texture bound.
+	private static float[] drawnInstances(RecordingGLCalls gl, int slotVbo) {
+		float[] slots = gl.getBufferData(slotVbo);
+		float[] instanceData = new float[0];
+		List<Object[]> textures = gl.getArguments("glBindTexture");
+		List<Object[]> pointers = gl.getArguments("glVertexAttribIPointer");
+		List<Object[]> draws = gl.getArguments("glDrawElementsInstanced");
+		float[] drawn = new float[0];
+		int texture = 0, pointer = 0, drawIndex = 0;
+		long offset = 0;
+		for (String call : gl.getCalls()) {
+			if (call.equals("glBindTexture")) {
+				Object[] arguments = textures.get(texture++);
+				if ((Integer) arguments[0] == GL31.GL_TEXTURE_BUFFER && (Integer) arguments[1] != 0) {
+					instanceData = gl.getBufferData(gl.getTextureBuffer((Integer) arguments[1]));
+				}
+			} else if (call.equals("glVertexAttribIPointer")) {
+				Object[] arguments = pointers.get(pointer++);
+				if ((Integer) arguments[0] == InstancedShader.INSTANCE_SLOT_ATTRIBUTE) {
+					offset = (Long) arguments[4];
+				}
+			} else if (call.equals("glDrawElementsInstanced")) {
+				int instances = (Integer) draws.get(drawIndex++)[4];
+				int from = (int) (offset / 4), length = InstanceBuffer.FLOATS_PER_INSTANCE;
+				int at = drawn.length;
+				drawn = Arrays.copyOf(drawn, drawn.length + instances * length);
+				for (int i = 0; i < instances; i++, at += length) {
+					int slot = Float.floatToRawIntBits(slots[from + i]);
+					System.arraycopy(instanceData, slot * length, drawn, at, length);
+				}
+			}
+		}
+		return drawn;
+	}
+
+}
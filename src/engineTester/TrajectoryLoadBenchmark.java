@@ -0,0 +1,63 @@
+package engineTester;
+
+import java.io.File;
+import java.io.IOException;
+
+import trajectory.MemoryTrajectory;
+import trajectory.TextTrajectoryLoader;
+import trajectory.TextTrajectoryReader;
+import trajectory.TrajectoryFormat;
+
+/*
+ * File:	TrajectoryLoadBenchmark.java
+ * Purpose:	Compares the parallel TextTrajectoryLoader against the plain
+ * 			Scanner-based TextTrajectoryReader on a text trajectory, checks
+ * 			both produce bit-for-bit identical positions, and reports the
+ * 			throughput of each in MB/s.  Needs no display.
+ *
+ * 			Usage:	TrajectoryLoadBenchmark [input.txt]
+ */
+public class TrajectoryLoadBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		String fileName = args.length > 0 ? args[0] : "gui_input.txt";
+		double megabytes = new File(fileName).length() / 1e6;
+
+		// Reference:  the Scanner reader, in the order MainGameLoop always used.
+		long start = System.nanoTime();
+		TextTrajectoryReader reader = new TextTrajectoryReader(fileName);
+		float[][] expected = new float[reader.getTimesteps()][reader.getNumBodies() * TrajectoryFormat.FLOATS_PER_BODY];
+		for (int t = 0; t < expected.length; t++) {
+			reader.nextFrame(expected[t]);
+		}
+		reader.close();
+		double scannerSeconds = (System.nanoTime() - start) / 1e9;
+
+		TextTrajectoryLoader loader = new TextTrajectoryLoader();
+		MemoryTrajectory loaded = loader.load(fileName);
+
+		// Compare bit patterns so -0.0 and NaN are checked too.
+		int mismatches = 0;
+		for (int t = 0; t < expected.length; t++) {
+			float[] frame = loaded.getFrame(t);
+			for (int i = 0; i < frame.length; i++) {
+				if (Float.floatToRawIntBits(frame[i]) != Float.floatToRawIntBits(expected[t][i])) {
+					if (mismatches++ < 10) {
+						System.err.println("Mismatch at timestep " + t + ", value " + i + ":  " + frame[i] + " vs "
+								+ expected[t][i]);
+					}
+				}
+			}
+		}
+
+		System.out.println(String.format("Scanner:   %8.1f MB/s (%d ms)", megabytes / scannerSeconds,
+				(long) (scannerSeconds * 1000)));
+		System.out.println(String.format("Parallel:  %8.1f MB/s (%d ms)", loader.getThroughput(),
+				loader.getLoadMillis()));
+		System.out.println(mismatches == 0 ? "Output identical." : mismatches + " values differ!");
+		if (mismatches != 0) {
+			System.exit(1);
+		}
+	}
+
+}
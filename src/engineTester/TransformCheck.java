@@ -0,0 +1,152 @@
+package engineTester;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import toolbox.Maths;
+
+/*
+ * File:	TransformCheck.java
+ * Purpose:	Checks the primitive transform kernel & view matrix against the
+ * 			Matrix4f versions in Maths, asserts (via the thread's allocated
+ * 			byte counter) that a frame of them allocates nothing once warmed
+ * 			up, and compares their speed with building a Matrix4f per body.
+ * 			Exits with 1 if any check fails.  Needs no display.
+ *
+ * 			Usage:	TransformCheck [numBodies]
+ */
+public class TransformCheck {
+
+	private static final int WARMUP_FRAMES = 50;
+	private static final int FRAMES = 20;
+	private static final int SAMPLE = 1000;
+	private static final float TOLERANCE = 1e-5f;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		boolean ok = true;
+
+		Random random = new Random(42);
+		float[] x = new float[count], y = new float[count], z = new float[count];
+		float[] rotX = new float[count], rotY = new float[count], rotZ = new float[count];
+		float[] scale = new float[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = random.nextFloat() * 20 - 10;
+			y[i] = random.nextFloat() * 20 - 10;
+			z[i] = random.nextFloat() * 20 - 10;
+			rotX[i] = random.nextFloat() * 720 - 360;
+			rotY[i] = random.nextFloat() * 720 - 360;
+			rotZ[i] = random.nextFloat() * 720 - 360;
+			scale[i] = 0.05f + random.nextFloat();
+		}
+		Camera camera = new Camera();
+		camera.getPosition().set(1.5f, -2, 7);
+		camera.setPitch(25);
+		camera.setYaw(-140);
+		FloatBuffer transformations = BufferUtils.createFloatBuffer(count * 16);
+		FloatBuffer view = BufferUtils.createFloatBuffer(16);
+
+		// Same matrices as Maths.
+		frame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations, view);
+		float worst = 0;
+		for (int i = 0; i < Math.min(count, SAMPLE); i++) {
+			Matrix4f expected = Maths.createTransformationMatrix(new Vector3f(x[i], y[i], z[i]), rotX[i], rotY[i],
+					rotZ[i], scale[i]);
+			worst = Math.max(worst, difference(expected, transformations, i * 16));
+		}
+		float viewError = difference(Maths.createViewMatrix(camera), view, 0);
+		System.out.println(String.format("Largest difference from Maths:  transformation %.2e, view %.2e", worst,
+				viewError));
+		ok &= worst < TOLERANCE && viewError < TOLERANCE;
+
+		// No allocation once the JIT has settled.
+		for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+			frame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations, view);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		// What reading the counter costs, so that it isn't blamed on the frames.
+		long before = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		before = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			frame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations, view);
+		}
+		double kernelMillis = (System.nanoTime() - start) / 1e6 / FRAMES;
+		long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+		System.out.println(String.format("%d bodies:  %.2f ms per frame, %d bytes allocated per frame", count,
+				kernelMillis, allocated / FRAMES));
+		ok &= allocated == 0;
+
+		// The old way, a Matrix4f (and its Vector3f axes) per body.
+		for (int frame = 0; frame < WARMUP_FRAMES / 5; frame++) {
+			oldFrame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations);
+		}
+		before = threads.getThreadAllocatedBytes(thread);
+		start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			oldFrame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations);
+		}
+		double oldMillis = (System.nanoTime() - start) / 1e6 / FRAMES;
+		allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+		System.out.println(String.format("Matrix4f per body:  %.2f ms per frame, %d bytes allocated per frame",
+				oldMillis, allocated / FRAMES));
+
+		// Every body spinning alike, as in MainGameLoop.
+		Arrays.fill(rotX, 0);
+		Arrays.fill(rotY, 37.5f);
+		Arrays.fill(rotZ, 0);
+		start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			frame(x, y, z, rotX, rotY, rotZ, scale, count, camera, transformations, view);
+		}
+		System.out.println(String.format("Kernel with one shared rotation:  %.2f ms per frame",
+				(System.nanoTime() - start) / 1e6 / FRAMES));
+
+		System.out.println(ok ? "All checks passed." : "CHECK FAILED!");
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static void frame(float[] x, float[] y, float[] z, float[] rotX, float[] rotY, float[] rotZ,
+			float[] scale, int count, Camera camera, FloatBuffer transformations, FloatBuffer view) {
+		view.clear();
+		Maths.storeViewMatrix(camera, view);
+		view.flip();
+		transformations.clear();
+		Maths.storeTransformationMatrices(x, y, z, rotX, rotY, rotZ, scale, 0, count, transformations);
+		transformations.flip();
+	}
+
+	private static void oldFrame(float[] x, float[] y, float[] z, float[] rotX, float[] rotY, float[] rotZ,
+			float[] scale, int count, Camera camera, FloatBuffer transformations) {
+		Maths.createViewMatrix(camera);
+		transformations.clear();
+		for (int i = 0; i < count; i++) {
+			Maths.createTransformationMatrix(new Vector3f(x[i], y[i], z[i]), rotX[i], rotY[i], rotZ[i], scale[i])
+					.store(transformations);
+		}
+		transformations.flip();
+	}
+
+	// Largest difference between a matrix & the 16 floats at 'offset'.
+	private static float difference(Matrix4f expected, FloatBuffer actual, int offset) {
+		float[] columns = { expected.m00, expected.m01, expected.m02, expected.m03, expected.m10, expected.m11,
+				expected.m12, expected.m13, expected.m20, expected.m21, expected.m22, expected.m23, expected.m30,
+				expected.m31, expected.m32, expected.m33 };
+		float worst = 0;
+		for (int f = 0; f < 16; f++) {
+			worst = Math.max(worst, Math.abs(columns[f] - actual.get(offset + f)));
+		}
+		return worst;
+	}
+
+}
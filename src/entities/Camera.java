@@ -33,10 +33,18 @@ public class Camera {
 		return pitch;
 	}
 
+	public void setPitch(float pitch) {
+		this.pitch = pitch;
+	}
+
 	public float getYaw() {
 		return yaw;
 	}
 
+	public void setYaw(float yaw) {
+		this.yaw = yaw;
+	}
+
 	public float getRoll() {
 		return roll;
 	}
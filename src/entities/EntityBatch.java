@@ -0,0 +1,304 @@
+package entities;
+
+import java.util.Arrays;
+
+import models.TexturedModel;
+
+/*
+ * File:	EntityBatch.java
+ * Purpose:	All the entities of one TexturedModel, as parallel primitive
+ * 			arrays:  slot i of each array belongs to the same entity, and
+ * 			slots [0, count) are in use with no gaps.  Removing an entity
+ * 			moves the last one into its slot, so slots are not stable;
+ * 			EntityStore hands out handles that are.  Slots whose position or
+ * 			scale changed are marked dirty, a bit each, so copies of the
+ * 			batch kept elsewhere (on the GPU) can be brought up to date range
+ * 			by range.  Slots whose rotation changed are marked in a set of
+ * 			their own, which only copies that hold rotation fold in with
+ * 			mergeRotated(), so spinning entities doesn't make copies without
+ * 			it (impostors) send everything.  Only one copy can take the dirty
+ * 			slots, so each take counts a generation:  a copy that finds the
+ * 			generation moved on since its own take missed changes & must be
+ * 			sent whole.  Code writing to the arrays directly must call
+ * 			markDirty() or markRotated() too.
+ */
+public class EntityBatch {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private TexturedModel model;
+	private int count;
+	private float[] x, y, z;
+	private float[] rotX, rotY, rotZ;
+	private float[] scale;
+	// Handle of the entity in each slot.
+	private int[] handles;
+
+	// One bit per slot, set if the slot changed since takeDirtyRanges().
+	private long[] dirty = new long[0];
+	private int dirtyCount;
+	// Dirty slots as ranges [start, end), from takeDirtyRanges().
+	private int[] dirtyRanges = new int[16];
+	// Times the dirty slots were taken or cleared.
+	private int dirtyGeneration;
+	// One bit per slot, set if its rotation changed since mergeRotated().
+	private long[] rotated = new long[0];
+	private boolean anyRotated;
+
+	public EntityBatch(TexturedModel model) {
+		this.model = model;
+		resize(INITIAL_CAPACITY);
+	}
+
+	// Appends an entity, returning its slot.
+	int add(int handle, float x, float y, float z, float rotX, float rotY, float rotZ, float scale) {
+		if (count == handles.length) {
+			resize(count * 2);
+		}
+		this.x[count] = x;
+		this.y[count] = y;
+		this.z[count] = z;
+		this.rotX[count] = rotX;
+		this.rotY[count] = rotY;
+		this.rotZ[count] = rotZ;
+		this.scale[count] = scale;
+		handles[count] = handle;
+		markDirty(count);
+		return count++;
+	}
+
+	// Removes the entity in a slot by moving the last entity into it.
+	// Returns the handle of the entity that moved, or -1 if it was the last.
+	int remove(int slot) {
+		int last = --count;
+		// Nothing is left in the last slot to bring up to date.
+		clearDirty(last);
+		if (slot == last) {
+			return -1;
+		}
+		x[slot] = x[last];
+		y[slot] = y[last];
+		z[slot] = z[last];
+		rotX[slot] = rotX[last];
+		rotY[slot] = rotY[last];
+		rotZ[slot] = rotZ[last];
+		scale[slot] = scale[last];
+		handles[slot] = handles[last];
+		markDirty(slot);
+		return handles[slot];
+	}
+
+	// Rearranges the slots so that new slot i holds what was in slot
+	// order[i].  'order' must be a permutation of [0, count).
+	void reorder(int[] order) {
+		x = permute(x, order);
+		y = permute(y, order);
+		z = permute(z, order);
+		rotX = permute(rotX, order);
+		rotY = permute(rotY, order);
+		rotZ = permute(rotZ, order);
+		scale = permute(scale, order);
+		int[] moved = new int[handles.length];
+		for (int i = 0; i < count; i++) {
+			moved[i] = handles[order[i]];
+		}
+		handles = moved;
+		markDirty(0, count);
+	}
+
+	// Marks a slot as changed.
+	public void markDirty(int slot) {
+		int word = slot >>> 6;
+		long bit = 1L << slot;
+		if ((dirty[word] & bit) == 0) {
+			dirty[word] |= bit;
+			dirtyCount++;
+		}
+	}
+
+	// Marks slots [from, to) as changed.
+	public void markDirty(int from, int to) {
+		for (int slot = from; slot < to; slot++) {
+			markDirty(slot);
+		}
+	}
+
+	private void clearDirty(int slot) {
+		int word = slot >>> 6;
+		long bit = 1L << slot;
+		if ((dirty[word] & bit) != 0) {
+			dirty[word] &= ~bit;
+			dirtyCount--;
+		}
+		rotated[word] &= ~bit;
+	}
+
+	// Marks slots [from, to) as turned.
+	public void markRotated(int from, int to) {
+		for (int slot = from; slot < to; slot++) {
+			rotated[slot >>> 6] |= 1L << slot;
+		}
+		anyRotated |= from < to;
+	}
+
+	// Folds the slots turned since the last call into the dirty ones, for
+	// copies that hold rotation.
+	public void mergeRotated() {
+		if (!anyRotated) {
+			return;
+		}
+		int words = (count + 63) >>> 6;
+		dirtyCount = 0;
+		for (int word = 0; word < words; word++) {
+			dirty[word] |= rotated[word];
+			dirtyCount += Long.bitCount(dirty[word]);
+		}
+		Arrays.fill(rotated, 0);
+		anyRotated = false;
+	}
+
+	// Marks every slot as clean, e.g. once all were sent anyway.
+	public void clearDirty() {
+		Arrays.fill(dirty, 0);
+		dirtyCount = 0;
+		dirtyGeneration++;
+	}
+
+	// Coalesces the dirty slots into ranges [start, end), kept in
+	// getDirtyRanges(), & clears them.  Ranges less than 'gap' clean slots
+	// apart are joined, as taking a few clean slots along is cheaper than
+	// another range.  Returns the # of ranges.
+	public int takeDirtyRanges(int gap) {
+		int rangeCount = 0;
+		int words = (count + 63) >>> 6;
+		int slot = 0;
+		while (dirtyCount > 0 && slot < count) {
+			// Next dirty slot, a word at a time.
+			int word = slot >>> 6;
+			long bits = word < words ? dirty[word] & (-1L << slot) : 0;
+			while (bits == 0 && ++word < words) {
+				bits = dirty[word];
+			}
+			if (bits == 0) {
+				break;
+			}
+			int start = (word << 6) + Long.numberOfTrailingZeros(bits);
+			// Then the next clean one.
+			long clean = ~dirty[word] & (-1L << start);
+			while (clean == 0 && ++word < words) {
+				clean = ~dirty[word];
+			}
+			int end = clean == 0 ? count : Math.min(count, (word << 6) + Long.numberOfTrailingZeros(clean));
+			if (rangeCount > 0 && start - dirtyRanges[rangeCount * 2 - 1] < gap) {
+				dirtyRanges[rangeCount * 2 - 1] = end;
+			} else {
+				if (rangeCount * 2 + 2 > dirtyRanges.length) {
+					int[] grown = new int[dirtyRanges.length * 2];
+					System.arraycopy(dirtyRanges, 0, grown, 0, rangeCount * 2);
+					dirtyRanges = grown;
+				}
+				dirtyRanges[rangeCount * 2] = start;
+				dirtyRanges[rangeCount * 2 + 1] = end;
+				rangeCount++;
+			}
+			slot = end;
+		}
+		Arrays.fill(dirty, 0, Math.min(dirty.length, words), 0);
+		dirtyCount = 0;
+		dirtyGeneration++;
+		return rangeCount;
+	}
+
+	private float[] permute(float[] array, int[] order) {
+		float[] moved = new float[array.length];
+		for (int i = 0; i < count; i++) {
+			moved[i] = array[order[i]];
+		}
+		return moved;
+	}
+
+	private void resize(int capacity) {
+		x = copy(x, capacity);
+		y = copy(y, capacity);
+		z = copy(z, capacity);
+		rotX = copy(rotX, capacity);
+		rotY = copy(rotY, capacity);
+		rotZ = copy(rotZ, capacity);
+		scale = copy(scale, capacity);
+		int[] grown = new int[capacity];
+		if (handles != null) {
+			System.arraycopy(handles, 0, grown, 0, count);
+		}
+		handles = grown;
+		long[] grownDirty = new long[(capacity + 63) >>> 6];
+		System.arraycopy(dirty, 0, grownDirty, 0, dirty.length);
+		dirty = grownDirty;
+		long[] grownRotated = new long[grownDirty.length];
+		System.arraycopy(rotated, 0, grownRotated, 0, rotated.length);
+		rotated = grownRotated;
+	}
+
+	private float[] copy(float[] array, int capacity) {
+		float[] grown = new float[capacity];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, count);
+		}
+		return grown;
+	}
+
+	public TexturedModel getModel() {
+		return model;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public float[] getX() {
+		return x;
+	}
+
+	public float[] getY() {
+		return y;
+	}
+
+	public float[] getZ() {
+		return z;
+	}
+
+	public float[] getRotX() {
+		return rotX;
+	}
+
+	public float[] getRotY() {
+		return rotY;
+	}
+
+	public float[] getRotZ() {
+		return rotZ;
+	}
+
+	public float[] getScale() {
+		return scale;
+	}
+
+	public int[] getHandles() {
+		return handles;
+	}
+
+	// # of slots changed since takeDirtyRanges().
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	// Ranges found by the last takeDirtyRanges(), as start & end pairs.
+	public int[] getDirtyRanges() {
+		return dirtyRanges;
+	}
+
+	// Counts up each time the dirty slots are taken or cleared.
+	public int getDirtyGeneration() {
+		return dirtyGeneration;
+	}
+
+}
@@ -0,0 +1,185 @@
+package entities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import models.TexturedModel;
+
+/*
+ * File:	EntityStore.java
+ * Purpose:	Every entity in the world, kept from frame to frame in one
+ * 			EntityBatch per TexturedModel rather than as separate Entity
+ * 			objects.  Each entity gets a handle that stays valid until it is
+ * 			removed, whatever else is added or removed; a handle is simply
+ * 			an index into a table of (batch, slot), so adding, removing and
+ * 			updating are all O(1).  Only add() looks up the model's batch;
+ * 			renderers walk the batches' arrays directly, with no hashing and
+ * 			no allocation.
+ */
+public class EntityStore {
+
+	private List<EntityBatch> batches = new ArrayList<EntityBatch>();
+	private Map<TexturedModel, Integer> batchIndex = new HashMap<TexturedModel, Integer>();
+
+	// Batch & slot of each handle; batch is -1 for free handles.
+	private int[] handleBatch = new int[16];
+	private int[] handleSlot = new int[16];
+	private int handleCount;
+	// Handles of removed entities, to be reused.
+	private int[] freeHandles = new int[16];
+	private int freeCount;
+	private int count;
+
+	// Adds an entity, returning its handle.
+	public int add(TexturedModel model, float x, float y, float z, float rotX, float rotY, float rotZ,
+			float scale) {
+		Integer batch = batchIndex.get(model);
+		if (batch == null) {
+			batch = batches.size();
+			batches.add(new EntityBatch(model));
+			batchIndex.put(model, batch);
+		}
+		int handle;
+		if (freeCount > 0) {
+			handle = freeHandles[--freeCount];
+		} else {
+			if (handleCount == handleBatch.length) {
+				handleBatch = grow(handleBatch);
+				handleSlot = grow(handleSlot);
+			}
+			handle = handleCount++;
+		}
+		handleBatch[handle] = batch;
+		handleSlot[handle] = batches.get(batch).add(handle, x, y, z, rotX, rotY, rotZ, scale);
+		count++;
+		return handle;
+	}
+
+	// Adds a copy of an Entity, returning its handle.
+	public int add(Entity entity) {
+		return add(entity.getModel(), entity.getPosition().x, entity.getPosition().y, entity.getPosition().z,
+				entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
+	}
+
+	// Removes an entity; its handle may be given out again by add().
+	public void remove(int handle) {
+		checkHandle(handle);
+		int moved = batches.get(handleBatch[handle]).remove(handleSlot[handle]);
+		if (moved >= 0) {
+			handleSlot[moved] = handleSlot[handle];
+		}
+		handleBatch[handle] = -1;
+		if (freeCount == freeHandles.length) {
+			freeHandles = grow(freeHandles);
+		}
+		freeHandles[freeCount++] = handle;
+		count--;
+	}
+
+	// Rearranges a batch's slots so that new slot i holds the entity that
+	// was in slot order[i], e.g. to keep nearby entities together.  Handles
+	// are unaffected.
+	public void reorder(int batchIndex, int[] order) {
+		EntityBatch batch = batches.get(batchIndex);
+		batch.reorder(order);
+		int[] handles = batch.getHandles();
+		for (int slot = 0; slot < batch.getCount(); slot++) {
+			handleSlot[handles[slot]] = slot;
+		}
+	}
+
+	public boolean contains(int handle) {
+		return handle >= 0 && handle < handleCount && handleBatch[handle] >= 0;
+	}
+
+	// Moves the entity to a new position.  Only marks it dirty if it moved,
+	// so setting every entity each frame costs no uploads for those at rest.
+	public void setPosition(int handle, float x, float y, float z) {
+		EntityBatch batch = batchOf(handle);
+		int slot = handleSlot[handle];
+		if (batch.getX()[slot] != x || batch.getY()[slot] != y || batch.getZ()[slot] != z) {
+			batch.getX()[slot] = x;
+			batch.getY()[slot] = y;
+			batch.getZ()[slot] = z;
+			batch.markDirty(slot);
+		}
+	}
+
+	public void setScale(int handle, float scale) {
+		EntityBatch batch = batchOf(handle);
+		int slot = handleSlot[handle];
+		if (batch.getScale()[slot] != scale) {
+			batch.getScale()[slot] = scale;
+			batch.markDirty(slot);
+		}
+	}
+
+	// Rotate the entity in the world.
+	public void increaseRotation(int handle, float dx, float dy, float dz) {
+		EntityBatch batch = batchOf(handle);
+		int slot = handleSlot[handle];
+		batch.getRotX()[slot] += dx;
+		batch.getRotY()[slot] += dy;
+		batch.getRotZ()[slot] += dz;
+		if (dx != 0 || dy != 0 || dz != 0) {
+			batch.markRotated(slot, slot + 1);
+		}
+	}
+
+	// Rotate every entity in the world.
+	public void increaseRotation(float dx, float dy, float dz) {
+		for (int b = 0; b < batches.size(); b++) {
+			EntityBatch batch = batches.get(b);
+			float[] rotX = batch.getRotX(), rotY = batch.getRotY(), rotZ = batch.getRotZ();
+			for (int slot = 0; slot < batch.getCount(); slot++) {
+				rotX[slot] += dx;
+				rotY[slot] += dy;
+				rotZ[slot] += dz;
+			}
+			if (dx != 0 || dy != 0 || dz != 0) {
+				batch.markRotated(0, batch.getCount());
+			}
+		}
+	}
+
+	// Batch holding the entity, whose arrays it can be read from at getSlot().
+	public EntityBatch batchOf(int handle) {
+		checkHandle(handle);
+		return batches.get(handleBatch[handle]);
+	}
+
+	// Slot of the entity in its batch, until the next remove().
+	public int getSlot(int handle) {
+		checkHandle(handle);
+		return handleSlot[handle];
+	}
+
+	private void checkHandle(int handle) {
+		if (!contains(handle)) {
+			throw new IllegalArgumentException("No entity with handle " + handle);
+		}
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	// # of batches, some of which may be empty.
+	public int getBatchCount() {
+		return batches.size();
+	}
+
+	public EntityBatch getBatch(int index) {
+		return batches.get(index);
+	}
+
+	// # of entities.
+	public int getCount() {
+		return count;
+	}
+
+}
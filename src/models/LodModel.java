@@ -0,0 +1,49 @@
+package models;
+
+/*
+ * File:	LodModel.java
+ * Purpose:	The levels of detail of a model, from the finest (level 0) to
+ * 			the coarsest.  Level i is drawn for instances covering at least
+ * 			minPixels[i] pixels of radius on screen, so the thresholds must
+ * 			fall from level to level, the last being 0.
+ */
+public class LodModel {
+
+	private RawModel[] levels;
+	private float[] minPixels;
+
+	public LodModel(RawModel[] levels, float[] minPixels) {
+		if (levels.length != minPixels.length || minPixels[minPixels.length - 1] != 0) {
+			throw new IllegalArgumentException("Need one threshold per level, the last being 0");
+		}
+		for (int i = 1; i < minPixels.length; i++) {
+			if (minPixels[i] >= minPixels[i - 1]) {
+				throw new IllegalArgumentException("Level thresholds must fall");
+			}
+		}
+		this.levels = levels;
+		this.minPixels = minPixels;
+	}
+
+	// Finest level that may be drawn at a screen-space radius, in pixels.
+	public int levelFor(float pixels) {
+		int level = 0;
+		while (pixels < minPixels[level]) {
+			level++;
+		}
+		return level;
+	}
+
+	public RawModel getLevel(int level) {
+		return levels[level];
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	public float getMinPixels(int level) {
+		return minPixels[level];
+	}
+
+}
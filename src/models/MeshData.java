@@ -0,0 +1,47 @@
+package models;
+
+/*
+ * File:	MeshData.java
+ * Purpose:	A mesh still in main memory, ready to be loaded into a VAO:
+ * 			per-vertex positions (3 floats), texture coordinates (2) &
+ * 			normals (3), and the indices of its triangles.
+ */
+public class MeshData {
+
+	private float[] positions;
+	private float[] textureCoordinates;
+	private float[] normals;
+	private int[] indices;
+
+	public MeshData(float[] positions, float[] textureCoordinates, float[] normals, int[] indices) {
+		this.positions = positions;
+		this.textureCoordinates = textureCoordinates;
+		this.normals = normals;
+		this.indices = indices;
+	}
+
+	public float[] getPositions() {
+		return positions;
+	}
+
+	public float[] getTextureCoordinates() {
+		return textureCoordinates;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+}
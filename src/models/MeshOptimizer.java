@@ -0,0 +1,162 @@
+package models;
+
+import java.util.Arrays;
+
+/*
+ * File:	MeshOptimizer.java
+ * Purpose:	Reorders a mesh for the GPU between loading & uploading it.
+ * 			Triangles are put in an order that reuses the vertices still in
+ * 			the post-transform cache (Tipsify:  Sander, Nehab & Barczak,
+ * 			"Fast Triangle Reordering for Vertex Locality and Reduced
+ * 			Overdraw", 2007), then vertices are renumbered in the order the
+ * 			triangles first use them, so vertex fetches walk memory forwards.
+ * 			The cost is given as the ACMR (average cache miss ratio):
+ * 			vertices transformed per triangle with a FIFO cache, 0.5 at best
+ * 			for large regular meshes & 3 at worst.
+ */
+public class MeshOptimizer {
+
+	// Post-transform cache entries assumed when ordering triangles.
+	public static final int CACHE_SIZE = 16;
+
+	// Both passes, with the default cache size.
+	public static MeshData optimize(MeshData mesh) {
+		int[] indices = optimizeVertexCache(mesh.getIndices(), mesh.getVertexCount(), CACHE_SIZE);
+		return optimizeVertexFetch(new MeshData(mesh.getPositions(), mesh.getTextureCoordinates(), mesh.getNormals(),
+				indices));
+	}
+
+	// The triangles of 'indices' in cache-friendly order, each keeping its
+	// winding.
+	public static int[] optimizeVertexCache(int[] indices, int vertexCount, int cacheSize) {
+		int triangles = indices.length / 3;
+		// Triangles around each vertex:  adjacency[offsets[v]] up to
+		// adjacency[offsets[v + 1]].
+		int[] offsets = new int[vertexCount + 1];
+		for (int index : indices) {
+			offsets[index + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] adjacency = new int[indices.length];
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		for (int i = 0; i < indices.length; i++) {
+			adjacency[fill[indices[i]]++] = i / 3;
+		}
+		// Triangles each vertex still has to be drawn for.
+		int[] live = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			live[v] = offsets[v + 1] - offsets[v];
+		}
+
+		int[] cacheTime = new int[vertexCount];
+		boolean[] emitted = new boolean[triangles];
+		// Vertices of recently emitted triangles, to restart from at a dead end.
+		int[] deadEnd = new int[indices.length];
+		int deadEndCount = 0;
+		int[] candidates = new int[indices.length];
+		int[] result = new int[indices.length];
+		int out = 0;
+		int time = cacheSize + 1;
+		int cursor = 0;
+		int fanning = vertexCount > 0 ? 0 : -1;
+		while (fanning >= 0) {
+			// Emit every triangle left around the fanning vertex.
+			int candidateCount = 0;
+			for (int a = offsets[fanning]; a < offsets[fanning + 1]; a++) {
+				int t = adjacency[a];
+				if (emitted[t]) {
+					continue;
+				}
+				emitted[t] = true;
+				for (int k = 0; k < 3; k++) {
+					int v = indices[t * 3 + k];
+					result[out++] = v;
+					deadEnd[deadEndCount++] = v;
+					candidates[candidateCount++] = v;
+					live[v]--;
+					if (time - cacheTime[v] > cacheSize) {
+						cacheTime[v] = time++;
+					}
+				}
+			}
+
+			// Next, the candidate that will still be cached after its own
+			// triangles are drawn, & has been in the cache longest.
+			int next = -1, bestPriority = -1;
+			for (int c = 0; c < candidateCount; c++) {
+				int v = candidates[c];
+				if (live[v] > 0) {
+					int priority = 0;
+					if (time - cacheTime[v] + 2 * live[v] <= cacheSize) {
+						priority = time - cacheTime[v];
+					}
+					if (priority > bestPriority) {
+						bestPriority = priority;
+						next = v;
+					}
+				}
+			}
+			// Otherwise a recent vertex with triangles left, or else the next
+			// such vertex in input order.
+			while (next < 0 && deadEndCount > 0) {
+				int v = deadEnd[--deadEndCount];
+				if (live[v] > 0) {
+					next = v;
+				}
+			}
+			while (next < 0 && cursor < vertexCount) {
+				if (live[cursor] > 0) {
+					next = cursor;
+				}
+				cursor++;
+			}
+			fanning = next;
+		}
+		return result;
+	}
+
+	// Renumbers vertices in the order the indices first use them, dropping
+	// any they don't use.
+	public static MeshData optimizeVertexFetch(MeshData mesh) {
+		int[] indices = mesh.getIndices();
+		int[] remap = new int[mesh.getVertexCount()];
+		Arrays.fill(remap, -1);
+		int used = 0;
+		int[] newIndices = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) {
+				remap[v] = used++;
+			}
+			newIndices[i] = remap[v];
+		}
+		float[] positions = new float[used * 3], textures = new float[used * 2], normals = new float[used * 3];
+		for (int v = 0; v < remap.length; v++) {
+			int to = remap[v];
+			if (to >= 0) {
+				System.arraycopy(mesh.getPositions(), v * 3, positions, to * 3, 3);
+				System.arraycopy(mesh.getTextureCoordinates(), v * 2, textures, to * 2, 2);
+				System.arraycopy(mesh.getNormals(), v * 3, normals, to * 3, 3);
+			}
+		}
+		return new MeshData(positions, textures, normals, newIndices);
+	}
+
+	// Vertices transformed per triangle with a FIFO post-transform cache of
+	// the given size.
+	public static float averageCacheMissRatio(int[] indices, int vertexCount, int cacheSize) {
+		// Miss count when each vertex last entered the cache, or -1.
+		int[] entered = new int[vertexCount];
+		Arrays.fill(entered, -1);
+		int misses = 0;
+		for (int index : indices) {
+			if (entered[index] < 0 || misses - entered[index] >= cacheSize) {
+				entered[index] = misses++;
+			}
+		}
+		return indices.length == 0 ? 0 : (float) misses / (indices.length / 3);
+	}
+
+}
@@ -1,17 +1,26 @@
 package models;
 
+import org.lwjgl.opengl.GL11;
+
 /*
  * File:	RawModel.java
- * Purpose:	Represents a raw model of an object stored in memory.
+ * Purpose:	Represents a raw model of an object stored in memory.  Its
+ * 			indices are GL_UNSIGNED_INT unless it was loaded with 16-bit ones.
  */
 public class RawModel {
 
 	private int vaoID;
 	private int vertexCount;
+	private int indexType;
 
 	public RawModel(int vaoID, int vertexCount) {
+		this(vaoID, vertexCount, GL11.GL_UNSIGNED_INT);
+	}
+
+	public RawModel(int vaoID, int vertexCount, int indexType) {
 		this.vaoID = vaoID;
 		this.vertexCount = vertexCount;
+		this.indexType = indexType;
 	}
 
 	public int getVaoID() {
@@ -22,4 +31,9 @@ public class RawModel {
 		return vertexCount;
 	}
 
+	// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT, for glDrawElements().
+	public int getIndexType() {
+		return indexType;
+	}
+
 }
@@ -0,0 +1,59 @@
+package models;
+
+/*
+ * File:	SphereGenerator.java
+ * Purpose:	Generates unit spheres at any tessellation, for the coarser
+ * 			levels of detail of the body model.  Vertices lie on a grid of
+ * 			stacks (from the north pole, +y, down) by slices (around y),
+ * 			with the seam duplicated so texture coordinates can wrap.
+ * 			Triangles wind counter-clockwise seen from outside, like the
+ * 			loaded models, so back faces are culled the same way.
+ */
+public class SphereGenerator {
+
+	// Sphere of radius 1 with 'stacks' bands of latitude & 'slices' of
+	// longitude.  The pole bands are fans, so no triangle is degenerate.
+	public static MeshData generate(int stacks, int slices) {
+		int vertices = (stacks + 1) * (slices + 1);
+		float[] positions = new float[vertices * 3];
+		float[] textureCoordinates = new float[vertices * 2];
+		float[] normals = new float[vertices * 3];
+		int vertex = 0;
+		for (int i = 0; i <= stacks; i++) {
+			double theta = Math.PI * i / stacks;
+			for (int j = 0; j <= slices; j++) {
+				double phi = 2 * Math.PI * j / slices;
+				float x = (float) (Math.sin(theta) * Math.sin(phi));
+				float y = (float) Math.cos(theta);
+				float z = (float) (Math.sin(theta) * Math.cos(phi));
+				positions[vertex * 3] = normals[vertex * 3] = x;
+				positions[vertex * 3 + 1] = normals[vertex * 3 + 1] = y;
+				positions[vertex * 3 + 2] = normals[vertex * 3 + 2] = z;
+				textureCoordinates[vertex * 2] = (float) j / slices;
+				textureCoordinates[vertex * 2 + 1] = (float) i / stacks;
+				vertex++;
+			}
+		}
+
+		int[] indices = new int[slices * (stacks - 1) * 6];
+		int index = 0;
+		for (int i = 0; i < stacks; i++) {
+			for (int j = 0; j < slices; j++) {
+				int topLeft = i * (slices + 1) + j;
+				int bottomLeft = topLeft + slices + 1;
+				if (i > 0) {
+					indices[index++] = topLeft;
+					indices[index++] = bottomLeft;
+					indices[index++] = topLeft + 1;
+				}
+				if (i < stacks - 1) {
+					indices[index++] = topLeft + 1;
+					indices[index++] = bottomLeft;
+					indices[index++] = bottomLeft + 1;
+				}
+			}
+		}
+		return new MeshData(positions, textureCoordinates, normals, indices);
+	}
+
+}
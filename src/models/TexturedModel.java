@@ -10,6 +10,8 @@ public class TexturedModel {
 
 	private RawModel rawModel;
 	private ModelTexture texture;
+	// Coarser meshes to draw far away, or null to always draw rawModel.
+	private LodModel levelsOfDetail = null;
 
 	public TexturedModel(RawModel model, ModelTexture texture) {
 		this.rawModel = model;
@@ -24,4 +26,12 @@ public class TexturedModel {
 		return texture;
 	}
 
+	public LodModel getLevelsOfDetail() {
+		return levelsOfDetail;
+	}
+
+	public void setLevelsOfDetail(LodModel levelsOfDetail) {
+		this.levelsOfDetail = levelsOfDetail;
+	}
+
 }
@@ -0,0 +1,42 @@
+package renderEngine;
+
+import entities.EntityBatch;
+
+/*
+ * File:	BodyBuffer.java
+ * Purpose:	A SlotBuffer holding the center & radius of every entity of an
+ * 			EntityBatch, for drawing them as impostors.  Changing the radius
+ * 			the bodies are drawn with sends the whole batch again.
+ */
+public class BodyBuffer extends SlotBuffer {
+
+	// Floats per body:  x, y, z & radius.
+	public static final int FLOATS_PER_BODY = 4;
+	public static final int BODY_STRIDE = FLOATS_PER_BODY * 4;
+
+	// Radius at scale 1 the radii were sent with.
+	private float unitRadius = Float.NaN;
+
+	public BodyBuffer(GLCalls gl) {
+		super(gl, FLOATS_PER_BODY);
+	}
+
+	// Brings the VBO up to date with a batch whose entities are spheres of
+	// radius unitRadius * scale, & clears the batch's dirty slots.  Leaves
+	// the VBO bound to GL_ARRAY_BUFFER.
+	public void update(EntityBatch batch, float unitRadius) {
+		boolean stale = unitRadius != this.unitRadius;
+		this.unitRadius = unitRadius;
+		update(batch, stale);
+	}
+
+	// Puts the bodies in slots [from, to) into staging.
+	@Override
+	protected void pack(EntityBatch batch, int from, int to) {
+		float[] x = batch.getX(), y = batch.getY(), z = batch.getZ(), scale = batch.getScale();
+		for (int i = from; i < to; i++) {
+			staging.put(x[i]).put(y[i]).put(z[i]).put(unitRadius * scale[i]);
+		}
+	}
+
+}
@@ -0,0 +1,465 @@
+package renderEngine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import entities.EntityBatch;
+import entities.EntityStore;
+import toolbox.Frustum;
+
+/*
+ * File:	BoundingVolumeHierarchy.java
+ * Purpose:	Binary tree of axis-aligned boxes over the entities of one
+ * 			EntityBatch, for culling them against the view frustum.  On a
+ * 			rebuild the batch's slots are sorted along a Morton curve, so
+ * 			that every node covers a contiguous range of slots & the visible
+ * 			entities come out as a few long slot ranges that can be drawn or
+ * 			uploaded as they are.  Nodes are kept in a flat pool in preorder:
+ * 			a node's subtree is the nodes that follow it up to its
+ * 			subtreeEnd, so sweeping a subtree backwards visits children
+ * 			before parents.
+ *
+ * 			Each frame the tree is refit, i.e. the boxes are recomputed from
+ * 			the new positions with the structure kept.  Once the leaves have
+ * 			grown to REBUILD_GROWTH times their total surface area at the
+ * 			last build (bodies have drifted apart), or entities have been
+ * 			added or removed, it is rebuilt.  Refitting & culling are split
+ * 			into subtrees of about TASK_BODIES entities which run in parallel
+ * 			on the given pool, each writing only its own nodes & ranges.
+ */
+public class BoundingVolumeHierarchy {
+
+	private static final int LEAF_SIZE = 32;
+	// Entities per parallel subtree.
+	private static final int TASK_BODIES = 8192;
+	private static final float REBUILD_GROWTH = 2;
+	// Bits of each axis in the Morton code.
+	private static final int MORTON_BITS = 10;
+
+	private ForkJoinPool pool;
+
+	// Node pool.  Node n covers slots [first[n], end[n]) and has children
+	// left[n] & right[n] (-1 for a leaf).
+	private int nodeCount;
+	private int[] first = new int[0], end = new int[0];
+	private int[] left = new int[0], right = new int[0];
+	private int[] subtreeEnd = new int[0];
+	private float[] minX = new float[0], minY = new float[0], minZ = new float[0];
+	private float[] maxX = new float[0], maxY = new float[0], maxZ = new float[0];
+
+	// Roots of the subtrees run as separate tasks, in slot order, & the
+	// nodes above them.
+	private int taskCount;
+	private int[] taskRoots = new int[0];
+	private int topCount;
+	private int[] topNodes = new int[0];
+
+	// Per task:  leaf surface area after refitting, & visible slot ranges.
+	private double[] taskArea = new double[0];
+	private int[][] taskRanges = new int[0][];
+	private int[] taskRangeCount = new int[0];
+
+	// Visible slot ranges of the last cull, as (first, end) pairs.
+	private int[] ranges = new int[16];
+	private int rangeCount;
+	private int visibleCount;
+
+	private int builtCount = -1;
+	private double builtArea;
+	private double area;
+	private int rebuilds;
+
+	// Morton sort scratch.
+	private int[] codes = new int[0], order = new int[0];
+	private int[] digitCounts = new int[(1 << MORTON_BITS) + 1];
+	private int[] sortedCodes = new int[0], sortedOrder = new int[0];
+
+	// The frame's batch & entity radius, for the tasks.
+	private EntityBatch batch;
+	private float unitRadius;
+	private Frustum frustum;
+
+	public BoundingVolumeHierarchy() {
+		this(null);
+	}
+
+	// Refits & culls on the given pool (or on the calling thread if it is null).
+	public BoundingVolumeHierarchy(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	// Brings the tree up to date with a batch of the store, whose entities
+	// are spheres of radius unitRadius * scale.  May reorder the batch.
+	public void update(EntityStore store, int batchIndex, float unitRadius) {
+		batch = store.getBatch(batchIndex);
+		this.unitRadius = unitRadius;
+		if (batch.getCount() != builtCount) {
+			rebuild(store, batchIndex);
+			return;
+		}
+		run(Phase.REFIT);
+		area = sumAreas();
+		if (area > REBUILD_GROWTH * builtArea) {
+			rebuild(store, batchIndex);
+		}
+	}
+
+	// Finds the slot ranges of the batch whose spheres are at least partly
+	// inside the frustum.  Returns the # of entities in them.
+	public int cull(Frustum frustum) {
+		this.frustum = frustum;
+		run(Phase.CULL);
+		rangeCount = 0;
+		visibleCount = 0;
+		for (int task = 0; task < taskCount; task++) {
+			int[] found = taskRanges[task];
+			for (int r = 0; r < taskRangeCount[task]; r++) {
+				addRange(found[r * 2], found[r * 2 + 1]);
+			}
+		}
+		this.frustum = null;
+		return visibleCount;
+	}
+
+	private void addRange(int from, int to) {
+		visibleCount += to - from;
+		if (rangeCount > 0 && ranges[rangeCount * 2 - 1] == from) {
+			ranges[rangeCount * 2 - 1] = to;
+			return;
+		}
+		if (rangeCount * 2 + 2 > ranges.length) {
+			int[] grown = new int[ranges.length * 2];
+			System.arraycopy(ranges, 0, grown, 0, rangeCount * 2);
+			ranges = grown;
+		}
+		ranges[rangeCount * 2] = from;
+		ranges[rangeCount * 2 + 1] = to;
+		rangeCount++;
+	}
+
+	// Sorts the batch along a Morton curve through its bounds & builds the
+	// tree over the sorted slots.
+	private void rebuild(EntityStore store, int batchIndex) {
+		int n = batch.getCount();
+		rebuilds++;
+		builtCount = n;
+		nodeCount = 0;
+		taskCount = 0;
+		topCount = 0;
+		if (n == 0) {
+			area = builtArea = 0;
+			return;
+		}
+		sortSlots(n);
+		store.reorder(batchIndex, order);
+
+		int maxNodes = 4 * ((n + LEAF_SIZE - 1) / LEAF_SIZE) + 1;
+		if (first.length < maxNodes) {
+			allocateNodes(maxNodes);
+		}
+		int maxTasks = 2 * ((n + TASK_BODIES - 1) / TASK_BODIES) + 1;
+		if (taskRoots.length < maxTasks) {
+			taskRoots = new int[maxTasks];
+			taskArea = new double[maxTasks];
+			taskRanges = new int[maxTasks][];
+			taskRangeCount = new int[maxTasks];
+			for (int task = 0; task < maxTasks; task++) {
+				taskRanges[task] = new int[16];
+			}
+		}
+		if (topNodes.length < maxTasks) {
+			topNodes = new int[maxTasks];
+		}
+		buildNode(0, n, false);
+		run(Phase.REFIT);
+		area = builtArea = sumAreas();
+	}
+
+	// Adds the node over slots [from, to) & its subtree, halving the range
+	// until it fits in a leaf.  Returns the node.
+	private int buildNode(int from, int to, boolean inTask) {
+		int node = nodeCount++;
+		first[node] = from;
+		end[node] = to;
+		if (!inTask && to - from <= TASK_BODIES) {
+			taskRoots[taskCount++] = node;
+			inTask = true;
+		} else if (!inTask) {
+			topNodes[topCount++] = node;
+		}
+		if (to - from <= LEAF_SIZE) {
+			left[node] = right[node] = -1;
+		} else {
+			int middle = (from + to) >>> 1;
+			left[node] = buildNode(from, middle, inTask);
+			right[node] = buildNode(middle, to, inTask);
+		}
+		subtreeEnd[node] = nodeCount;
+		return node;
+	}
+
+	// Fills 'order' with the slots sorted by the Morton code of their
+	// position within the batch's bounds, with an LSD radix sort.
+	private void sortSlots(int n) {
+		if (codes.length < n) {
+			codes = new int[n];
+			order = new int[n];
+			sortedCodes = new int[n];
+			sortedOrder = new int[n];
+		}
+		float[] x = batch.getX(), y = batch.getY(), z = batch.getZ();
+		float loX = x[0], loY = y[0], loZ = z[0], hiX = x[0], hiY = y[0], hiZ = z[0];
+		for (int i = 1; i < n; i++) {
+			loX = Math.min(loX, x[i]);
+			loY = Math.min(loY, y[i]);
+			loZ = Math.min(loZ, z[i]);
+			hiX = Math.max(hiX, x[i]);
+			hiY = Math.max(hiY, y[i]);
+			hiZ = Math.max(hiZ, z[i]);
+		}
+		float cells = (1 << MORTON_BITS) - 1;
+		float size = Math.max(hiX - loX, Math.max(hiY - loY, hiZ - loZ));
+		float toCell = size > 0 ? cells / size : 0;
+		for (int i = 0; i < n; i++) {
+			codes[i] = spread((int) ((x[i] - loX) * toCell)) | spread((int) ((y[i] - loY) * toCell)) << 1
+					| spread((int) ((z[i] - loZ) * toCell)) << 2;
+			order[i] = i;
+		}
+		// One pass per axis' worth of bits.
+		int mask = (1 << MORTON_BITS) - 1;
+		int[] counts = digitCounts;
+		for (int shift = 0; shift < 3 * MORTON_BITS; shift += MORTON_BITS) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++) {
+				counts[((codes[i] >>> shift) & mask) + 1]++;
+			}
+			for (int d = 0; d < mask + 1; d++) {
+				counts[d + 1] += counts[d];
+			}
+			for (int i = 0; i < n; i++) {
+				int at = counts[(codes[i] >>> shift) & mask]++;
+				sortedCodes[at] = codes[i];
+				sortedOrder[at] = order[i];
+			}
+			int[] swap = codes;
+			codes = sortedCodes;
+			sortedCodes = swap;
+			swap = order;
+			order = sortedOrder;
+			sortedOrder = swap;
+		}
+	}
+
+	// Spreads the low MORTON_BITS (10) bits of v out to every third bit.
+	private static int spread(int v) {
+		v &= 0x3ff;
+		v = (v | (v << 16)) & 0x030000ff;
+		v = (v | (v << 8)) & 0x0300f00f;
+		v = (v | (v << 4)) & 0x030c30c3;
+		v = (v | (v << 2)) & 0x09249249;
+		return v;
+	}
+
+	// Recomputes the boxes of a task's subtree, children before parents,
+	// & sums the surface area of its leaves.
+	private void refitTask(int task) {
+		int root = taskRoots[task];
+		float[] x = batch.getX(), y = batch.getY(), z = batch.getZ();
+		float[] scale = batch.getScale();
+		double leafArea = 0;
+		for (int node = subtreeEnd[root] - 1; node >= root; node--) {
+			if (left[node] >= 0) {
+				union(node);
+				continue;
+			}
+			float loX = Float.MAX_VALUE, loY = Float.MAX_VALUE, loZ = Float.MAX_VALUE;
+			float hiX = -Float.MAX_VALUE, hiY = -Float.MAX_VALUE, hiZ = -Float.MAX_VALUE;
+			for (int i = first[node]; i < end[node]; i++) {
+				float r = unitRadius * scale[i];
+				loX = Math.min(loX, x[i] - r);
+				loY = Math.min(loY, y[i] - r);
+				loZ = Math.min(loZ, z[i] - r);
+				hiX = Math.max(hiX, x[i] + r);
+				hiY = Math.max(hiY, y[i] + r);
+				hiZ = Math.max(hiZ, z[i] + r);
+			}
+			minX[node] = loX;
+			minY[node] = loY;
+			minZ[node] = loZ;
+			maxX[node] = hiX;
+			maxY[node] = hiY;
+			maxZ[node] = hiZ;
+			float dx = hiX - loX, dy = hiY - loY, dz = hiZ - loZ;
+			leafArea += 2 * (dx * dy + dy * dz + dz * dx);
+		}
+		taskArea[task] = leafArea;
+	}
+
+	// Sets a node's box to the union of its children's.
+	private void union(int node) {
+		int a = left[node], b = right[node];
+		minX[node] = Math.min(minX[a], minX[b]);
+		minY[node] = Math.min(minY[a], minY[b]);
+		minZ[node] = Math.min(minZ[a], minZ[b]);
+		maxX[node] = Math.max(maxX[a], maxX[b]);
+		maxY[node] = Math.max(maxY[a], maxY[b]);
+		maxZ[node] = Math.max(maxZ[a], maxZ[b]);
+	}
+
+	private double sumAreas() {
+		double sum = 0;
+		for (int task = 0; task < taskCount; task++) {
+			sum += taskArea[task];
+		}
+		return sum;
+	}
+
+	// Culls a task's subtree into that task's ranges.
+	private void cullTask(int task) {
+		taskRangeCount[task] = 0;
+		cullNode(task, taskRoots[task]);
+	}
+
+	// Depth-first, left before right, so ranges come out in slot order.
+	private void cullNode(int task, int node) {
+		int side = frustum.classifyBox(minX[node], minY[node], minZ[node], maxX[node], maxY[node], maxZ[node]);
+		if (side == Frustum.OUTSIDE) {
+			return;
+		}
+		if (side == Frustum.INSIDE) {
+			emit(task, first[node], end[node]);
+		} else if (left[node] >= 0) {
+			cullNode(task, left[node]);
+			cullNode(task, right[node]);
+		} else {
+			// A leaf on the edge:  test its entities one by one.
+			float[] x = batch.getX(), y = batch.getY(), z = batch.getZ();
+			float[] scale = batch.getScale();
+			for (int i = first[node]; i < end[node]; i++) {
+				if (frustum.intersectsSphere(x[i], y[i], z[i], unitRadius * scale[i])) {
+					emit(task, i, i + 1);
+				}
+			}
+		}
+	}
+
+	// Appends slots [from, to) to a task's ranges, joining it onto the last
+	// range if they touch.
+	private void emit(int task, int from, int to) {
+		int[] found = taskRanges[task];
+		int count = taskRangeCount[task];
+		if (count > 0 && found[count * 2 - 1] == from) {
+			found[count * 2 - 1] = to;
+			return;
+		}
+		if (count * 2 + 2 > found.length) {
+			int[] grown = new int[found.length * 2];
+			System.arraycopy(found, 0, grown, 0, count * 2);
+			taskRanges[task] = found = grown;
+		}
+		found[count * 2] = from;
+		found[count * 2 + 1] = to;
+		taskRangeCount[task] = count + 1;
+	}
+
+	private void allocateNodes(int capacity) {
+		first = new int[capacity];
+		end = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		subtreeEnd = new int[capacity];
+		minX = new float[capacity];
+		minY = new float[capacity];
+		minZ = new float[capacity];
+		maxX = new float[capacity];
+		maxY = new float[capacity];
+		maxZ = new float[capacity];
+	}
+
+	private enum Phase {
+		REFIT, CULL
+	}
+
+	// Runs a phase over every task's subtree, on the pool if there is one,
+	// then (for refits) fixes up the nodes above them.
+	private void run(Phase phase) {
+		if (pool == null || taskCount <= 1) {
+			runTasks(phase, 0, taskCount);
+		} else {
+			pool.invoke(new SubtreeTask(phase, 0, taskCount));
+		}
+		if (phase == Phase.REFIT) {
+			for (int t = topCount - 1; t >= 0; t--) {
+				union(topNodes[t]);
+			}
+		}
+	}
+
+	private void runTasks(Phase phase, int from, int to) {
+		for (int task = from; task < to; task++) {
+			if (phase == Phase.REFIT) {
+				refitTask(task);
+			} else {
+				cullTask(task);
+			}
+		}
+	}
+
+	// Splits a range of tasks in half until it is one task.  Each task only
+	// writes its own subtree's nodes & its own ranges.
+	@SuppressWarnings("serial")
+	private class SubtreeTask extends RecursiveAction {
+
+		private Phase phase;
+		private int from, to;
+
+		private SubtreeTask(Phase phase, int from, int to) {
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				runTasks(phase, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SubtreeTask(phase, from, mid), new SubtreeTask(phase, mid, to));
+		}
+
+	}
+
+	// Visible slot ranges of the last cull, as (first, end) pairs.
+	public int[] getRanges() {
+		return ranges;
+	}
+
+	public int getRangeCount() {
+		return rangeCount;
+	}
+
+	public int getVisibleCount() {
+		return visibleCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getRebuilds() {
+		return rebuilds;
+	}
+
+	// Total surface area of the leaves now, & when last built.
+	public double getArea() {
+		return area;
+	}
+
+	public double getBuiltArea() {
+		return builtArea;
+	}
+
+}
@@ -0,0 +1,601 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+
+/*
+ * File:	CachingGLCalls.java
+ * Purpose:	Sits in front of other GLCalls & drops calls that would leave
+ * 			the context as it already is.  It shadows the program in use,
+ * 			the bound VAO & array buffer, the 2D texture bound to each
+ * 			texture unit & the active unit, the capabilities switched on &
+ * 			off, the cull face & clear color, which attribute arrays each
+ * 			VAO has enabled, and the value last loaded to each uniform of
+ * 			each program.  Anything not known yet (at first, or after
+ * 			forget()) is passed on & then known.  Counts the calls passed
+ * 			on & saved since beginFrame().  Calls made to the context
+ * 			other than through this (Loader, texture loading) must be
+ * 			followed by forget(), or be undone before the next call
+ * 			through it.  VAOs, programs & uniform locations past
+ * 			MAX_SHADOWED_NAME aren't shadowed, their calls passing on, so a
+ * 			driver handing out large names can't make the shadows huge.
+ */
+public class CachingGLCalls implements GLCalls {
+
+	// Texture units whose bindings are shadowed; binds on others pass on.
+	private static final int TEXTURE_UNITS = 32;
+	private static final int UNKNOWN = -1;
+	// Largest VAO, program or uniform location shadowed.
+	private static final int MAX_SHADOWED_NAME = 4095;
+
+	private GLCalls gl;
+	private boolean enabled = true;
+
+	private int program = UNKNOWN;
+	private int vertexArray = UNKNOWN;
+	private int arrayBuffer = UNKNOWN;
+	private int activeUnit = UNKNOWN;
+	private int[] textures = new int[TEXTURE_UNITS];
+	private int cullFace = UNKNOWN;
+	private float[] clearColor = new float[4];
+	private boolean clearColorKnown;
+	// Capabilities known to be on or off.
+	private int[] capabilities = new int[8];
+	private boolean[] capabilityStates = new boolean[8];
+	private int capabilityCount;
+	// Per VAO:  attribute arrays whose state is known, & those enabled.
+	private int[] knownArrays = new int[16];
+	private int[] enabledArrays = new int[16];
+	// Per program & uniform location:  the value last loaded, or null.
+	// Matrices keep their transpose flag as a 17th float.
+	private float[][][] uniforms = new float[16][][];
+
+	// Since beginFrame().
+	private int callsPassed;
+	private int callsSaved;
+
+	public CachingGLCalls(GLCalls gl) {
+		this.gl = gl;
+		Arrays.fill(textures, UNKNOWN);
+	}
+
+	// Starts counting a frame's calls.
+	public void beginFrame() {
+		callsPassed = 0;
+		callsSaved = 0;
+	}
+
+	// Forgets the bindings, capabilities & attribute arrays, for when the
+	// context may have been changed behind our back.  Uniforms stay known,
+	// as only their program's ShaderProgram loads them.
+	public void forget() {
+		program = UNKNOWN;
+		vertexArray = UNKNOWN;
+		arrayBuffer = UNKNOWN;
+		activeUnit = UNKNOWN;
+		Arrays.fill(textures, UNKNOWN);
+		cullFace = UNKNOWN;
+		clearColorKnown = false;
+		capabilityCount = 0;
+		Arrays.fill(knownArrays, 0);
+	}
+
+	// With caching off every call passes on (& nothing is shadowed).
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		forget();
+		Arrays.fill(uniforms, null);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// Calls passed on since beginFrame().
+	public int getCallsPassed() {
+		return callsPassed;
+	}
+
+	// Calls dropped as redundant since beginFrame().
+	public int getCallsSaved() {
+		return callsSaved;
+	}
+
+	// True (& counted) if a call can be dropped; otherwise counts it as
+	// passed on.
+	private boolean saved(boolean redundant) {
+		if (enabled && redundant) {
+			callsSaved++;
+			return true;
+		}
+		callsPassed++;
+		return false;
+	}
+
+	private void passed() {
+		callsPassed++;
+	}
+
+	@Override
+	public void glEnable(int capability) {
+		if (!saved(capabilityIs(capability, true))) {
+			gl.glEnable(capability);
+			setCapability(capability, true);
+		}
+	}
+
+	@Override
+	public void glDisable(int capability) {
+		if (!saved(capabilityIs(capability, false))) {
+			gl.glDisable(capability);
+			setCapability(capability, false);
+		}
+	}
+
+	private boolean capabilityIs(int capability, boolean on) {
+		for (int i = 0; i < capabilityCount; i++) {
+			if (capabilities[i] == capability) {
+				return capabilityStates[i] == on;
+			}
+		}
+		return false;
+	}
+
+	private void setCapability(int capability, boolean on) {
+		for (int i = 0; i < capabilityCount; i++) {
+			if (capabilities[i] == capability) {
+				capabilityStates[i] = on;
+				return;
+			}
+		}
+		if (capabilityCount == capabilities.length) {
+			capabilities = Arrays.copyOf(capabilities, capabilityCount * 2);
+			capabilityStates = Arrays.copyOf(capabilityStates, capabilityCount * 2);
+		}
+		capabilities[capabilityCount] = capability;
+		capabilityStates[capabilityCount] = on;
+		capabilityCount++;
+	}
+
+	@Override
+	public void glCullFace(int mode) {
+		if (!saved(cullFace == mode)) {
+			gl.glCullFace(mode);
+			cullFace = mode;
+		}
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		if (!saved(clearColorKnown && clearColor[0] == red && clearColor[1] == green && clearColor[2] == blue
+				&& clearColor[3] == alpha)) {
+			gl.glClearColor(red, green, blue, alpha);
+			clearColor[0] = red;
+			clearColor[1] = green;
+			clearColor[2] = blue;
+			clearColor[3] = alpha;
+			clearColorKnown = true;
+		}
+	}
+
+	@Override
+	public void glClear(int mask) {
+		passed();
+		gl.glClear(mask);
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		passed();
+		return gl.glCreateShader(type);
+	}
+
+	@Override
+	public void glShaderSource(int shader, CharSequence source) {
+		passed();
+		gl.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		passed();
+		gl.glCompileShader(shader);
+	}
+
+	@Override
+	public int glGetShaderi(int shader, int name) {
+		passed();
+		return gl.glGetShaderi(shader, name);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		passed();
+		return gl.glGetShaderInfoLog(shader, maxLength);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		passed();
+		gl.glDeleteShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		passed();
+		return gl.glCreateProgram();
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		passed();
+		gl.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glDetachShader(int program, int shader) {
+		passed();
+		gl.glDetachShader(program, shader);
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, CharSequence name) {
+		passed();
+		gl.glBindAttribLocation(program, index, name);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		passed();
+		gl.glLinkProgram(program);
+		// Linking resets every uniform of the program.
+		forgetUniforms(program);
+	}
+
+	@Override
+	public void glValidateProgram(int program) {
+		passed();
+		gl.glValidateProgram(program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		if (!saved(this.program == program)) {
+			gl.glUseProgram(program);
+			this.program = program;
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		passed();
+		gl.glDeleteProgram(program);
+		forgetUniforms(program);
+		if (this.program == program) {
+			this.program = UNKNOWN;
+		}
+	}
+
+	private void forgetUniforms(int program) {
+		if (program >= 0 && program < uniforms.length) {
+			uniforms[program] = null;
+		}
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, CharSequence name) {
+		passed();
+		return gl.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glUniform1f(int location, float value) {
+		float[] known = uniform(location, 1);
+		if (!saved(known != null && known[0] == value)) {
+			gl.glUniform1f(location, value);
+			if (known != null) {
+				known[0] = value;
+			}
+		}
+	}
+
+	// Kept as its high & low 16 bits, as floats hold each exactly.
+	@Override
+	public void glUniform1i(int location, int value) {
+		float[] known = uniform(location, 2);
+		float high = value >> 16, low = value & 0xFFFF;
+		if (!saved(known != null && known[0] == high && known[1] == low)) {
+			gl.glUniform1i(location, value);
+			if (known != null) {
+				known[0] = high;
+				known[1] = low;
+			}
+		}
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		float[] known = uniform(location, 3);
+		if (!saved(known != null && known[0] == x && known[1] == y && known[2] == z)) {
+			gl.glUniform3f(location, x, y, z);
+			if (known != null) {
+				known[0] = x;
+				known[1] = y;
+				known[2] = z;
+			}
+		}
+	}
+
+	@Override
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		// Arrays of matrices aren't shadowed.
+		float[] known = matrices.remaining() == 16 ? uniform(location, 17) : null;
+		int at = matrices.position();
+		boolean same = known != null && known[16] == (transpose ? 1 : 0);
+		for (int k = 0; same && k < 16; k++) {
+			same = known[k] == matrices.get(at + k);
+		}
+		if (!saved(same)) {
+			gl.glUniformMatrix4(location, transpose, matrices);
+			if (known != null) {
+				for (int k = 0; k < 16; k++) {
+					known[k] = matrices.get(at + k);
+				}
+				known[16] = transpose ? 1 : 0;
+			}
+		}
+	}
+
+	// Where the current program's uniform at a location is shadowed (its
+	// values unknown, as NaN, the first time), or null if it can't be.
+	private float[] uniform(int location, int size) {
+		if (!enabled || program <= 0 || location < 0 || program > MAX_SHADOWED_NAME
+				|| location > MAX_SHADOWED_NAME) {
+			return null;
+		}
+		if (program >= uniforms.length) {
+			uniforms = Arrays.copyOf(uniforms, Math.max(program + 1, uniforms.length * 2));
+		}
+		float[][] locations = uniforms[program];
+		if (locations == null || location >= locations.length) {
+			locations = locations == null ? new float[Math.max(16, location + 1)][]
+					: Arrays.copyOf(locations, Math.max(location + 1, locations.length * 2));
+			uniforms[program] = locations;
+		}
+		if (locations[location] == null || locations[location].length != size) {
+			locations[location] = new float[size];
+			// NaN equals nothing, so the first load always passes on.
+			Arrays.fill(locations[location], Float.NaN);
+		}
+		return locations[location];
+	}
+
+	@Override
+	public int glGenVertexArrays() {
+		passed();
+		return gl.glGenVertexArrays();
+	}
+
+	@Override
+	public void glBindVertexArray(int array) {
+		if (!saved(vertexArray == array)) {
+			gl.glBindVertexArray(array);
+			vertexArray = array;
+		}
+	}
+
+	@Override
+	public void glDeleteVertexArrays(int array) {
+		passed();
+		gl.glDeleteVertexArrays(array);
+		if (array >= 0 && array < knownArrays.length) {
+			knownArrays[array] = 0;
+		}
+		// Deleting the bound VAO binds 0.
+		if (vertexArray == array) {
+			vertexArray = 0;
+		}
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		if (!saved(arrayIs(index, true))) {
+			gl.glEnableVertexAttribArray(index);
+			setArray(index, true);
+		}
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		if (!saved(arrayIs(index, false))) {
+			gl.glDisableVertexAttribArray(index);
+			setArray(index, false);
+		}
+	}
+
+	// True if the bound VAO is known to have an attribute array on or off.
+	private boolean arrayIs(int index, boolean on) {
+		if (vertexArray < 0 || vertexArray >= knownArrays.length || index >= 32) {
+			return false;
+		}
+		int bit = 1 << index;
+		return (knownArrays[vertexArray] & bit) != 0 && ((enabledArrays[vertexArray] & bit) != 0) == on;
+	}
+
+	private void setArray(int index, boolean on) {
+		if (vertexArray < 0 || vertexArray > MAX_SHADOWED_NAME || index >= 32) {
+			return;
+		}
+		if (vertexArray >= knownArrays.length) {
+			int size = Math.max(vertexArray + 1, knownArrays.length * 2);
+			knownArrays = Arrays.copyOf(knownArrays, size);
+			enabledArrays = Arrays.copyOf(enabledArrays, size);
+		}
+		int bit = 1 << index;
+		knownArrays[vertexArray] |= bit;
+		enabledArrays[vertexArray] = on ? enabledArrays[vertexArray] | bit : enabledArrays[vertexArray] & ~bit;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		passed();
+		gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public void glVertexAttribIPointer(int index, int size, int type, int stride, long offset) {
+		passed();
+		gl.glVertexAttribIPointer(index, size, type, stride, offset);
+	}
+
+	@Override
+	public void glVertexAttribDivisor(int index, int divisor) {
+		passed();
+		gl.glVertexAttribDivisor(index, divisor);
+	}
+
+	@Override
+	public int glGenBuffers() {
+		passed();
+		return gl.glGenBuffers();
+	}
+
+	// Only the array buffer binding is shadowed; the element array buffer
+	// binding belongs to the VAO.
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if (!saved(target == GL15.GL_ARRAY_BUFFER && arrayBuffer == buffer)) {
+			gl.glBindBuffer(target, buffer);
+			if (target == GL15.GL_ARRAY_BUFFER) {
+				arrayBuffer = buffer;
+			}
+		}
+	}
+
+	@Override
+	public void glBufferData(int target, long size, int usage) {
+		passed();
+		gl.glBufferData(target, size, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		passed();
+		gl.glBufferSubData(target, offset, data);
+	}
+
+	@Override
+	public void glDeleteBuffers(int buffer) {
+		passed();
+		gl.glDeleteBuffers(buffer);
+		if (arrayBuffer == buffer) {
+			arrayBuffer = 0;
+		}
+	}
+
+	@Override
+	public void glBufferStorage(int target, long size, int flags) {
+		passed();
+		gl.glBufferStorage(target, size, flags);
+	}
+
+	@Override
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+		passed();
+		return gl.glMapBufferRange(target, offset, length, access);
+	}
+
+	@Override
+	public boolean glUnmapBuffer(int target) {
+		passed();
+		return gl.glUnmapBuffer(target);
+	}
+
+	@Override
+	public long glFenceSync(int condition, int flags) {
+		passed();
+		return gl.glFenceSync(condition, flags);
+	}
+
+	@Override
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		passed();
+		return gl.glClientWaitSync(sync, flags, timeout);
+	}
+
+	@Override
+	public void glDeleteSync(long sync) {
+		passed();
+		gl.glDeleteSync(sync);
+	}
+
+	@Override
+	public void glActiveTexture(int unit) {
+		if (!saved(activeUnit == unit)) {
+			gl.glActiveTexture(unit);
+			activeUnit = unit;
+		}
+	}
+
+	// Only GL_TEXTURE_2D bindings are shadowed.
+	@Override
+	public void glBindTexture(int target, int texture) {
+		int unit = activeUnit - GL13.GL_TEXTURE0;
+		boolean shadowed = target == GL11.GL_TEXTURE_2D && activeUnit != UNKNOWN && unit >= 0
+				&& unit < TEXTURE_UNITS;
+		if (!saved(shadowed && textures[unit] == texture)) {
+			gl.glBindTexture(target, texture);
+			if (shadowed) {
+				textures[unit] = texture;
+			}
+		}
+	}
+
+	@Override
+	public int glGenTextures() {
+		passed();
+		return gl.glGenTextures();
+	}
+
+	// Units the texture was bound to are left with none bound.
+	@Override
+	public void glDeleteTextures(int texture) {
+		passed();
+		gl.glDeleteTextures(texture);
+		for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+			if (textures[unit] == texture) {
+				textures[unit] = 0;
+			}
+		}
+	}
+
+	@Override
+	public void glTexBuffer(int target, int internalFormat, int buffer) {
+		passed();
+		gl.glTexBuffer(target, internalFormat, buffer);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		passed();
+		gl.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		passed();
+		gl.glDrawElementsInstanced(mode, count, type, offset, instances);
+	}
+
+	@Override
+	public void glDrawArraysInstanced(int mode, int first, int count, int instances) {
+		passed();
+		gl.glDrawArraysInstanced(mode, first, count, instances);
+	}
+
+}
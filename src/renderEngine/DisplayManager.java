@@ -13,8 +13,8 @@ import org.lwjgl.opengl.PixelFormat;
  */
 public class DisplayManager {
 
-	private static final int WIDTH = 1920;
-	private static final int HEIGHT = 1080;
+	public static final int WIDTH = 1920;
+	public static final int HEIGHT = 1080;
 	private static final int FPS_CAP = 120;
 
 	// Opens display upon starting of the engine.
@@ -40,7 +40,8 @@ public class DisplayManager {
 
 	// Updates the display each frame.
 	public static void updateDisplay() {
-		// Tell engine to run at set FPS count.
+		// Tell engine to draw at set FPS count.  Only drawing waits here; runs
+		// are stepped on their own thread (see SnapshotPlayer).
 		Display.sync(FPS_CAP);
 		Display.update();
 
@@ -0,0 +1,113 @@
+package renderEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Camera;
+import entities.EntityStore;
+import toolbox.Frustum;
+
+/*
+ * File:	FrustumCuller.java
+ * Purpose:	Decides each frame which entities of an EntityStore the camera
+ * 			can see, keeping one BoundingVolumeHierarchy per batch.  What's
+ * 			left is given as slot ranges per batch for the renderers to draw.
+ * 			Entities are taken to be spheres of radius unitRadius * scale,
+ * 			unitRadius being the radius of their model at scale 1.  With
+ * 			culling switched off every batch is one range of all its slots.
+ */
+public class FrustumCuller {
+
+	private ForkJoinPool pool;
+	private float unitRadius;
+	private boolean enabled = true;
+
+	private Frustum frustum = new Frustum();
+	private List<BoundingVolumeHierarchy> hierarchies = new ArrayList<BoundingVolumeHierarchy>();
+	// The whole of each batch, for when culling is off.
+	private List<int[]> wholeBatches = new ArrayList<int[]>();
+
+	// What the last frame saw.
+	private int visibleCount;
+	private int culledCount;
+
+	public FrustumCuller(float unitRadius) {
+		this(unitRadius, null);
+	}
+
+	// Refits & culls on the given pool (or on the calling thread if it is null).
+	public FrustumCuller(float unitRadius, ForkJoinPool pool) {
+		this.unitRadius = unitRadius;
+		this.pool = pool;
+	}
+
+	// Finds the visible entities for a camera seen through a projection
+	// matrix.  May reorder the store's batches (but not change handles).
+	public void cull(EntityStore entities, Matrix4f projectionMatrix, Camera camera) {
+		while (hierarchies.size() < entities.getBatchCount()) {
+			hierarchies.add(new BoundingVolumeHierarchy(pool));
+			wholeBatches.add(new int[2]);
+		}
+		visibleCount = 0;
+		if (enabled) {
+			frustum.update(projectionMatrix, camera);
+		}
+		for (int b = 0; b < entities.getBatchCount(); b++) {
+			if (enabled) {
+				BoundingVolumeHierarchy hierarchy = hierarchies.get(b);
+				hierarchy.update(entities, b, unitRadius);
+				visibleCount += hierarchy.cull(frustum);
+			} else {
+				wholeBatches.get(b)[1] = entities.getBatch(b).getCount();
+				visibleCount += entities.getBatch(b).getCount();
+			}
+		}
+		culledCount = entities.getCount() - visibleCount;
+	}
+
+	// Visible slot ranges of a batch, as (first, end) pairs.
+	public int[] getRanges(int batch) {
+		return enabled ? hierarchies.get(batch).getRanges() : wholeBatches.get(batch);
+	}
+
+	public int getRangeCount(int batch) {
+		return enabled ? hierarchies.get(batch).getRangeCount() : 1;
+	}
+
+	// # of visible entities in a batch.
+	public int getVisibleCount(int batch) {
+		return enabled ? hierarchies.get(batch).getVisibleCount() : wholeBatches.get(batch)[1];
+	}
+
+	public BoundingVolumeHierarchy getHierarchy(int batch) {
+		return hierarchies.get(batch);
+	}
+
+	public float getUnitRadius() {
+		return unitRadius;
+	}
+
+	public Frustum getFrustum() {
+		return frustum;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getVisibleCount() {
+		return visibleCount;
+	}
+
+	public int getCulledCount() {
+		return culledCount;
+	}
+
+}
@@ -0,0 +1,126 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/*
+ * File:	GLCalls.java
+ * Purpose:	The OpenGL calls made by the shaders & instanced renderers, behind
+ * 			an interface so they can either go straight to the driver
+ * 			(LwjglGLCalls) or be recorded without any display at all
+ * 			(RecordingGLCalls).  Each method has the name & arguments of the
+ * 			GL function it stands for.
+ */
+public interface GLCalls {
+
+	// Capabilities & clearing.
+	void glEnable(int capability);
+
+	void glDisable(int capability);
+
+	void glCullFace(int mode);
+
+	void glClearColor(float red, float green, float blue, float alpha);
+
+	void glClear(int mask);
+
+	// Shaders & programs.
+	int glCreateShader(int type);
+
+	void glShaderSource(int shader, CharSequence source);
+
+	void glCompileShader(int shader);
+
+	int glGetShaderi(int shader, int name);
+
+	String glGetShaderInfoLog(int shader, int maxLength);
+
+	void glDeleteShader(int shader);
+
+	int glCreateProgram();
+
+	void glAttachShader(int program, int shader);
+
+	void glDetachShader(int program, int shader);
+
+	void glBindAttribLocation(int program, int index, CharSequence name);
+
+	void glLinkProgram(int program);
+
+	void glValidateProgram(int program);
+
+	void glUseProgram(int program);
+
+	void glDeleteProgram(int program);
+
+	// Uniforms.
+	int glGetUniformLocation(int program, CharSequence name);
+
+	void glUniform1f(int location, float value);
+
+	void glUniform1i(int location, int value);
+
+	void glUniform3f(int location, float x, float y, float z);
+
+	void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices);
+
+	// Vertex arrays & buffers.
+	int glGenVertexArrays();
+
+	void glBindVertexArray(int array);
+
+	void glDeleteVertexArrays(int array);
+
+	void glEnableVertexAttribArray(int index);
+
+	void glDisableVertexAttribArray(int index);
+
+	void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset);
+
+	void glVertexAttribIPointer(int index, int size, int type, int stride, long offset);
+
+	void glVertexAttribDivisor(int index, int divisor);
+
+	int glGenBuffers();
+
+	void glBindBuffer(int target, int buffer);
+
+	void glBufferData(int target, long size, int usage);
+
+	void glBufferSubData(int target, long offset, FloatBuffer data);
+
+	void glDeleteBuffers(int buffer);
+
+	// Streaming into buffers (see StreamingBuffer).  Syncs are passed around
+	// as the pointers LWJGL wraps them in.
+	void glBufferStorage(int target, long size, int flags);
+
+	ByteBuffer glMapBufferRange(int target, long offset, long length, int access);
+
+	boolean glUnmapBuffer(int target);
+
+	long glFenceSync(int condition, int flags);
+
+	int glClientWaitSync(long sync, int flags, long timeout);
+
+	void glDeleteSync(long sync);
+
+	// Textures.
+	void glActiveTexture(int unit);
+
+	void glBindTexture(int target, int texture);
+
+	int glGenTextures();
+
+	void glDeleteTextures(int texture);
+
+	void glTexBuffer(int target, int internalFormat, int buffer);
+
+	// Drawing.
+	void glDrawElements(int mode, int count, int type, long offset);
+
+	void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances);
+
+	void glDrawArraysInstanced(int mode, int first, int count, int instances);
+
+}
@@ -0,0 +1,185 @@
+package renderEngine;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.EntityBatch;
+import entities.EntityStore;
+import models.TexturedModel;
+import shaders.ImpostorShader;
+import textures.ModelTexture;
+import toolbox.Maths;
+
+/*
+ * File:	ImpostorRenderer.java
+ * Purpose:	Renders bodies as ray-cast sphere impostors, for scenes too big
+ * 			to push a mesh per body.  Only the center & radius of each entity
+ * 			is needed (16 bytes, where the instanced renderer keeps 32 per
+ * 			entity on the GPU & streams 4 more per entity drawn, and 4
+ * 			vertices instead of the whole mesh), kept on the GPU slot by slot
+ * 			in a BodyBuffer per batch, which only sends what changed.  Each
+ * 			run of visible slots is drawn as instances of one quad with its
+ * 			model's texture & shine, runs only a few culled slots apart being
+ * 			drawn as one (their quads fall outside the view & are clipped).
+ * 			Entities are spheres of radius unitRadius * scale, as for
+ * 			culling; their rotation isn't shown.
+ */
+public class ImpostorRenderer {
+
+	// Floats per instance:  x, y, z & radius.
+	public static final int FLOATS_PER_INSTANCE = BodyBuffer.FLOATS_PER_BODY;
+	// Visible runs closer than this many culled slots are drawn as one:  a
+	// culled quad is 4 vertices, clipped, so a thousand of them cost the GPU
+	// less than another draw call costs the CPU.
+	public static final int DRAW_GAP = 1024;
+	// Corners of the quad, as a triangle strip.
+	private static final float[] QUAD = { -1, -1, 1, -1, -1, 1, 1, 1 };
+
+	private ImpostorShader shader;
+	private GLCalls gl;
+	private Matrix4f projectionMatrix;
+
+	private int quadVao;
+	private int quadVbo;
+	// Centers & radii of each batch's entities.
+	private List<BodyBuffer> bodyBuffers = new ArrayList<BodyBuffer>();
+
+	// What the last frame took.
+	private int drawCalls;
+	private int instancesDrawn;
+	private long bytesUploaded;
+
+	public ImpostorRenderer(ImpostorShader shader, GLCalls gl, float aspectRatio) {
+		this.shader = shader;
+		this.gl = gl;
+		projectionMatrix = Maths.createProjectionMatrix(Renderer.FOV, aspectRatio, Renderer.NEAR_PLANE,
+				Renderer.FAR_PLANE);
+		shader.start();
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.stop();
+
+		// The quad, set up once in its own VAO along with the instance data's
+		// divisor; the instance data is in a VBO per batch.
+		quadVao = gl.glGenVertexArrays();
+		gl.glBindVertexArray(quadVao);
+		quadVbo = gl.glGenBuffers();
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, quadVbo);
+		FloatBuffer quad = BufferUtils.createFloatBuffer(QUAD.length);
+		quad.put(QUAD);
+		quad.flip();
+		gl.glBufferData(GL15.GL_ARRAY_BUFFER, QUAD.length * 4, GL15.GL_STATIC_DRAW);
+		gl.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, quad);
+		gl.glVertexAttribPointer(ImpostorShader.CORNER_ATTRIBUTE, 2, GL11.GL_FLOAT, false, 0, 0);
+		gl.glVertexAttribDivisor(ImpostorShader.POSITION_RADIUS_ATTRIBUTE, 1);
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		gl.glBindVertexArray(0);
+	}
+
+	// Called once every frame to prepare OpenGL to render the game.
+	public void prepare() {
+		// Tell OpenGL to test which triangles are in front of each other.
+		gl.glEnable(GL11.GL_DEPTH_TEST);
+		// Clear color from the last frame.
+		gl.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		// Set color of background.
+		gl.glClearColor(0.5f, 0.1f, 0.1f, 1);
+	}
+
+	// Brings each batch's BodyBuffer up to date, then draws its visible
+	// entities, a call per run.
+	public void render(EntityStore entities, FrustumCuller culler) {
+		while (bodyBuffers.size() < entities.getBatchCount()) {
+			bodyBuffers.add(new BodyBuffer(gl));
+		}
+		drawCalls = 0;
+		instancesDrawn = 0;
+		bytesUploaded = 0;
+		gl.glBindVertexArray(quadVao);
+		gl.glEnableVertexAttribArray(ImpostorShader.CORNER_ATTRIBUTE);
+		gl.glEnableVertexAttribArray(ImpostorShader.POSITION_RADIUS_ATTRIBUTE);
+		for (int b = 0; b < entities.getBatchCount(); b++) {
+			EntityBatch batch = entities.getBatch(b);
+			BodyBuffer bodies = bodyBuffers.get(b);
+			// Even if none are visible, so changes don't pile up.
+			bodies.update(batch, culler.getUnitRadius());
+			bytesUploaded += bodies.getBytesUploaded();
+			int rangeCount = culler.getRangeCount(b);
+			if (culler.getVisibleCount(b) == 0 || rangeCount == 0) {
+				continue;
+			}
+			prepareTexture(batch.getModel());
+			int[] ranges = culler.getRanges(b);
+			int start = ranges[0], end = ranges[1];
+			for (int r = 1; r < rangeCount; r++) {
+				if (ranges[r * 2] - end >= DRAW_GAP) {
+					drawRun(start, end);
+					start = ranges[r * 2];
+				}
+				end = ranges[r * 2 + 1];
+			}
+			drawRun(start, end);
+		}
+		gl.glDisableVertexAttribArray(ImpostorShader.CORNER_ATTRIBUTE);
+		gl.glDisableVertexAttribArray(ImpostorShader.POSITION_RADIUS_ATTRIBUTE);
+		gl.glBindVertexArray(0);
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	// Draws the entities in slots [start, end) of the batch whose BodyBuffer
+	// is bound.
+	private void drawRun(int start, int end) {
+		// Point the per-instance attribute at the run.
+		gl.glVertexAttribPointer(ImpostorShader.POSITION_RADIUS_ATTRIBUTE, 4, GL11.GL_FLOAT, false,
+				BodyBuffer.BODY_STRIDE, (long) start * BodyBuffer.BODY_STRIDE);
+		gl.glDrawArraysInstanced(GL11.GL_TRIANGLE_STRIP, 0, QUAD.length / 2, end - start);
+		drawCalls++;
+		instancesDrawn += end - start;
+	}
+
+	// Loads the shine & binds the texture of a model.
+	private void prepareTexture(TexturedModel model) {
+		ModelTexture modelTexture = model.getTexture();
+		shader.loadShineVariables(modelTexture.getShineDamper(), modelTexture.getReflectivity());
+		gl.glActiveTexture(GL13.GL_TEXTURE0);
+		gl.glBindTexture(GL11.GL_TEXTURE_2D, modelTexture.getID());
+	}
+
+	// Cleanup for memory management.
+	public void cleanUp() {
+		for (BodyBuffer bodies : bodyBuffers) {
+			bodies.cleanUp();
+		}
+		gl.glDeleteBuffers(quadVbo);
+		gl.glDeleteVertexArrays(quadVao);
+	}
+
+	public Matrix4f getProjectionMatrix() {
+		return projectionMatrix;
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	// Instances the last frame drew, culled ones between runs included.
+	public int getInstancesDrawn() {
+		return instancesDrawn;
+	}
+
+	public BodyBuffer getBodyBuffer(int batch) {
+		return bodyBuffers.get(batch);
+	}
+
+	// Bytes of instance data the last frame uploaded.
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+}
@@ -0,0 +1,70 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import entities.EntityBatch;
+
+/*
+ * File:	InstanceBuffer.java
+ * Purpose:	A SlotBuffer holding the position, scale & rotation of every
+ * 			entity of an EntityBatch, for drawing them instanced.  Each slot
+ * 			is two RGBA32F texels (x, y, z, scale, then rotation about x, y
+ * 			& z and a spare float), read by the vertex shader through a
+ * 			buffer texture over the VBO, so instances are fetched by slot in
+ * 			whatever order they are drawn.  A batch may hold no more than
+ * 			GL_MAX_TEXTURE_BUFFER_SIZE / 2 entities (at least 32768, & in
+ * 			the millions on current drivers).
+ */
+public class InstanceBuffer extends SlotBuffer {
+
+	// Floats per instance:  x, y, z, scale, rotation about x, y & z, spare.
+	public static final int FLOATS_PER_INSTANCE = 8;
+	public static final int INSTANCE_STRIDE = FLOATS_PER_INSTANCE * 4;
+
+	private int texture;
+
+	// Makes the VBO & a buffer texture reading it.
+	public InstanceBuffer(GLCalls gl) {
+		super(gl, FLOATS_PER_INSTANCE);
+		texture = gl.glGenTextures();
+		// The VBO only exists once first bound.
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, getVbo());
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		gl.glBindTexture(GL31.GL_TEXTURE_BUFFER, texture);
+		gl.glTexBuffer(GL31.GL_TEXTURE_BUFFER, GL30.GL_RGBA32F, getVbo());
+		gl.glBindTexture(GL31.GL_TEXTURE_BUFFER, 0);
+	}
+
+	// Brings the VBO up to date with a batch, turned slots included, &
+	// clears the batch's dirty slots.  Leaves the VBO bound to
+	// GL_ARRAY_BUFFER.
+	public void update(EntityBatch batch) {
+		batch.mergeRotated();
+		update(batch, false);
+	}
+
+	// Puts the instances in slots [from, to) into staging.
+	@Override
+	protected void pack(EntityBatch batch, int from, int to) {
+		float[] x = batch.getX(), y = batch.getY(), z = batch.getZ(), scale = batch.getScale();
+		float[] rotX = batch.getRotX(), rotY = batch.getRotY(), rotZ = batch.getRotZ();
+		for (int i = from; i < to; i++) {
+			staging.put(x[i]).put(y[i]).put(z[i]).put(scale[i]).put(rotX[i]).put(rotY[i]).put(rotZ[i]).put(0);
+		}
+	}
+
+	// Cleanup for memory management.
+	@Override
+	public void cleanUp() {
+		gl.glDeleteTextures(texture);
+		super.cleanUp();
+	}
+
+	// Buffer texture over the VBO.
+	public int getTexture() {
+		return texture;
+	}
+
+}
@@ -0,0 +1,369 @@
+package renderEngine;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
+import models.LodModel;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.InstancedShader;
+import textures.ModelTexture;
+import toolbox.Maths;
+
+/*
+ * File:	InstancedRenderer.java
+ * Purpose:	Renders every entity of a TexturedModel with one instanced draw
+ * 			call.  The position, scale & rotation of each batch's entities
+ * 			stay on the GPU in an InstanceBuffer, slot by slot, which only
+ * 			sends the slots that changed.  Each frame just the slots of the
+ * 			entities drawn, in draw order, are written through a
+ * 			StreamingBuffer (4 bytes an instance); the vertex shader fetches
+ * 			each instance's data by slot & builds its transformation itself.
+ * 			So the CPU does no matrix math, a still scene uploads next to
+ * 			nothing, & the driver sees a handful of calls per model, instead
+ * 			of a uniform upload & draw call per entity as in Renderer.
+ * 			Models with levels of detail get one call per level, each entity
+ * 			going to the level its size on screen calls for.  The entities
+ * 			are ordered through a RenderQueue by batch & VAO, so each mesh of
+ * 			a batch is one run of instances, draws only bind what changed,
+ * 			and each draw's instances go nearest first.
+ */
+public class InstancedRenderer {
+
+	// Bytes per instance streamed each frame:  its slot, as an int.
+	public static final int SLOT_STRIDE = 4;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private InstancedShader shader;
+	private GLCalls gl;
+	private Matrix4f projectionMatrix;
+
+	// Each batch's instance data, & the slots drawn this frame.
+	private List<InstanceBuffer> instanceBuffers = new ArrayList<InstanceBuffer>();
+	private StreamingBuffer slotBuffer;
+
+	// Height of the viewport in pixels, for sizing entities on screen.
+	private float viewportHeight = DisplayManager.HEIGHT;
+	// Chosen levels of each batch, for models that have them.
+	private List<LevelOfDetail> levelsOfDetail = new ArrayList<LevelOfDetail>();
+
+	// This frame's kinds of draw (a mesh, the model it belongs to & the
+	// batch of entities drawn with it, with its instance data), & the kind
+	// & slot of each entity queued, by the value it was queued with.
+	private RawModel[] kindMeshes = new RawModel[0];
+	private TexturedModel[] kindModels = new TexturedModel[0];
+	private EntityBatch[] kindBatches = new EntityBatch[0];
+	private InstanceBuffer[] kindInstances = new InstanceBuffer[0];
+	// Sort key of each kind, less the depth.
+	private long[] kindStates = new long[0];
+	private int kindCount;
+	private int[] itemKinds = new int[INITIAL_CAPACITY];
+	private int[] itemSlots = new int[INITIAL_CAPACITY];
+	// Slots in queue order, as the floats with the same bits.
+	private float[] sortedSlots = new float[0];
+	private RenderQueue queue = new RenderQueue();
+
+	// What the draw being prepared finds bound.
+	private int boundVao;
+	private ModelTexture boundTexture;
+	private InstanceBuffer boundInstances;
+
+	// What the last frame took.
+	private int drawCalls;
+	// VAO & texture (with its shine) changes; a batch's instance data is
+	// bound once per batch drawn, so isn't counted apart.
+	private int stateChanges;
+	private int instancesDrawn;
+	private long verticesDrawn;
+	// Bytes of instance data & of slots sent.
+	private long instanceBytesUploaded;
+	private long slotBytesUploaded;
+
+	// 'streamingMode' is how the slots drawn reach the GPU, a StreamingBuffer
+	// mode.
+	public InstancedRenderer(InstancedShader shader, GLCalls gl, float aspectRatio, int streamingMode) {
+		this.shader = shader;
+		this.gl = gl;
+		// Cull faces inside objects that we wouldn't see anyways to reduce
+		// computations.
+		gl.glEnable(GL11.GL_CULL_FACE);
+		gl.glCullFace(GL11.GL_BACK);
+		projectionMatrix = Maths.createProjectionMatrix(Renderer.FOV, aspectRatio, Renderer.NEAR_PLANE,
+				Renderer.FAR_PLANE);
+		shader.start();
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.connectTextureUnits();
+		shader.stop();
+		slotBuffer = new StreamingBuffer(gl, streamingMode, (long) INITIAL_CAPACITY * SLOT_STRIDE);
+	}
+
+	// Called once every frame to prepare OpenGL to render the game.
+	public void prepare() {
+		// Tell OpenGL to test which triangles are in front of each other.
+		gl.glEnable(GL11.GL_DEPTH_TEST);
+		// Clear color from the last frame.
+		gl.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		// Set color of background.
+		gl.glClearColor(0.5f, 0.1f, 0.1f, 1);
+	}
+
+	// Brings each batch's instance data up to date, queues every visible
+	// entity with the mesh it is drawn with, sorts the queue, writes the
+	// slots in that order, then draws each run of entities needing the same
+	// state with one call.
+	public void render(EntityStore entities, FrustumCuller culler, Camera camera) {
+		while (levelsOfDetail.size() < entities.getBatchCount()) {
+			levelsOfDetail.add(new LevelOfDetail());
+		}
+		while (instanceBuffers.size() < entities.getBatchCount()) {
+			instanceBuffers.add(new InstanceBuffer(gl));
+		}
+		instanceBytesUploaded = 0;
+		for (int b = 0; b < entities.getBatchCount(); b++) {
+			// Even if none are visible, so changes don't pile up.
+			InstanceBuffer instances = instanceBuffers.get(b);
+			instances.update(entities.getBatch(b));
+			instanceBytesUploaded += instances.getBytesUploaded();
+		}
+		// Pixels covered by one unit at a distance of 1.
+		float pixelsPerUnit = projectionMatrix.m11 * viewportHeight / 2;
+
+		queue.clear(camera);
+		kindCount = 0;
+		for (int b = 0; b < entities.getBatchCount(); b++) {
+			EntityBatch batch = entities.getBatch(b);
+			TexturedModel model = batch.getModel();
+			InstanceBuffer instances = instanceBuffers.get(b);
+			LodModel lodModel = model.getLevelsOfDetail();
+			int[] ranges = culler.getRanges(b);
+			if (lodModel == null) {
+				int kind = addKind(model.getRawModel(), model, b, batch, instances);
+				for (int r = 0; r < culler.getRangeCount(b); r++) {
+					for (int i = ranges[r * 2]; i < ranges[r * 2 + 1]; i++) {
+						queueEntity(kind, i);
+					}
+				}
+				continue;
+			}
+			LevelOfDetail levels = levelsOfDetail.get(b);
+			levels.select(batch, lodModel, ranges, culler.getRangeCount(b), camera, culler.getUnitRadius(),
+					pixelsPerUnit);
+			int[] slots = levels.getSlots();
+			for (int level = 0; level < lodModel.getLevelCount(); level++) {
+				int kind = addKind(lodModel.getLevel(level), model, b, batch, instances);
+				int start = levels.getLevelStart(level), end = start + levels.getLevelCount(level);
+				for (int s = start; s < end; s++) {
+					queueEntity(kind, slots[s]);
+				}
+			}
+		}
+		queue.sort();
+
+		// Slots in queue order, so each draw's instances follow on from the
+		// ones before it, nearest first.
+		long[] keys = queue.getKeys();
+		int[] values = queue.getValues();
+		int queued = queue.size();
+		if (sortedSlots.length < itemSlots.length) {
+			sortedSlots = new float[itemSlots.length];
+		}
+		for (int q = 0; q < queued; q++) {
+			sortedSlots[q] = Float.intBitsToFloat(itemSlots[values[q]]);
+		}
+		// One bulk write, as the memory may be the GPU's & is best written in
+		// order.
+		FloatBuffer slotData = slotBuffer.map(queued);
+		slotData.put(sortedSlots, 0, queued);
+		long slotsStart = slotBuffer.unmap();
+		slotBytesUploaded = slotBuffer.getBytesStreamed();
+
+		drawCalls = 0;
+		stateChanges = 0;
+		instancesDrawn = 0;
+		verticesDrawn = 0;
+		boundVao = -1;
+		boundTexture = null;
+		boundInstances = null;
+		gl.glActiveTexture(GL13.GL_TEXTURE0);
+		int first = 0;
+		while (first < queued) {
+			// A run ends where the state changes.  The batch is in it, so its
+			// texture (with its shine) & instance data hold for the run.
+			int kind = itemKinds[values[first]];
+			long state = RenderQueue.getState(keys[first]);
+			int end = first + 1;
+			while (end < queued && RenderQueue.getState(keys[end]) == state) {
+				end++;
+			}
+			int instances = end - first;
+			RawModel mesh = kindMeshes[kind];
+			prepareTexturedModel(mesh, kindModels[kind], kindInstances[kind],
+					slotsStart + (long) first * SLOT_STRIDE);
+			gl.glDrawElementsInstanced(GL11.GL_TRIANGLES, mesh.getVertexCount(), mesh.getIndexType(), 0, instances);
+			drawCalls++;
+			instancesDrawn += instances;
+			verticesDrawn += (long) mesh.getVertexCount() * instances;
+			first = end;
+		}
+		unbindTexturedModel();
+		slotBuffer.fence();
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	// Queues the entity in a slot of a kind's batch.
+	private void queueEntity(int kind, int i) {
+		EntityBatch batch = kindBatches[kind];
+		int item = queue.size();
+		if (item == itemKinds.length) {
+			itemKinds = Arrays.copyOf(itemKinds, item * 2);
+			itemSlots = Arrays.copyOf(itemSlots, item * 2);
+		}
+		itemKinds[item] = kind;
+		itemSlots[item] = i;
+		queue.add(kindStates[kind] | queue.depthOf(batch.getX()[i], batch.getY()[i], batch.getZ()[i]), item);
+	}
+
+	// Records a mesh to draw the entities of batch # 'b' with, returning its
+	// index.  The key's texture field holds the batch #, not the texture's
+	// index:  batches sharing a texture name may still differ in shine, &
+	// always differ in instance data, so keying by texture alone would let
+	// the depth sort interleave them into many small draws.
+	private int addKind(RawModel mesh, TexturedModel model, int b, EntityBatch batch, InstanceBuffer instances) {
+		if (kindCount == kindMeshes.length) {
+			int size = Math.max(4, kindCount * 2);
+			kindMeshes = Arrays.copyOf(kindMeshes, size);
+			kindModels = Arrays.copyOf(kindModels, size);
+			kindBatches = Arrays.copyOf(kindBatches, size);
+			kindInstances = Arrays.copyOf(kindInstances, size);
+			kindStates = Arrays.copyOf(kindStates, size);
+		}
+		kindMeshes[kindCount] = mesh;
+		kindModels[kindCount] = model;
+		kindBatches[kindCount] = batch;
+		kindInstances[kindCount] = instances;
+		kindStates[kindCount] = RenderQueue.key(0, b, queue.vaoIndex(mesh.getVaoID()), 0);
+		return kindCount++;
+	}
+
+	// Binds a mesh of a TexturedModel & the instance data of its batch,
+	// with its instances' slots starting 'offset' bytes into the slot VBO.
+	// The VAO & textures are only bound when they differ from the last
+	// draw's.
+	private void prepareTexturedModel(RawModel mesh, TexturedModel model, InstanceBuffer instances, long offset) {
+		if (mesh.getVaoID() != boundVao) {
+			boundVao = mesh.getVaoID();
+			gl.glBindVertexArray(boundVao);
+			// Activate the Attribute Lists in which our data is stored.  Which
+			// are enabled is part of the VAO's state, so this sticks with it.
+			for (int attribute = 0; attribute <= InstancedShader.INSTANCE_SLOT_ATTRIBUTE; attribute++) {
+				gl.glEnableVertexAttribArray(attribute);
+			}
+			gl.glVertexAttribDivisor(InstancedShader.INSTANCE_SLOT_ATTRIBUTE, 1);
+			stateChanges++;
+		}
+		// Point the per-instance attribute at this draw's slots.  This is
+		// part of the VAO's state, so it must be set with it bound.
+		gl.glVertexAttribIPointer(InstancedShader.INSTANCE_SLOT_ATTRIBUTE, 1, GL11.GL_INT, SLOT_STRIDE, offset);
+		if (instances != boundInstances) {
+			// The batch's data goes on a unit of its own, leaving the model's
+			// texture on unit 0.
+			gl.glActiveTexture(GL13.GL_TEXTURE0 + InstancedShader.INSTANCE_DATA_UNIT);
+			gl.glBindTexture(GL31.GL_TEXTURE_BUFFER, instances.getTexture());
+			gl.glActiveTexture(GL13.GL_TEXTURE0);
+			boundInstances = instances;
+		}
+		ModelTexture modelTexture = model.getTexture();
+		if (modelTexture != boundTexture) {
+			// Get shine variables and load them up into shader.
+			shader.loadShineVariables(modelTexture.getShineDamper(), modelTexture.getReflectivity());
+			// Tell OpenGL which texture we would like to render.
+			if (boundTexture == null || modelTexture.getID() != boundTexture.getID()) {
+				gl.glBindTexture(GL11.GL_TEXTURE_2D, modelTexture.getID());
+			}
+			boundTexture = modelTexture;
+			stateChanges++;
+		}
+	}
+
+	// Unbinds the last TexturedModel drawn.
+	private void unbindTexturedModel() {
+		if (boundVao >= 0) {
+			gl.glBindVertexArray(0);
+		}
+	}
+
+	// Cleanup for memory management.
+	public void cleanUp() {
+		for (InstanceBuffer instances : instanceBuffers) {
+			instances.cleanUp();
+		}
+		slotBuffer.cleanUp();
+	}
+
+	public void setViewportHeight(float viewportHeight) {
+		this.viewportHeight = viewportHeight;
+	}
+
+	// Bytes the last frame uploaded:  instance data that changed & the
+	// slots drawn.
+	public long getBytesUploaded() {
+		return instanceBytesUploaded + slotBytesUploaded;
+	}
+
+	// Bytes of changed instance data the last frame uploaded.
+	public long getInstanceBytesUploaded() {
+		return instanceBytesUploaded;
+	}
+
+	// Bytes of slots the last frame streamed.
+	public long getSlotBytesUploaded() {
+		return slotBytesUploaded;
+	}
+
+	public InstanceBuffer getInstanceBuffer(int batch) {
+		return instanceBuffers.get(batch);
+	}
+
+	public StreamingBuffer getSlotBuffer() {
+		return slotBuffer;
+	}
+
+	public Matrix4f getProjectionMatrix() {
+		return projectionMatrix;
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	// VAOs & textures bound by the last frame's draws.
+	public int getStateChanges() {
+		return stateChanges;
+	}
+
+	public int getInstancesDrawn() {
+		return instancesDrawn;
+	}
+
+	// Indices the last frame's draws went through, over all instances.
+	public long getVerticesDrawn() {
+		return verticesDrawn;
+	}
+
+	// Level choices of a batch in the last frame.
+	public LevelOfDetail getLevelOfDetail(int batch) {
+		return levelsOfDetail.get(batch);
+	}
+
+}
@@ -0,0 +1,136 @@
+package renderEngine;
+
+import java.util.Arrays;
+
+import entities.Camera;
+import entities.EntityBatch;
+import models.LodModel;
+
+/*
+ * File:	LevelOfDetail.java
+ * Purpose:	Picks a level of detail for each visible entity of a batch from
+ * 			how big it looks on screen, and groups the entities by level so
+ * 			each level can be drawn with one instanced call.  An entity's
+ * 			screen-space radius is unitRadius * scale * pixelsPerUnit /
+ * 			distance, pixelsPerUnit being the pixels covered by one unit at a
+ * 			distance of 1.  Levels only change once an entity is HYSTERESIS
+ * 			past a threshold, so bodies hovering near one don't flicker
+ * 			between meshes.  The level last drawn is kept per handle, so it
+ * 			survives the culler reordering the batch.
+ */
+public class LevelOfDetail {
+
+	// Fraction of a threshold an entity must move past it to change level.
+	public static final float HYSTERESIS = 0.15f;
+	// Nearer than this, an entity is taken to be this far away.
+	private static final float MIN_DISTANCE = 1e-3f;
+
+	// Level + 1 last drawn for each handle, or 0 if none yet.
+	private byte[] handleLevels = new byte[0];
+	// Level of each visible entity, in the order the ranges give them.
+	private byte[] visibleLevels = new byte[0];
+	// Slots of the visible entities, level by level.
+	private int[] slots = new int[0];
+	// Level l's slots are slots[levelStarts[l]] up to slots[levelStarts[l + 1]].
+	private int[] levelStarts = new int[1];
+	private int levelCount;
+
+	// Chooses the level of each entity in the visible slot ranges of a batch
+	// (as given by FrustumCuller.getRanges()) & groups their slots by level.
+	public void select(EntityBatch batch, LodModel model, int[] ranges, int rangeCount, Camera camera,
+			float unitRadius, float pixelsPerUnit) {
+		float[] x = batch.getX(), y = batch.getY(), z = batch.getZ(), scale = batch.getScale();
+		int[] handles = batch.getHandles();
+		float cameraX = camera.getPosition().x, cameraY = camera.getPosition().y, cameraZ = camera.getPosition().z;
+		levelCount = model.getLevelCount();
+		if (levelStarts.length < levelCount + 1) {
+			levelStarts = new int[levelCount + 1];
+		}
+		int visible = 0;
+		for (int r = 0; r < rangeCount; r++) {
+			visible += ranges[r * 2 + 1] - ranges[r * 2];
+		}
+		if (visibleLevels.length < visible) {
+			visibleLevels = new byte[Math.max(visible, visibleLevels.length * 2)];
+			slots = new int[visibleLevels.length];
+		}
+
+		// Pick each entity's level, counting how many land on each.
+		for (int level = 0; level <= levelCount; level++) {
+			levelStarts[level] = 0;
+		}
+		int v = 0;
+		for (int r = 0; r < rangeCount; r++) {
+			for (int i = ranges[r * 2]; i < ranges[r * 2 + 1]; i++) {
+				float dx = x[i] - cameraX, dy = y[i] - cameraY, dz = z[i] - cameraZ;
+				float distance = Math.max((float) Math.sqrt(dx * dx + dy * dy + dz * dz), MIN_DISTANCE);
+				float pixels = unitRadius * scale[i] * pixelsPerUnit / distance;
+				int handle = handles[i];
+				if (handle >= handleLevels.length) {
+					handleLevels = Arrays.copyOf(handleLevels, Math.max(handle + 1, handleLevels.length * 2));
+				}
+				int level = chooseLevel(model, pixels, handleLevels[handle] - 1);
+				handleLevels[handle] = (byte) (level + 1);
+				visibleLevels[v++] = (byte) level;
+				levelStarts[level + 1]++;
+			}
+		}
+
+		// Then place the slots level by level (a counting sort).
+		for (int level = 0; level < levelCount; level++) {
+			levelStarts[level + 1] += levelStarts[level];
+		}
+		v = 0;
+		for (int r = 0; r < rangeCount; r++) {
+			for (int i = ranges[r * 2]; i < ranges[r * 2 + 1]; i++) {
+				int level = visibleLevels[v++];
+				slots[levelStarts[level]++] = i;
+			}
+		}
+		// Placing moved each start up to the next level's; shift them back.
+		for (int level = levelCount; level > 0; level--) {
+			levelStarts[level] = levelStarts[level - 1];
+		}
+		levelStarts[0] = 0;
+	}
+
+	// The level for an entity covering 'pixels' that was last drawn at
+	// 'previous' (or -1 if never).
+	public static int chooseLevel(LodModel model, float pixels, int previous) {
+		if (previous < 0 || previous >= model.getLevelCount()) {
+			return model.levelFor(pixels);
+		}
+		// Coarsen only if still coarser when a little bigger, refine only if
+		// still finer when a little smaller.
+		int coarser = model.levelFor(pixels * (1 + HYSTERESIS));
+		if (coarser > previous) {
+			return coarser;
+		}
+		int finer = model.levelFor(pixels * (1 - HYSTERESIS));
+		if (finer < previous) {
+			return finer;
+		}
+		return previous;
+	}
+
+	// Slots of the visible entities grouped by level.
+	public int[] getSlots() {
+		return slots;
+	}
+
+	// Index into getSlots() of a level's first slot.
+	public int getLevelStart(int level) {
+		return levelStarts[level];
+	}
+
+	// # of visible entities drawn at a level.
+	public int getLevelCount(int level) {
+		return levelStarts[level + 1] - levelStarts[level];
+	}
+
+	// # of levels of the model last selected for.
+	public int getLevels() {
+		return levelCount;
+	}
+
+}
@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,6 +17,7 @@ import org.lwjgl.opengl.GL30;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureLoader;
 
+import models.MeshData;
 import models.RawModel;
 
 /*
@@ -30,11 +32,15 @@ public class Loader {
 	private List<Integer> VBOs = new ArrayList<Integer>();
 	private List<Integer> Textures = new ArrayList<Integer>();
 
+	// Meshes with up to this many vertices get 16-bit indices, halving the
+	// index data the GPU fetches.
+	public static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+
 	// Takes in positions of the model's vertices, loads this data into
 	// a VAO, and then returns information about the VAO as a RawModel object.
 	public RawModel loadToVAO(float[] positions, float[] textureCoordinates, float[] normals, int[] indices) {
 		int vaoID = createVAO();
-		bindIndicesBuffer(indices);
+		int indexType = bindIndicesBuffer(indices, positions.length / 3);
 		// Store positional data into the first (0) attribute list of the VAO.
 		storeDataInAttributeList(0, 3, positions);
 		// Store texture data into the second (1) attribute list of VAO.
@@ -44,7 +50,32 @@ public class Loader {
 		// Unbind VAO when finished with it.
 		unbindVAO();
 		// Return the data we created about the VAO.
-		return new RawModel(vaoID, indices.length);
+		return new RawModel(vaoID, indices.length, indexType);
+	}
+
+	// Loads a mesh built in memory, e.g. by SphereGenerator.
+	public RawModel loadToVAO(MeshData mesh) {
+		return loadToVAO(mesh.getPositions(), mesh.getTextureCoordinates(), mesh.getNormals(), mesh.getIndices());
+	}
+
+	// Loads a mesh from its cache file:  the interleaved vertices go into one
+	// VBO, straight from the file, with each attribute list pointing into it.
+	public RawModel loadToVAO(MeshCache mesh) {
+		int vaoID = createVAO();
+		int indicesID = GL15.glGenBuffers();
+		VBOs.add(indicesID);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesID);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, mesh.getIndexData(), GL15.GL_STATIC_DRAW);
+		int vboID = GL15.glGenBuffers();
+		VBOs.add(vboID);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, mesh.getVertexData(), GL15.GL_STATIC_DRAW);
+		GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, MeshCache.VERTEX_STRIDE, 0);
+		GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, MeshCache.VERTEX_STRIDE, MeshCache.TEXTURE_OFFSET);
+		GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, MeshCache.VERTEX_STRIDE, MeshCache.NORMAL_OFFSET);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		return new RawModel(vaoID, mesh.getIndexCount(), mesh.getIndexType());
 	}
 
 	// Loads a texture into OpenGl.
@@ -113,16 +144,23 @@ public class Loader {
 		GL30.glBindVertexArray(0);
 	}
 
-	// Loads up index buffer and binds it to VAO.
-	private void bindIndicesBuffer(int[] indices) {
+	// Loads up index buffer and binds it to VAO, as 16-bit indices if the
+	// vertices allow.  Returns the index type.
+	private int bindIndicesBuffer(int[] indices, int vertexCount) {
 		// Create empty VBO, add to list of VBOs, & bind it.
 		int vboID = GL15.glGenBuffers();
 		VBOs.add(vboID);
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+		if (vertexCount <= MAX_SHORT_INDEXED_VERTICES) {
+			// Convert indices into ShortBuffer & store into VBO.
+			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, storeDataInShortBuffer(indices), GL15.GL_STATIC_DRAW);
+			return GL11.GL_UNSIGNED_SHORT;
+		}
 		// Convert indices into IntBuffer.
 		IntBuffer buffer = storeDataInIntBuffer(indices);
 		// Store into VBO.
 		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		return GL11.GL_UNSIGNED_INT;
 	}
 
 	// Converts float-array of data into a FloatBuffer.
@@ -145,4 +183,14 @@ public class Loader {
 		return buffer;
 	}
 
+	// Stores indices below 65536 into ShortBuffer.
+	private ShortBuffer storeDataInShortBuffer(int[] data) {
+		ShortBuffer buffer = BufferUtils.createShortBuffer(data.length);
+		for (int index : data) {
+			buffer.put((short) index);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
 }
@@ -0,0 +1,339 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.ARBInstancedArrays;
+import org.lwjgl.opengl.ARBMapBufferRange;
+import org.lwjgl.opengl.ARBSync;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+
+/*
+ * File:	LwjglGLCalls.java
+ * Purpose:	Passes every call straight on to LWJGL, and so to the driver of
+ * 			the current context.
+ */
+public class LwjglGLCalls implements GLCalls {
+
+	// Syncs not yet deleted, by pointer, as LWJGL wants its own objects back.
+	private Map<Long, GLSync> syncs = new HashMap<Long, GLSync>();
+	// The last mapping, handed back so LWJGL can reuse it for the same range.
+	private ByteBuffer mapping;
+
+	@Override
+	public void glEnable(int capability) {
+		GL11.glEnable(capability);
+	}
+
+	@Override
+	public void glDisable(int capability) {
+		GL11.glDisable(capability);
+	}
+
+	@Override
+	public void glCullFace(int mode) {
+		GL11.glCullFace(mode);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		GL11.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		GL11.glClear(mask);
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		return GL20.glCreateShader(type);
+	}
+
+	@Override
+	public void glShaderSource(int shader, CharSequence source) {
+		GL20.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		GL20.glCompileShader(shader);
+	}
+
+	@Override
+	public int glGetShaderi(int shader, int name) {
+		return GL20.glGetShaderi(shader, name);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		return GL20.glGetShaderInfoLog(shader, maxLength);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		GL20.glDeleteShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		return GL20.glCreateProgram();
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		GL20.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glDetachShader(int program, int shader) {
+		GL20.glDetachShader(program, shader);
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, CharSequence name) {
+		GL20.glBindAttribLocation(program, index, name);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		GL20.glLinkProgram(program);
+	}
+
+	@Override
+	public void glValidateProgram(int program) {
+		GL20.glValidateProgram(program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		GL20.glUseProgram(program);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		GL20.glDeleteProgram(program);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, CharSequence name) {
+		return GL20.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glUniform1f(int location, float value) {
+		GL20.glUniform1f(location, value);
+	}
+
+	@Override
+	public void glUniform1i(int location, int value) {
+		GL20.glUniform1i(location, value);
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		GL20.glUniform3f(location, x, y, z);
+	}
+
+	@Override
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		GL20.glUniformMatrix4(location, transpose, matrices);
+	}
+
+	@Override
+	public int glGenVertexArrays() {
+		return GL30.glGenVertexArrays();
+	}
+
+	@Override
+	public void glBindVertexArray(int array) {
+		GL30.glBindVertexArray(array);
+	}
+
+	@Override
+	public void glDeleteVertexArrays(int array) {
+		GL30.glDeleteVertexArrays(array);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		GL20.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		GL20.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		GL20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public void glVertexAttribIPointer(int index, int size, int type, int stride, long offset) {
+		GL30.glVertexAttribIPointer(index, size, type, stride, offset);
+	}
+
+	// Core since 3.3, so a 3.2 context needs the ARB extension.
+	@Override
+	public void glVertexAttribDivisor(int index, int divisor) {
+		if (GLContext.getCapabilities().OpenGL33) {
+			GL33.glVertexAttribDivisor(index, divisor);
+		} else {
+			ARBInstancedArrays.glVertexAttribDivisorARB(index, divisor);
+		}
+	}
+
+	@Override
+	public int glGenBuffers() {
+		return GL15.glGenBuffers();
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		GL15.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, long size, int usage) {
+		GL15.glBufferData(target, size, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
+	}
+
+	@Override
+	public void glDeleteBuffers(int buffer) {
+		GL15.glDeleteBuffers(buffer);
+	}
+
+	// Core since 4.4, otherwise ARB_buffer_storage.
+	@Override
+	public void glBufferStorage(int target, long size, int flags) {
+		if (GLContext.getCapabilities().OpenGL44) {
+			GL44.glBufferStorage(target, size, flags);
+		} else {
+			ARBBufferStorage.glBufferStorage(target, size, flags);
+		}
+	}
+
+	@Override
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+		if (GLContext.getCapabilities().OpenGL30) {
+			mapping = GL30.glMapBufferRange(target, offset, length, access, mapping);
+		} else {
+			mapping = ARBMapBufferRange.glMapBufferRange(target, offset, length, access, mapping);
+		}
+		return mapping;
+	}
+
+	@Override
+	public boolean glUnmapBuffer(int target) {
+		return GL15.glUnmapBuffer(target);
+	}
+
+	@Override
+	public long glFenceSync(int condition, int flags) {
+		GLSync sync = GLContext.getCapabilities().OpenGL32 ? GL32.glFenceSync(condition, flags)
+				: ARBSync.glFenceSync(condition, flags);
+		syncs.put(sync.getPointer(), sync);
+		return sync.getPointer();
+	}
+
+	@Override
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		if (GLContext.getCapabilities().OpenGL32) {
+			return GL32.glClientWaitSync(syncs.get(sync), flags, timeout);
+		}
+		return ARBSync.glClientWaitSync(syncs.get(sync), flags, timeout);
+	}
+
+	@Override
+	public void glDeleteSync(long sync) {
+		GLSync deleted = syncs.remove(sync);
+		if (GLContext.getCapabilities().OpenGL32) {
+			GL32.glDeleteSync(deleted);
+		} else {
+			ARBSync.glDeleteSync(deleted);
+		}
+	}
+
+	@Override
+	public void glActiveTexture(int unit) {
+		GL13.glActiveTexture(unit);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		GL11.glBindTexture(target, texture);
+	}
+
+	@Override
+	public int glGenTextures() {
+		return GL11.glGenTextures();
+	}
+
+	@Override
+	public void glDeleteTextures(int texture) {
+		GL11.glDeleteTextures(texture);
+	}
+
+	@Override
+	public void glTexBuffer(int target, int internalFormat, int buffer) {
+		GL31.glTexBuffer(target, internalFormat, buffer);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		GL11.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		GL31.glDrawElementsInstanced(mode, count, type, offset, instances);
+	}
+
+	@Override
+	public void glDrawArraysInstanced(int mode, int first, int count, int instances) {
+		GL31.glDrawArraysInstanced(mode, first, count, instances);
+	}
+
+	// True if the current context can draw instanced, either in core (3.3) or
+	// through ARB_instanced_arrays.
+	public static boolean supportsInstancing() {
+		return GLContext.getCapabilities().OpenGL33 || GLContext.getCapabilities().GL_ARB_instanced_arrays;
+	}
+
+	// How the current context can stream data to the GPU (a StreamingBuffer
+	// mode):  through buffers mapped for good (4.4 or ARB_buffer_storage),
+	// mapped frame by frame (3.0 & 3.2, or ARB_map_buffer_range & ARB_sync),
+	// or else by orphaning.
+	public static int getStreamingMode() {
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		boolean mapping = capabilities.OpenGL30 || capabilities.GL_ARB_map_buffer_range;
+		boolean sync = capabilities.OpenGL32 || capabilities.GL_ARB_sync;
+		if (!mapping || !sync) {
+			return StreamingBuffer.ORPHANED;
+		}
+		return capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage ? StreamingBuffer.PERSISTENT
+				: StreamingBuffer.MAPPED;
+	}
+
+}
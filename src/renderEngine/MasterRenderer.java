@@ -1,52 +1,157 @@
 package renderEngine;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.lwjgl.opengl.Display;
 
 import entities.Camera;
-import entities.Entity;
+import entities.EntityStore;
 import entities.Light;
-import models.TexturedModel;
+import shaders.ImpostorShader;
+import shaders.InstancedShader;
 import shaders.StaticShader;
 
 public class MasterRenderer {
 
-	private StaticShader shader = new StaticShader();
-	private Renderer renderer = new Renderer(shader);
+	// Every GL call goes through this, which drops those that wouldn't
+	// change anything.
+	private CachingGLCalls stateCache;
+	private StaticShader shader;
+	// Draws each TexturedModel once for all its entities, where the context
+	// can; otherwise the per-entity renderer is used.
+	private InstancedRenderer instancedRenderer = null;
+	private Renderer renderer = null;
+	// Draws bodies as ray-cast spheres instead, when switched on (needs
+	// instancing too).
+	private ImpostorShader impostorShader = null;
+	private ImpostorRenderer impostorRenderer = null;
+	private boolean impostors = false;
 
-	// Hashmap of all TexturedModels & their respective entities.
-	private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
+	// Radius of the models at scale 1 (the ball model's is 1), for culling.
+	private static final float MODEL_RADIUS = 1;
+	private FrustumCuller culler = new FrustumCuller(MODEL_RADIUS, ForkJoinPool.commonPool());
 
-	public void render(Light light, Camera camera) {
-		renderer.prepare();
+	public MasterRenderer() {
+		stateCache = new CachingGLCalls(new LwjglGLCalls());
+		float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
+		if (LwjglGLCalls.supportsInstancing()) {
+			int streamingMode = LwjglGLCalls.getStreamingMode();
+			InstancedShader instancedShader = new InstancedShader(stateCache);
+			shader = instancedShader;
+			instancedRenderer = new InstancedRenderer(instancedShader, stateCache, aspectRatio, streamingMode);
+			instancedRenderer.setViewportHeight(Display.getHeight());
+			createImpostorRenderer(stateCache, aspectRatio);
+		} else {
+			shader = new StaticShader(stateCache);
+			renderer = new Renderer(shader, stateCache, aspectRatio);
+		}
+	}
+
+	// Renders instanced through the given GL calls, e.g. to record them,
+	// streaming the slots drawn through buffers mapped each frame.
+	public MasterRenderer(GLCalls calls, float aspectRatio) {
+		this(calls, aspectRatio, StreamingBuffer.MAPPED);
+	}
+
+	// As above, streaming the slots drawn the given StreamingBuffer way.
+	public MasterRenderer(GLCalls calls, float aspectRatio, int streamingMode) {
+		stateCache = new CachingGLCalls(calls);
+		GLCalls gl = stateCache;
+		InstancedShader instancedShader = new InstancedShader(gl);
+		shader = instancedShader;
+		instancedRenderer = new InstancedRenderer(instancedShader, gl, aspectRatio, streamingMode);
+		createImpostorRenderer(gl, aspectRatio);
+	}
+
+	private void createImpostorRenderer(GLCalls gl, float aspectRatio) {
+		impostorShader = new ImpostorShader(gl);
+		impostorRenderer = new ImpostorRenderer(impostorShader, gl, aspectRatio);
+	}
+
+	// Renders every entity in the store the camera can see, batch by batch.
+	public void render(Light light, Camera camera, EntityStore entities) {
+		stateCache.beginFrame();
+		if (impostors) {
+			culler.cull(entities, impostorRenderer.getProjectionMatrix(), camera);
+			impostorRenderer.prepare();
+			impostorShader.start();
+			impostorShader.loadLight(light);
+			impostorShader.loadViewMatrix(camera);
+			impostorRenderer.render(entities, culler);
+			impostorShader.stop();
+			return;
+		}
+		if (instancedRenderer != null) {
+			culler.cull(entities, instancedRenderer.getProjectionMatrix(), camera);
+			instancedRenderer.prepare();
+		} else {
+			culler.cull(entities, renderer.getProjectionMatrix(), camera);
+			renderer.prepare();
+		}
 		shader.start();
 		shader.loadLight(light);
 		shader.loadViewMatrix(camera);
-		renderer.render(entities);
-		shader.stop();
-		entities.clear();
-	}
-
-	// Sorts all entities ready to be rendered into the correct list each frame.
-	public void processEntity(Entity entity) {
-		TexturedModel entityModel = entity.getModel();
-		List<Entity> batch = entities.get(entityModel);
-		// If batch for curr TexturedModel already exists, add entity straight to that
-		// batch.
-		if (batch != null) {
-			batch.add(entity);
-		} // Else, create new batch for curr TexturedModel.
-		else {
-			List<Entity> newBatch = new ArrayList<Entity>();
-			// Add the entity to the new batch & add batch to HashMap.
-			newBatch.add(entity);
-			entities.put(entityModel, newBatch);
+		if (instancedRenderer != null) {
+			instancedRenderer.render(entities, culler, camera);
+		} else {
+			renderer.render(entities, culler, camera);
 		}
+		shader.stop();
 	}
 
 	public void cleanUp() {
 		shader.cleanUp();
+		if (instancedRenderer != null) {
+			instancedRenderer.cleanUp();
+		}
+		if (impostorRenderer != null) {
+			impostorShader.cleanUp();
+			impostorRenderer.cleanUp();
+		}
+	}
+
+	// GL calls passed on & saved in the last frame, & caching on/off.
+	public CachingGLCalls getStateCache() {
+		return stateCache;
 	}
+
+	// Bytes the last frame uploaded:  changed instance data & the slots
+	// drawn when drawing instanced, or changed bodies as impostors.
+	public long getBytesUploaded() {
+		if (impostors) {
+			return impostorRenderer.getBytesUploaded();
+		}
+		return instancedRenderer != null ? instancedRenderer.getBytesUploaded() : 0;
+	}
+
+	// Visible & culled counts of the last frame, & culling on/off.
+	public FrustumCuller getCuller() {
+		return culler;
+	}
+
+	// Null when drawing instanced.
+	public Renderer getRenderer() {
+		return renderer;
+	}
+
+	// Null when drawing per entity.
+	public InstancedRenderer getInstancedRenderer() {
+		return instancedRenderer;
+	}
+
+	// Null when drawing per entity.
+	public ImpostorRenderer getImpostorRenderer() {
+		return impostorRenderer;
+	}
+
+	public boolean isImpostors() {
+		return impostors;
+	}
+
+	// Switches between meshes & sphere impostors; stays on meshes if the
+	// context can't draw instanced.
+	public void setImpostors(boolean impostors) {
+		this.impostors = impostors && impostorRenderer != null;
+	}
+
 }
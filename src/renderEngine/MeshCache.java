@@ -0,0 +1,285 @@
+package renderEngine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.lwjgl.opengl.GL11;
+
+import models.MeshData;
+import models.MeshOptimizer;
+
+/*
+ * File:	MeshCache.java
+ * Purpose:	A mesh loaded through a binary cache file kept next to its .obj
+ * 			(Ball.obj -> Ball.mesh), so the text is only parsed the first
+ * 			time.  The cache holds an 80-byte header, then the vertices
+ * 			interleaved (position, texture coordinates, normal:  8 little-
+ * 			endian floats each), then the indices, as shorts if there are
+ * 			few enough vertices, else as ints.  Meshes are run through
+ * 			MeshOptimizer before being cached.  Later loads just
+ * 			memory-map it, & the vertex & index data go to the GPU as they
+ * 			lie in the file.  The header records the size, modification time
+ * 			& a hash of the .obj it came from:  if the size or time differ
+ * 			the hash is checked, and if that differs too the cache is stale
+ * 			& rebuilt.
+ *
+ * 			Header:	magic, version, vertex count, index count, index
+ * 					size in bytes, unused (ints), source size, source
+ * 					time, source hash (longs),
+ * 					bounds min x, y, z & max x, y, z (floats).
+ */
+public class MeshCache {
+
+	// "NBMS" in ASCII, used to recognize our files.
+	public static final int MAGIC = 0x4E424D53;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 80;
+	public static final String FILE_EXTENSION = ".mesh";
+	public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	// Floats per vertex:  x, y, z, u, v, then the normal's x, y, z.
+	public static final int FLOATS_PER_VERTEX = 8;
+	public static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;
+	public static final int TEXTURE_OFFSET = 3 * 4;
+	public static final int NORMAL_OFFSET = 5 * 4;
+
+	private static final int INDEX_SIZE = 16;
+	private static final int SOURCE_SIZE = 24;
+	private static final int SOURCE_TIME = 32;
+	private static final int SOURCE_HASH = 40;
+	private static final int BOUNDS = 48;
+
+	private ByteBuffer vertexData;
+	private ByteBuffer indexData;
+	private int vertexCount;
+	private int indexCount;
+	private int indexSize;
+	private float[] min = new float[3];
+	private float[] max = new float[3];
+	// True if the .obj had to be parsed (no cache, or a stale one).
+	private boolean rebuilt;
+
+	private MeshCache(ByteBuffer file, boolean rebuilt) {
+		file.order(BYTE_ORDER);
+		vertexCount = file.getInt(8);
+		indexCount = file.getInt(12);
+		indexSize = file.getInt(INDEX_SIZE);
+		for (int k = 0; k < 3; k++) {
+			min[k] = file.getFloat(BOUNDS + k * 4);
+			max[k] = file.getFloat(BOUNDS + 12 + k * 4);
+		}
+		vertexData = slice(file, HEADER_SIZE, vertexCount * VERTEX_STRIDE);
+		indexData = slice(file, HEADER_SIZE + vertexCount * VERTEX_STRIDE, indexCount * indexSize);
+		this.rebuilt = rebuilt;
+	}
+
+	// The cache file for an .obj file.
+	public static File getCacheFile(String objFile) {
+		String base = objFile.endsWith(".obj") ? objFile.substring(0, objFile.length() - 4) : objFile;
+		return new File(base + FILE_EXTENSION);
+	}
+
+	// Loads an .obj file from its cache, (re)building the cache if it is
+	// missing or stale.  If the cache can't be written the mesh is still
+	// returned, from memory.
+	public static MeshCache open(String objFile) throws IOException {
+		File source = new File(objFile);
+		File cache = getCacheFile(objFile);
+		long size = source.length(), time = source.lastModified();
+		if (!source.isFile()) {
+			throw new IOException("No such file:  " + objFile);
+		}
+		// The GPU takes the data as it lies in the file, in its own byte order.
+		boolean usable = ByteOrder.nativeOrder() == BYTE_ORDER;
+		if (usable && cache.isFile()) {
+			MappedByteBuffer mapped = map(cache);
+			if (isValid(mapped, cache.length())) {
+				if (mapped.getLong(SOURCE_SIZE) == size && mapped.getLong(SOURCE_TIME) == time) {
+					return new MeshCache(mapped, false);
+				}
+				// Touched, but perhaps not changed.
+				if (mapped.getLong(SOURCE_HASH) == hash(source)) {
+					updateTime(cache, time);
+					return new MeshCache(mapped, false);
+				}
+			}
+		}
+
+		ByteBuffer built = build(MeshOptimizer.optimize(OBJLoader.loadMesh(objFile)), size, time, hash(source));
+		if (usable) {
+			try {
+				write(built, cache);
+			} catch (IOException e) {
+				System.err.println("ERROR:  COULD NOT WRITE MESH CACHE " + cache + "!!!");
+				e.printStackTrace();
+			}
+		}
+		return new MeshCache(built, true);
+	}
+
+	// Lays a mesh out as a cache file, in a direct buffer.
+	public static ByteBuffer build(MeshData mesh, long sourceSize, long sourceTime, long sourceHash) {
+		int vertices = mesh.getVertexCount();
+		int[] indices = mesh.getIndices();
+		boolean shortIndices = vertices <= Loader.MAX_SHORT_INDEXED_VERTICES;
+		int indexSize = shortIndices ? 2 : 4;
+		ByteBuffer file = ByteBuffer.allocateDirect(HEADER_SIZE + vertices * VERTEX_STRIDE + indices.length * indexSize);
+		file.order(BYTE_ORDER);
+		file.putInt(0, MAGIC);
+		file.putInt(4, VERSION);
+		file.putInt(8, vertices);
+		file.putInt(12, indices.length);
+		file.putInt(INDEX_SIZE, indexSize);
+		file.putLong(SOURCE_SIZE, sourceSize);
+		file.putLong(SOURCE_TIME, sourceTime);
+		file.putLong(SOURCE_HASH, sourceHash);
+
+		float[] positions = mesh.getPositions(), textures = mesh.getTextureCoordinates(), normals = mesh.getNormals();
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		file.position(HEADER_SIZE);
+		for (int v = 0; v < vertices; v++) {
+			for (int k = 0; k < 3; k++) {
+				float coordinate = positions[v * 3 + k];
+				file.putFloat(coordinate);
+				min[k] = Math.min(min[k], coordinate);
+				max[k] = Math.max(max[k], coordinate);
+			}
+			file.putFloat(textures[v * 2]).putFloat(textures[v * 2 + 1]);
+			file.putFloat(normals[v * 3]).putFloat(normals[v * 3 + 1]).putFloat(normals[v * 3 + 2]);
+		}
+		for (int index : indices) {
+			if (shortIndices) {
+				file.putShort((short) index);
+			} else {
+				file.putInt(index);
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			file.putFloat(BOUNDS + k * 4, vertices > 0 ? min[k] : 0);
+			file.putFloat(BOUNDS + 12 + k * 4, vertices > 0 ? max[k] : 0);
+		}
+		file.clear();
+		return file;
+	}
+
+	// 64-bit hash of a file's bytes, taken 8 at a time.
+	public static long hash(File file) throws IOException {
+		ByteBuffer bytes = map(file).order(BYTE_ORDER);
+		long h = 0xCBF29CE484222325L ^ bytes.limit();
+		int i = 0;
+		for (; i + 8 <= bytes.limit(); i += 8) {
+			h = Long.rotateLeft(h ^ bytes.getLong(i) * 0x9E3779B97F4A7C15L, 27) * 0xC2B2AE3D27D4EB4FL;
+		}
+		for (; i < bytes.limit(); i++) {
+			h = (h ^ bytes.get(i)) * 0x100000001B3L;
+		}
+		return h ^ (h >>> 29);
+	}
+
+	// True if the header is ours & the file is as long as it says.
+	private static boolean isValid(ByteBuffer file, long length) {
+		if (length < HEADER_SIZE || file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+			return false;
+		}
+		long vertices = file.getInt(8), indices = file.getInt(12), indexSize = file.getInt(INDEX_SIZE);
+		return vertices >= 0 && indices >= 0 && (indexSize == 2 || indexSize == 4)
+				&& length == HEADER_SIZE + vertices * VERTEX_STRIDE + indices * indexSize;
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			mapped.order(BYTE_ORDER);
+			return mapped;
+		} finally {
+			in.close();
+		}
+	}
+
+	// Writes next to the cache & renames, so a half-written cache is never
+	// found by another load.
+	private static void write(ByteBuffer built, File cache) throws IOException {
+		File temporary = new File(cache.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer data = built.duplicate();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Records the source's new modification time once its hash matched.
+	private static void updateTime(File cache, long time) {
+		try {
+			RandomAccessFile out = new RandomAccessFile(cache, "rw");
+			try {
+				ByteBuffer field = ByteBuffer.allocate(8).order(BYTE_ORDER);
+				field.putLong(0, time);
+				out.getChannel().write(field, SOURCE_TIME);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// Harmless:  the hash will just be checked again next time.
+			e.printStackTrace();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer file, int offset, int length) {
+		ByteBuffer view = file.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().order(BYTE_ORDER);
+	}
+
+	// Interleaved vertices, VERTEX_STRIDE bytes each.
+	public ByteBuffer getVertexData() {
+		return vertexData;
+	}
+
+	public ByteBuffer getIndexData() {
+		return indexData;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	public int getIndexType() {
+		return indexSize == 2 ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+	}
+
+	public float[] getMin() {
+		return min;
+	}
+
+	public float[] getMax() {
+		return max;
+	}
+
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+}
@@ -1,123 +1,305 @@
 package renderEngine;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.lwjgl.util.vector.Vector2f;
-import org.lwjgl.util.vector.Vector3f;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
+import models.MeshData;
 import models.RawModel;
+import toolbox.NumberParser;
 
 /*
  * File:	OBJLoader.java
- * Purpose:	Loads up .obj file as a RawModel.
+ * Purpose:	Loads up .obj file as a RawModel.  The file is memory-mapped and
+ * 			scanned byte by byte, numbers being parsed in place by
+ * 			NumberParser, so no String is made per line or value.  Each
+ * 			distinct position/texture/normal triplet a face uses becomes one
+ * 			vertex, found again through an open-addressing hash table, so
+ * 			vertices on a seam (same position, different texture coordinates
+ * 			or normals) stay apart instead of overwriting each other.
+ * 			Polygons are split into triangle fans, and negative (relative)
+ * 			indices are understood.  Models are loaded through a MeshCache.
  */
 public class OBJLoader {
 
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Loads res/<fileName>.obj through its MeshCache, so it is only parsed
+	// when it has changed.
 	public static RawModel loadObjModel(String fileName, Loader loader) {
-		FileReader fr = null;
+		MeshCache mesh = null;
 		try {
-			fr = new FileReader(new File("res/" + fileName + ".obj"));
-		} catch (FileNotFoundException e) {
+			mesh = MeshCache.open("res/" + fileName + ".obj");
+		} catch (IOException e) {
 			System.err.println("ERROR:  COULD NOT LOAD FILE!!!");
 			e.printStackTrace();
+			return null;
 		}
-		BufferedReader reader = new BufferedReader(fr);
-		String line;
-		List<Vector3f> vertices = new ArrayList<Vector3f>();
-		List<Vector2f> textures = new ArrayList<Vector2f>();
-		List<Vector3f> normals = new ArrayList<Vector3f>();
-		List<Integer> indices = new ArrayList<Integer>();
-		float[] verticesArray = null;
-		float[] normalsArray = null;
-		float[] textureArray = null;
-		int[] indicesArray = null;
+		return loader.loadToVAO(mesh);
+	}
 
+	// Reads an .obj file into tightly packed arrays.  Texture coordinates
+	// are flipped vertically, as OpenGL's origin is at the bottom.
+	public static MeshData loadMesh(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
 		try {
+			FileChannel channel = file.getChannel();
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			file.close();
+		}
+	}
+
+	// Parses the bytes of an .obj file from position to limit.
+	public static MeshData parse(ByteBuffer buffer) {
+		Parser parser = new Parser(buffer);
+		parser.run();
+		return parser.toMeshData();
+	}
+
+	// State of one parse:  the attributes read so far, the vertices made
+	// from them & the triangles' indices.
+	private static class Parser {
+
+		private ByteBuffer buffer;
+		private int pos;
+		private int end;
+
+		// As listed in the file.
+		private float[] filePositions = new float[INITIAL_CAPACITY * 3];
+		private float[] fileTextures = new float[INITIAL_CAPACITY * 2];
+		private float[] fileNormals = new float[INITIAL_CAPACITY * 3];
+		private int positionCount, textureCount, normalCount;
+
+		// One per distinct triplet, with the triplet it was made from (texture
+		// & normal being -1 where the face gave none).
+		private float[] positions = new float[INITIAL_CAPACITY * 3];
+		private float[] textures = new float[INITIAL_CAPACITY * 2];
+		private float[] normals = new float[INITIAL_CAPACITY * 3];
+		private int[] triplets = new int[INITIAL_CAPACITY * 3];
+		private int vertexCount;
+
+		// Vertex + 1 for each slot of the hash table, 0 if the slot is empty.
+		private int[] table = new int[INITIAL_CAPACITY * 2];
+
+		private int[] indices = new int[INITIAL_CAPACITY * 3];
+		private int indexCount;
+
+		// Vertices of the face being read.
+		private int[] face = new int[16];
+
+		Parser(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.pos = buffer.position();
+			this.end = buffer.limit();
+		}
+
+		void run() {
+			while (pos < end) {
+				skipBlanks();
+				if (pos >= end) {
+					break;
+				}
+				byte first = buffer.get(pos);
+				byte second = pos + 1 < end ? buffer.get(pos + 1) : (byte) '\n';
+				if (first == 'v' && isBlank(second)) {
+					pos++;
+					readPosition();
+				} else if (first == 'v' && second == 't') {
+					pos += 2;
+					readTexture();
+				} else if (first == 'v' && second == 'n') {
+					pos += 2;
+					readNormal();
+				} else if (first == 'f' && isBlank(second)) {
+					pos++;
+					readFace();
+				}
+				// Anything else (comments, groups, materials) is skipped.
+				skipLine();
+			}
+		}
+
+		private void readPosition() {
+			if (positionCount * 3 == filePositions.length) {
+				filePositions = Arrays.copyOf(filePositions, filePositions.length * 2);
+			}
+			filePositions[positionCount * 3] = nextFloat();
+			filePositions[positionCount * 3 + 1] = nextFloat();
+			filePositions[positionCount * 3 + 2] = nextFloat();
+			positionCount++;
+		}
+
+		private void readTexture() {
+			if (textureCount * 2 == fileTextures.length) {
+				fileTextures = Arrays.copyOf(fileTextures, fileTextures.length * 2);
+			}
+			fileTextures[textureCount * 2] = nextFloat();
+			fileTextures[textureCount * 2 + 1] = nextFloat();
+			textureCount++;
+		}
+
+		private void readNormal() {
+			if (normalCount * 3 == fileNormals.length) {
+				fileNormals = Arrays.copyOf(fileNormals, fileNormals.length * 2);
+			}
+			fileNormals[normalCount * 3] = nextFloat();
+			fileNormals[normalCount * 3 + 1] = nextFloat();
+			fileNormals[normalCount * 3 + 2] = nextFloat();
+			normalCount++;
+		}
+
+		// Reads the v, v/vt, v//vn or v/vt/vn corners of a face & adds it as a
+		// fan of triangles.
+		private void readFace() {
+			int corners = 0;
 			while (true) {
-				line = reader.readLine();
-				String[] currLine = line.split(" ");
-				// Vertex line.
-				if (line.startsWith("v ")) {
-					Vector3f vertex = new Vector3f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2]),
-							Float.parseFloat(currLine[3]));
-					vertices.add(vertex);
+				skipBlanks();
+				if (pos >= end || isNewline(buffer.get(pos)) || buffer.get(pos) == '#') {
+					break;
 				}
-				// Texture line.
-				else if (line.startsWith("vt ")) {
-					Vector2f texture = new Vector2f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2]));
-					textures.add(texture);
+				int position = resolve(nextIndex(), positionCount);
+				int texture = -1, normal = -1;
+				if (pos < end && buffer.get(pos) == '/') {
+					pos++;
+					if (pos < end && buffer.get(pos) != '/') {
+						texture = resolve(nextIndex(), textureCount);
+					}
+					if (pos < end && buffer.get(pos) == '/') {
+						pos++;
+						normal = resolve(nextIndex(), normalCount);
+					}
 				}
-				// Normal line.
-				else if (line.startsWith("vn ")) {
-					Vector3f normal = new Vector3f(Float.parseFloat(currLine[1]), Float.parseFloat(currLine[2]),
-							Float.parseFloat(currLine[3]));
-					normals.add(normal);
+				if (corners == face.length) {
+					face = Arrays.copyOf(face, face.length * 2);
 				}
-				// Face line.
-				else if (line.startsWith("f ")) {
-					textureArray = new float[vertices.size() * 2];
-					normalsArray = new float[vertices.size() * 3];
-					break;
+				face[corners++] = vertexFor(position, texture, normal);
+			}
+			for (int i = 2; i < corners; i++) {
+				if (indexCount + 3 > indices.length) {
+					indices = Arrays.copyOf(indices, indices.length * 2);
 				}
+				indices[indexCount++] = face[0];
+				indices[indexCount++] = face[i - 1];
+				indices[indexCount++] = face[i];
 			}
+		}
 
-			while (line != null) {
-				if (!line.startsWith("f ")) {
-					line = reader.readLine();
-					continue;
+		// The vertex for a triplet, made on first sight.
+		private int vertexFor(int position, int texture, int normal) {
+			int mask = table.length - 1;
+			int slot = hash(position, texture, normal) & mask;
+			while (table[slot] != 0) {
+				int vertex = table[slot] - 1;
+				if (triplets[vertex * 3] == position && triplets[vertex * 3 + 1] == texture
+						&& triplets[vertex * 3 + 2] == normal) {
+					return vertex;
 				}
-				String[] currLine = line.split(" ");
-				String[] vertex1 = currLine[1].split("/");
-				String[] vertex2 = currLine[2].split("/");
-				String[] vertex3 = currLine[3].split("/");
+				slot = (slot + 1) & mask;
+			}
+			int vertex = addVertex(position, texture, normal);
+			table[slot] = vertex + 1;
+			// Keep the table at most half full, so probes stay short.
+			if (vertexCount * 2 > table.length) {
+				rehash();
+			}
+			return vertex;
+		}
 
-				processVertex(vertex1, indices, textures, normals, textureArray, normalsArray);
-				processVertex(vertex2, indices, textures, normals, textureArray, normalsArray);
-				processVertex(vertex3, indices, textures, normals, textureArray, normalsArray);
+		private int addVertex(int position, int texture, int normal) {
+			if (vertexCount * 3 == positions.length) {
+				positions = Arrays.copyOf(positions, positions.length * 2);
+				textures = Arrays.copyOf(textures, textures.length * 2);
+				normals = Arrays.copyOf(normals, normals.length * 2);
+				triplets = Arrays.copyOf(triplets, triplets.length * 2);
+			}
+			int vertex = vertexCount++;
+			triplets[vertex * 3] = position;
+			triplets[vertex * 3 + 1] = texture;
+			triplets[vertex * 3 + 2] = normal;
+			System.arraycopy(filePositions, position * 3, positions, vertex * 3, 3);
+			if (texture >= 0) {
+				textures[vertex * 2] = fileTextures[texture * 2];
+				textures[vertex * 2 + 1] = 1 - fileTextures[texture * 2 + 1];
+			}
+			if (normal >= 0) {
+				System.arraycopy(fileNormals, normal * 3, normals, vertex * 3, 3);
+			}
+			return vertex;
+		}
 
-				line = reader.readLine();
+		private void rehash() {
+			table = new int[table.length * 2];
+			int mask = table.length - 1;
+			for (int vertex = 0; vertex < vertexCount; vertex++) {
+				int slot = hash(triplets[vertex * 3], triplets[vertex * 3 + 1], triplets[vertex * 3 + 2]) & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = vertex + 1;
 			}
-			reader.close();
+		}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+		private static int hash(int position, int texture, int normal) {
+			int h = position * 0x9E3779B1 + texture * 0x85EBCA77 + normal * 0xC2B2AE3D;
+			return h ^ (h >>> 15);
 		}
 
-		verticesArray = new float[vertices.size() * 3];
-		indicesArray = new int[indices.size()];
-		int vertexPointer = 0;
+		// 0-based index for a 1-based index, or for one counted back from the
+		// last attribute read if negative.
+		private static int resolve(int index, int count) {
+			int resolved = index < 0 ? count + index : index - 1;
+			if (resolved < 0 || resolved >= count) {
+				throw new IllegalArgumentException("Face refers to attribute " + index + " of " + count);
+			}
+			return resolved;
+		}
 
-		for (Vector3f vertex : vertices) {
-			verticesArray[vertexPointer++] = vertex.x;
-			verticesArray[vertexPointer++] = vertex.y;
-			verticesArray[vertexPointer++] = vertex.z;
+		private float nextFloat() {
+			skipBlanks();
+			int start = pos;
+			while (pos < end && !NumberParser.isWhitespace(buffer.get(pos))) {
+				pos++;
+			}
+			return NumberParser.parseFloat(buffer, start, pos);
 		}
 
-		for (int i = 0; i < indices.size(); i++) {
-			indicesArray[i] = indices.get(i);
+		private int nextIndex() {
+			int start = pos;
+			while (pos < end && buffer.get(pos) != '/' && !NumberParser.isWhitespace(buffer.get(pos))) {
+				pos++;
+			}
+			return NumberParser.parseInt(buffer, start, pos);
 		}
 
-		return loader.loadToVAO(verticesArray, textureArray, normalsArray, indicesArray);
+		private void skipBlanks() {
+			while (pos < end && isBlank(buffer.get(pos))) {
+				pos++;
+			}
+		}
 
-	}
+		private void skipLine() {
+			while (pos < end && !isNewline(buffer.get(pos))) {
+				pos++;
+			}
+			pos++;
+		}
+
+		private static boolean isBlank(byte b) {
+			return b == ' ' || b == '\t';
+		}
+
+		private static boolean isNewline(byte b) {
+			return b == '\n' || b == '\r';
+		}
+
+		MeshData toMeshData() {
+			return new MeshData(Arrays.copyOf(positions, vertexCount * 3), Arrays.copyOf(textures, vertexCount * 2),
+					Arrays.copyOf(normals, vertexCount * 3), Arrays.copyOf(indices, indexCount));
+		}
 
-	// Sorts out the texture coordinate & normal vector for the current vertex.
-	private static void processVertex(String[] vertexData, List<Integer> indices, List<Vector2f> textures,
-			List<Vector3f> normals, float[] textureArray, float[] normalsArray) {
-		int currVertexPointer = Integer.parseInt(vertexData[0]) - 1;
-		indices.add(currVertexPointer);
-		Vector2f currTexture = textures.get(Integer.parseInt(vertexData[1]) - 1);
-		textureArray[currVertexPointer * 2] = currTexture.x;
-		textureArray[(currVertexPointer * 2) + 1] = 1 - currTexture.y;
-		Vector3f currNormal = normals.get(Integer.parseInt(vertexData[2]) - 1);
-		normalsArray[currVertexPointer * 3] = currNormal.x;
-		normalsArray[(currVertexPointer * 3) + 1] = currNormal.y;
-		normalsArray[(currVertexPointer * 3) + 2] = currNormal.z;
 	}
 
 }
@@ -0,0 +1,495 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+
+/*
+ * File:	RecordingGLCalls.java
+ * Purpose:	Stands in for OpenGL without a display.  Every call is recorded
+ * 			with its arguments (float buffers are copied, from position to
+ * 			limit), shaders always compile, and names handed out by
+ * 			glCreate*, glGen* & glGetUniformLocation simply count up from 1.
+ * 			Buffers keep their contents, so what was uploaded or written
+ * 			through a mapping can be read back, as can which buffer a buffer
+ * 			texture reads.  Calls a real driver would reject with an error
+ * 			throw an exception instead:  a glBufferSubData() or mapping past
+ * 			the end of the bound buffer, resizing storage made with
+ * 			glBufferStorage(), mapping twice, and drawing while a buffer is
+ * 			mapped (unless persistently).  Fences stay unsignalled until
+ * 			signalFences() (the GPU catching up), or until waited on with a
+ * 			timeout.
+ */
+public class RecordingGLCalls implements GLCalls {
+
+	private List<String> names = new ArrayList<String>();
+	private List<Object[]> arguments = new ArrayList<Object[]>();
+
+	private int nextName = 1;
+	private Map<String, Integer> uniformLocations = new HashMap<String, Integer>();
+	// Buffer bound to each target, & the size given to each buffer.
+	private Map<Integer, Integer> boundBuffers = new HashMap<Integer, Integer>();
+	private Map<Integer, ByteBuffer> bufferContents = new HashMap<Integer, ByteBuffer>();
+	// Buffers made with glBufferStorage(), & the access each mapped one was
+	// mapped with.
+	private Set<Integer> immutableBuffers = new HashSet<Integer>();
+	private Map<Integer, Integer> mappedBuffers = new HashMap<Integer, Integer>();
+	// Buffer each buffer texture reads.
+	private Map<Integer, Integer> textureBuffers = new HashMap<Integer, Integer>();
+	// Texture bound to each target, per unit.
+	private int activeUnit = GL13.GL_TEXTURE0;
+	private Map<String, Integer> boundTextures = new HashMap<String, Integer>();
+	// Fences not yet deleted, & those of them the GPU has passed.
+	private Set<Long> fences = new HashSet<Long>();
+	private Set<Long> signalledFences = new HashSet<Long>();
+
+	// Forgets the calls recorded so far (but not the names handed out).
+	public void clear() {
+		names.clear();
+		arguments.clear();
+	}
+
+	// # of recorded calls to the GL function with the given name.
+	public int count(String name) {
+		int count = 0;
+		for (String call : names) {
+			if (call.equals(name)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Arguments of every recorded call to the given GL function, in order.
+	public List<Object[]> getArguments(String name) {
+		List<Object[]> found = new ArrayList<Object[]>();
+		for (int i = 0; i < names.size(); i++) {
+			if (names.get(i).equals(name)) {
+				found.add(arguments.get(i));
+			}
+		}
+		return found;
+	}
+
+	public List<String> getCalls() {
+		return names;
+	}
+
+	// A buffer's contents, as floats.
+	public float[] getBufferData(int buffer) {
+		ByteBuffer contents = bufferContents.get(buffer);
+		if (contents == null) {
+			throw new IllegalArgumentException("No storage for buffer " + buffer);
+		}
+		float[] data = new float[contents.capacity() / 4];
+		contents.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer().get(data);
+		return data;
+	}
+
+	// Buffer a buffer texture was given with glTexBuffer(), or 0.
+	public int getTextureBuffer(int texture) {
+		Integer buffer = textureBuffers.get(texture);
+		return buffer != null ? buffer : 0;
+	}
+
+	// Lets every fence made so far be passed, as the GPU would in time.
+	public void signalFences() {
+		signalledFences.addAll(fences);
+	}
+
+	// Fences not yet deleted.
+	public int getFenceCount() {
+		return fences.size();
+	}
+
+	private void record(String name, Object... args) {
+		names.add(name);
+		arguments.add(args);
+	}
+
+	private static float[] copy(FloatBuffer buffer) {
+		float[] data = new float[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+
+	@Override
+	public void glEnable(int capability) {
+		record("glEnable", capability);
+	}
+
+	@Override
+	public void glDisable(int capability) {
+		record("glDisable", capability);
+	}
+
+	@Override
+	public void glCullFace(int mode) {
+		record("glCullFace", mode);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		record("glClearColor", red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		record("glClear", mask);
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		record("glCreateShader", type);
+		return nextName++;
+	}
+
+	@Override
+	public void glShaderSource(int shader, CharSequence source) {
+		record("glShaderSource", shader, source.toString());
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		record("glCompileShader", shader);
+	}
+
+	@Override
+	public int glGetShaderi(int shader, int name) {
+		record("glGetShaderi", shader, name);
+		return name == GL20.GL_COMPILE_STATUS ? GL11.GL_TRUE : 0;
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		record("glGetShaderInfoLog", shader, maxLength);
+		return "";
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		record("glDeleteShader", shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		record("glCreateProgram");
+		return nextName++;
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		record("glAttachShader", program, shader);
+	}
+
+	@Override
+	public void glDetachShader(int program, int shader) {
+		record("glDetachShader", program, shader);
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, CharSequence name) {
+		record("glBindAttribLocation", program, index, name.toString());
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		record("glLinkProgram", program);
+	}
+
+	@Override
+	public void glValidateProgram(int program) {
+		record("glValidateProgram", program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record("glUseProgram", program);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		record("glDeleteProgram", program);
+	}
+
+	// The same name in the same program always gets the same location.
+	@Override
+	public int glGetUniformLocation(int program, CharSequence name) {
+		record("glGetUniformLocation", program, name.toString());
+		String key = program + ":" + name;
+		Integer location = uniformLocations.get(key);
+		if (location == null) {
+			location = uniformLocations.size();
+			uniformLocations.put(key, location);
+		}
+		return location;
+	}
+
+	@Override
+	public void glUniform1f(int location, float value) {
+		record("glUniform1f", location, value);
+	}
+
+	@Override
+	public void glUniform1i(int location, int value) {
+		record("glUniform1i", location, value);
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		record("glUniform3f", location, x, y, z);
+	}
+
+	@Override
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		record("glUniformMatrix4", location, transpose, copy(matrices));
+	}
+
+	@Override
+	public int glGenVertexArrays() {
+		record("glGenVertexArrays");
+		return nextName++;
+	}
+
+	@Override
+	public void glBindVertexArray(int array) {
+		record("glBindVertexArray", array);
+	}
+
+	@Override
+	public void glDeleteVertexArrays(int array) {
+		record("glDeleteVertexArrays", array);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record("glEnableVertexAttribArray", index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record("glDisableVertexAttribArray", index);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public void glVertexAttribIPointer(int index, int size, int type, int stride, long offset) {
+		record("glVertexAttribIPointer", index, size, type, stride, offset);
+	}
+
+	@Override
+	public void glVertexAttribDivisor(int index, int divisor) {
+		record("glVertexAttribDivisor", index, divisor);
+	}
+
+	@Override
+	public int glGenBuffers() {
+		record("glGenBuffers");
+		return nextName++;
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record("glBindBuffer", target, buffer);
+		boundBuffers.put(target, buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, long size, int usage) {
+		record("glBufferData", target, size, usage);
+		int buffer = boundBuffer(target);
+		if (immutableBuffers.contains(buffer)) {
+			throw new IllegalStateException("glBufferData() on immutable buffer " + buffer);
+		}
+		// New storage unmaps the old.
+		mappedBuffers.remove(buffer);
+		bufferContents.put(buffer, ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder()));
+	}
+
+	@Override
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		record("glBufferSubData", target, offset, copy(data));
+		int buffer = boundBuffer(target);
+		ByteBuffer contents = bufferContents.get(buffer);
+		if (contents == null || offset < 0 || offset + data.remaining() * 4L > contents.capacity()) {
+			throw new IllegalStateException("glBufferSubData() outside buffer " + buffer);
+		}
+		Integer access = mappedBuffers.get(buffer);
+		if (access != null && (access & GL44.GL_MAP_PERSISTENT_BIT) == 0) {
+			throw new IllegalStateException("glBufferSubData() on mapped buffer " + buffer);
+		}
+		ByteBuffer to = contents.duplicate().order(ByteOrder.nativeOrder());
+		to.position((int) offset);
+		to.asFloatBuffer().put(data.duplicate());
+	}
+
+	@Override
+	public void glDeleteBuffers(int buffer) {
+		record("glDeleteBuffers", buffer);
+		bufferContents.remove(buffer);
+		immutableBuffers.remove(buffer);
+		mappedBuffers.remove(buffer);
+	}
+
+	@Override
+	public void glBufferStorage(int target, long size, int flags) {
+		record("glBufferStorage", target, size, flags);
+		int buffer = boundBuffer(target);
+		if (immutableBuffers.contains(buffer)) {
+			throw new IllegalStateException("glBufferStorage() on immutable buffer " + buffer);
+		}
+		immutableBuffers.add(buffer);
+		bufferContents.put(buffer, ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder()));
+	}
+
+	// Maps straight onto the buffer's contents, in big-endian order as
+	// LWJGL's mappings are.
+	@Override
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+		record("glMapBufferRange", target, offset, length, access);
+		int buffer = boundBuffer(target);
+		ByteBuffer contents = bufferContents.get(buffer);
+		if (contents == null || offset < 0 || length <= 0 || offset + length > contents.capacity()) {
+			throw new IllegalStateException("glMapBufferRange() outside buffer " + buffer);
+		}
+		if (mappedBuffers.containsKey(buffer)) {
+			throw new IllegalStateException("glMapBufferRange() on mapped buffer " + buffer);
+		}
+		mappedBuffers.put(buffer, access);
+		ByteBuffer view = contents.duplicate();
+		view.limit((int) (offset + length));
+		view.position((int) offset);
+		return view.slice();
+	}
+
+	@Override
+	public boolean glUnmapBuffer(int target) {
+		record("glUnmapBuffer", target);
+		int buffer = boundBuffer(target);
+		if (mappedBuffers.remove(buffer) == null) {
+			throw new IllegalStateException("glUnmapBuffer() on unmapped buffer " + buffer);
+		}
+		return true;
+	}
+
+	@Override
+	public long glFenceSync(int condition, int flags) {
+		record("glFenceSync", condition, flags);
+		long fence = nextName++;
+		fences.add(fence);
+		return fence;
+	}
+
+	// Fences not signalled yet time out at once, or are waited out when
+	// given a timeout.
+	@Override
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		record("glClientWaitSync", sync, flags, timeout);
+		if (!fences.contains(sync)) {
+			throw new IllegalStateException("glClientWaitSync() on no fence " + sync);
+		}
+		if (signalledFences.contains(sync)) {
+			return GL32.GL_ALREADY_SIGNALED;
+		}
+		if (timeout == 0) {
+			return GL32.GL_TIMEOUT_EXPIRED;
+		}
+		signalledFences.add(sync);
+		return GL32.GL_CONDITION_SATISFIED;
+	}
+
+	@Override
+	public void glDeleteSync(long sync) {
+		record("glDeleteSync", sync);
+		if (!fences.remove(sync)) {
+			throw new IllegalStateException("glDeleteSync() on no fence " + sync);
+		}
+		signalledFences.remove(sync);
+	}
+
+	@Override
+	public void glActiveTexture(int unit) {
+		record("glActiveTexture", unit);
+		activeUnit = unit;
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record("glBindTexture", target, texture);
+		boundTextures.put(activeUnit + ":" + target, texture);
+	}
+
+	@Override
+	public int glGenTextures() {
+		record("glGenTextures");
+		return nextName++;
+	}
+
+	@Override
+	public void glDeleteTextures(int texture) {
+		record("glDeleteTextures", texture);
+		textureBuffers.remove(texture);
+	}
+
+	@Override
+	public void glTexBuffer(int target, int internalFormat, int buffer) {
+		record("glTexBuffer", target, internalFormat, buffer);
+		Integer texture = boundTextures.get(activeUnit + ":" + target);
+		if (texture == null || texture == 0) {
+			throw new IllegalStateException("No texture bound to target " + target);
+		}
+		textureBuffers.put(texture, buffer);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		record("glDrawElements", mode, count, type, offset);
+		checkUnmapped();
+	}
+
+	@Override
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		record("glDrawElementsInstanced", mode, count, type, offset, instances);
+		checkUnmapped();
+	}
+
+	@Override
+	public void glDrawArraysInstanced(int mode, int first, int count, int instances) {
+		record("glDrawArraysInstanced", mode, first, count, instances);
+		checkUnmapped();
+	}
+
+	// Buffers may only be drawn from while mapped if mapped persistently.
+	private void checkUnmapped() {
+		for (Map.Entry<Integer, Integer> mapped : mappedBuffers.entrySet()) {
+			if ((mapped.getValue() & GL44.GL_MAP_PERSISTENT_BIT) == 0) {
+				throw new IllegalStateException("Drawing with buffer " + mapped.getKey() + " mapped");
+			}
+		}
+	}
+
+	private int boundBuffer(int target) {
+		Integer buffer = boundBuffers.get(target);
+		if (buffer == null || buffer == 0) {
+			throw new IllegalStateException("No buffer bound to target " + target);
+		}
+		return buffer;
+	}
+
+}
@@ -0,0 +1,272 @@
+package renderEngine;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+
+import entities.Camera;
+import toolbox.Maths;
+
+/*
+ * File:	RenderQueue.java
+ * Purpose:	A frame's draws as 64-bit sort keys, each with an int the
+ * 			renderer uses to find what the key stands for.  From the top,
+ * 			a key holds the shader, texture & VAO to draw with, then the
+ * 			draw's depth quantized along the view direction, so sorting the
+ * 			keys groups draws needing the same state (fewest changes of the
+ * 			costliest state first) and orders each group front to back, so
+ * 			opaque geometry behind what is already drawn fails the depth
+ * 			test before being shaded.  Textures & VAOs are keyed by an index
+ * 			numbered from 0 as they are first keyed after clear(), not by
+ * 			their GL names, so they fit the key whatever names the driver
+ * 			hands out.  Keys are sorted with an LSD radix
+ * 			sort a byte at a time (the counts for every byte taken in one
+ * 			pass, & bytes all keys share skipped), into arrays kept from
+ * 			frame to frame, so a frame allocates nothing once the queue is
+ * 			big enough.
+ *
+ * 			Key:	shader (8 bits), texture index (20), VAO index (20),
+ * 					depth (16).
+ */
+public class RenderQueue {
+
+	public static final int DEPTH_BITS = 16;
+	public static final int VAO_BITS = 20;
+	public static final int TEXTURE_BITS = 20;
+	public static final int SHADER_BITS = 8;
+	public static final int KEY_BITS = DEPTH_BITS + VAO_BITS + TEXTURE_BITS + SHADER_BITS;
+
+	private static final int VAO_SHIFT = DEPTH_BITS;
+	private static final int TEXTURE_SHIFT = VAO_SHIFT + VAO_BITS;
+	private static final int SHADER_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+	private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int PASSES = (KEY_BITS + RADIX_BITS - 1) / RADIX_BITS;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private int[] values = new int[INITIAL_CAPACITY];
+	// Where each radix pass writes to, swapped with the above after it.
+	private long[] sortedKeys = new long[INITIAL_CAPACITY];
+	private int[] sortedValues = new int[INITIAL_CAPACITY];
+	// Keys with each value of each byte, pass after pass.
+	private int[] counts = new int[PASSES * RADIX];
+	private int size;
+
+	// The camera's view direction, as the view matrix's third row.
+	private FloatBuffer viewMatrix = BufferUtils.createFloatBuffer(16);
+	private float viewX, viewY, viewZ, viewW;
+
+	// Index of each texture & VAO keyed since clear(), by GL name.
+	private NameIndex textureIndices = new NameIndex();
+	private NameIndex vaoIndices = new NameIndex();
+
+	// Empties the queue, forgets the texture & VAO indices, & takes the view
+	// direction for depths from a camera.
+	public void clear(Camera camera) {
+		size = 0;
+		textureIndices.clear();
+		vaoIndices.clear();
+		viewMatrix.clear();
+		Maths.storeViewMatrix(camera, viewMatrix);
+		// View-space z points out of the screen, so depth is its negative.
+		viewX = -viewMatrix.get(2);
+		viewY = -viewMatrix.get(6);
+		viewZ = -viewMatrix.get(10);
+		viewW = -viewMatrix.get(14);
+	}
+
+	// Queues a draw; 'value' comes back with its key once sorted.
+	public void add(long key, int value) {
+		if (size == keys.length) {
+			int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+			sortedKeys = new long[capacity];
+			sortedValues = new int[capacity];
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+	}
+
+	// Index to key a texture by, from its GL name.  The same until clear().
+	public int textureIndex(int texture) {
+		return textureIndices.indexOf(texture);
+	}
+
+	// Index to key a VAO by, from its GL name.  The same until clear().
+	public int vaoIndex(int vao) {
+		return vaoIndices.indexOf(vao);
+	}
+
+	// Packs a key from a shader & the indices of a texture & VAO.  All must
+	// fit their bits, as keys that lost bits would put draws needing
+	// different state together.
+	public static long key(int shader, int texture, int vao, int depth) {
+		if (shader >>> SHADER_BITS != 0 || texture >>> TEXTURE_BITS != 0 || vao >>> VAO_BITS != 0
+				|| depth >>> DEPTH_BITS != 0) {
+			throw new IllegalArgumentException("Sort key field out of range:  shader " + shader + ", texture "
+					+ texture + ", VAO " + vao + ", depth " + depth);
+		}
+		return (long) shader << SHADER_SHIFT | (long) texture << TEXTURE_SHIFT | (long) vao << VAO_SHIFT | depth;
+	}
+
+	// Depth of a point along the view direction, quantized linearly over
+	// the near to far planes (points outside them are clamped).
+	public int depthOf(float x, float y, float z) {
+		float depth = viewX * x + viewY * y + viewZ * z + viewW;
+		float scaled = (depth - Renderer.NEAR_PLANE) / (Renderer.FAR_PLANE - Renderer.NEAR_PLANE) * MAX_DEPTH;
+		if (!(scaled > 0)) {
+			return 0;
+		}
+		return scaled >= MAX_DEPTH ? MAX_DEPTH : (int) scaled;
+	}
+
+	// Sorts the keys ascending, carrying their values along; equal keys
+	// keep the order they were added in.
+	public void sort() {
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < size; i++) {
+			long key = keys[i];
+			for (int pass = 0; pass < PASSES; pass++) {
+				counts[pass * RADIX + ((int) (key >>> (pass * RADIX_BITS)) & (RADIX - 1))]++;
+			}
+		}
+		for (int pass = 0; pass < PASSES; pass++) {
+			int shift = pass * RADIX_BITS, base = pass * RADIX;
+			// Nothing to do if every key has the same byte here.
+			if (size == 0 || counts[base + ((int) (keys[0] >>> shift) & (RADIX - 1))] == size) {
+				continue;
+			}
+			int start = 0;
+			for (int digit = base; digit < base + RADIX; digit++) {
+				int count = counts[digit];
+				counts[digit] = start;
+				start += count;
+			}
+			for (int i = 0; i < size; i++) {
+				long key = keys[i];
+				int at = counts[base + ((int) (key >>> shift) & (RADIX - 1))]++;
+				sortedKeys[at] = key;
+				sortedValues[at] = values[i];
+			}
+			long[] swapKeys = keys;
+			keys = sortedKeys;
+			sortedKeys = swapKeys;
+			int[] swapValues = values;
+			values = sortedValues;
+			sortedValues = swapValues;
+		}
+	}
+
+	// The key without its depth:  equal for draws needing the same state.
+	public static long getState(long key) {
+		return key >>> DEPTH_BITS;
+	}
+
+	public static int getShader(long key) {
+		return (int) (key >>> SHADER_SHIFT) & ((1 << SHADER_BITS) - 1);
+	}
+
+	public static int getTexture(long key) {
+		return (int) (key >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1);
+	}
+
+	public static int getVao(long key) {
+		return (int) (key >>> VAO_SHIFT) & ((1 << VAO_BITS) - 1);
+	}
+
+	public static int getDepth(long key) {
+		return (int) key & MAX_DEPTH;
+	}
+
+	// Keys, sorted after sort(); only the first size() are in use.
+	public long[] getKeys() {
+		return keys;
+	}
+
+	public int[] getValues() {
+		return values;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Numbers GL names 0, 1, 2... in the order they are first looked up,
+	// in an open-addressed hash table, so a frame allocates nothing once the
+	// table is big enough.  Entries are stamped with the clear() they were
+	// made after, so clearing is free.
+	private static class NameIndex {
+
+		private static final int INITIAL_CAPACITY = 64;
+
+		private int[] names = new int[INITIAL_CAPACITY];
+		private int[] indices = new int[INITIAL_CAPACITY];
+		private int[] stamps = new int[INITIAL_CAPACITY];
+		private int stamp = 1;
+		private int count;
+
+		void clear() {
+			count = 0;
+			stamp++;
+			if (stamp == 0) {
+				// Wrapped round, so old stamps could look current.
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+		}
+
+		int indexOf(int name) {
+			int mask = names.length - 1;
+			int at = slot(name, mask);
+			while (stamps[at] == stamp) {
+				if (names[at] == name) {
+					return indices[at];
+				}
+				at = (at + 1) & mask;
+			}
+			if ((count + 1) * 2 > names.length) {
+				grow();
+				return indexOf(name);
+			}
+			names[at] = name;
+			indices[at] = count;
+			stamps[at] = stamp;
+			return count++;
+		}
+
+		// Doubles the table, keeping the current entries & their indices.
+		private void grow() {
+			int[] oldNames = names, oldIndices = indices, oldStamps = stamps;
+			names = new int[oldNames.length * 2];
+			indices = new int[oldNames.length * 2];
+			stamps = new int[oldNames.length * 2];
+			int mask = names.length - 1;
+			for (int i = 0; i < oldNames.length; i++) {
+				if (oldStamps[i] != stamp) {
+					continue;
+				}
+				int at = slot(oldNames[i], mask);
+				while (stamps[at] == stamp) {
+					at = (at + 1) & mask;
+				}
+				names[at] = oldNames[i];
+				indices[at] = oldIndices[i];
+				stamps[at] = stamp;
+			}
+		}
+
+		// Where to start looking for a name.  Scrambled, as GL names tend to
+		// be consecutive.
+		private static int slot(int name, int mask) {
+			int hash = name * 0x9E3779B9;
+			return (hash ^ hash >>> 16) & mask;
+		}
+
+	}
+
+}
@@ -1,16 +1,15 @@
 package renderEngine;
 
-import java.util.List;
-import java.util.Map;
+import java.nio.FloatBuffer;
 
-import org.lwjgl.opengl.Display;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
 import org.lwjgl.util.vector.Matrix4f;
 
-import entities.Entity;
+import entities.Camera;
+import entities.EntityBatch;
+import entities.EntityStore;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.StaticShader;
@@ -23,20 +22,35 @@ import toolbox.Maths;
  */
 public class Renderer {
 
-	private static final float FOV = 70;
-	private static final float NEAR_PLANE = 0.1f;
-	private static final float FAR_PLANE = 1000;
+	public static final float FOV = 70;
+	public static final float NEAR_PLANE = 0.1f;
+	public static final float FAR_PLANE = 1000;
 
 	private Matrix4f projectionMatrix;
 	private StaticShader shader;
-
-	public Renderer(StaticShader shader) {
+	private GLCalls gl;
+
+	// The visible entities' transformation matrices & batches, kept between
+	// frames so that rendering allocates nothing once it is big enough.
+	private FloatBuffer transformations = BufferUtils.createFloatBuffer(0);
+	private int[] entityBatches = new int[0];
+	private RenderQueue queue = new RenderQueue();
+	// The model the draw being prepared finds bound, if any.
+	private TexturedModel boundModel;
+
+	// What the last frame took.
+	private int drawCalls;
+	// VAO & texture (with its shine) changes.
+	private int stateChanges;
+
+	public Renderer(StaticShader shader, GLCalls gl, float aspectRatio) {
 		this.shader = shader;
+		this.gl = gl;
 		// Cull faces inside objects that we wouldn't see anyways to reduce
 		// computations.
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glCullFace(GL11.GL_BACK);
-		createProjectionMatrix();
+		gl.glEnable(GL11.GL_CULL_FACE);
+		gl.glCullFace(GL11.GL_BACK);
+		projectionMatrix = Maths.createProjectionMatrix(FOV, aspectRatio, NEAR_PLANE, FAR_PLANE);
 		shader.start();
 		shader.loadProjectionMatrix(projectionMatrix);
 		shader.stop();
@@ -45,82 +59,126 @@ public class Renderer {
 	// Called once every frame to prepare OpenGL to render the game.
 	public void prepare() {
 		// Tell OpenGL to test which triangles are in front of each other.
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		gl.glEnable(GL11.GL_DEPTH_TEST);
 		// Clear color from the last frame.
-		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		gl.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
 		// Set color of background.
-		GL11.glClearColor(0.5f, 0.1f, 0.1f, 1);
+		gl.glClearColor(0.5f, 0.1f, 0.1f, 1);
 	}
 
 	// Renders the raw models. Broken up with helper methods in order to
 	// save computations by doing as little work as possible on each entity
-	// (instance) and by only rendering each TexturedModel once in total,
-	// rather than once for each entity.
-	public void render(Map<TexturedModel, List<Entity>> entities) {
-		for (TexturedModel model : entities.keySet()) {
-			prepareTexturedModel(model);
-			// Get all Entities correlated with this current TexturedModel.
-			List<Entity> batch = entities.get(model);
-			for (Entity entity : batch) {
-				// Prepare each entity (instance) for rendering.
-				prepareInstance(entity);
-				// Do the final render!
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
-
+	// (instance).  The visible entities go through a RenderQueue, so those
+	// of a TexturedModel are drawn together, nearest first, and the VAO &
+	// texture are only bound when they change.
+	public void render(EntityStore entities, FrustumCuller culler, Camera camera) {
+		prepareInstances(entities, culler, camera);
+		queue.sort();
+		int[] values = queue.getValues();
+		drawCalls = 0;
+		stateChanges = 0;
+		boundModel = null;
+		for (int q = 0; q < queue.size(); q++) {
+			int entity = values[q];
+			TexturedModel model = entities.getBatch(entityBatches[entity]).getModel();
+			if (model != boundModel) {
+				prepareTexturedModel(model);
 			}
-			unbindTexturedModel();
+			// Load up entity's transformation to vertex shader.
+			transformations.limit(entity * 16 + 16).position(entity * 16);
+			shader.loadTransformationMatrix(transformations);
+			// Do the final render!
+			gl.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
+					model.getRawModel().getIndexType(), 0);
+			drawCalls++;
 		}
+		unbindTexturedModel();
 	}
 
-	// Prepares all the TexturedModels.
+	// Prepares a TexturedModel, binding its VAO & texture unless the last
+	// model drawn used the same ones.
 	private void prepareTexturedModel(TexturedModel model) {
 		// Extract RawModel out of TexturedModel.
 		RawModel rawModel = model.getRawModel();
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		// Activate the Attribute Lists in which our data is stored.
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
-		// Get shine variables and load them up into shader.
+		if (boundModel == null || rawModel.getVaoID() != boundModel.getRawModel().getVaoID()) {
+			gl.glBindVertexArray(rawModel.getVaoID());
+			// Activate the Attribute Lists in which our data is stored.
+			gl.glEnableVertexAttribArray(0);
+			gl.glEnableVertexAttribArray(1);
+			gl.glEnableVertexAttribArray(2);
+			stateChanges++;
+		}
 		ModelTexture modelTexture = model.getTexture();
-		shader.loadShineVariables(modelTexture.getShineDamper(), modelTexture.getReflectivity());
-		// Tell OpenGL which texture we would like to render.
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
-
+		if (boundModel == null || modelTexture != boundModel.getTexture()) {
+			// Get shine variables and load them up into shader.
+			shader.loadShineVariables(modelTexture.getShineDamper(), modelTexture.getReflectivity());
+			// Tell OpenGL which texture we would like to render.
+			if (boundModel == null || modelTexture.getID() != boundModel.getTexture().getID()) {
+				gl.glActiveTexture(GL13.GL_TEXTURE0);
+				gl.glBindTexture(GL11.GL_TEXTURE_2D, modelTexture.getID());
+			}
+			stateChanges++;
+		}
+		boundModel = model;
 	}
 
-	// Unbinds the TexturedModel.
+	// Unbinds the last TexturedModel drawn.
 	private void unbindTexturedModel() {
+		if (boundModel == null) {
+			return;
+		}
 		// Disable the Attribute Lists and un-bind the VAO now that we're done.
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
-		GL30.glBindVertexArray(0);
+		gl.glDisableVertexAttribArray(0);
+		gl.glDisableVertexAttribArray(1);
+		gl.glDisableVertexAttribArray(2);
+		gl.glBindVertexArray(0);
+	}
+
+	// Prepares the visible entities (instances), computing all of their
+	// transformation matrices in one pass per range & queueing each with
+	// its model's state & its depth.  An entity's matrix & batch are found
+	// by the value it was queued with.
+	private void prepareInstances(EntityStore entities, FrustumCuller culler, Camera camera) {
+		int visible = culler.getVisibleCount();
+		if (transformations.capacity() < visible * 16) {
+			transformations = BufferUtils.createFloatBuffer(visible * 16);
+		}
+		if (entityBatches.length < visible) {
+			entityBatches = new int[Math.max(visible, entityBatches.length * 2)];
+		}
+		transformations.clear();
+		queue.clear(camera);
+		for (int b = 0; b < entities.getBatchCount(); b++) {
+			EntityBatch batch = entities.getBatch(b);
+			TexturedModel model = batch.getModel();
+			long state = RenderQueue.key(0, queue.textureIndex(model.getTexture().getID()),
+					queue.vaoIndex(model.getRawModel().getVaoID()), 0);
+			float[] x = batch.getX(), y = batch.getY(), z = batch.getZ();
+			int[] ranges = culler.getRanges(b);
+			for (int r = 0; r < culler.getRangeCount(b); r++) {
+				int from = ranges[r * 2], to = ranges[r * 2 + 1];
+				Maths.storeTransformationMatrices(x, y, z, batch.getRotX(), batch.getRotY(), batch.getRotZ(),
+						batch.getScale(), from, to - from, transformations);
+				for (int i = from; i < to; i++) {
+					int entity = queue.size();
+					entityBatches[entity] = b;
+					queue.add(state | queue.depthOf(x[i], y[i], z[i]), entity);
+				}
+			}
+		}
+	}
+
+	public Matrix4f getProjectionMatrix() {
+		return projectionMatrix;
 	}
 
-	// Prepares the entities (instances) of each of the TexturedModels.
-	private void prepareInstance(Entity entity) {
-		// Load up entity's transformation to vertex shader.
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition(), entity.getRotX(),
-				entity.getRotY(), entity.getRotZ(), entity.getScale());
-		shader.loadTransformationMatrix(transformationMatrix);
+	public int getDrawCalls() {
+		return drawCalls;
 	}
 
-	// Creates the projection matrix.
-	private void createProjectionMatrix() {
-		float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
-		float yScale = (float) ((1f / Math.tan(Math.toRadians(FOV / 2f))) * aspectRatio);
-		float xScale = yScale / aspectRatio;
-		float frustumLength = FAR_PLANE - NEAR_PLANE;
-
-		projectionMatrix = new Matrix4f();
-		projectionMatrix.m00 = xScale;
-		projectionMatrix.m11 = yScale;
-		projectionMatrix.m22 = -((FAR_PLANE + NEAR_PLANE) / frustumLength);
-		projectionMatrix.m23 = -1;
-		projectionMatrix.m32 = -((2 * NEAR_PLANE * FAR_PLANE) / frustumLength);
-		projectionMatrix.m33 = 0;
+	// VAOs & textures bound by the last frame's draws.
+	public int getStateChanges() {
+		return stateChanges;
 	}
 
 }
@@ -0,0 +1,141 @@
+package renderEngine;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+
+import entities.EntityBatch;
+
+/*
+ * File:	SlotBuffer.java
+ * Purpose:	A VBO holding what the GPU needs of every entity of an
+ * 			EntityBatch, slot by slot at a fixed stride, kept on the GPU
+ * 			from frame to frame.  Each frame only the slots the batch marked
+ * 			dirty are sent, as coalesced ranges with one glBufferSubData()
+ * 			each, so a quiet scene with a few entities moving costs a few
+ * 			small uploads.  Once more than FULL_UPLOAD_FRACTION of the batch
+ * 			is dirty (or the VBO must grow, or what was sent went stale some
+ * 			other way) the whole batch goes up at once into fresh storage
+ * 			instead, which beats many small uploads.  The batch is also sent
+ * 			whole if another buffer took its dirty slots since this one did,
+ * 			as their changes never reached this one.  Subclasses say what
+ * 			goes in a slot.
+ */
+public abstract class SlotBuffer {
+
+	// Above this fraction of the batch dirty, all of it is uploaded.
+	public static final float FULL_UPLOAD_FRACTION = 0.25f;
+	// Dirty ranges closer than this many clean slots are sent as one.
+	public static final int RANGE_GAP = 16;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	protected GLCalls gl;
+	private int vbo;
+	private int floatsPerSlot;
+	// Slots the VBO & staging have room for.
+	private int capacity;
+	// Where slots are packed before being sent.
+	protected FloatBuffer staging;
+	// Batch last sent, & its dirty generation after this buffer's take.
+	private EntityBatch batch;
+	private int dirtyGeneration;
+
+	// What the last update() sent.
+	private long bytesUploaded;
+	private int uploads;
+	private boolean fullUpload;
+
+	public SlotBuffer(GLCalls gl, int floatsPerSlot) {
+		this.gl = gl;
+		this.floatsPerSlot = floatsPerSlot;
+		vbo = gl.glGenBuffers();
+	}
+
+	// Brings the VBO up to date with a batch, sending all of it if 'stale',
+	// & takes the batch's dirty slots.  Leaves the VBO bound to
+	// GL_ARRAY_BUFFER.
+	protected void update(EntityBatch batch, boolean stale) {
+		int count = batch.getCount();
+		int stride = floatsPerSlot * 4;
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		bytesUploaded = 0;
+		uploads = 0;
+		fullUpload = stale || count > capacity || batch != this.batch
+				|| batch.getDirtyGeneration() != dirtyGeneration
+				|| batch.getDirtyCount() > FULL_UPLOAD_FRACTION * count;
+		this.batch = batch;
+		if (count == 0) {
+			batch.clearDirty();
+			dirtyGeneration = batch.getDirtyGeneration();
+			fullUpload = false;
+			return;
+		}
+		if (fullUpload) {
+			batch.clearDirty();
+			dirtyGeneration = batch.getDirtyGeneration();
+			if (count > capacity) {
+				capacity = Math.max(count, Math.max(INITIAL_CAPACITY, capacity * 2));
+				staging = BufferUtils.createFloatBuffer(capacity * floatsPerSlot);
+			}
+			staging.clear();
+			pack(batch, 0, count);
+			staging.flip();
+			// Fresh storage, so the driver needn't wait for the GPU to finish
+			// with the old before taking the new data.
+			gl.glBufferData(GL15.GL_ARRAY_BUFFER, (long) capacity * stride, GL15.GL_DYNAMIC_DRAW);
+			gl.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, staging);
+			uploads = 1;
+			bytesUploaded = (long) count * stride;
+			return;
+		}
+
+		// Pack every range, then send each from its part of staging.
+		int rangeCount = batch.takeDirtyRanges(RANGE_GAP);
+		dirtyGeneration = batch.getDirtyGeneration();
+		int[] ranges = batch.getDirtyRanges();
+		staging.clear();
+		for (int r = 0; r < rangeCount; r++) {
+			pack(batch, ranges[r * 2], ranges[r * 2 + 1]);
+		}
+		int packed = 0;
+		for (int r = 0; r < rangeCount; r++) {
+			int start = ranges[r * 2], slots = ranges[r * 2 + 1] - start;
+			staging.limit((packed + slots) * floatsPerSlot);
+			staging.position(packed * floatsPerSlot);
+			gl.glBufferSubData(GL15.GL_ARRAY_BUFFER, (long) start * stride, staging);
+			packed += slots;
+		}
+		uploads = rangeCount;
+		bytesUploaded = (long) packed * stride;
+	}
+
+	// Puts the entities in slots [from, to) of the batch into staging,
+	// floatsPerSlot each.
+	protected abstract void pack(EntityBatch batch, int from, int to);
+
+	// Cleanup for memory management.
+	public void cleanUp() {
+		gl.glDeleteBuffers(vbo);
+	}
+
+	public int getVbo() {
+		return vbo;
+	}
+
+	// Bytes the last update() sent.
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+	// glBufferSubData() calls the last update() made.
+	public int getUploads() {
+		return uploads;
+	}
+
+	// True if the last update() sent the whole batch.
+	public boolean isFullUpload() {
+		return fullUpload;
+	}
+
+}
@@ -0,0 +1,244 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+
+/*
+ * File:	StreamingBuffer.java
+ * Purpose:	A VBO for data written anew every frame, such as instance data.
+ * 			The VBO is split into a ring of three regions & each frame writes
+ * 			the next one, so the CPU fills frame N+1's region while the GPU
+ * 			still reads frame N's.  A fence put in after the draws reading a
+ * 			region says when the GPU is done with it; it is only waited on
+ * 			when the ring comes round to that region again, by which time it
+ * 			has normally long passed.  The data is written straight into the
+ * 			buffer, which is either mapped once for good (PERSISTENT) or
+ * 			mapped every frame, unsynchronized & with the region invalidated
+ * 			(MAPPED), the fences doing the syncing the driver would.  On
+ * 			drivers that can't map ranges or fence, the data is written to
+ * 			memory of our own & uploaded into storage orphaned each frame
+ * 			(ORPHANED), with a single region.  Regions grow as needed.
+ *
+ * 			Usage:	map() (which binds the VBO to GL_ARRAY_BUFFER, to stay
+ * 					bound until unmap()), put the frame's floats, unmap()
+ * 					(which gives the byte offset of the data in the VBO), draw
+ * 					from it, then fence().
+ */
+public class StreamingBuffer {
+
+	// Ways of streaming, best first.
+	public static final int PERSISTENT = 0;
+	public static final int MAPPED = 1;
+	public static final int ORPHANED = 2;
+	public static final int REGIONS = 3;
+	// Regions start on multiples of this many bytes, which no driver's
+	// GL_MIN_MAP_BUFFER_ALIGNMENT exceeds.
+	private static final int ALIGNMENT = 256;
+	// How long to block on a fence at a time, in nanoseconds.
+	private static final long WAIT_TIMEOUT = 1000000;
+	private static final int PERSISTENT_FLAGS = GL30.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT
+			| GL44.GL_MAP_COHERENT_BIT;
+	private static final int MAPPED_FLAGS = GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_RANGE_BIT
+			| GL30.GL_MAP_UNSYNCHRONIZED_BIT;
+	private static final FloatBuffer EMPTY = BufferUtils.createFloatBuffer(0);
+
+	private GLCalls gl;
+	private int mode;
+	private int vbo;
+	// Bytes in each region.
+	private long regionSize;
+	// Region last (or being) written.
+	private int region = REGIONS - 1;
+	// Fence after the draws that last read each region, or 0 if none.
+	private long[] fences = new long[REGIONS];
+	// Each region of the buffer mapped for good (PERSISTENT), or the memory
+	// data is written to before its upload (ORPHANED).
+	private FloatBuffer[] regionData = new FloatBuffer[REGIONS];
+
+	// What map() handed out, & whether it awaits unmap().
+	private FloatBuffer data;
+	private boolean writing;
+
+	// Times map() had to wait for the GPU, since creation.
+	private int stalls;
+	// Bytes written by the last unmap().
+	private long bytesStreamed;
+
+	// Creates the VBO with regions of at least 'regionSize' bytes.
+	public StreamingBuffer(GLCalls gl, int mode, long regionSize) {
+		this.gl = gl;
+		this.mode = mode;
+		allocate(regionSize);
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	// Binds the VBO & returns where to put the next 'floats' floats, starting
+	// at position 0.  Waits for the GPU if it still reads the region.
+	public FloatBuffer map(int floats) {
+		if (writing) {
+			throw new IllegalStateException("map() twice without unmap()");
+		}
+		writing = true;
+		long bytes = floats * 4L;
+		gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		if (bytes > regionSize) {
+			allocate(Math.max(bytes, regionSize * 2));
+		}
+		if (mode != ORPHANED) {
+			region = (region + 1) % REGIONS;
+			waitFor(region);
+		}
+		if (mode == MAPPED) {
+			// Nothing to map, & mapping 0 bytes is an error.
+			data = bytes == 0 ? EMPTY
+					: gl.glMapBufferRange(GL15.GL_ARRAY_BUFFER, region * regionSize, bytes, MAPPED_FLAGS)
+							.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		} else {
+			data = regionData[region];
+			data.clear();
+			data.limit(floats);
+		}
+		return data;
+	}
+
+	// Finishes writing what map() handed out, returning the byte offset in
+	// the VBO its floats start at.  The VBO must still be bound.
+	public long unmap() {
+		if (!writing) {
+			throw new IllegalStateException("unmap() without map()");
+		}
+		writing = false;
+		bytesStreamed = data.position() * 4L;
+		if (mode == ORPHANED) {
+			if (bytesStreamed > 0) {
+				data.flip();
+				// Orphan last frame's data, so the driver needn't wait for the
+				// GPU to finish with it before taking the new data.
+				gl.glBufferData(GL15.GL_ARRAY_BUFFER, regionSize, GL15.GL_STREAM_DRAW);
+				gl.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+			}
+			return 0;
+		}
+		if (mode == MAPPED && data != EMPTY && !gl.glUnmapBuffer(GL15.GL_ARRAY_BUFFER)) {
+			// The driver lost the buffer's memory (e.g. on a mode switch); this
+			// frame draws garbage, the next writes it again.
+			System.err.println("ERROR:  COULD NOT UNMAP STREAMING BUFFER, FRAME'S DATA LOST!!!");
+		}
+		return region * regionSize;
+	}
+
+	// Fences the region last written, once the draws reading it are issued.
+	public void fence() {
+		if (mode == ORPHANED) {
+			return;
+		}
+		if (fences[region] != 0) {
+			gl.glDeleteSync(fences[region]);
+		}
+		fences[region] = gl.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	// Waits until the GPU is done with a region, if it may not be yet.
+	private void waitFor(int region) {
+		long fence = fences[region];
+		if (fence == 0) {
+			return;
+		}
+		int status = gl.glClientWaitSync(fence, 0, 0);
+		if (status == GL32.GL_TIMEOUT_EXPIRED) {
+			stalls++;
+			do {
+				status = gl.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+			} while (status == GL32.GL_TIMEOUT_EXPIRED);
+		}
+		if (status == GL32.GL_WAIT_FAILED) {
+			System.err.println("ERROR:  COULD NOT WAIT FOR STREAMING BUFFER FENCE!!!");
+		}
+		gl.glDeleteSync(fence);
+		fences[region] = 0;
+	}
+
+	// (Re)creates the buffer's storage with regions of at least 'size'
+	// bytes.  Storage still in use by the GPU is freed by the driver once
+	// it is done, so old fences needn't be waited on.
+	private void allocate(long size) {
+		regionSize = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		for (int r = 0; r < REGIONS; r++) {
+			if (fences[r] != 0) {
+				gl.glDeleteSync(fences[r]);
+				fences[r] = 0;
+			}
+		}
+		region = REGIONS - 1;
+		if (mode == PERSISTENT) {
+			// Storage made with glBufferStorage() can't be resized, so it
+			// takes a new buffer (deleting the old one unmaps it).
+			if (vbo != 0) {
+				gl.glDeleteBuffers(vbo);
+			}
+			vbo = gl.glGenBuffers();
+			gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+			gl.glBufferStorage(GL15.GL_ARRAY_BUFFER, regionSize * REGIONS, PERSISTENT_FLAGS);
+			ByteBuffer whole = gl.glMapBufferRange(GL15.GL_ARRAY_BUFFER, 0, regionSize * REGIONS, PERSISTENT_FLAGS);
+			for (int r = 0; r < REGIONS; r++) {
+				ByteBuffer view = whole.duplicate();
+				view.limit((int) ((r + 1) * regionSize));
+				view.position((int) (r * regionSize));
+				regionData[r] = view.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+			return;
+		}
+		if (vbo == 0) {
+			vbo = gl.glGenBuffers();
+			gl.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		}
+		if (mode == MAPPED) {
+			gl.glBufferData(GL15.GL_ARRAY_BUFFER, regionSize * REGIONS, GL15.GL_STREAM_DRAW);
+		} else {
+			gl.glBufferData(GL15.GL_ARRAY_BUFFER, regionSize, GL15.GL_STREAM_DRAW);
+			regionData[region] = BufferUtils.createFloatBuffer((int) (regionSize / 4));
+		}
+	}
+
+	// Cleanup for memory management.
+	public void cleanUp() {
+		for (int r = 0; r < REGIONS; r++) {
+			if (fences[r] != 0) {
+				gl.glDeleteSync(fences[r]);
+				fences[r] = 0;
+			}
+		}
+		gl.glDeleteBuffers(vbo);
+	}
+
+	public int getVbo() {
+		return vbo;
+	}
+
+	// PERSISTENT, MAPPED or ORPHANED.
+	public int getMode() {
+		return mode;
+	}
+
+	public long getRegionSize() {
+		return regionSize;
+	}
+
+	// Times map() had to wait for the GPU to finish with a region.
+	public int getStalls() {
+		return stalls;
+	}
+
+	// Bytes written between the last map() & unmap().
+	public long getBytesStreamed() {
+		return bytesStreamed;
+	}
+
+}
@@ -0,0 +1,39 @@
+package shaders;
+
+import renderEngine.GLCalls;
+import renderEngine.LwjglGLCalls;
+
+/*
+ * File:	ImpostorShader.java
+ * Purpose:	Draws each body as a quad facing the camera, on which the
+ * 			fragment shader ray-casts the sphere:  fragments off the sphere
+ * 			are discarded, the rest get the sphere's depth & normal & are lit
+ * 			like fragmentShader lights meshes.  The only per-instance data
+ * 			is the sphere's center & radius.  Uniforms are the static
+ * 			shader's (there is no transformation matrix).
+ */
+public class ImpostorShader extends StaticShader {
+
+	private static final String VERTEX_FILE = "src/shaders/impostorVertexShader";
+	private static final String FRAGMENT_FILE = "src/shaders/impostorFragmentShader";
+
+	// Attribute lists holding the quad's corners & the per-instance data.
+	public static final int CORNER_ATTRIBUTE = 0;
+	public static final int POSITION_RADIUS_ATTRIBUTE = 1;
+
+	public ImpostorShader() {
+		this(new LwjglGLCalls());
+	}
+
+	public ImpostorShader(GLCalls gl) {
+		super(VERTEX_FILE, FRAGMENT_FILE, gl);
+	}
+
+	// Bind attributes of VAO & instance buffer to variables.
+	@Override
+	protected void bindAttributes() {
+		super.bindAttribute(CORNER_ATTRIBUTE, "position");
+		super.bindAttribute(POSITION_RADIUS_ATTRIBUTE, "instance_position_radius");
+	}
+
+}
@@ -0,0 +1,56 @@
+package shaders;
+
+import renderEngine.GLCalls;
+import renderEngine.LwjglGLCalls;
+
+/*
+ * File:	InstancedShader.java
+ * Purpose:	The static shader for instanced drawing.  Each instance's slot
+ * 			comes in as a vertex attribute that advances once per instance,
+ * 			and the vertex shader reads the position, scale & rotation in
+ * 			that slot from a buffer texture (see InstanceBuffer) & builds
+ * 			the transformation from them, so there is no transformation
+ * 			matrix uniform to load per entity.  Lighting is the same
+ * 			fragment shader.
+ */
+public class InstancedShader extends StaticShader {
+
+	private static final String VERTEX_FILE = "src/shaders/instancedVertexShader";
+	private static final String FRAGMENT_FILE = "src/shaders/fragmentShader";
+
+	// Attribute list holding the per-instance slots.
+	public static final int INSTANCE_SLOT_ATTRIBUTE = 3;
+	// Texture unit the instance data's buffer texture is bound to.
+	public static final int INSTANCE_DATA_UNIT = 1;
+
+	private int location_instance_data;
+
+	public InstancedShader() {
+		this(new LwjglGLCalls());
+	}
+
+	public InstancedShader(GLCalls gl) {
+		super(VERTEX_FILE, FRAGMENT_FILE, gl);
+	}
+
+	// Bind attributes of VAO & slot stream to variables.
+	@Override
+	protected void bindAttributes() {
+		super.bindAttributes();
+		super.bindAttribute(INSTANCE_SLOT_ATTRIBUTE, "instance_slot");
+	}
+
+	// Gets the locations of all uniform variables.  Runs from the super
+	// constructor, so the location has no initializer to wipe it.
+	@Override
+	protected void getAllUniformLocations() {
+		super.getAllUniformLocations();
+		location_instance_data = super.getUniformLocation("instance_data");
+	}
+
+	// Points the instance data sampler at its texture unit.
+	public void connectTextureUnits() {
+		super.loadInt(location_instance_data, INSTANCE_DATA_UNIT);
+	}
+
+}
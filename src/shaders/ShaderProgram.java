@@ -11,13 +11,18 @@ import org.lwjgl.opengl.GL20;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Matrix4f;
 
+import renderEngine.GLCalls;
+import renderEngine.LwjglGLCalls;
+
 /*
  * File:	ShaderProgram
  * Purpose:	Generic shader program containing all the attributes &
- * 			methods every shader program will have.
+ * 			methods every shader program will have.  All GL calls go through
+ * 			a GLCalls, so a program can also be built & driven headless.
  */
 public abstract class ShaderProgram {
 
+	private GLCalls gl;
 	private int programID;
 	private int vertexShaderID;
 	private int fragmentShaderID;
@@ -25,18 +30,23 @@ public abstract class ShaderProgram {
 	private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
 
 	public ShaderProgram(String vertexFile, String fragmentFile) {
+		this(vertexFile, fragmentFile, new LwjglGLCalls());
+	}
+
+	public ShaderProgram(String vertexFile, String fragmentFile, GLCalls gl) {
+		this.gl = gl;
 		// First load up shader files.
-		vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER);
-		fragmentShaderID = loadShader(fragmentFile, GL20.GL_FRAGMENT_SHADER);
+		vertexShaderID = loadShader(gl, vertexFile, GL20.GL_VERTEX_SHADER);
+		fragmentShaderID = loadShader(gl, fragmentFile, GL20.GL_FRAGMENT_SHADER);
 		// Create a new program. Ties together vertex & fragment shaders.
-		programID = GL20.glCreateProgram();
+		programID = gl.glCreateProgram();
 		// Attach shaders to program.
-		GL20.glAttachShader(programID, vertexShaderID);
-		GL20.glAttachShader(programID, fragmentShaderID);
+		gl.glAttachShader(programID, vertexShaderID);
+		gl.glAttachShader(programID, fragmentShaderID);
 		bindAttributes();
 		// Link them together & validate the program.
-		GL20.glLinkProgram(programID);
-		GL20.glValidateProgram(programID);
+		gl.glLinkProgram(programID);
+		gl.glValidateProgram(programID);
 		getAllUniformLocations();
 	}
 
@@ -44,17 +54,22 @@ public abstract class ShaderProgram {
 
 	// Gets location of uniform variable in shader code.
 	protected int getUniformLocation(String uniformName) {
-		return GL20.glGetUniformLocation(programID, uniformName);
+		return gl.glGetUniformLocation(programID, uniformName);
 	}
 
 	// Loads floats to uniform location.
 	protected void loadFloat(int location, float value) {
-		GL20.glUniform1f(location, value);
+		gl.glUniform1f(location, value);
+	}
+
+	// Loads int (or the texture unit of a sampler) to uniform location.
+	protected void loadInt(int location, int value) {
+		gl.glUniform1i(location, value);
 	}
 
 	// Loads vector to uniform location.
 	protected void loadVector(int location, Vector3f vector) {
-		GL20.glUniform3f(location, vector.x, vector.y, vector.z);
+		gl.glUniform3f(location, vector.x, vector.y, vector.z);
 	}
 
 	// Loads boolean to uniform location.
@@ -63,34 +78,40 @@ public abstract class ShaderProgram {
 		if (value) {
 			toLoad = 1;
 		}
-		GL20.glUniform1f(location, toLoad);
+		gl.glUniform1f(location, toLoad);
 	}
 
 	// Loads matrix to uniform location.
 	protected void loadMatrix(int location, Matrix4f matrix) {
 		matrix.store(matrixBuffer);
 		matrixBuffer.flip();
-		GL20.glUniformMatrix4(location, false, matrixBuffer);
+		gl.glUniformMatrix4(location, false, matrixBuffer);
+	}
+
+	// Loads the matrix at the buffer's position (16 floats, column-major) to
+	// uniform location.
+	protected void loadMatrix(int location, FloatBuffer matrix) {
+		gl.glUniformMatrix4(location, false, matrix);
 	}
 
 	// Starts the program.
 	public void start() {
-		GL20.glUseProgram(programID);
+		gl.glUseProgram(programID);
 	}
 
 	// Stops the program.
 	public void stop() {
-		GL20.glUseProgram(0);
+		gl.glUseProgram(0);
 	}
 
 	// Cleanup for memory management.
 	public void cleanUp() {
 		stop();
-		GL20.glDetachShader(programID, vertexShaderID);
-		GL20.glDetachShader(programID, fragmentShaderID);
-		GL20.glDeleteShader(vertexShaderID);
-		GL20.glDeleteShader(fragmentShaderID);
-		GL20.glDeleteProgram(programID);
+		gl.glDetachShader(programID, vertexShaderID);
+		gl.glDetachShader(programID, fragmentShaderID);
+		gl.glDeleteShader(vertexShaderID);
+		gl.glDeleteShader(fragmentShaderID);
+		gl.glDeleteProgram(programID);
 	}
 
 	// When we create implementation of this class must have this to link up
@@ -99,7 +120,7 @@ public abstract class ShaderProgram {
 
 	// Method to bind an attribute.
 	protected void bindAttribute(int attribute, String variableName) {
-		GL20.glBindAttribLocation(programID, attribute, variableName);
+		gl.glBindAttribLocation(programID, attribute, variableName);
 	}
 
 	// Loads up shader source code files. Opens up source code files,
@@ -107,7 +128,7 @@ public abstract class ShaderProgram {
 	// Then, create new vertex or fragment shader, depending on value of 'type',
 	// attaches string of source code to it, compiles it, and lastly prints any
 	// errors found before returning ID of newly created shader.
-	private static int loadShader(String file, int type) {
+	private static int loadShader(GLCalls gl, String file, int type) {
 		StringBuilder shaderSource = new StringBuilder();
 		try {
 			BufferedReader reader = new BufferedReader(new FileReader(file));
@@ -121,12 +142,12 @@ public abstract class ShaderProgram {
 			e.printStackTrace();
 			System.exit(-1);
 		}
-		int shaderID = GL20.glCreateShader(type);
-		GL20.glShaderSource(shaderID, shaderSource);
-		GL20.glCompileShader(shaderID);
+		int shaderID = gl.glCreateShader(type);
+		gl.glShaderSource(shaderID, shaderSource);
+		gl.glCompileShader(shaderID);
 		// NOTE: glGetShader() deprecated, using glGetShaderi instead.
-		if (GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
-			System.out.println(GL20.glGetShaderInfoLog(shaderID, 500));
+		if (gl.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+			System.out.println(gl.glGetShaderInfoLog(shaderID, 500));
 			System.err.println("ERROR:  COULD NOT COMPILE SHADER!!!");
 			System.exit(-1);
 		}
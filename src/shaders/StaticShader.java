@@ -1,9 +1,13 @@
 package shaders;
 
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
 import org.lwjgl.util.vector.Matrix4f;
 
 import entities.Camera;
 import entities.Light;
+import renderEngine.GLCalls;
 import toolbox.Maths;
 
 public class StaticShader extends ShaderProgram {
@@ -19,10 +23,21 @@ public class StaticShader extends ShaderProgram {
 	private int location_shine_damper;
 	private int location_reflectivity;
 
+	private FloatBuffer viewMatrix = BufferUtils.createFloatBuffer(16);
+
 	public StaticShader() {
 		super(VERTEX_FILE, FRAGMENT_FILE);
 	}
 
+	public StaticShader(GLCalls gl) {
+		super(VERTEX_FILE, FRAGMENT_FILE, gl);
+	}
+
+	// For shaders that share this one's uniforms, with other source files.
+	protected StaticShader(String vertexFile, String fragmentFile, GLCalls gl) {
+		super(vertexFile, fragmentFile, gl);
+	}
+
 	// Bind attributes of VAO to variables.
 	@Override
 	protected void bindAttributes() {
@@ -53,9 +68,16 @@ public class StaticShader extends ShaderProgram {
 		super.loadMatrix(location_projection_matrix, projection);
 	}
 
+	// Loads transformation matrix at the buffer's position to uniform variable.
+	public void loadTransformationMatrix(FloatBuffer matrix) {
+		super.loadMatrix(location_transformation_matrix, matrix);
+	}
+
 	// Loads view matrix to uniform variable.
 	public void loadViewMatrix(Camera camera) {
-		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+		viewMatrix.clear();
+		Maths.storeViewMatrix(camera, viewMatrix);
+		viewMatrix.flip();
 		super.loadMatrix(location_view_matrix, viewMatrix);
 	}
 
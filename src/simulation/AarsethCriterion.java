@@ -0,0 +1,28 @@
+package simulation;
+
+/*
+ * File:	AarsethCriterion.java
+ * Purpose:	The standard Hermite timestep criterion (Aarseth 1985):
+ * 			dt = sqrt(eta (|a| |a''| + |a'|^2) / (|a'| |a'''| + |a''|^2)).
+ * 			Uses all four derivatives, so it reacts smoothly to close
+ * 			encounters.  eta around 0.01 - 0.02 is typical.
+ */
+public class AarsethCriterion implements TimestepCriterion {
+
+	private double eta;
+
+	public AarsethCriterion(double eta) {
+		this.eta = eta;
+	}
+
+	@Override
+	public double timestep(double acceleration, double jerk, double snap, double crackle) {
+		double numerator = acceleration * snap + jerk * jerk;
+		double denominator = jerk * crackle + snap * snap;
+		if (denominator == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.sqrt(eta * numerator / denominator);
+	}
+
+}
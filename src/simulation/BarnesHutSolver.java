@@ -0,0 +1,235 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * File:	BarnesHutSolver.java
+ * Purpose:	O(N log N) gravity using the Barnes-Hut approximation:  a node
+ * 			of the octree far enough away from a body is treated as a single
+ * 			point mass at its center of mass.  A node of size s whose center
+ * 			of mass is offset by d from the middle of its bounds is accepted
+ * 			when the body is further than s / theta + d from the center of
+ * 			mass (Barnes 1994), so smaller theta means more nodes get opened:
+ * 			slower but more accurate.
+ *
+ * 			Rather than rebuild the tree every step, it is refit to the new
+ * 			positions and only rebuilt when its bounds have grown too loose
+ * 			or after a fixed number of steps.
+ *
+ * 			Each body's walk only writes that body's acceleration, so given a
+ * 			ForkJoinPool the walks are split into blocks of bodies (in tree
+ * 			order) and spread over the pool by work stealing.  Results don't
+ * 			depend on the number of threads.
+ */
+public class BarnesHutSolver implements ForceSolver {
+
+	// Refit instead of rebuilding while no node's bounds have grown past this
+	// multiple of the cell it was built for.
+	private static final double DEFAULT_REFIT_TOLERANCE = 1.25;
+	private static final int DEFAULT_REBUILD_INTERVAL = 16;
+	// Bodies walked by one task before it stops splitting.
+	private static final int BODIES_PER_TASK = 256;
+
+	private double gravity;
+	private double softening2;
+	private double theta;
+	private double refitTolerance = DEFAULT_REFIT_TOLERANCE;
+	private int rebuildInterval = DEFAULT_REBUILD_INTERVAL;
+	private ForkJoinPool pool;
+
+	private Octree tree = new Octree();
+	private int stepsSinceBuild = -1;
+
+	// Each thread walks the tree with its own stack.
+	private ThreadLocal<int[]> stacks = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[Octree.MAX_STACK];
+		}
+	};
+
+	// Stats about the last force evaluation.
+	private AtomicLong interactions = new AtomicLong();
+	private boolean rebuilt;
+
+	public BarnesHutSolver(double gravity, double softening, double theta) {
+		this(gravity, softening, theta, null);
+	}
+
+	// Spreads the tree walks over the given pool (or runs them on the calling
+	// thread if it is null).
+	public BarnesHutSolver(double gravity, double softening, double theta, ForkJoinPool pool) {
+		this.gravity = gravity;
+		this.softening2 = softening * softening;
+		this.theta = theta;
+		this.pool = pool;
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		updateTree(system);
+		interactions.set(0);
+		if (pool == null) {
+			accelerateRange(system, 0, system.getCount());
+		} else {
+			pool.invoke(new WalkTask(system, 0, system.getCount()));
+		}
+	}
+
+	// Refits the tree to the current positions, or rebuilds it if it has gone
+	// stale or bodies have been added or removed.
+	private void updateTree(NBodySystem system) {
+		rebuilt = false;
+		if (stepsSinceBuild < 0 || stepsSinceBuild >= rebuildInterval
+				|| tree.getBodyCount()[0] != system.getCount() || tree.refit(system) > refitTolerance) {
+			tree.build(system);
+			stepsSinceBuild = 0;
+			rebuilt = true;
+		}
+		stepsSinceBuild++;
+	}
+
+	// Computes the acceleration of bodies [from, to) in tree order, so that
+	// neighbouring bodies reuse the same nodes.
+	private void accelerateRange(NBodySystem system, int from, int to) {
+		int[] order = tree.getOrder();
+		int[] stack = stacks.get();
+		long total = 0;
+		for (int k = from; k < to; k++) {
+			total += accelerate(system, order[k], stack);
+		}
+		interactions.addAndGet(total);
+	}
+
+	// Sums the acceleration on one body by walking the tree, returning how
+	// many body or node interactions that took.
+	private int accelerate(NBodySystem system, int body, int[] stack) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] m = system.getMass();
+		double[] nodeMass = tree.getMass();
+		double[] minX = tree.getMinX(), minY = tree.getMinY(), minZ = tree.getMinZ();
+		double[] maxX = tree.getMaxX(), maxY = tree.getMaxY(), maxZ = tree.getMaxZ();
+		double[] size = tree.getSize(), centerOffset = tree.getCenterOffset();
+		double[] comX = tree.getComX(), comY = tree.getComY(), comZ = tree.getComZ();
+		int[] childStart = tree.getChildStart(), childCount = tree.getChildCount();
+		int[] bodyStart = tree.getBodyStart(), bodyCount = tree.getBodyCount();
+		int[] order = tree.getOrder();
+		double invTheta = 1.0 / theta;
+
+		double xi = x[body], yi = y[body], zi = z[body];
+		double axi = 0, ayi = 0, azi = 0;
+		int count = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			double dx = comX[node] - xi;
+			double dy = comY[node] - yi;
+			double dz = comZ[node] - zi;
+			double d2 = dx * dx + dy * dy + dz * dz;
+			double open = size[node] * invTheta + centerOffset[node];
+			// Never accept a node the body is inside of, whatever theta is.
+			boolean inside = xi >= minX[node] && xi <= maxX[node] && yi >= minY[node] && yi <= maxY[node]
+					&& zi >= minZ[node] && zi <= maxZ[node];
+			if (!inside && d2 > open * open) {
+				// Far enough away:  treat the whole node as one point mass.
+				double r2 = d2 + softening2;
+				double invR = 1.0 / Math.sqrt(r2);
+				double s = nodeMass[node] * invR * invR * invR;
+				axi += dx * s;
+				ayi += dy * s;
+				azi += dz * s;
+				count++;
+			} else if (childCount[node] == 0) {
+				// Too close & can't be opened further:  sum its bodies directly.
+				int end = bodyStart[node] + bodyCount[node];
+				for (int k = bodyStart[node]; k < end; k++) {
+					int other = order[k];
+					if (other == body) {
+						continue;
+					}
+					double bx = x[other] - xi;
+					double by = y[other] - yi;
+					double bz = z[other] - zi;
+					double r2 = bx * bx + by * by + bz * bz + softening2;
+					double invR = 1.0 / Math.sqrt(r2);
+					double s = m[other] * invR * invR * invR;
+					axi += bx * s;
+					ayi += by * s;
+					azi += bz * s;
+					count++;
+				}
+			} else {
+				int end = childStart[node] + childCount[node];
+				for (int child = childStart[node]; child < end; child++) {
+					stack[top++] = child;
+				}
+			}
+		}
+		system.getAx()[body] = axi * gravity;
+		system.getAy()[body] = ayi * gravity;
+		system.getAz()[body] = azi * gravity;
+		return count;
+	}
+
+	// Splits a range of bodies in half until it is small enough to walk.
+	@SuppressWarnings("serial")
+	private class WalkTask extends RecursiveAction {
+
+		private NBodySystem system;
+		private int from, to;
+
+		private WalkTask(NBodySystem system, int from, int to) {
+			this.system = system;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BODIES_PER_TASK) {
+				accelerateRange(system, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new WalkTask(system, from, mid), new WalkTask(system, mid, to));
+		}
+
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	public void setTheta(double theta) {
+		this.theta = theta;
+	}
+
+	public void setRefitTolerance(double refitTolerance) {
+		this.refitTolerance = refitTolerance;
+	}
+
+	public void setRebuildInterval(int rebuildInterval) {
+		this.rebuildInterval = rebuildInterval;
+	}
+
+	// Forces the tree to be rebuilt on the next evaluation.
+	public void invalidateTree() {
+		stepsSinceBuild = -1;
+	}
+
+	public Octree getTree() {
+		return tree;
+	}
+
+	public long getInteractions() {
+		return interactions.get();
+	}
+
+	public boolean wasRebuilt() {
+		return rebuilt;
+	}
+
+}
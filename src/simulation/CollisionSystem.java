@@ -0,0 +1,122 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * File:	CollisionSystem.java
+ * Purpose:	Finds the overlapping bodies of a system with a SpatialHash and
+ * 			hands each pair to a MergePolicy.  The hash cells are sized from
+ * 			the largest radius, so they grow as merged bodies do.
+ *
+ * 			Pairs are resolved one at a time in a fixed order.  Once a body
+ * 			has been absorbed, later pairs with it are skipped; chains of
+ * 			merges finish on the following checks.  Absorbed bodies are only
+ * 			removed from the system after every pair has been seen, so the
+ * 			pair indices stay valid.
+ */
+public class CollisionSystem {
+
+	private MergePolicy policy;
+	private SpatialHash hash;
+
+	private boolean[] absorbed = new boolean[0];
+
+	// Stats about the last check.
+	private int overlaps;
+	private int collisions;
+	private int merges;
+
+	public CollisionSystem(MergePolicy policy) {
+		this(policy, null);
+	}
+
+	// Runs the broad-phase search on the given pool (or on the calling thread
+	// if it is null).
+	public CollisionSystem(MergePolicy policy, ForkJoinPool pool) {
+		this.policy = policy;
+		this.hash = new SpatialHash(pool);
+	}
+
+	// Resolves every overlap in the system, returning how many pairs the
+	// policy changed.  If it is more than zero the system has changed, and
+	// integrators holding state about it need to be reset.  Pairs the policy
+	// left alone (e.g. bounced bodies still overlapping as they move apart)
+	// don't count, so they don't force a reset every check.
+	public int resolve(NBodySystem system) {
+		int n = system.getCount();
+		overlaps = 0;
+		collisions = 0;
+		merges = 0;
+		double largest = 0;
+		double[] radius = system.getRadius();
+		for (int i = 0; i < n; i++) {
+			largest = Math.max(largest, radius[i]);
+		}
+		if (n < 2 || largest <= 0) {
+			return 0;
+		}
+		hash.build(system, largest * 2);
+		int pairs = hash.findOverlaps(system);
+		if (pairs == 0) {
+			return 0;
+		}
+
+		if (absorbed.length < n) {
+			absorbed = new boolean[n];
+		}
+		int[] first = hash.getPairFirst(), second = hash.getPairSecond();
+		for (int p = 0; p < pairs; p++) {
+			int i = first[p], j = second[p];
+			if (absorbed[i] || absorbed[j]) {
+				continue;
+			}
+			overlaps++;
+			int outcome = policy.collide(system, i, j);
+			if (outcome != MergePolicy.UNCHANGED) {
+				collisions++;
+			}
+			if (outcome == MergePolicy.ABSORBED) {
+				absorbed[j] = true;
+				merges++;
+			}
+		}
+
+		// Highest index first, so the body swapped into each gap is never one
+		// that still has to go.
+		for (int i = n - 1; i >= 0; i--) {
+			if (absorbed[i]) {
+				absorbed[i] = false;
+				system.removeBody(i);
+			}
+		}
+		return collisions;
+	}
+
+	public MergePolicy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(MergePolicy policy) {
+		this.policy = policy;
+	}
+
+	public SpatialHash getHash() {
+		return hash;
+	}
+
+	// # of overlapping pairs handed to the policy by the last check.
+	public int getOverlaps() {
+		return overlaps;
+	}
+
+	// # of pairs the policy changed in the last check.
+	public int getCollisions() {
+		return collisions;
+	}
+
+	// # of bodies absorbed by the last check.
+	public int getMerges() {
+		return merges;
+	}
+
+}
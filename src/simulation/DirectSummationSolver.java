@@ -0,0 +1,77 @@
+package simulation;
+
+/*
+ * File:	DirectSummationSolver.java
+ * Purpose:	O(N^2) gravity:  sums the softened pull of every body on every
+ * 			other body.  Each pair is visited once and applied to both
+ * 			bodies (Newton's third law), halving the work.  Exact up to
+ * 			softening & round-off, so it also serves as the reference the
+ * 			faster solvers are measured against.
+ */
+public class DirectSummationSolver implements ForceSolver {
+
+	private double gravity;
+	// Square of the Plummer softening length, which keeps close encounters
+	// from blowing up.
+	private double softening2;
+
+	public DirectSummationSolver(double gravity, double softening) {
+		this.gravity = gravity;
+		this.softening2 = softening * softening;
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		int n = system.getCount();
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		double[] mass = system.getMass();
+
+		for (int i = 0; i < n; i++) {
+			ax[i] = 0;
+			ay[i] = 0;
+			az[i] = 0;
+		}
+
+		for (int i = 0; i < n; i++) {
+			double xi = x[i], yi = y[i], zi = z[i];
+			double mi = mass[i];
+			double axi = 0, ayi = 0, azi = 0;
+			for (int j = i + 1; j < n; j++) {
+				double dx = x[j] - xi;
+				double dy = y[j] - yi;
+				double dz = z[j] - zi;
+				double r2 = dx * dx + dy * dy + dz * dz + softening2;
+				double invR = 1.0 / Math.sqrt(r2);
+				double invR3 = invR * invR * invR;
+				// Pull of j on i, and the equal & opposite pull of i on j.
+				double sj = mass[j] * invR3;
+				double si = mi * invR3;
+				axi += dx * sj;
+				ayi += dy * sj;
+				azi += dz * sj;
+				ax[j] -= dx * si;
+				ay[j] -= dy * si;
+				az[j] -= dz * si;
+			}
+			ax[i] += axi;
+			ay[i] += ayi;
+			az[i] += azi;
+		}
+
+		for (int i = 0; i < n; i++) {
+			ax[i] *= gravity;
+			ay[i] *= gravity;
+			az[i] *= gravity;
+		}
+	}
+
+	public double getGravity() {
+		return gravity;
+	}
+
+	public double getSoftening() {
+		return Math.sqrt(softening2);
+	}
+
+}
@@ -0,0 +1,57 @@
+package simulation;
+
+/*
+ * File:	ElasticBounce.java
+ * Purpose:	Colliding bodies bounce off each other.  The parts of their
+ * 			velocities along the line between their centers are exchanged as
+ * 			in a collision of two spheres, scaled by the coefficient of
+ * 			restitution (1 is perfectly elastic, 0 stops them dead relative
+ * 			to each other).  Bodies already moving apart are left alone, so a
+ * 			pair that still overlaps on the next check doesn't bounce back in.
+ */
+public class ElasticBounce implements MergePolicy {
+
+	private double restitution;
+
+	public ElasticBounce() {
+		this(1);
+	}
+
+	public ElasticBounce(double restitution) {
+		this.restitution = restitution;
+	}
+
+	@Override
+	public int collide(NBodySystem system, int i, int j) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] m = system.getMass();
+		double nx = x[j] - x[i], ny = y[j] - y[i], nz = z[j] - z[i];
+		double distance = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		double total = m[i] + m[j];
+		if (distance == 0 || total == 0) {
+			return UNCHANGED;
+		}
+		nx /= distance;
+		ny /= distance;
+		nz /= distance;
+		// Closing speed along the normal; negative means approaching.
+		double closing = (vx[j] - vx[i]) * nx + (vy[j] - vy[i]) * ny + (vz[j] - vz[i]) * nz;
+		if (closing >= 0) {
+			return UNCHANGED;
+		}
+		double impulse = (1 + restitution) * closing / total;
+		vx[i] += impulse * m[j] * nx;
+		vy[i] += impulse * m[j] * ny;
+		vz[i] += impulse * m[j] * nz;
+		vx[j] -= impulse * m[i] * nx;
+		vy[j] -= impulse * m[i] * ny;
+		vz[j] -= impulse * m[i] * nz;
+		return CHANGED;
+	}
+
+	public double getRestitution() {
+		return restitution;
+	}
+
+}
@@ -0,0 +1,751 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * File:	FastMultipoleSolver.java
+ * Purpose:	O(N) gravity using the Fast Multipole Method with Cartesian
+ * 			Taylor expansions of a configurable order p.  Where Barnes-Hut
+ * 			lets every body interact with far nodes, FMM lets nodes interact
+ * 			with nodes:  the multipoles of a well separated source node are
+ * 			turned straight into a Taylor (local) expansion about the target
+ * 			node, which is then passed down to its children and bodies.
+ *
+ * 			The passes are, on the same adaptive Octree as Barnes-Hut:
+ * 				P2M / M2M	multipole moments about each node's center of
+ * 							mass, leaves first, from bodies or children.
+ * 				M2L			multipoles of a source node -> local expansion of
+ * 							a target node, for every well separated pair.
+ * 				L2L / L2P	local expansions pushed down to children, then
+ * 							differentiated at each body.
+ * 				P2P			direct sums between neighbouring leaves.
+ * 			The pairs come from a dual tree walk (Dehnen 2002) which accepts
+ * 			two nodes when (r_target + r_source) < theta * distance, with the
+ * 			radii measured from the expansion centers to the furthest body.
+ *
+ * 			The derivatives of the (softened) kernel 1 / sqrt(r^2 + eps^2)
+ * 			come from the recurrence of Duan & Krasny (2001).  M2L and P2P
+ * 			dominate the cost; both are grouped by target node, so given a
+ * 			ForkJoinPool they run in parallel with no locking and the result
+ * 			doesn't depend on the number of threads.
+ */
+public class FastMultipoleSolver implements ForceSolver {
+
+	private static final int DEFAULT_ORDER = 4;
+	private static final double DEFAULT_THETA = 0.7;
+	// FMM does better with bigger leaves than Barnes-Hut:  P2P is cheap per
+	// pair, and fewer nodes means fewer expansions.
+	private static final int LEAF_SIZE = 64;
+	private static final double DEFAULT_REFIT_TOLERANCE = 1.25;
+	private static final int DEFAULT_REBUILD_INTERVAL = 16;
+	// Target nodes handled by one task before it stops splitting.
+	private static final int NODES_PER_TASK = 64;
+
+	private double gravity;
+	private double softening2;
+	private double theta;
+	private int order;
+	private ForkJoinPool pool;
+	private double refitTolerance = DEFAULT_REFIT_TOLERANCE;
+	private int rebuildInterval = DEFAULT_REBUILD_INTERVAL;
+
+	private Octree tree = new Octree(LEAF_SIZE);
+	private int stepsSinceBuild = -1;
+
+	// Multi-indices k = (kx, ky, kz) with |k| <= order, sorted by |k|.  For
+	// each:  its components, and the index of k - e_axis & k - 2 e_axis (or -1).
+	private int terms;
+	private int[] kx, ky, kz, degree;
+	private int[] minus1, minus2;
+
+	// Translation operators as flat lists of (destination term, source term,
+	// power term, coefficient).
+	private int[] m2mDest, m2mSource, m2mPower;
+	private double[] m2mCoef;
+	private int[] l2lDest, l2lSource, l2lPower;
+	private double[] l2lCoef;
+	// M2L is stored by rows:  ops m2lRowStart[n] .. m2lRowStart[n + 1] add to L_n.
+	private int[] m2lRowStart, m2lSource, m2lDerivative;
+	private double[] m2lCoef;
+
+	// Per node:  multipole moments & local expansion (terms each), local
+	// expansion center, and the radii used by the acceptance test.
+	private double[] multipole = new double[0];
+	private double[] local = new double[0];
+	private double[] centerX = new double[0], centerY = new double[0], centerZ = new double[0];
+	private double[] sourceRadius = new double[0], targetRadius = new double[0];
+
+	// Positions & masses copied into tree order, so leaves are contiguous.
+	private double[] sortedX = new double[0], sortedY = new double[0], sortedZ = new double[0];
+	private double[] sortedMass = new double[0];
+
+	// Interaction lists from the dual tree walk, grouped by target node:
+	// the sources of node t are list[start[t] .. start[t + 1]).
+	private int[] m2lStart = new int[0], m2lList = new int[0];
+	private int[] p2pStart = new int[0], p2pList = new int[0];
+	private int[] pairTarget = new int[64], pairSource = new int[64];
+	private int[] nearTarget = new int[64], nearSource = new int[64];
+	private int pairCount, nearCount;
+	private int[] walkStack = new int[64];
+
+	// Each thread gets scratch space for kernel derivatives & powers.
+	private ThreadLocal<double[]> scratch = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[terms * 2];
+		}
+	};
+
+	// Stats about the last force evaluation.
+	private long bodyInteractions;
+	private boolean rebuilt;
+
+	public FastMultipoleSolver(double gravity, double softening) {
+		this(gravity, softening, DEFAULT_ORDER, DEFAULT_THETA, null);
+	}
+
+	// Runs the M2L & near field passes on the given pool (or on the calling
+	// thread if it is null).
+	public FastMultipoleSolver(double gravity, double softening, int order, double theta, ForkJoinPool pool) {
+		this.gravity = gravity;
+		this.softening2 = softening * softening;
+		this.order = order;
+		this.theta = theta;
+		this.pool = pool;
+		buildIndices();
+		buildOperators();
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		if (system.getCount() == 0) {
+			return;
+		}
+		updateTree(system);
+		sortBodies(system);
+		int nodes = tree.getNodeCount();
+		if (multipole.length < nodes * terms) {
+			multipole = new double[nodes * terms];
+			local = new double[nodes * terms];
+			centerX = new double[nodes];
+			centerY = new double[nodes];
+			centerZ = new double[nodes];
+			sourceRadius = new double[nodes];
+			targetRadius = new double[nodes];
+			m2lStart = new int[nodes + 1];
+			p2pStart = new int[nodes + 1];
+		}
+
+		upwardPass();
+		walk();
+		m2lList = group(pairTarget, pairSource, pairCount, m2lStart, m2lList, nodes);
+		p2pList = group(nearTarget, nearSource, nearCount, p2pStart, p2pList, nodes);
+
+		// M2L, then push the local expansions down, then evaluate them at the
+		// bodies along with the near field.
+		runParallel(system, Phase.M2L, nodes);
+		downwardPass();
+		runParallel(system, Phase.BODIES, nodes);
+
+		bodyInteractions = 0;
+		int[] bodyCount = tree.getBodyCount();
+		for (int t = 0; t < nodes; t++) {
+			for (int k = p2pStart[t]; k < p2pStart[t + 1]; k++) {
+				bodyInteractions += (long) bodyCount[t] * bodyCount[p2pList[k]];
+			}
+		}
+	}
+
+	// Refits the tree to the current positions, or rebuilds it if it has gone
+	// stale or bodies have been added or removed.
+	private void updateTree(NBodySystem system) {
+		rebuilt = false;
+		if (stepsSinceBuild < 0 || stepsSinceBuild >= rebuildInterval
+				|| tree.getBodyCount()[0] != system.getCount() || tree.refit(system) > refitTolerance) {
+			tree.build(system);
+			stepsSinceBuild = 0;
+			rebuilt = true;
+		}
+		stepsSinceBuild++;
+	}
+
+	// Copies positions & masses into tree order.
+	private void sortBodies(NBodySystem system) {
+		int n = system.getCount();
+		if (sortedX.length < n) {
+			sortedX = new double[n];
+			sortedY = new double[n];
+			sortedZ = new double[n];
+			sortedMass = new double[n];
+		}
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] m = system.getMass();
+		int[] bodies = tree.getOrder();
+		for (int k = 0; k < n; k++) {
+			int body = bodies[k];
+			sortedX[k] = x[body];
+			sortedY[k] = y[body];
+			sortedZ[k] = z[body];
+			sortedMass[k] = m[body];
+		}
+	}
+
+	// P2M & M2M:  multipoles about each node's center of mass.  Children
+	// come after their parent in the pool, so one backwards sweep does it.
+	private void upwardPass() {
+		double[] x = sortedX, y = sortedY, z = sortedZ;
+		double[] m = sortedMass;
+		double[] comX = tree.getComX(), comY = tree.getComY(), comZ = tree.getComZ();
+		double[] minX = tree.getMinX(), minY = tree.getMinY(), minZ = tree.getMinZ();
+		double[] maxX = tree.getMaxX(), maxY = tree.getMaxY(), maxZ = tree.getMaxZ();
+		int[] childStart = tree.getChildStart(), childCount = tree.getChildCount();
+		int[] bodyStart = tree.getBodyStart(), bodyCount = tree.getBodyCount();
+		double[] powers = scratch.get();
+
+		for (int node = tree.getNodeCount() - 1; node >= 0; node--) {
+			int base = node * terms;
+			for (int t = 0; t < terms; t++) {
+				multipole[base + t] = 0;
+			}
+			double cx = comX[node], cy = comY[node], cz = comZ[node];
+
+			// Local expansions are about the middle of the bounds, which keeps
+			// the bodies as close to the center as possible.
+			double lx = (minX[node] + maxX[node]) * 0.5;
+			double ly = (minY[node] + maxY[node]) * 0.5;
+			double lz = (minZ[node] + maxZ[node]) * 0.5;
+			centerX[node] = lx;
+			centerY[node] = ly;
+			centerZ[node] = lz;
+
+			// The radii are the furthest any body lies from either center,
+			// which is much tighter than the corners of the bounds.
+			double source = 0, target = 0;
+			if (childCount[node] == 0) {
+				int end = bodyStart[node] + bodyCount[node];
+				for (int k = bodyStart[node]; k < end; k++) {
+					double dx = x[k] - cx, dy = y[k] - cy, dz = z[k] - cz;
+					powers(dx, dy, dz, powers);
+					for (int t = 0; t < terms; t++) {
+						multipole[base + t] += m[k] * powers[t];
+					}
+					source = Math.max(source, dx * dx + dy * dy + dz * dz);
+					dx = x[k] - lx;
+					dy = y[k] - ly;
+					dz = z[k] - lz;
+					target = Math.max(target, dx * dx + dy * dy + dz * dz);
+				}
+				source = Math.sqrt(source);
+				target = Math.sqrt(target);
+			} else {
+				int end = childStart[node] + childCount[node];
+				for (int child = childStart[node]; child < end; child++) {
+					double dx = comX[child] - cx, dy = comY[child] - cy, dz = comZ[child] - cz;
+					powers(dx, dy, dz, powers);
+					int childBase = child * terms;
+					for (int o = 0; o < m2mCoef.length; o++) {
+						multipole[base + m2mDest[o]] += m2mCoef[o] * multipole[childBase + m2mSource[o]]
+								* powers[m2mPower[o]];
+					}
+					source = Math.max(source, Math.sqrt(dx * dx + dy * dy + dz * dz) + sourceRadius[child]);
+					dx = centerX[child] - lx;
+					dy = centerY[child] - ly;
+					dz = centerZ[child] - lz;
+					target = Math.max(target, Math.sqrt(dx * dx + dy * dy + dz * dz) + targetRadius[child]);
+				}
+			}
+			double fx = Math.max(cx - minX[node], maxX[node] - cx);
+			double fy = Math.max(cy - minY[node], maxY[node] - cy);
+			double fz = Math.max(cz - minZ[node], maxZ[node] - cz);
+			sourceRadius[node] = Math.min(source, Math.sqrt(fx * fx + fy * fy + fz * fz));
+			double hx = maxX[node] - minX[node], hy = maxY[node] - minY[node], hz = maxZ[node] - minZ[node];
+			targetRadius[node] = Math.min(target, 0.5 * Math.sqrt(hx * hx + hy * hy + hz * hz));
+		}
+	}
+
+	// Dual tree walk from (root, root), sorting every pair of nodes into
+	// far (M2L) or near (P2P) interactions.
+	private void walk() {
+		int[] childStart = tree.getChildStart(), childCount = tree.getChildCount();
+		double[] comX = tree.getComX(), comY = tree.getComY(), comZ = tree.getComZ();
+		double theta2 = theta * theta;
+		pairCount = 0;
+		nearCount = 0;
+		int top = 0;
+		walkStack[top++] = 0;
+		walkStack[top++] = 0;
+		while (top > 0) {
+			int source = walkStack[--top];
+			int target = walkStack[--top];
+			boolean targetLeaf = childCount[target] == 0, sourceLeaf = childCount[source] == 0;
+
+			if (target == source) {
+				if (targetLeaf) {
+					nearCount = addPair(target, source, nearCount, true);
+					continue;
+				}
+				// Every pair of children, including each child with itself.
+				int end = childStart[target] + childCount[target];
+				for (int a = childStart[target]; a < end; a++) {
+					for (int b = childStart[target]; b < end; b++) {
+						top = push(a, b, top);
+					}
+				}
+				continue;
+			}
+
+			double dx = centerX[target] - comX[source];
+			double dy = centerY[target] - comY[source];
+			double dz = centerZ[target] - comZ[source];
+			double reach = targetRadius[target] + sourceRadius[source];
+			if (reach * reach < theta2 * (dx * dx + dy * dy + dz * dz)) {
+				pairCount = addPair(target, source, pairCount, false);
+			} else if (targetLeaf && sourceLeaf) {
+				nearCount = addPair(target, source, nearCount, true);
+			} else if (sourceLeaf || (!targetLeaf && targetRadius[target] > sourceRadius[source])) {
+				// Open the bigger node, or the only one that can be opened.
+				int end = childStart[target] + childCount[target];
+				for (int child = childStart[target]; child < end; child++) {
+					top = push(child, source, top);
+				}
+			} else {
+				int end = childStart[source] + childCount[source];
+				for (int child = childStart[source]; child < end; child++) {
+					top = push(target, child, top);
+				}
+			}
+		}
+	}
+
+	private int push(int target, int source, int top) {
+		if (top + 2 > walkStack.length) {
+			walkStack = grow(walkStack, walkStack.length * 2);
+		}
+		walkStack[top++] = target;
+		walkStack[top++] = source;
+		return top;
+	}
+
+	private int addPair(int target, int source, int count, boolean near) {
+		int[] targets = near ? nearTarget : pairTarget;
+		if (count == targets.length) {
+			if (near) {
+				nearTarget = grow(nearTarget, count * 2);
+				nearSource = grow(nearSource, count * 2);
+			} else {
+				pairTarget = grow(pairTarget, count * 2);
+				pairSource = grow(pairSource, count * 2);
+			}
+		}
+		if (near) {
+			nearTarget[count] = target;
+			nearSource[count] = source;
+		} else {
+			pairTarget[count] = target;
+			pairSource[count] = source;
+		}
+		return count + 1;
+	}
+
+	// Counting sort of (target, source) pairs by target.  Fills 'start' and
+	// returns the list of sources, reallocated if it was too small.
+	private static int[] group(int[] targets, int[] sources, int count, int[] start, int[] list, int nodes) {
+		for (int t = 0; t <= nodes; t++) {
+			start[t] = 0;
+		}
+		for (int p = 0; p < count; p++) {
+			start[targets[p] + 1]++;
+		}
+		for (int t = 0; t < nodes; t++) {
+			start[t + 1] += start[t];
+		}
+		if (list.length < count) {
+			list = new int[count];
+		}
+		// Fill using start[t] as a cursor, then shift the offsets back.
+		for (int p = 0; p < count; p++) {
+			list[start[targets[p]]++] = sources[p];
+		}
+		for (int t = nodes; t > 0; t--) {
+			start[t] = start[t - 1];
+		}
+		start[0] = 0;
+		return list;
+	}
+
+	// M2L for every far pair aimed at one target node.
+	private void m2l(int target, double[] work) {
+		double[] comX = tree.getComX(), comY = tree.getComY(), comZ = tree.getComZ();
+		int base = target * terms;
+		for (int t = 0; t < terms; t++) {
+			local[base + t] = 0;
+		}
+		for (int k = m2lStart[target]; k < m2lStart[target + 1]; k++) {
+			int source = m2lList[k];
+			derivatives(centerX[target] - comX[source], centerY[target] - comY[source],
+					centerZ[target] - comZ[source], work);
+			int sourceBase = source * terms;
+			for (int n = 0; n < terms; n++) {
+				double sum = 0;
+				for (int o = m2lRowStart[n]; o < m2lRowStart[n + 1]; o++) {
+					sum += m2lCoef[o] * multipole[sourceBase + m2lSource[o]] * work[m2lDerivative[o]];
+				}
+				local[base + n] += sum;
+			}
+		}
+	}
+
+	// L2L:  adds each node's local expansion to its children's.  Parents come
+	// before their children in the pool, so one forward sweep does it.
+	private void downwardPass() {
+		int[] childStart = tree.getChildStart(), childCount = tree.getChildCount();
+		double[] powers = scratch.get();
+		for (int node = 0; node < tree.getNodeCount(); node++) {
+			int base = node * terms;
+			int end = childStart[node] + childCount[node];
+			for (int child = childStart[node]; child < end; child++) {
+				powers(centerX[child] - centerX[node], centerY[child] - centerY[node],
+						centerZ[child] - centerZ[node], powers);
+				int childBase = child * terms;
+				for (int o = 0; o < l2lCoef.length; o++) {
+					local[childBase + l2lDest[o]] += l2lCoef[o] * local[base + l2lSource[o]]
+							* powers[l2lPower[o]];
+				}
+			}
+		}
+	}
+
+	// L2P & P2P for the bodies of one leaf.
+	private void accelerateLeaf(NBodySystem system, int leaf, double[] powers) {
+		double[] x = sortedX, y = sortedY, z = sortedZ;
+		double[] m = sortedMass;
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		int[] bodyStart = tree.getBodyStart(), bodyCount = tree.getBodyCount();
+		int[] bodies = tree.getOrder();
+		int base = leaf * terms;
+		int end = bodyStart[leaf] + bodyCount[leaf];
+		for (int k = bodyStart[leaf]; k < end; k++) {
+			double xi = x[k], yi = y[k], zi = z[k];
+
+			// Gradient of the local expansion:  sum of n L_n h^(n - e).
+			powers(xi - centerX[leaf], yi - centerY[leaf], zi - centerZ[leaf], powers);
+			double gx = 0, gy = 0, gz = 0;
+			for (int t = 1; t < terms; t++) {
+				double coefficient = local[base + t];
+				if (kx[t] > 0) {
+					gx += kx[t] * coefficient * powers[minus1[t * 3]];
+				}
+				if (ky[t] > 0) {
+					gy += ky[t] * coefficient * powers[minus1[t * 3 + 1]];
+				}
+				if (kz[t] > 0) {
+					gz += kz[t] * coefficient * powers[minus1[t * 3 + 2]];
+				}
+			}
+
+			// Near field, summed directly.
+			for (int s = p2pStart[leaf]; s < p2pStart[leaf + 1]; s++) {
+				int source = p2pList[s];
+				int sourceEnd = bodyStart[source] + bodyCount[source];
+				for (int j = bodyStart[source]; j < sourceEnd; j++) {
+					if (j == k) {
+						continue;
+					}
+					double dx = x[j] - xi;
+					double dy = y[j] - yi;
+					double dz = z[j] - zi;
+					double r2 = dx * dx + dy * dy + dz * dz + softening2;
+					double invR = 1.0 / Math.sqrt(r2);
+					double s3 = m[j] * invR * invR * invR;
+					gx += dx * s3;
+					gy += dy * s3;
+					gz += dz * s3;
+				}
+			}
+			int body = bodies[k];
+			ax[body] = gx * gravity;
+			ay[body] = gy * gravity;
+			az[body] = gz * gravity;
+		}
+	}
+
+	// h^k for every multi-index k.
+	private void powers(double hx, double hy, double hz, double[] dest) {
+		dest[0] = 1;
+		for (int t = 1; t < terms; t++) {
+			if (kx[t] > 0) {
+				dest[t] = dest[minus1[t * 3]] * hx;
+			} else if (ky[t] > 0) {
+				dest[t] = dest[minus1[t * 3 + 1]] * hy;
+			} else {
+				dest[t] = dest[minus1[t * 3 + 2]] * hz;
+			}
+		}
+	}
+
+	// Taylor coefficients D^k phi(r) / k! of phi = 1 / sqrt(r^2 + eps^2) for
+	// every |k| <= order, from the recurrence
+	//   |k| R^2 a_k + (2|k| - 1) sum_i r_i a_(k - e_i) + (|k| - 1) sum_i a_(k - 2e_i) = 0
+	// with R^2 = r^2 + eps^2.
+	private void derivatives(double rx, double ry, double rz, double[] dest) {
+		double r2 = rx * rx + ry * ry + rz * rz + softening2;
+		double invR2 = 1.0 / r2;
+		dest[0] = Math.sqrt(invR2);
+		for (int t = 1; t < terms; t++) {
+			int n = degree[t];
+			int i = t * 3;
+			double first = 0, second = 0;
+			if (minus1[i] >= 0) {
+				first += rx * dest[minus1[i]];
+			}
+			if (minus1[i + 1] >= 0) {
+				first += ry * dest[minus1[i + 1]];
+			}
+			if (minus1[i + 2] >= 0) {
+				first += rz * dest[minus1[i + 2]];
+			}
+			if (minus2[i] >= 0) {
+				second += dest[minus2[i]];
+			}
+			if (minus2[i + 1] >= 0) {
+				second += dest[minus2[i + 1]];
+			}
+			if (minus2[i + 2] >= 0) {
+				second += dest[minus2[i + 2]];
+			}
+			dest[t] = -((2 * n - 1) * first + (n - 1) * second) * invR2 / n;
+		}
+	}
+
+	// Enumerates the multi-indices up to 'order'.
+	private void buildIndices() {
+		terms = (order + 1) * (order + 2) * (order + 3) / 6;
+		kx = new int[terms];
+		ky = new int[terms];
+		kz = new int[terms];
+		degree = new int[terms];
+		int t = 0;
+		for (int n = 0; n <= order; n++) {
+			for (int i = n; i >= 0; i--) {
+				for (int j = n - i; j >= 0; j--) {
+					kx[t] = i;
+					ky[t] = j;
+					kz[t] = n - i - j;
+					degree[t] = n;
+					t++;
+				}
+			}
+		}
+		minus1 = new int[terms * 3];
+		minus2 = new int[terms * 3];
+		for (t = 0; t < terms; t++) {
+			minus1[t * 3] = index(kx[t] - 1, ky[t], kz[t]);
+			minus1[t * 3 + 1] = index(kx[t], ky[t] - 1, kz[t]);
+			minus1[t * 3 + 2] = index(kx[t], ky[t], kz[t] - 1);
+			minus2[t * 3] = index(kx[t] - 2, ky[t], kz[t]);
+			minus2[t * 3 + 1] = index(kx[t], ky[t] - 2, kz[t]);
+			minus2[t * 3 + 2] = index(kx[t], ky[t], kz[t] - 2);
+		}
+	}
+
+	// Index of multi-index (i, j, k), or -1 if it is out of range.
+	private int index(int i, int j, int k) {
+		if (i < 0 || j < 0 || k < 0 || i + j + k > order) {
+			return -1;
+		}
+		for (int t = 0; t < terms; t++) {
+			if (kx[t] == i && ky[t] == j && kz[t] == k) {
+				return t;
+			}
+		}
+		return -1;
+	}
+
+	// Precomputes the translation operators:
+	//   M2M:  M'_k += C(k, l) M_l d^(k - l)				for l <= k
+	//   L2L:  L'_m += C(n, m) L_n d^(n - m)				for n >= m
+	//   M2L:  L_n += (-1)^|k| C(k + n, n) M_k a_(k + n)	for |k| + |n| <= order
+	// where C is the product of the binomials of the components.
+	private void buildOperators() {
+		int[] dest = new int[terms * terms], source = new int[terms * terms], power = new int[terms * terms];
+		double[] coef = new double[terms * terms];
+
+		int ops = 0;
+		for (int k = 0; k < terms; k++) {
+			for (int l = 0; l < terms; l++) {
+				if (kx[l] <= kx[k] && ky[l] <= ky[k] && kz[l] <= kz[k]) {
+					dest[ops] = k;
+					source[ops] = l;
+					power[ops] = index(kx[k] - kx[l], ky[k] - ky[l], kz[k] - kz[l]);
+					coef[ops++] = binomial(kx[k], kx[l]) * binomial(ky[k], ky[l]) * binomial(kz[k], kz[l]);
+				}
+			}
+		}
+		m2mDest = copyOf(dest, ops);
+		m2mSource = copyOf(source, ops);
+		m2mPower = copyOf(power, ops);
+		m2mCoef = copyOf(coef, ops);
+
+		ops = 0;
+		for (int m = 0; m < terms; m++) {
+			for (int n = 0; n < terms; n++) {
+				if (kx[n] >= kx[m] && ky[n] >= ky[m] && kz[n] >= kz[m]) {
+					dest[ops] = m;
+					source[ops] = n;
+					power[ops] = index(kx[n] - kx[m], ky[n] - ky[m], kz[n] - kz[m]);
+					coef[ops++] = binomial(kx[n], kx[m]) * binomial(ky[n], ky[m]) * binomial(kz[n], kz[m]);
+				}
+			}
+		}
+		l2lDest = copyOf(dest, ops);
+		l2lSource = copyOf(source, ops);
+		l2lPower = copyOf(power, ops);
+		l2lCoef = copyOf(coef, ops);
+
+		// Multipoles are taken about the center of mass, so the dipole terms
+		// are always zero and can be left out.
+		ops = 0;
+		m2lRowStart = new int[terms + 1];
+		for (int n = 0; n < terms; n++) {
+			m2lRowStart[n] = ops;
+			for (int k = 0; k < terms; k++) {
+				if (degree[k] + degree[n] <= order && degree[k] != 1) {
+					source[ops] = k;
+					power[ops] = index(kx[k] + kx[n], ky[k] + ky[n], kz[k] + kz[n]);
+					double sign = (degree[k] & 1) == 0 ? 1 : -1;
+					coef[ops++] = sign * binomial(kx[k] + kx[n], kx[n]) * binomial(ky[k] + ky[n], ky[n])
+							* binomial(kz[k] + kz[n], kz[n]);
+				}
+			}
+		}
+		m2lRowStart[terms] = ops;
+		m2lSource = copyOf(source, ops);
+		m2lDerivative = copyOf(power, ops);
+		m2lCoef = copyOf(coef, ops);
+	}
+
+	private static double binomial(int n, int k) {
+		double result = 1;
+		for (int i = 1; i <= k; i++) {
+			result = result * (n - k + i) / i;
+		}
+		return result;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, length);
+		return copy;
+	}
+
+	private static double[] copyOf(double[] array, int length) {
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, length);
+		return copy;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private enum Phase {
+		M2L, BODIES
+	}
+
+	// Runs a phase over every node, on the pool if there is one.
+	private void runParallel(NBodySystem system, Phase phase, int nodes) {
+		if (pool == null) {
+			runRange(system, phase, 0, nodes);
+		} else {
+			pool.invoke(new NodeTask(system, phase, 0, nodes));
+		}
+	}
+
+	private void runRange(NBodySystem system, Phase phase, int from, int to) {
+		double[] work = scratch.get();
+		int[] childCount = tree.getChildCount();
+		for (int node = from; node < to; node++) {
+			if (phase == Phase.M2L) {
+				m2l(node, work);
+			} else if (childCount[node] == 0) {
+				accelerateLeaf(system, node, work);
+			}
+		}
+	}
+
+	// Splits a range of nodes in half until it is small enough to run.  Each
+	// node only writes its own expansion or its own bodies, so the halves
+	// never touch the same memory.
+	@SuppressWarnings("serial")
+	private class NodeTask extends RecursiveAction {
+
+		private NBodySystem system;
+		private Phase phase;
+		private int from, to;
+
+		private NodeTask(NBodySystem system, Phase phase, int from, int to) {
+			this.system = system;
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= NODES_PER_TASK) {
+				runRange(system, phase, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new NodeTask(system, phase, from, mid), new NodeTask(system, phase, mid, to));
+		}
+
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	public void setTheta(double theta) {
+		this.theta = theta;
+	}
+
+	public void setRefitTolerance(double refitTolerance) {
+		this.refitTolerance = refitTolerance;
+	}
+
+	public void setRebuildInterval(int rebuildInterval) {
+		this.rebuildInterval = rebuildInterval;
+	}
+
+	// Forces the tree to be rebuilt on the next evaluation.
+	public void invalidateTree() {
+		stepsSinceBuild = -1;
+	}
+
+	public Octree getTree() {
+		return tree;
+	}
+
+	// # of node-node (M2L) interactions in the last evaluation.
+	public int getFarInteractions() {
+		return pairCount;
+	}
+
+	// # of body-body (P2P) interactions in the last evaluation.
+	public long getNearInteractions() {
+		return bodyInteractions;
+	}
+
+	public boolean wasRebuilt() {
+		return rebuilt;
+	}
+
+}
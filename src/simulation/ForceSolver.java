@@ -0,0 +1,13 @@
+package simulation;
+
+/*
+ * File:	ForceSolver.java
+ * Purpose:	Computes the gravitational acceleration of every body in a
+ * 			system from the current positions, writing the result into the
+ * 			system's ax, ay, az arrays.
+ */
+public interface ForceSolver {
+
+	public void computeAccelerations(NBodySystem system);
+
+}
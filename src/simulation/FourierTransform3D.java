@@ -0,0 +1,179 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * File:	FourierTransform3D.java
+ * Purpose:	In-place complex FFT of a cubic grid whose side is a power of
+ * 			two, in plain Java over one primitive double array.  The grid
+ * 			holds interleaved (real, imaginary) pairs with z varying fastest:
+ * 			cell (x, y, z) is at 2 * ((x * size + y) * size + z).
+ *
+ * 			The 3D transform is three passes of 1D radix-2 transforms, along
+ * 			z, y, then x.  Each line is copied into a scratch buffer so the
+ * 			strided passes work on contiguous memory, and given a ForkJoinPool
+ * 			the lines of a pass are spread over it.  If the input is known to
+ * 			be zero outside a smaller corner cube (as for zero-padded grids),
+ * 			the forward transform skips the lines that are all zero.
+ */
+public class FourierTransform3D {
+
+	// Lines transformed by one task before it stops splitting.
+	private static final int LINES_PER_TASK = 64;
+
+	private int size;
+	private int logSize;
+	private ForkJoinPool pool;
+
+	// Twiddle factors e^(-2 pi i k / size) for k < size / 2, and the
+	// bit-reversal permutation.
+	private double[] cos, sin;
+	private int[] reversed;
+
+	// Each thread copies lines into its own buffer.
+	private ThreadLocal<double[]> lines = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[size * 2];
+		}
+	};
+
+	public FourierTransform3D(int size, ForkJoinPool pool) {
+		if (size < 2 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("FFT size must be a power of two, not " + size);
+		}
+		this.size = size;
+		this.logSize = Integer.numberOfTrailingZeros(size);
+		this.pool = pool;
+		cos = new double[size / 2];
+		sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			double angle = -2 * Math.PI * k / size;
+			cos[k] = Math.cos(angle);
+			sin[k] = Math.sin(angle);
+		}
+		reversed = new int[size];
+		for (int i = 0; i < size; i++) {
+			reversed[i] = Integer.reverse(i) >>> (32 - logSize);
+		}
+	}
+
+	// Forward transform of a grid that may be nonzero anywhere.
+	public void forward(double[] data) {
+		forward(data, size);
+	}
+
+	// Forward transform of a grid that is zero outside the corner cube
+	// [0, nonZero)^3.
+	public void forward(double[] data, int nonZero) {
+		run(data, Pass.Z, nonZero * nonZero, nonZero, false);
+		run(data, Pass.Y, nonZero * size, nonZero, false);
+		run(data, Pass.X, size * size, nonZero, false);
+	}
+
+	// Inverse transform, without the 1 / size^3 normalization, which callers
+	// can fold into whatever they multiply the spectrum by.
+	public void inverse(double[] data) {
+		run(data, Pass.Z, size * size, size, true);
+		run(data, Pass.Y, size * size, size, true);
+		run(data, Pass.X, size * size, size, true);
+	}
+
+	private enum Pass {
+		X, Y, Z
+	}
+
+	private void run(double[] data, Pass pass, int lineCount, int nonZero, boolean inverse) {
+		if (pool == null) {
+			transformLines(data, pass, 0, lineCount, nonZero, inverse);
+		} else {
+			pool.invoke(new LineTask(data, pass, 0, lineCount, nonZero, inverse));
+		}
+	}
+
+	// Transforms lines [from, to) of a pass.  The Z pass only visits lines
+	// with x, y < nonZero and the Y pass those with x < nonZero.
+	private void transformLines(double[] data, Pass pass, int from, int to, int nonZero, boolean inverse) {
+		double[] line = lines.get();
+		for (int l = from; l < to; l++) {
+			int start, stride;
+			if (pass == Pass.Z) {
+				start = ((l / nonZero) * size + l % nonZero) * size;
+				stride = 1;
+			} else if (pass == Pass.Y) {
+				start = (l / size) * size * size + l % size;
+				stride = size;
+			} else {
+				start = l;
+				stride = size * size;
+			}
+			for (int i = 0, at = start * 2; i < size; i++, at += stride * 2) {
+				int to2 = reversed[i] * 2;
+				line[to2] = data[at];
+				line[to2 + 1] = data[at + 1];
+			}
+			transform(line, inverse);
+			for (int i = 0, at = start * 2; i < size; i++, at += stride * 2) {
+				data[at] = line[i * 2];
+				data[at + 1] = line[i * 2 + 1];
+			}
+		}
+	}
+
+	// Iterative radix-2 butterflies over a line already in bit-reversed order.
+	private void transform(double[] line, boolean inverse) {
+		double sign = inverse ? -1 : 1;
+		for (int half = 1, step = size / 2; half < size; half *= 2, step /= 2) {
+			for (int block = 0; block < size; block += half * 2) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step], wi = sin[k * step] * sign;
+					int a = (block + k) * 2, b = (block + k + half) * 2;
+					double br = line[b] * wr - line[b + 1] * wi;
+					double bi = line[b] * wi + line[b + 1] * wr;
+					line[b] = line[a] - br;
+					line[b + 1] = line[a + 1] - bi;
+					line[a] += br;
+					line[a + 1] += bi;
+				}
+			}
+		}
+	}
+
+	// Splits a range of lines in half until it is small enough to run.
+	@SuppressWarnings("serial")
+	private class LineTask extends RecursiveAction {
+
+		private double[] data;
+		private Pass pass;
+		private int from, to;
+		private int nonZero;
+		private boolean inverse;
+
+		private LineTask(double[] data, Pass pass, int from, int to, int nonZero, boolean inverse) {
+			this.data = data;
+			this.pass = pass;
+			this.from = from;
+			this.to = to;
+			this.nonZero = nonZero;
+			this.inverse = inverse;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LINES_PER_TASK) {
+				transformLines(data, pass, from, to, nonZero, inverse);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new LineTask(data, pass, from, mid, nonZero, inverse),
+					new LineTask(data, pass, mid, to, nonZero, inverse));
+		}
+
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,320 @@
+package simulation;
+
+/*
+ * File:	HermiteIntegrator.java
+ * Purpose:	4th-order Hermite predictor-corrector (Makino & Aarseth 1992) with
+ * 			hierarchical block timesteps.  Every body gets its own timestep,
+ * 			rounded down to maxTimestep / 2^k, and is only corrected (and
+ * 			has its force evaluated) when that step is due.  Bodies on the
+ * 			same level share block times, so at each block time only the
+ * 			"active" bodies cost a force evaluation, while the rest are
+ * 			just predicted.  A tight binary therefore no longer drags the
+ * 			whole system down to its timestep.
+ *
+ * 			Forces and jerks are summed directly, O(N) per active body.
+ * 			Time is kept as an integer # of ticks (maxTimestep / 2^MAX_LEVEL)
+ * 			so block times line up exactly.  All bodies are synchronized at
+ * 			every multiple of maxTimestep, so advanceTo() only accepts
+ * 			multiples of it.
+ */
+public class HermiteIntegrator implements Integrator {
+
+	// Deepest timestep level:  the smallest step is maxTimestep / 2^MAX_LEVEL.
+	public static final int MAX_LEVEL = 32;
+
+	private static final long MAX_TICKS = 1L << MAX_LEVEL;
+
+	private double gravity;
+	private double softening;
+	private double maxTimestep;
+	private TimestepCriterion criterion;
+	private TimestepCriterion startCriterion;
+	private boolean sharedTimesteps = false;
+
+	private long now = 0;
+	private boolean started = false;
+	private long forceEvaluations = 0;
+	private long blockSteps = 0;
+
+	// Per body:  jerk at its own time, its own time & step (in ticks), and its
+	// position / velocity predicted to the current block time.
+	private double[] jx, jy, jz;
+	private long[] bodyTime, bodyStep;
+	private double[] px, py, pz, pvx, pvy, pvz;
+
+	// New acceleration & jerk of the active bodies.
+	private int[] active;
+	private double[] nax, nay, naz, njx, njy, njz;
+
+	public HermiteIntegrator(double gravity, double softening, double maxTimestep, TimestepCriterion criterion) {
+		this.gravity = gravity;
+		this.softening = softening;
+		this.maxTimestep = maxTimestep;
+		this.criterion = criterion;
+		this.startCriterion = new JerkCriterion(0.01);
+	}
+
+	@Override
+	public void advanceTo(NBodySystem system, double time) {
+		double blocks = time / maxTimestep;
+		long target = Math.round(blocks);
+		if (Math.abs(blocks - target) > 1e-9) {
+			throw new IllegalArgumentException("Hermite output time " + time
+					+ " is not a multiple of the maximum timestep " + maxTimestep);
+		}
+		target *= MAX_TICKS;
+		if (!started) {
+			start(system);
+		}
+		while (now < target) {
+			blockStep(system);
+		}
+	}
+
+	// Everything is recomputed from the current state before the next step,
+	// as at the start of the run.  Only valid while the bodies are
+	// synchronized, i.e. right after advanceTo().
+	@Override
+	public void reset() {
+		started = false;
+	}
+
+	// Computes every body's starting acceleration, jerk & timestep.
+	private void start(NBodySystem system) {
+		int n = system.getCount();
+		jx = new double[n];
+		jy = new double[n];
+		jz = new double[n];
+		bodyTime = new long[n];
+		bodyStep = new long[n];
+		px = new double[n];
+		py = new double[n];
+		pz = new double[n];
+		pvx = new double[n];
+		pvy = new double[n];
+		pvz = new double[n];
+		active = new int[n];
+		nax = new double[n];
+		nay = new double[n];
+		naz = new double[n];
+		njx = new double[n];
+		njy = new double[n];
+		njz = new double[n];
+
+		System.arraycopy(system.getX(), 0, px, 0, n);
+		System.arraycopy(system.getY(), 0, py, 0, n);
+		System.arraycopy(system.getZ(), 0, pz, 0, n);
+		System.arraycopy(system.getVx(), 0, pvx, 0, n);
+		System.arraycopy(system.getVy(), 0, pvy, 0, n);
+		System.arraycopy(system.getVz(), 0, pvz, 0, n);
+		for (int i = 0; i < n; i++) {
+			active[i] = i;
+		}
+		computeForces(system, n);
+
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		long shortest = MAX_TICKS;
+		for (int i = 0; i < n; i++) {
+			ax[i] = nax[i];
+			ay[i] = nay[i];
+			az[i] = naz[i];
+			jx[i] = njx[i];
+			jy[i] = njy[i];
+			jz[i] = njz[i];
+			double dt = startCriterion.timestep(length(ax[i], ay[i], az[i]), length(jx[i], jy[i], jz[i]), 0, 0);
+			bodyTime[i] = now;
+			bodyStep[i] = quantize(dt, MAX_TICKS, now);
+			shortest = Math.min(shortest, bodyStep[i]);
+		}
+		if (sharedTimesteps) {
+			for (int i = 0; i < n; i++) {
+				bodyStep[i] = shortest;
+			}
+		}
+		started = true;
+	}
+
+	// Advances the bodies whose steps end soonest, i.e. one block.
+	private void blockStep(NBodySystem system) {
+		int n = system.getCount();
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			next = Math.min(next, bodyTime[i] + bodyStep[i]);
+		}
+		int activeCount = 0;
+		for (int i = 0; i < n; i++) {
+			if (bodyTime[i] + bodyStep[i] == next) {
+				active[activeCount++] = i;
+			}
+		}
+
+		predict(system, next);
+		computeForces(system, activeCount);
+		long shortest = correct(system, next, activeCount);
+		if (sharedTimesteps) {
+			for (int i = 0; i < n; i++) {
+				bodyStep[i] = shortest;
+			}
+		}
+		now = next;
+		blockSteps++;
+	}
+
+	// Predicts every body to block time 't' with its Taylor series up to jerk.
+	private void predict(NBodySystem system, long t) {
+		int n = system.getCount();
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		for (int i = 0; i < n; i++) {
+			double dt = toTime(t - bodyTime[i]);
+			double dt2 = dt * dt / 2;
+			double dt3 = dt2 * dt / 3;
+			px[i] = x[i] + vx[i] * dt + ax[i] * dt2 + jx[i] * dt3;
+			py[i] = y[i] + vy[i] * dt + ay[i] * dt2 + jy[i] * dt3;
+			pz[i] = z[i] + vz[i] * dt + az[i] * dt2 + jz[i] * dt3;
+			pvx[i] = vx[i] + ax[i] * dt + jx[i] * dt2;
+			pvy[i] = vy[i] + ay[i] * dt + jy[i] * dt2;
+			pvz[i] = vz[i] + az[i] * dt + jz[i] * dt2;
+		}
+	}
+
+	// Sums the acceleration & jerk on the active bodies from the predicted
+	// positions & velocities of every body.
+	private void computeForces(NBodySystem system, int activeCount) {
+		int n = system.getCount();
+		double[] mass = system.getMass();
+		double eps2 = softening * softening;
+		for (int a = 0; a < activeCount; a++) {
+			int i = active[a];
+			double xi = px[i], yi = py[i], zi = pz[i];
+			double vxi = pvx[i], vyi = pvy[i], vzi = pvz[i];
+			double sax = 0, say = 0, saz = 0, sjx = 0, sjy = 0, sjz = 0;
+			for (int j = 0; j < n; j++) {
+				if (j == i) {
+					continue;
+				}
+				double dx = px[j] - xi, dy = py[j] - yi, dz = pz[j] - zi;
+				double dvx = pvx[j] - vxi, dvy = pvy[j] - vyi, dvz = pvz[j] - vzi;
+				double r2 = dx * dx + dy * dy + dz * dz + eps2;
+				double inv = 1 / r2;
+				double inv3 = mass[j] * inv * Math.sqrt(inv);
+				double rv = 3 * (dx * dvx + dy * dvy + dz * dvz) * inv;
+				sax += dx * inv3;
+				say += dy * inv3;
+				saz += dz * inv3;
+				sjx += (dvx - rv * dx) * inv3;
+				sjy += (dvy - rv * dy) * inv3;
+				sjz += (dvz - rv * dz) * inv3;
+			}
+			nax[i] = sax * gravity;
+			nay[i] = say * gravity;
+			naz[i] = saz * gravity;
+			njx[i] = sjx * gravity;
+			njy[i] = sjy * gravity;
+			njz[i] = sjz * gravity;
+		}
+		forceEvaluations += activeCount;
+	}
+
+	// Applies the Hermite corrector to the active bodies and picks their next
+	// timesteps.  Returns the shortest new step.
+	private long correct(NBodySystem system, long t, int activeCount) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		long shortest = MAX_TICKS;
+		for (int a = 0; a < activeCount; a++) {
+			int i = active[a];
+			double dt = toTime(t - bodyTime[i]);
+			double dt2 = dt * dt;
+			double dt3 = dt2 * dt;
+
+			// 2nd & 3rd derivatives of the acceleration at the start of the
+			// step, from the Hermite interpolation of a and a'.
+			double sx = (-6 * (ax[i] - nax[i]) - dt * (4 * jx[i] + 2 * njx[i])) / dt2;
+			double sy = (-6 * (ay[i] - nay[i]) - dt * (4 * jy[i] + 2 * njy[i])) / dt2;
+			double sz = (-6 * (az[i] - naz[i]) - dt * (4 * jz[i] + 2 * njz[i])) / dt2;
+			double cx = (12 * (ax[i] - nax[i]) + 6 * dt * (jx[i] + njx[i])) / dt3;
+			double cy = (12 * (ay[i] - nay[i]) + 6 * dt * (jy[i] + njy[i])) / dt3;
+			double cz = (12 * (az[i] - naz[i]) + 6 * dt * (jz[i] + njz[i])) / dt3;
+
+			double p4 = dt2 * dt2 / 24, p5 = p4 * dt / 5;
+			double v3 = dt3 / 6, v4 = p4;
+			x[i] = px[i] + sx * p4 + cx * p5;
+			y[i] = py[i] + sy * p4 + cy * p5;
+			z[i] = pz[i] + sz * p4 + cz * p5;
+			vx[i] = pvx[i] + sx * v3 + cx * v4;
+			vy[i] = pvy[i] + sy * v3 + cy * v4;
+			vz[i] = pvz[i] + sz * v3 + cz * v4;
+			ax[i] = nax[i];
+			ay[i] = nay[i];
+			az[i] = naz[i];
+			jx[i] = njx[i];
+			jy[i] = njy[i];
+			jz[i] = njz[i];
+
+			// Snap at the end of the step; crackle is constant over it.
+			sx += cx * dt;
+			sy += cy * dt;
+			sz += cz * dt;
+			double wanted = criterion.timestep(length(ax[i], ay[i], az[i]), length(jx[i], jy[i], jz[i]),
+					length(sx, sy, sz), length(cx, cy, cz));
+			long step = quantize(wanted, bodyStep[i] * 2, t);
+			bodyTime[i] = t;
+			bodyStep[i] = step;
+			shortest = Math.min(shortest, step);
+		}
+		return shortest;
+	}
+
+	// Rounds a timestep down to a power-of-two # of ticks, no longer than
+	// 'limit' or maxTimestep, that divides 't' so the body stays on the
+	// block grid.
+	private long quantize(double dt, long limit, long t) {
+		long step = Math.min(limit, MAX_TICKS);
+		while (step > 1 && (toTime(step) > dt || t % step != 0)) {
+			step >>= 1;
+		}
+		return step;
+	}
+
+	private double toTime(long ticks) {
+		return ticks * (maxTimestep / MAX_TICKS);
+	}
+
+	private static double length(double x, double y, double z) {
+		return Math.sqrt(x * x + y * y + z * z);
+	}
+
+	// Gives every body the shortest individual timestep instead, which is
+	// what a global-timestep Hermite code does.  For comparison only.
+	public void setSharedTimesteps(boolean sharedTimesteps) {
+		this.sharedTimesteps = sharedTimesteps;
+	}
+
+	// Criterion for the very first step, before snap & crackle are known.
+	public void setStartCriterion(TimestepCriterion startCriterion) {
+		this.startCriterion = startCriterion;
+	}
+
+	public double getMaxTimestep() {
+		return maxTimestep;
+	}
+
+	// # of block times visited so far.
+	public long getBlockSteps() {
+		return blockSteps;
+	}
+
+	@Override
+	public double getTime() {
+		return toTime(now);
+	}
+
+	@Override
+	public long getForceEvaluations() {
+		return forceEvaluations;
+	}
+
+}
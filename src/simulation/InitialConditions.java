@@ -0,0 +1,104 @@
+package simulation;
+
+import java.util.Random;
+
+/*
+ * File:	InitialConditions.java
+ * Purpose:	Builds starting states for simulations run inside the engine.
+ */
+public class InitialConditions {
+
+	// Samples a Plummer sphere of 'count' equal-mass bodies in virial
+	// equilibrium (Aarseth, Henon & Wielen 1974), centered on the origin and
+	// at rest as a whole.
+	public static NBodySystem plummerSphere(int count, double totalMass, double scaleRadius, double gravity,
+			long seed) {
+		Random random = new Random(seed);
+		NBodySystem system = new NBodySystem(count);
+		double velocityScale = Math.sqrt(gravity * totalMass / scaleRadius);
+		for (int i = 0; i < count; i++) {
+			// Radius from the inverted cumulative mass profile, cutting off the
+			// few bodies that would land absurdly far out.
+			double r;
+			do {
+				r = 1.0 / Math.sqrt(Math.pow(random.nextDouble(), -2.0 / 3.0) - 1.0);
+			} while (r > 20);
+
+			// Speed as a fraction q of the local escape speed, by rejection
+			// sampling of q^2 (1 - q^2)^3.5.
+			double q;
+			do {
+				q = random.nextDouble();
+			} while (0.1 * random.nextDouble() > q * q * Math.pow(1 - q * q, 3.5));
+			double v = q * Math.sqrt(2.0) * Math.pow(1 + r * r, -0.25);
+
+			double[] position = randomDirection(random, r * scaleRadius);
+			double[] velocity = randomDirection(random, v * velocityScale);
+			system.setBody(i, position[0], position[1], position[2], velocity[0], velocity[1], velocity[2],
+					totalMass / count);
+		}
+		moveToCenterOfMassFrame(system);
+		return system;
+	}
+
+	// Uniformly fills a cube of the given side length, centered on the origin,
+	// with equal-mass bodies at rest.
+	public static NBodySystem uniformCube(int count, double totalMass, double side, long seed) {
+		Random random = new Random(seed);
+		NBodySystem system = new NBodySystem(count);
+		for (int i = 0; i < count; i++) {
+			system.setBody(i, (random.nextDouble() - 0.5) * side, (random.nextDouble() - 0.5) * side,
+					(random.nextDouble() - 0.5) * side, 0, 0, 0, totalMass / count);
+		}
+		return system;
+	}
+
+	// Starts equal-mass bodies at rest from the positions of a trajectory frame.
+	public static NBodySystem fromFrame(float[] frame, int count, double totalMass) {
+		NBodySystem system = new NBodySystem(count);
+		for (int i = 0; i < count; i++) {
+			system.setBody(i, frame[i * 3], frame[i * 3 + 1], frame[i * 3 + 2], 0, 0, 0, totalMass / count);
+		}
+		return system;
+	}
+
+	// Shifts positions & velocities so the center of mass sits still at the
+	// origin.
+	public static void moveToCenterOfMassFrame(NBodySystem system) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] vx = system.getVx(), vy = system.getVy(), vz = system.getVz();
+		double[] mass = system.getMass();
+		double m = 0, cx = 0, cy = 0, cz = 0, cvx = 0, cvy = 0, cvz = 0;
+		for (int i = 0; i < system.getCount(); i++) {
+			m += mass[i];
+			cx += mass[i] * x[i];
+			cy += mass[i] * y[i];
+			cz += mass[i] * z[i];
+			cvx += mass[i] * vx[i];
+			cvy += mass[i] * vy[i];
+			cvz += mass[i] * vz[i];
+		}
+		if (m == 0) {
+			return;
+		}
+		for (int i = 0; i < system.getCount(); i++) {
+			x[i] -= cx / m;
+			y[i] -= cy / m;
+			z[i] -= cz / m;
+			vx[i] -= cvx / m;
+			vy[i] -= cvy / m;
+			vz[i] -= cvz / m;
+		}
+	}
+
+	// Returns a vector of the given length pointing in a uniformly random
+	// direction.
+	private static double[] randomDirection(Random random, double length) {
+		double cosTheta = 2 * random.nextDouble() - 1;
+		double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+		double phi = 2 * Math.PI * random.nextDouble();
+		return new double[] { length * sinTheta * Math.cos(phi), length * sinTheta * Math.sin(phi),
+				length * cosTheta };
+	}
+
+}
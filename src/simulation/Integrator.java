@@ -0,0 +1,26 @@
+package simulation;
+
+/*
+ * File:	Integrator.java
+ * Purpose:	Advances an NBodySystem through time.  Whatever steps an
+ * 			integrator takes internally, after advanceTo() returns every body
+ * 			is at the requested time, so frames can be sampled at a fixed
+ * 			cadence.
+ */
+public interface Integrator {
+
+	// Advances every body of the system to the given time.
+	public void advanceTo(NBodySystem system, double time);
+
+	// Drops any state kept about the system, e.g. after bodies were merged or
+	// their velocities changed from outside.
+	public void reset();
+
+	// Time the system has been advanced to.
+	public double getTime();
+
+	// Total # of single-body force evaluations so far, i.e. how many times the
+	// total force on one body has been computed.
+	public long getForceEvaluations();
+
+}
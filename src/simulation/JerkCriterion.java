@@ -0,0 +1,26 @@
+package simulation;
+
+/*
+ * File:	JerkCriterion.java
+ * Purpose:	Simplest timestep criterion:  dt = eta |a| / |a'|, i.e. a fixed
+ * 			fraction of the time over which the acceleration changes.  Also
+ * 			used to pick the very first timestep, before the higher
+ * 			derivatives are known.
+ */
+public class JerkCriterion implements TimestepCriterion {
+
+	private double eta;
+
+	public JerkCriterion(double eta) {
+		this.eta = eta;
+	}
+
+	@Override
+	public double timestep(double acceleration, double jerk, double snap, double crackle) {
+		if (jerk == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return eta * acceleration / jerk;
+	}
+
+}
@@ -0,0 +1,20 @@
+package simulation;
+
+/*
+ * File:	MergePolicy.java
+ * Purpose:	Decides what happens when two bodies overlap.
+ */
+public interface MergePolicy {
+
+	// What collide() did:  nothing (e.g. the bodies were already moving
+	// apart), changed the bodies, or absorbed j into i.
+	public static final int UNCHANGED = 0;
+	public static final int CHANGED = 1;
+	public static final int ABSORBED = 2;
+
+	// Resolves a collision between bodies i & j.  Returns ABSORBED if j has
+	// been absorbed into i and should be removed, CHANGED if the bodies were
+	// changed some other way, or UNCHANGED if they were left alone.
+	public int collide(NBodySystem system, int i, int j);
+
+}
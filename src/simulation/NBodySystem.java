@@ -0,0 +1,163 @@
+package simulation;
+
+/*
+ * File:	NBodySystem.java
+ * Purpose:	Holds the state of every body in a simulation as a structure
+ * 			of arrays:  one primitive double array per component, indexed
+ * 			by body.  Keeping each component contiguous lets the force
+ * 			kernels stream through memory without chasing object pointers.
+ *
+ * 			Bodies can be removed (e.g. when two merge), which moves the last
+ * 			body into the gap, so each body also keeps the id (starting
+ * 			index) it was created with.
+ */
+public class NBodySystem {
+
+	private int count;
+	private double[] x, y, z;
+	private double[] vx, vy, vz;
+	private double[] ax, ay, az;
+	private double[] mass;
+	private double[] radius;
+	private int[] id;
+
+	public NBodySystem(int count) {
+		this.count = count;
+		x = new double[count];
+		y = new double[count];
+		z = new double[count];
+		vx = new double[count];
+		vy = new double[count];
+		vz = new double[count];
+		ax = new double[count];
+		ay = new double[count];
+		az = new double[count];
+		mass = new double[count];
+		radius = new double[count];
+		id = new int[count];
+		for (int i = 0; i < count; i++) {
+			id[i] = i;
+		}
+	}
+
+	// Sets the position, velocity & mass of a body.
+	public void setBody(int i, double px, double py, double pz, double pvx, double pvy, double pvz, double m) {
+		x[i] = px;
+		y[i] = py;
+		z[i] = pz;
+		vx[i] = pvx;
+		vy[i] = pvy;
+		vz[i] = pvz;
+		mass[i] = m;
+	}
+
+	// Gives every body the same radius.
+	public void setRadius(double r) {
+		for (int i = 0; i < count; i++) {
+			radius[i] = r;
+		}
+	}
+
+	// Removes body i by moving the last body into its place.
+	public void removeBody(int i) {
+		int last = --count;
+		x[i] = x[last];
+		y[i] = y[last];
+		z[i] = z[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+		vz[i] = vz[last];
+		ax[i] = ax[last];
+		ay[i] = ay[last];
+		az[i] = az[last];
+		mass[i] = mass[last];
+		radius[i] = radius[last];
+		id[i] = id[last];
+	}
+
+	// Moves every body by the given offset.
+	public void translate(double dx, double dy, double dz) {
+		for (int i = 0; i < count; i++) {
+			x[i] += dx;
+			y[i] += dy;
+			z[i] += dz;
+		}
+	}
+
+	// Writes the positions of every body into 'dest' as x, y, z triples,
+	// the same layout as a trajectory frame.
+	public void writePositions(float[] dest) {
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			dest[offset++] = (float) x[i];
+			dest[offset++] = (float) y[i];
+			dest[offset++] = (float) z[i];
+		}
+	}
+
+	// Writes x, y, z & radius of every body into the slot of its id, so
+	// frames keep the same layout as bodies are removed.  Slots of removed
+	// bodies are left alone.
+	public void writeBodies(float[] dest) {
+		for (int i = 0; i < count; i++) {
+			int offset = id[i] * 4;
+			dest[offset] = (float) x[i];
+			dest[offset + 1] = (float) y[i];
+			dest[offset + 2] = (float) z[i];
+			dest[offset + 3] = (float) radius[i];
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double[] getX() {
+		return x;
+	}
+
+	public double[] getY() {
+		return y;
+	}
+
+	public double[] getZ() {
+		return z;
+	}
+
+	public double[] getVx() {
+		return vx;
+	}
+
+	public double[] getVy() {
+		return vy;
+	}
+
+	public double[] getVz() {
+		return vz;
+	}
+
+	public double[] getAx() {
+		return ax;
+	}
+
+	public double[] getAy() {
+		return ay;
+	}
+
+	public double[] getAz() {
+		return az;
+	}
+
+	public double[] getMass() {
+		return mass;
+	}
+
+	public double[] getRadius() {
+		return radius;
+	}
+
+	public int[] getId() {
+		return id;
+	}
+
+}
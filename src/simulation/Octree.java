@@ -0,0 +1,340 @@
+package simulation;
+
+/*
+ * File:	Octree.java
+ * Purpose:	Octree over the bodies of an NBodySystem, stored as a flat pool
+ * 			of nodes in primitive arrays rather than one object per node.
+ * 			Bodies are reordered (through the 'order' index array) so that
+ * 			every node covers a contiguous range of them, and the children
+ * 			of a node sit next to each other in the pool after their parent.
+ *
+ * 			Between rebuilds the tree can be refit:  the structure is kept
+ * 			and only each node's mass, center of mass and bounding box are
+ * 			recomputed from the bodies' new positions.  Nodes track how far
+ * 			their bounds have grown past the cell they were built for, so
+ * 			callers can tell when the tree has gone stale.
+ */
+public class Octree {
+
+	// Most bodies a node may hold before it is split.
+	private static final int DEFAULT_LEAF_SIZE = 8;
+	// Deepest a node may be, so coincident bodies can't recurse forever.
+	public static final int MAX_DEPTH = 48;
+	// Largest stack a depth-first walk of the tree can need.
+	public static final int MAX_STACK = MAX_DEPTH * 7 + 8;
+
+	private int leafSize;
+
+	// Bodies in tree order.  Node n covers order[bodyStart[n] .. bodyStart[n] + bodyCount[n]).
+	private int[] order = new int[0];
+	private int[] octant = new int[0];
+	private int[] scratch = new int[0];
+	// Per-split bookkeeping, reused so that building allocates nothing once
+	// the pools are big enough.
+	private int[] octantCounts = new int[8];
+	private int[] octantFill = new int[8];
+
+	// Node pool.  Children of node n are nodes childStart[n] .. childStart[n] + childCount[n].
+	private int nodeCount;
+	private int[] bodyStart, bodyCount;
+	private int[] childStart, childCount;
+	private double[] mass;
+	private double[] comX, comY, comZ;
+	private double[] minX, minY, minZ;
+	private double[] maxX, maxY, maxZ;
+	// Side length of the cube each node was built for.
+	private double[] cellSize;
+	// Longest side of each node's bounds, and the distance between its center
+	// of mass & the middle of its bounds.  Cached by refit() for the solvers.
+	private double[] size;
+	private double[] centerOffset;
+
+	public Octree() {
+		this(DEFAULT_LEAF_SIZE);
+	}
+
+	public Octree(int leafSize) {
+		this.leafSize = leafSize;
+		allocateNodes(64);
+	}
+
+	// Builds the tree from scratch around the current positions.
+	public void build(NBodySystem system) {
+		int n = system.getCount();
+		if (order.length < n) {
+			order = new int[n];
+			octant = new int[n];
+			scratch = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		nodeCount = 0;
+		if (n == 0) {
+			return;
+		}
+
+		// Root cube enclosing every body.
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double loX = x[0], loY = y[0], loZ = z[0], hiX = x[0], hiY = y[0], hiZ = z[0];
+		for (int i = 1; i < n; i++) {
+			loX = Math.min(loX, x[i]);
+			loY = Math.min(loY, y[i]);
+			loZ = Math.min(loZ, z[i]);
+			hiX = Math.max(hiX, x[i]);
+			hiY = Math.max(hiY, y[i]);
+			hiZ = Math.max(hiZ, z[i]);
+		}
+		double size = Math.max(hiX - loX, Math.max(hiY - loY, hiZ - loZ));
+		size = size > 0 ? size * 1.0001 : 1;
+		int root = newNode(0, n, size);
+		split(system, root, (loX + hiX) * 0.5, (loY + hiY) * 0.5, (loZ + hiZ) * 0.5, size, 0);
+		refit(system);
+	}
+
+	// Recursively splits a node into its non-empty octants.
+	private void split(NBodySystem system, int node, double cx, double cy, double cz, double size, int depth) {
+		int start = bodyStart[node];
+		int count = bodyCount[node];
+		if (count <= leafSize || depth >= MAX_DEPTH) {
+			return;
+		}
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+
+		// Counting sort of the node's bodies by octant.
+		for (int oct = 0; oct < 8; oct++) {
+			octantCounts[oct] = 0;
+		}
+		for (int k = start; k < start + count; k++) {
+			int body = order[k];
+			int oct = (x[body] >= cx ? 1 : 0) | (y[body] >= cy ? 2 : 0) | (z[body] >= cz ? 4 : 0);
+			octant[k] = oct;
+			octantCounts[oct]++;
+		}
+		for (int oct = 0, running = start; oct < 8; oct++) {
+			octantFill[oct] = running;
+			running += octantCounts[oct];
+		}
+		for (int k = start; k < start + count; k++) {
+			scratch[octantFill[octant[k]]++] = order[k];
+		}
+		System.arraycopy(scratch, start, order, start, count);
+
+		// Allocate all the children together, then recurse into each.
+		double half = size * 0.5;
+		double quarter = size * 0.25;
+		int first = nodeCount;
+		for (int oct = 0, running = start; oct < 8; oct++) {
+			if (octantCounts[oct] > 0) {
+				newNode(running, octantCounts[oct], half);
+			}
+			running += octantCounts[oct];
+		}
+		childStart[node] = first;
+		childCount[node] = nodeCount - first;
+		for (int child = first; child < first + childCount[node]; child++) {
+			// Work out which octant the child is from one of its bodies.
+			int body = order[bodyStart[child]];
+			double qx = x[body] >= cx ? quarter : -quarter;
+			double qy = y[body] >= cy ? quarter : -quarter;
+			double qz = z[body] >= cz ? quarter : -quarter;
+			split(system, child, cx + qx, cy + qy, cz + qz, half, depth + 1);
+		}
+	}
+
+	// Recomputes mass, center of mass & bounds of every node from the current
+	// positions without changing the structure.  Children always come after
+	// their parent in the pool, so one backwards sweep updates leaves first.
+	// Returns the largest ratio of a node's bounds to the cell it was built for.
+	public double refit(NBodySystem system) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] m = system.getMass();
+		double worstGrowth = 0;
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			double nodeMass = 0, cx = 0, cy = 0, cz = 0;
+			double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY, loZ = Double.POSITIVE_INFINITY;
+			double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY, hiZ = Double.NEGATIVE_INFINITY;
+			if (childCount[node] == 0) {
+				int end = bodyStart[node] + bodyCount[node];
+				for (int k = bodyStart[node]; k < end; k++) {
+					int body = order[k];
+					nodeMass += m[body];
+					cx += m[body] * x[body];
+					cy += m[body] * y[body];
+					cz += m[body] * z[body];
+					loX = Math.min(loX, x[body]);
+					loY = Math.min(loY, y[body]);
+					loZ = Math.min(loZ, z[body]);
+					hiX = Math.max(hiX, x[body]);
+					hiY = Math.max(hiY, y[body]);
+					hiZ = Math.max(hiZ, z[body]);
+				}
+			} else {
+				int end = childStart[node] + childCount[node];
+				for (int child = childStart[node]; child < end; child++) {
+					nodeMass += mass[child];
+					cx += mass[child] * comX[child];
+					cy += mass[child] * comY[child];
+					cz += mass[child] * comZ[child];
+					loX = Math.min(loX, minX[child]);
+					loY = Math.min(loY, minY[child]);
+					loZ = Math.min(loZ, minZ[child]);
+					hiX = Math.max(hiX, maxX[child]);
+					hiY = Math.max(hiY, maxY[child]);
+					hiZ = Math.max(hiZ, maxZ[child]);
+				}
+			}
+			mass[node] = nodeMass;
+			if (nodeMass > 0) {
+				comX[node] = cx / nodeMass;
+				comY[node] = cy / nodeMass;
+				comZ[node] = cz / nodeMass;
+			} else {
+				// Massless bodies only:  use the middle of the bounds.
+				comX[node] = (loX + hiX) * 0.5;
+				comY[node] = (loY + hiY) * 0.5;
+				comZ[node] = (loZ + hiZ) * 0.5;
+			}
+			minX[node] = loX;
+			minY[node] = loY;
+			minZ[node] = loZ;
+			maxX[node] = hiX;
+			maxY[node] = hiY;
+			maxZ[node] = hiZ;
+			size[node] = Math.max(hiX - loX, Math.max(hiY - loY, hiZ - loZ));
+			double ox = comX[node] - (loX + hiX) * 0.5;
+			double oy = comY[node] - (loY + hiY) * 0.5;
+			double oz = comZ[node] - (loZ + hiZ) * 0.5;
+			centerOffset[node] = Math.sqrt(ox * ox + oy * oy + oz * oz);
+			worstGrowth = Math.max(worstGrowth, size[node] / cellSize[node]);
+		}
+		return worstGrowth;
+	}
+
+	public boolean isLeaf(int node) {
+		return childCount[node] == 0;
+	}
+
+	private int newNode(int start, int count, double size) {
+		if (nodeCount == bodyStart.length) {
+			allocateNodes(nodeCount * 2);
+		}
+		int node = nodeCount++;
+		bodyStart[node] = start;
+		bodyCount[node] = count;
+		childStart[node] = 0;
+		childCount[node] = 0;
+		cellSize[node] = size;
+		return node;
+	}
+
+	// Grows the node pool, keeping the nodes already in it.
+	private void allocateNodes(int capacity) {
+		bodyStart = grow(bodyStart, capacity);
+		bodyCount = grow(bodyCount, capacity);
+		childStart = grow(childStart, capacity);
+		childCount = grow(childCount, capacity);
+		mass = grow(mass, capacity);
+		comX = grow(comX, capacity);
+		comY = grow(comY, capacity);
+		comZ = grow(comZ, capacity);
+		minX = grow(minX, capacity);
+		minY = grow(minY, capacity);
+		minZ = grow(minZ, capacity);
+		maxX = grow(maxX, capacity);
+		maxY = grow(maxY, capacity);
+		maxZ = grow(maxZ, capacity);
+		cellSize = grow(cellSize, capacity);
+		size = grow(size, capacity);
+		centerOffset = grow(centerOffset, capacity);
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+
+	private static double[] grow(double[] array, int capacity) {
+		double[] grown = new double[capacity];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int[] getOrder() {
+		return order;
+	}
+
+	public int[] getBodyStart() {
+		return bodyStart;
+	}
+
+	public int[] getBodyCount() {
+		return bodyCount;
+	}
+
+	public int[] getChildStart() {
+		return childStart;
+	}
+
+	public int[] getChildCount() {
+		return childCount;
+	}
+
+	public double[] getMass() {
+		return mass;
+	}
+
+	public double[] getComX() {
+		return comX;
+	}
+
+	public double[] getComY() {
+		return comY;
+	}
+
+	public double[] getComZ() {
+		return comZ;
+	}
+
+	public double[] getMinX() {
+		return minX;
+	}
+
+	public double[] getMinY() {
+		return minY;
+	}
+
+	public double[] getMinZ() {
+		return minZ;
+	}
+
+	public double[] getMaxX() {
+		return maxX;
+	}
+
+	public double[] getMaxY() {
+		return maxY;
+	}
+
+	public double[] getMaxZ() {
+		return maxZ;
+	}
+
+	public double[] getSize() {
+		return size;
+	}
+
+	public double[] getCenterOffset() {
+		return centerOffset;
+	}
+
+}
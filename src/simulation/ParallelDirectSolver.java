@@ -0,0 +1,191 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * File:	ParallelDirectSolver.java
+ * Purpose:	Multi-core version of DirectSummationSolver.  Bodies are cut into
+ * 			cache-sized tiles, and every pair of tiles (I, J >= I) is visited
+ * 			once, applying each pair interaction to both bodies.  Since two
+ * 			workers may touch the same body, each worker sums into its own
+ * 			private acceleration arrays, and those are added together at the
+ * 			end in worker order:  no locks or atomics in the inner loops.
+ *
+ * 			Normally workers grab tile rows from a shared counter, biggest
+ * 			rows first, so a worker that falls behind doesn't hold the others
+ * 			up.  In deterministic mode the rows are instead dealt out to the
+ * 			workers in a fixed pattern, so for a given worker count every sum
+ * 			happens in the same order and results are bitwise reproducible.
+ */
+public class ParallelDirectSolver implements ForceSolver {
+
+	// Bodies per tile:  two tiles' positions, masses & accumulators fit in L1.
+	private static final int TILE_SIZE = 128;
+
+	private double gravity;
+	private double softening2;
+	private ForkJoinPool pool;
+	private boolean deterministic;
+
+	// One worker task & accumulator set per slot, reused every step.
+	private int workers;
+	private TileWorker[] tileWorkers;
+	private double[][] accX, accY, accZ;
+	private RecursiveAction root;
+
+	// State of the step in progress, shared with the workers.
+	private NBodySystem system;
+	private int tiles;
+	private AtomicInteger nextRow = new AtomicInteger();
+
+	public ParallelDirectSolver(double gravity, double softening, ForkJoinPool pool, boolean deterministic) {
+		this.gravity = gravity;
+		this.softening2 = softening * softening;
+		this.pool = pool;
+		this.deterministic = deterministic;
+		workers = pool.getParallelism();
+		tileWorkers = new TileWorker[workers];
+		for (int w = 0; w < workers; w++) {
+			tileWorkers[w] = new TileWorker(w);
+		}
+		accX = new double[workers][0];
+		accY = new double[workers][0];
+		accZ = new double[workers][0];
+		root = new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tileWorkers);
+			}
+		};
+	}
+
+	public ParallelDirectSolver(double gravity, double softening) {
+		this(gravity, softening, ForkJoinPool.commonPool(), false);
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		int n = system.getCount();
+		this.system = system;
+		tiles = (n + TILE_SIZE - 1) / TILE_SIZE;
+		nextRow.set(0);
+		if (accX[0].length < n) {
+			for (int w = 0; w < workers; w++) {
+				accX[w] = new double[n];
+				accY[w] = new double[n];
+				accZ[w] = new double[n];
+			}
+		}
+
+		root.reinitialize();
+		for (TileWorker worker : tileWorkers) {
+			worker.reinitialize();
+		}
+		pool.invoke(root);
+
+		// Add up the workers' contributions, always in worker order.
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		for (int i = 0; i < n; i++) {
+			double sx = 0, sy = 0, sz = 0;
+			for (int w = 0; w < workers; w++) {
+				sx += accX[w][i];
+				sy += accY[w][i];
+				sz += accZ[w][i];
+			}
+			ax[i] = sx * gravity;
+			ay[i] = sy * gravity;
+			az[i] = sz * gravity;
+		}
+		this.system = null;
+	}
+
+	// Hands out the next tile row for a worker, or -1 when there are none left.
+	// Rows are numbered so that row 0 (the longest, since it pairs with every
+	// later tile) comes first.
+	private int claimRow(int worker, int claimed) {
+		if (!deterministic) {
+			int row = nextRow.getAndIncrement();
+			return row < tiles ? row : -1;
+		}
+		// Deal rows out in a zig-zag (0..W-1, then W-1..0, ...) so every worker
+		// gets a similar mix of long & short rows.
+		int round = claimed;
+		int row = (round % 2 == 0) ? round * workers + worker : round * workers + (workers - 1 - worker);
+		return row < tiles ? row : -1;
+	}
+
+	@SuppressWarnings("serial")
+	private class TileWorker extends RecursiveAction {
+
+		private int index;
+
+		private TileWorker(int index) {
+			this.index = index;
+		}
+
+		@Override
+		protected void compute() {
+			int n = system.getCount();
+			double[] sx = accX[index], sy = accY[index], sz = accZ[index];
+			for (int i = 0; i < n; i++) {
+				sx[i] = 0;
+				sy[i] = 0;
+				sz[i] = 0;
+			}
+			int claimed = 0;
+			for (int row = claimRow(index, claimed); row >= 0; row = claimRow(index, ++claimed)) {
+				for (int column = row; column < tiles; column++) {
+					interactTiles(row, column, sx, sy, sz);
+				}
+			}
+		}
+
+		// Applies every pair between tile 'row' and tile 'column' to both bodies.
+		private void interactTiles(int row, int column, double[] sx, double[] sy, double[] sz) {
+			int n = system.getCount();
+			double[] x = system.getX(), y = system.getY(), z = system.getZ();
+			double[] mass = system.getMass();
+			int iEnd = Math.min(n, (row + 1) * TILE_SIZE);
+			int jEnd = Math.min(n, (column + 1) * TILE_SIZE);
+			for (int i = row * TILE_SIZE; i < iEnd; i++) {
+				double xi = x[i], yi = y[i], zi = z[i];
+				double mi = mass[i];
+				double axi = 0, ayi = 0, azi = 0;
+				int jStart = row == column ? i + 1 : column * TILE_SIZE;
+				for (int j = jStart; j < jEnd; j++) {
+					double dx = x[j] - xi;
+					double dy = y[j] - yi;
+					double dz = z[j] - zi;
+					double r2 = dx * dx + dy * dy + dz * dz + softening2;
+					double invR = 1.0 / Math.sqrt(r2);
+					double invR3 = invR * invR * invR;
+					double sj = mass[j] * invR3;
+					double si = mi * invR3;
+					axi += dx * sj;
+					ayi += dy * sj;
+					azi += dz * sj;
+					sx[j] -= dx * si;
+					sy[j] -= dy * si;
+					sz[j] -= dz * si;
+				}
+				sx[i] += axi;
+				sy[i] += ayi;
+				sz[i] += azi;
+			}
+		}
+
+	}
+
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+}
@@ -0,0 +1,364 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * File:	ParticleMeshSolver.java
+ * Purpose:	Particle-Mesh gravity for large, smooth distributions.  Mass is
+ * 			spread onto a cubic grid with cloud-in-cell weights, Poisson's
+ * 			equation is solved with a 3D FFT, and the acceleration is taken
+ * 			from the potential by central differences and interpolated back
+ * 			to the bodies with the same CIC weights.  The cost is
+ * 			O(N + G^3 log G) whatever the clustering, and the only memory per
+ * 			body is one int; forces are smoothed below a couple of cells, so
+ * 			this suits cosmology-style runs rather than close encounters.
+ *
+ * 			Two boundary modes:
+ * 				periodic	the box repeats forever.  Poisson's equation is
+ * 							solved in k-space with the 7-point Laplacian.
+ * 				isolated	nothing outside the box.  The grid is zero-padded
+ * 							to twice the size and convolved with -1 / r
+ * 							(Hockney & Eastwood), whose transform is cached.
+ * 			The box can be fixed with setBox(), otherwise it is fit around
+ * 			the bodies on every call.
+ */
+public class ParticleMeshSolver implements ForceSolver {
+
+	// Bodies or cells handled by one task before it stops splitting.
+	private static final int BODIES_PER_TASK = 4096;
+	private static final int SLABS_PER_TASK = 2;
+
+	private double gravity;
+	private int gridSize;
+	private boolean periodic;
+	private ForkJoinPool pool;
+
+	// Side of the FFT grid:  gridSize, or twice that when zero-padded.
+	private int fftSize;
+	private FourierTransform3D fft;
+	private double[] grid;
+	// Transform of the isolated Green's function -1 / |n|, computed once.
+	private double[] green;
+	// sin^2(pi n / fftSize), for the periodic Laplacian.
+	private double[] sinSquared;
+
+	private boolean fixedBox = false;
+	private double originX, originY, originZ;
+	private double cellSize;
+
+	// Bodies sorted by the x slab they fall in, for the parallel deposit.
+	private int[] slabStart;
+	private int[] slabBodies = new int[0];
+
+	public ParticleMeshSolver(double gravity, int gridSize, boolean periodic) {
+		this(gravity, gridSize, periodic, null);
+	}
+
+	// Spreads every pass over the given pool (or runs them on the calling
+	// thread if it is null).  gridSize must be a power of two.
+	public ParticleMeshSolver(double gravity, int gridSize, boolean periodic, ForkJoinPool pool) {
+		if (gridSize < 4 || Integer.bitCount(gridSize) != 1) {
+			throw new IllegalArgumentException("PM grid size must be a power of two >= 4, not " + gridSize);
+		}
+		this.gravity = gravity;
+		this.gridSize = gridSize;
+		this.periodic = periodic;
+		this.pool = pool;
+		fftSize = periodic ? gridSize : gridSize * 2;
+		fft = new FourierTransform3D(fftSize, pool);
+		grid = new double[fftSize * fftSize * fftSize * 2];
+		slabStart = new int[gridSize + 1];
+		sinSquared = new double[fftSize];
+		for (int n = 0; n < fftSize; n++) {
+			double s = Math.sin(Math.PI * n / fftSize);
+			sinSquared[n] = s * s;
+		}
+	}
+
+	// Fixes the box to the cube with the given lowest corner & side.  In
+	// periodic mode bodies outside it are wrapped back in; in isolated mode
+	// they must stay at least a cell inside it.
+	public void setBox(double x, double y, double z, double side) {
+		fixedBox = true;
+		originX = x;
+		originY = y;
+		originZ = z;
+		cellSize = side / gridSize;
+	}
+
+	// Goes back to fitting the box around the bodies on every call.
+	public void clearBox() {
+		fixedBox = false;
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		if (system.getCount() == 0) {
+			return;
+		}
+		if (!fixedBox) {
+			fitBox(system);
+		}
+		if (!periodic && green == null) {
+			computeGreen();
+		}
+		sortIntoSlabs(system);
+		Arrays.fill(grid, 0);
+
+		// Even & odd pairs of slabs separately, so no two tasks ever deposit
+		// into the same cells.
+		run(system, Phase.DEPOSIT_EVEN, gridSize / SLABS_PER_TASK);
+		run(system, Phase.DEPOSIT_ODD, gridSize / SLABS_PER_TASK);
+		fft.forward(grid, periodic ? fftSize : gridSize);
+		run(system, Phase.SOLVE, fftSize);
+		fft.inverse(grid);
+		run(system, Phase.INTERPOLATE, system.getCount());
+	}
+
+	// Fits the grid around the bodies.  Isolated grids leave a cell of margin
+	// on each side so the CIC weights & differences never leave the box.
+	private void fitBox(NBodySystem system) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double loX = x[0], loY = y[0], loZ = z[0], hiX = x[0], hiY = y[0], hiZ = z[0];
+		for (int i = 1; i < system.getCount(); i++) {
+			loX = Math.min(loX, x[i]);
+			loY = Math.min(loY, y[i]);
+			loZ = Math.min(loZ, z[i]);
+			hiX = Math.max(hiX, x[i]);
+			hiY = Math.max(hiY, y[i]);
+			hiZ = Math.max(hiZ, z[i]);
+		}
+		double extent = Math.max(hiX - loX, Math.max(hiY - loY, hiZ - loZ));
+		extent = extent > 0 ? extent : 1;
+		int span = periodic ? gridSize : gridSize - 3;
+		cellSize = extent * 1.0001 / span;
+		double half = (periodic ? gridSize : gridSize - 1) * cellSize * 0.5;
+		originX = (loX + hiX) * 0.5 - half;
+		originY = (loY + hiY) * 0.5 - half;
+		originZ = (loZ + hiZ) * 0.5 - half;
+	}
+
+	// Transform of the isolated Green's function on the padded grid, using
+	// the nearest image of each offset.  The self term is set to -1, which
+	// cancels out of the central differences.
+	private void computeGreen() {
+		int n = fftSize;
+		for (int i = 0; i < n; i++) {
+			int di = i <= gridSize ? i : i - n;
+			for (int j = 0; j < n; j++) {
+				int dj = j <= gridSize ? j : j - n;
+				for (int k = 0; k < n; k++) {
+					int dk = k <= gridSize ? k : k - n;
+					double r = Math.sqrt(di * di + dj * dj + dk * dk);
+					grid[((i * n + j) * n + k) * 2] = r > 0 ? -1 / r : -1;
+				}
+			}
+		}
+		fft.forward(grid);
+		// The function is real & even, so its transform is real too.
+		green = new double[n * n * n];
+		for (int c = 0; c < green.length; c++) {
+			green[c] = grid[c * 2];
+		}
+	}
+
+	// Counting sort of the bodies by the x slab of their lower CIC cell.
+	private void sortIntoSlabs(NBodySystem system) {
+		int n = system.getCount();
+		if (slabBodies.length < n) {
+			slabBodies = new int[n];
+		}
+		double[] x = system.getX();
+		Arrays.fill(slabStart, 0);
+		for (int i = 0; i < n; i++) {
+			slabStart[slab(x[i]) + 1]++;
+		}
+		for (int s = 0; s < gridSize; s++) {
+			slabStart[s + 1] += slabStart[s];
+		}
+		for (int i = 0; i < n; i++) {
+			slabBodies[slabStart[slab(x[i])]++] = i;
+		}
+		for (int s = gridSize; s > 0; s--) {
+			slabStart[s] = slabStart[s - 1];
+		}
+		slabStart[0] = 0;
+	}
+
+	private int slab(double x) {
+		int cell = (int) Math.floor((x - originX) / cellSize - 0.5);
+		return periodic ? Math.floorMod(cell, gridSize) : Math.max(0, Math.min(gridSize - 2, cell));
+	}
+
+	// CIC deposit of the bodies in slabs [from, to).  Masses go into the real
+	// parts; in periodic mode they wrap around the box.
+	private void deposit(NBodySystem system, int from, int to) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] m = system.getMass();
+		int mask = fftSize - 1;
+		for (int k = slabStart[from]; k < slabStart[to]; k++) {
+			int body = slabBodies[k];
+			// Cell centers are at half-integer grid coordinates.
+			double u = (x[body] - originX) / cellSize - 0.5;
+			double v = (y[body] - originY) / cellSize - 0.5;
+			double w = (z[body] - originZ) / cellSize - 0.5;
+			int i = (int) Math.floor(u), j = (int) Math.floor(v), l = (int) Math.floor(w);
+			double fx = u - i, fy = v - j, fz = w - l;
+			for (int a = 0; a < 2; a++) {
+				double wx = a == 0 ? 1 - fx : fx;
+				int row = ((i + a) & mask) * fftSize;
+				for (int b = 0; b < 2; b++) {
+					double wxy = wx * (b == 0 ? 1 - fy : fy);
+					int column = (row + ((j + b) & mask)) * fftSize;
+					grid[(column + (l & mask)) * 2] += m[body] * wxy * (1 - fz);
+					grid[(column + ((l + 1) & mask)) * 2] += m[body] * wxy * fz;
+				}
+			}
+		}
+	}
+
+	// Multiplies the spectrum in x planes [from, to) by the Green's function,
+	// turning mass into potential, with the inverse FFT's 1 / n^3 folded in.
+	private void solve(int from, int to) {
+		int n = fftSize;
+		double normalization = 1.0 / ((double) n * n * n);
+		for (int i = from; i < to; i++) {
+			for (int j = 0; j < n; j++) {
+				int row = (i * n + j) * n;
+				for (int k = 0; k < n; k++) {
+					int c = row + k;
+					double factor;
+					if (periodic) {
+						// phi_k = -4 pi G rho_k / k^2, with rho = m / h^3 and the
+						// 7-point Laplacian's k^2 = 4 / h^2 sum sin^2(pi n / N).
+						double s = sinSquared[i] + sinSquared[j] + sinSquared[k];
+						factor = s > 0 ? -Math.PI * gravity / (cellSize * s) : 0;
+					} else {
+						factor = green[c] * gravity / cellSize;
+					}
+					factor *= normalization;
+					grid[c * 2] *= factor;
+					grid[c * 2 + 1] *= factor;
+				}
+			}
+		}
+	}
+
+	// Acceleration of bodies [from, to):  minus the central-difference
+	// gradient of the potential, CIC-interpolated from the 8 nearest cells.
+	private void interpolate(NBodySystem system, int from, int to) {
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		int mask = fftSize - 1;
+		int n = fftSize;
+		double scale = -1 / (2 * cellSize);
+		for (int body = from; body < to; body++) {
+			double u = (x[body] - originX) / cellSize - 0.5;
+			double v = (y[body] - originY) / cellSize - 0.5;
+			double w = (z[body] - originZ) / cellSize - 0.5;
+			int i = (int) Math.floor(u), j = (int) Math.floor(v), l = (int) Math.floor(w);
+			double fx = u - i, fy = v - j, fz = w - l;
+			double gx = 0, gy = 0, gz = 0;
+			for (int a = 0; a < 2; a++) {
+				int ci = (i + a) & mask;
+				double wx = a == 0 ? 1 - fx : fx;
+				for (int b = 0; b < 2; b++) {
+					int cj = (j + b) & mask;
+					double wxy = wx * (b == 0 ? 1 - fy : fy);
+					for (int c = 0; c < 2; c++) {
+						int ck = (l + c) & mask;
+						double weight = wxy * (c == 0 ? 1 - fz : fz);
+						gx += weight * (potential(((ci + 1) & mask), cj, ck, n)
+								- potential(((ci - 1) & mask), cj, ck, n));
+						gy += weight * (potential(ci, ((cj + 1) & mask), ck, n)
+								- potential(ci, ((cj - 1) & mask), ck, n));
+						gz += weight * (potential(ci, cj, ((ck + 1) & mask), n)
+								- potential(ci, cj, ((ck - 1) & mask), n));
+					}
+				}
+			}
+			ax[body] = gx * scale;
+			ay[body] = gy * scale;
+			az[body] = gz * scale;
+		}
+	}
+
+	private double potential(int i, int j, int k, int n) {
+		return grid[((i * n + j) * n + k) * 2];
+	}
+
+	private enum Phase {
+		DEPOSIT_EVEN, DEPOSIT_ODD, SOLVE, INTERPOLATE
+	}
+
+	// Runs a phase over [0, count) on the pool if there is one.  Deposits
+	// count in tasks (pairs of slabs), the solve in x planes, and the
+	// interpolation in bodies.
+	private void run(NBodySystem system, Phase phase, int count) {
+		if (pool == null) {
+			runRange(system, phase, 0, count);
+		} else {
+			pool.invoke(new PhaseTask(system, phase, 0, count));
+		}
+	}
+
+	private void runRange(NBodySystem system, Phase phase, int from, int to) {
+		if (phase == Phase.SOLVE) {
+			solve(from, to);
+		} else if (phase == Phase.INTERPOLATE) {
+			interpolate(system, from, to);
+		} else {
+			// Task t covers slabs [2t, 2t + 2) and writes up to slab 2t + 2,
+			// so tasks of one parity never touch the same slab.
+			int parity = phase == Phase.DEPOSIT_EVEN ? 0 : 1;
+			for (int t = from; t < to; t++) {
+				if (t % 2 == parity) {
+					deposit(system, t * SLABS_PER_TASK, (t + 1) * SLABS_PER_TASK);
+				}
+			}
+		}
+	}
+
+	// Splits a range of a phase in half until it is small enough to run.
+	@SuppressWarnings("serial")
+	private class PhaseTask extends RecursiveAction {
+
+		private NBodySystem system;
+		private Phase phase;
+		private int from, to;
+
+		private PhaseTask(NBodySystem system, Phase phase, int from, int to) {
+			this.system = system;
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int limit = phase == Phase.INTERPOLATE ? BODIES_PER_TASK : 2;
+			if (to - from <= limit) {
+				runRange(system, phase, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new PhaseTask(system, phase, from, mid), new PhaseTask(system, phase, mid, to));
+		}
+
+	}
+
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	public boolean isPeriodic() {
+		return periodic;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+}
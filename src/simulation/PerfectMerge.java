@@ -0,0 +1,33 @@
+package simulation;
+
+/*
+ * File:	PerfectMerge.java
+ * Purpose:	Colliding bodies stick together:  the survivor sits at their
+ * 			center of mass, with their total mass & momentum, and a radius
+ * 			that keeps their total volume.
+ */
+public class PerfectMerge implements MergePolicy {
+
+	@Override
+	public int collide(NBodySystem system, int i, int j) {
+		double[] m = system.getMass(), radius = system.getRadius();
+		double mi = m[i], mj = m[j];
+		double total = mi + mj;
+		// Massless bodies just average.
+		double wi = total > 0 ? mi / total : 0.5, wj = 1 - wi;
+		merge(system.getX(), i, j, wi, wj);
+		merge(system.getY(), i, j, wi, wj);
+		merge(system.getZ(), i, j, wi, wj);
+		merge(system.getVx(), i, j, wi, wj);
+		merge(system.getVy(), i, j, wi, wj);
+		merge(system.getVz(), i, j, wi, wj);
+		m[i] = total;
+		radius[i] = Math.cbrt(radius[i] * radius[i] * radius[i] + radius[j] * radius[j] * radius[j]);
+		return ABSORBED;
+	}
+
+	private static void merge(double[] values, int i, int j, double wi, double wj) {
+		values[i] = values[i] * wi + values[j] * wj;
+	}
+
+}
@@ -0,0 +1,123 @@
+package simulation;
+
+import java.util.Arrays;
+
+import trajectory.TrajectoryFormat;
+import trajectory.TrajectorySource;
+
+/*
+ * File:	Simulation.java
+ * Purpose:	Advances an NBodySystem in time inside the engine and hands out
+ * 			its positions as trajectory frames, so the engine can display
+ * 			a run as it is computed instead of replaying a file written by
+ * 			another program.  The stepping itself is left to an Integrator;
+ * 			frames are always sampled every frameInterval time units,
+ * 			whatever steps the integrator takes in between.
+ *
+ * 			Frames carry each body's radius after its position, so bodies
+ * 			can grow as they merge.  Given a CollisionSystem, overlaps are
+ * 			resolved once per frame;  absorbed bodies keep their frame slot
+ * 			with a radius of 0.
+ */
+public class Simulation implements TrajectorySource {
+
+	private NBodySystem system;
+	private Integrator integrator;
+	private double frameInterval;
+	private int frames;
+	private int bodyRadius;
+	private int numBodies;
+	private CollisionSystem collisions = null;
+
+	private int currentFrame = 0;
+
+	public Simulation(NBodySystem system, Integrator integrator, double frameInterval, int frames, int bodyRadius) {
+		this.system = system;
+		this.integrator = integrator;
+		this.frameInterval = frameInterval;
+		this.frames = frames;
+		this.bodyRadius = bodyRadius;
+		this.numBodies = system.getCount();
+
+		// Bodies without a radius of their own get the one from the header.
+		boolean sized = false;
+		for (int i = 0; i < system.getCount(); i++) {
+			sized |= system.getRadius()[i] > 0;
+		}
+		if (!sized) {
+			system.setRadius(bodyRadius * TrajectoryFormat.RADIUS_UNIT);
+		}
+	}
+
+	// Leapfrog with a fixed timestep, one frame every stepsPerFrame steps.
+	public Simulation(NBodySystem system, ForceSolver solver, double timestep, int stepsPerFrame, int frames,
+			int bodyRadius) {
+		this(system, new LeapfrogIntegrator(solver, timestep), timestep * stepsPerFrame, frames, bodyRadius);
+	}
+
+	// The first frame is the starting state; every later one is frameInterval
+	// further on.
+	@Override
+	public boolean nextFrame(float[] dest) {
+		if (currentFrame >= frames) {
+			return false;
+		}
+		if (currentFrame > 0) {
+			integrator.advanceTo(system, currentFrame * frameInterval);
+			if (collisions != null && collisions.resolve(system) > 0) {
+				integrator.reset();
+			}
+		}
+		Arrays.fill(dest, 0, numBodies * TrajectoryFormat.FLOATS_PER_BODY_WITH_RADIUS, 0);
+		system.writeBodies(dest);
+		currentFrame++;
+		return true;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	// Resolves collisions between frames with the given system (or not at
+	// all if it is null).
+	public void setCollisions(CollisionSystem collisions) {
+		this.collisions = collisions;
+	}
+
+	public CollisionSystem getCollisions() {
+		return collisions;
+	}
+
+	public NBodySystem getSystem() {
+		return system;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	public double getTime() {
+		return integrator.getTime();
+	}
+
+	@Override
+	public int getNumBodies() {
+		return numBodies;
+	}
+
+	@Override
+	public int getBodyRadius() {
+		return bodyRadius;
+	}
+
+	@Override
+	public int getTimesteps() {
+		return frames;
+	}
+
+	@Override
+	public int getFloatsPerBody() {
+		return TrajectoryFormat.FLOATS_PER_BODY_WITH_RADIUS;
+	}
+
+}
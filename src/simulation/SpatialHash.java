@@ -0,0 +1,254 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * File:	SpatialHash.java
+ * Purpose:	Finds every pair of overlapping bodies in near-linear time.  Space
+ * 			is cut into cubic cells at least as wide as the largest body, so
+ * 			two bodies can only overlap if they are in the same or adjacent
+ * 			cells.  Cells are hashed into a table of 2^b x 2^b x 2^b buckets,
+ * 			about twice the body count, by wrapping each cell coordinate
+ * 			modulo 2^b.  Unlike a scrambling hash this keeps neighbouring
+ * 			cells in neighbouring buckets, so searching the bodies in bucket
+ * 			order walks through memory almost sequentially; far-apart cells
+ * 			that wrap onto the same bucket are weeded out by the exact test.
+ *
+ * 			The bodies are counting-sorted by bucket, and their positions &
+ * 			radii copied into that order, all in primitive arrays, so building
+ * 			allocates nothing once the arrays are big enough and no cell
+ * 			objects are ever made.  Queries only read the table, so given a
+ * 			ForkJoinPool the sorted bodies are split into blocks that are
+ * 			searched in parallel, each into its own pair list.  The lists are
+ * 			joined in block order, so the pairs come out the same whatever the
+ * 			number of threads.
+ */
+public class SpatialHash {
+
+	// Bodies searched by one task.
+	private static final int BODIES_PER_TASK = 1024;
+
+	private ForkJoinPool pool;
+
+	private double cellSize;
+	// Bits of each cell coordinate kept in the bucket index.
+	private int bits;
+	private int axisMask;
+	// Bodies of bucket b are bodies[bucketStart[b] .. bucketStart[b + 1]).
+	private int[] bucketStart = new int[1];
+	private int[] bodies = new int[0];
+	private int[] bucket = new int[0];
+	// Positions & radii in bucket order.
+	private double[] sortedX = new double[0], sortedY = new double[0], sortedZ = new double[0];
+	private double[] sortedRadius = new double[0];
+
+	// Overlapping pairs (first < second), per block and then joined.
+	private int[][] blockPairs = new int[0][];
+	private int[] blockPairCount = new int[0];
+	private int[] pairFirst = new int[0], pairSecond = new int[0];
+	private int pairCount;
+
+	public SpatialHash() {
+		this(null);
+	}
+
+	// Runs queries on the given pool (or on the calling thread if it is null).
+	public SpatialHash(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	// Hashes every body into cells of the given size, which must be at least
+	// the diameter of the largest body.
+	public void build(NBodySystem system, double cellSize) {
+		int n = system.getCount();
+		this.cellSize = cellSize;
+		bits = 1;
+		while (bits < 8 && 1 << (3 * bits) < n * 2) {
+			bits++;
+		}
+		axisMask = (1 << bits) - 1;
+		int tableSize = 1 << (3 * bits);
+		if (bucketStart.length < tableSize + 1) {
+			bucketStart = new int[tableSize + 1];
+		}
+		if (bodies.length < n) {
+			bodies = new int[n];
+			bucket = new int[n];
+			sortedX = new double[n];
+			sortedY = new double[n];
+			sortedZ = new double[n];
+			sortedRadius = new double[n];
+		}
+		double[] x = system.getX(), y = system.getY(), z = system.getZ();
+		double[] radius = system.getRadius();
+		for (int b = 0; b <= tableSize; b++) {
+			bucketStart[b] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			bucket[i] = hash(cell(x[i]), cell(y[i]), cell(z[i]));
+			bucketStart[bucket[i] + 1]++;
+		}
+		for (int b = 0; b < tableSize; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		for (int i = 0; i < n; i++) {
+			bodies[bucketStart[bucket[i]]++] = i;
+		}
+		for (int b = tableSize; b > 0; b--) {
+			bucketStart[b] = bucketStart[b - 1];
+		}
+		bucketStart[0] = 0;
+		for (int k = 0; k < n; k++) {
+			int body = bodies[k];
+			sortedX[k] = x[body];
+			sortedY[k] = y[body];
+			sortedZ[k] = z[body];
+			sortedRadius[k] = radius[body];
+		}
+	}
+
+	// Finds every pair of bodies closer than the sum of their radii.  Returns
+	// the # of pairs; see getPairFirst() & getPairSecond().  The system must
+	// not have changed since build().
+	public int findOverlaps(NBodySystem system) {
+		int n = system.getCount();
+		int blocks = (n + BODIES_PER_TASK - 1) / BODIES_PER_TASK;
+		if (blockPairs.length < blocks) {
+			blockPairs = new int[blocks][16];
+			blockPairCount = new int[blocks];
+		}
+		if (pool == null) {
+			searchBlocks(system, 0, blocks);
+		} else {
+			pool.invoke(new SearchTask(system, 0, blocks));
+		}
+
+		pairCount = 0;
+		for (int b = 0; b < blocks; b++) {
+			pairCount += blockPairCount[b];
+		}
+		if (pairFirst.length < pairCount) {
+			pairFirst = new int[pairCount];
+			pairSecond = new int[pairCount];
+		}
+		int at = 0;
+		for (int b = 0; b < blocks; b++) {
+			for (int p = 0; p < blockPairCount[b]; p++) {
+				pairFirst[at] = blockPairs[b][p * 2];
+				pairSecond[at++] = blockPairs[b][p * 2 + 1];
+			}
+		}
+		return pairCount;
+	}
+
+	private void searchBlocks(NBodySystem system, int from, int to) {
+		for (int b = from; b < to; b++) {
+			searchBlock(system, b);
+		}
+	}
+
+	// Searches the 27 cells around each body of one block (in bucket order)
+	// for bodies later in that order that overlap it.
+	private void searchBlock(NBodySystem system, int block) {
+		double[] x = sortedX, y = sortedY, z = sortedZ;
+		double[] radius = sortedRadius;
+		int start = block * BODIES_PER_TASK;
+		int end = Math.min(system.getCount(), start + BODIES_PER_TASK);
+		int[] pairs = blockPairs[block];
+		int count = 0;
+		// Distinct cells can share a bucket, so each bucket is only searched
+		// once per body.
+		int[] seen = new int[27];
+		for (int i = start; i < end; i++) {
+			int cx = cell(x[i]), cy = cell(y[i]), cz = cell(z[i]);
+			int seenCount = 0;
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dz = -1; dz <= 1; dz++) {
+						int b = hash(cx + dx, cy + dy, cz + dz);
+						boolean repeat = false;
+						for (int s = 0; s < seenCount; s++) {
+							repeat |= seen[s] == b;
+						}
+						if (repeat) {
+							continue;
+						}
+						seen[seenCount++] = b;
+						for (int j = bucketStart[b]; j < bucketStart[b + 1]; j++) {
+							if (j <= i) {
+								continue;
+							}
+							double ox = x[j] - x[i], oy = y[j] - y[i], oz = z[j] - z[i];
+							double reach = radius[i] + radius[j];
+							if (ox * ox + oy * oy + oz * oz < reach * reach) {
+								if (count * 2 + 2 > pairs.length) {
+									int[] grown = new int[pairs.length * 2];
+									System.arraycopy(pairs, 0, grown, 0, count * 2);
+									pairs = grown;
+								}
+								// Report the original indices, lowest first.
+								pairs[count * 2] = Math.min(bodies[i], bodies[j]);
+								pairs[count * 2 + 1] = Math.max(bodies[i], bodies[j]);
+								count++;
+							}
+						}
+					}
+				}
+			}
+		}
+		blockPairs[block] = pairs;
+		blockPairCount[block] = count;
+	}
+
+	private int cell(double position) {
+		return (int) Math.floor(position / cellSize);
+	}
+
+	// Wraps the cell coordinates into the table.
+	private int hash(int cx, int cy, int cz) {
+		return ((cx & axisMask) << (2 * bits)) | ((cy & axisMask) << bits) | (cz & axisMask);
+	}
+
+	// Splits a range of blocks in half until it is one block.
+	@SuppressWarnings("serial")
+	private class SearchTask extends RecursiveAction {
+
+		private NBodySystem system;
+		private int from, to;
+
+		private SearchTask(NBodySystem system, int from, int to) {
+			this.system = system;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				searchBlocks(system, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SearchTask(system, from, mid), new SearchTask(system, mid, to));
+		}
+
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public int getPairCount() {
+		return pairCount;
+	}
+
+	public int[] getPairFirst() {
+		return pairFirst;
+	}
+
+	public int[] getPairSecond() {
+		return pairSecond;
+	}
+
+}
@@ -0,0 +1,13 @@
+package simulation;
+
+/*
+ * File:	TimestepCriterion.java
+ * Purpose:	Picks a body's timestep from the magnitudes of its acceleration
+ * 			and its first three time derivatives (jerk, snap, crackle), as
+ * 			estimated by the Hermite integrator.
+ */
+public interface TimestepCriterion {
+
+	public double timestep(double acceleration, double jerk, double snap, double crackle);
+
+}
@@ -0,0 +1,167 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * File:	VectorizedDirectSolver.java
+ * Purpose:	O(N^2) gravity laid out so the JIT's auto-vectorizer can run the
+ * 			pairwise math on SIMD lanes.  Positions & masses are copied into
+ * 			float arrays (twice the lanes of doubles).  The bodies pulled are
+ * 			taken a tile at a time, and every body in turn pushes its pull
+ * 			onto the whole tile:  one loop finds 1 / (r^2 + eps^2)^(3/2) for
+ * 			each body of the tile, then one loop per axis adds the pull to
+ * 			that body's acceleration.  Each loop is branch-free, element-wise
+ * 			over the tile, & stores into a single array, which is what C2
+ * 			needs to compile it to packed SSE/AVX instructions.  A loop
+ * 			storing into several arrays, or summing into one variable (as the
+ * 			scalar kernel does for body i), stays scalar.
+ *
+ * 			Unlike DirectSummationSolver every pair is evaluated from both
+ * 			sides, as the pull on body i would otherwise have to be summed in
+ * 			such a loop.  Even so it beats the scalar kernel's wall time
+ * 			about threefold on AVX hardware (see KernelBenchmark).  Without a
+ * 			SIMD-capable JIT the same code runs as ordinary scalar loops, &
+ * 			is then the slower of the two.  Accelerations are summed in
+ * 			float, good to about 1e-4 relative.
+ */
+public class VectorizedDirectSolver implements ForceSolver {
+
+	// Bodies pulled per pass; the tile's part of the arrays stays in L1.
+	private static final int TILE_SIZE = 512;
+
+	private double gravity;
+	private float softening2;
+	private ForkJoinPool pool;
+
+	// Float copies of the positions & masses, the accelerations (in units of
+	// gravity) being summed, & each pulled body's 1 / (r^2 + eps^2)^(3/2).
+	private float[] px = new float[0], py = new float[0], pz = new float[0], pm = new float[0];
+	private float[] sumX = new float[0], sumY = new float[0], sumZ = new float[0];
+	private float[] invR3 = new float[0];
+
+	public VectorizedDirectSolver(double gravity, double softening) {
+		this(gravity, softening, null);
+	}
+
+	// Spreads tiles over the given pool (or runs on the calling thread if it
+	// is null).
+	public VectorizedDirectSolver(double gravity, double softening, ForkJoinPool pool) {
+		this.gravity = gravity;
+		this.softening2 = (float) (softening * softening);
+		this.pool = pool;
+	}
+
+	@Override
+	public void computeAccelerations(NBodySystem system) {
+		int n = system.getCount();
+		if (px.length < n) {
+			px = new float[n];
+			py = new float[n];
+			pz = new float[n];
+			pm = new float[n];
+			sumX = new float[n];
+			sumY = new float[n];
+			sumZ = new float[n];
+			invR3 = new float[n];
+		}
+		double[] x = system.getX(), y = system.getY(), z = system.getZ(), mass = system.getMass();
+		for (int i = 0; i < n; i++) {
+			px[i] = (float) x[i];
+			py[i] = (float) y[i];
+			pz[i] = (float) z[i];
+			pm[i] = (float) mass[i];
+		}
+		if (pool == null) {
+			for (int tileStart = 0; tileStart < n; tileStart += TILE_SIZE) {
+				accelerateTile(n, tileStart, Math.min(n, tileStart + TILE_SIZE));
+			}
+		} else {
+			pool.invoke(new TileTask(n, 0, n));
+		}
+		double[] ax = system.getAx(), ay = system.getAy(), az = system.getAz();
+		for (int i = 0; i < n; i++) {
+			ax[i] = sumX[i] * gravity;
+			ay[i] = sumY[i] * gravity;
+			az[i] = sumZ[i] * gravity;
+		}
+	}
+
+	// Sums the pull of all n bodies on bodies [from, to).  Tasks on other
+	// tiles touch none of the same elements.
+	private void accelerateTile(int n, int from, int to) {
+		for (int j = from; j < to; j++) {
+			sumX[j] = 0;
+			sumY[j] = 0;
+			sumZ[j] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			if (i >= from && i < to) {
+				// Skip body i itself, which would divide by 0 without softening.
+				push(i, from, i);
+				push(i, i + 1, to);
+			} else {
+				push(i, from, to);
+			}
+		}
+	}
+
+	// Adds the pull of body i on bodies [from, to):  m d / (r^2 + eps^2)^(3/2).
+	// Each step is a small loop of its own so the JIT reliably compiles it to
+	// packed instructions.
+	private void push(int i, int from, int to) {
+		float xi = px[i], yi = py[i], zi = pz[i], mi = pm[i];
+		findInvR3(from, to, xi, yi, zi);
+		pullAxis(px, sumX, from, to, xi, mi);
+		pullAxis(py, sumY, from, to, yi, mi);
+		pullAxis(pz, sumZ, from, to, zi, mi);
+	}
+
+	// Finds 1 / (r^2 + eps^2)^(3/2) from (xi, yi, zi) to bodies [from, to).
+	private void findInvR3(int from, int to, float xi, float yi, float zi) {
+		float[] px = this.px, py = this.py, pz = this.pz, invR3 = this.invR3;
+		float eps2 = softening2;
+		for (int j = from; j < to; j++) {
+			float dx = xi - px[j];
+			float dy = yi - py[j];
+			float dz = zi - pz[j];
+			float r2 = dx * dx + dy * dy + dz * dz + eps2;
+			invR3[j] = 1 / (r2 * (float) Math.sqrt(r2));
+		}
+	}
+
+	// Adds one axis of the pull of a body at 'pi' of mass 'mi' on bodies
+	// [from, to), given their positions & sums on that axis.
+	private void pullAxis(float[] p, float[] sum, int from, int to, float pi, float mi) {
+		float[] invR3 = this.invR3;
+		for (int j = from; j < to; j++) {
+			sum[j] += (pi - p[j]) * invR3[j] * mi;
+		}
+	}
+
+	// Splits a range of bodies in half until it is a tile or less.
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveAction {
+
+		private int n;
+		private int from, to;
+
+		private TileTask(int n, int from, int to) {
+			this.n = n;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= TILE_SIZE) {
+				accelerateTile(n, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(n, from, mid), new TileTask(n, mid, to));
+		}
+
+	}
+
+}
@@ -0,0 +1,115 @@
+package toolbox;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Camera;
+
+/*
+ * File:	Frustum.java
+ * Purpose:	The six planes bounding what the camera can see, extracted from
+ * 			projection * view (Gribb & Hartmann 2001).  Each plane is stored
+ * 			as (a, b, c, d) with its normal pointing into the frustum &
+ * 			normalized, so a x + b y + c z + d is the signed distance of a
+ * 			point inside.  Updating & testing allocate nothing.
+ */
+public class Frustum {
+
+	// Results of classifying a box.
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTING = 1;
+	public static final int INSIDE = 2;
+
+	// Left, right, bottom, top, near & far planes, 4 floats each.
+	private float[] planes = new float[24];
+
+	private float[] clip = new float[16];
+	private float[] projection = new float[16];
+	private FloatBuffer view = BufferUtils.createFloatBuffer(16);
+
+	// Extracts the planes for the camera seen through a projection matrix.
+	public void update(Matrix4f projectionMatrix, Camera camera) {
+		view.clear();
+		Maths.storeViewMatrix(camera, view);
+		view.flip();
+		projection[0] = projectionMatrix.m00;
+		projection[1] = projectionMatrix.m01;
+		projection[2] = projectionMatrix.m02;
+		projection[3] = projectionMatrix.m03;
+		projection[4] = projectionMatrix.m10;
+		projection[5] = projectionMatrix.m11;
+		projection[6] = projectionMatrix.m12;
+		projection[7] = projectionMatrix.m13;
+		projection[8] = projectionMatrix.m20;
+		projection[9] = projectionMatrix.m21;
+		projection[10] = projectionMatrix.m22;
+		projection[11] = projectionMatrix.m23;
+		projection[12] = projectionMatrix.m30;
+		projection[13] = projectionMatrix.m31;
+		projection[14] = projectionMatrix.m32;
+		projection[15] = projectionMatrix.m33;
+		// clip = projection * view, all column-major.
+		for (int column = 0; column < 4; column++) {
+			for (int row = 0; row < 4; row++) {
+				float sum = 0;
+				for (int k = 0; k < 4; k++) {
+					sum += projection[k * 4 + row] * view.get(column * 4 + k);
+				}
+				clip[column * 4 + row] = sum;
+			}
+		}
+		// A point is inside when -w <= x, y, z <= w in clip space, i.e. when
+		// row 3 plus or minus rows 0, 1 & 2 is non-negative.
+		for (int axis = 0; axis < 3; axis++) {
+			for (int side = 0; side < 2; side++) {
+				float sign = side == 0 ? 1 : -1;
+				int plane = (axis * 2 + side) * 4;
+				for (int k = 0; k < 4; k++) {
+					planes[plane + k] = clip[k * 4 + 3] + sign * clip[k * 4 + axis];
+				}
+				float length = (float) Math.sqrt(planes[plane] * planes[plane] + planes[plane + 1] * planes[plane + 1]
+						+ planes[plane + 2] * planes[plane + 2]);
+				for (int k = 0; k < 4; k++) {
+					planes[plane + k] /= length;
+				}
+			}
+		}
+	}
+
+	// False only if the sphere is wholly outside one of the planes.
+	public boolean intersectsSphere(float x, float y, float z, float radius) {
+		for (int plane = 0; plane < 24; plane += 4) {
+			if (planes[plane] * x + planes[plane + 1] * y + planes[plane + 2] * z + planes[plane + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// OUTSIDE if the box is wholly outside one of the planes, INSIDE if it is
+	// inside all of them, else INTERSECTING.  Like intersectsSphere(), a box
+	// near a corner of the frustum may be called INTERSECTING while outside.
+	public int classifyBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int result = INSIDE;
+		for (int plane = 0; plane < 24; plane += 4) {
+			float a = planes[plane], b = planes[plane + 1], c = planes[plane + 2], d = planes[plane + 3];
+			// Corners furthest along & against the plane's normal.
+			float far = a * (a > 0 ? maxX : minX) + b * (b > 0 ? maxY : minY) + c * (c > 0 ? maxZ : minZ) + d;
+			if (far < 0) {
+				return OUTSIDE;
+			}
+			float near = a * (a > 0 ? minX : maxX) + b * (b > 0 ? minY : maxY) + c * (c > 0 ? minZ : maxZ) + d;
+			if (near < 0) {
+				result = INTERSECTING;
+			}
+		}
+		return result;
+	}
+
+	public float[] getPlanes() {
+		return planes;
+	}
+
+}
@@ -1,5 +1,7 @@
 package toolbox;
 
+import java.nio.FloatBuffer;
+
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -23,6 +25,77 @@ public class Maths {
 		return matrix;
 	}
 
+	// Writes the TransformationMatrix of bodies [from, from + count) into
+	// 'dest', 16 floats each in column-major order, starting at its position
+	// (which ends up after the last matrix).  Same matrices as
+	// createTransformationMatrix(), but computed straight from primitive
+	// arrays into the buffer, so nothing is allocated however many bodies
+	// there are.  Rotations are in degrees.
+	public static void storeTransformationMatrices(float[] x, float[] y, float[] z, float[] rotX, float[] rotY,
+			float[] rotZ, float[] scale, int from, int count, FloatBuffer dest) {
+		// Bodies often share their rotation, so the sines & cosines are only
+		// recomputed when it changes.
+		float lastX = Float.NaN, lastY = Float.NaN, lastZ = Float.NaN;
+		float cx = 1, sx = 0, cy = 1, sy = 0, cz = 1, sz = 0;
+		for (int i = from; i < from + count; i++) {
+			if (rotX[i] != lastX || rotY[i] != lastY || rotZ[i] != lastZ) {
+				lastX = rotX[i];
+				lastY = rotY[i];
+				lastZ = rotZ[i];
+				cx = (float) Math.cos(Math.toRadians(lastX));
+				sx = (float) Math.sin(Math.toRadians(lastX));
+				cy = (float) Math.cos(Math.toRadians(lastY));
+				sy = (float) Math.sin(Math.toRadians(lastY));
+				cz = (float) Math.cos(Math.toRadians(lastZ));
+				sz = (float) Math.sin(Math.toRadians(lastZ));
+			}
+			float s = scale[i];
+			// Columns of rotX * rotY * rotZ, each times the scale.
+			dest.put(cy * cz * s).put((cx * sz + sx * sy * cz) * s).put((sx * sz - cx * sy * cz) * s).put(0);
+			dest.put(-cy * sz * s).put((cx * cz - sx * sy * sz) * s).put((sx * cz + cx * sy * sz) * s).put(0);
+			dest.put(sy * s).put(-sx * cy * s).put(cx * cy * s).put(0);
+			dest.put(x[i]).put(y[i]).put(z[i]).put(1);
+		}
+	}
+
+	// Writes the camera's ViewMatrix into 'dest' at its position, as
+	// createViewMatrix() but without allocating.
+	public static void storeViewMatrix(Camera camera, FloatBuffer dest) {
+		float cx = (float) Math.cos(Math.toRadians(camera.getPitch()));
+		float sx = (float) Math.sin(Math.toRadians(camera.getPitch()));
+		float cy = (float) Math.cos(Math.toRadians(camera.getYaw()));
+		float sy = (float) Math.sin(Math.toRadians(camera.getYaw()));
+		Vector3f position = camera.getPosition();
+		// Rows of rotX(pitch) * rotY(yaw).
+		float r00 = cy, r01 = 0, r02 = sy;
+		float r10 = sx * sy, r11 = cx, r12 = -sx * cy;
+		float r20 = -cx * sy, r21 = sx, r22 = cx * cy;
+		dest.put(r00).put(r10).put(r20).put(0);
+		dest.put(r01).put(r11).put(r21).put(0);
+		dest.put(r02).put(r12).put(r22).put(0);
+		// The rotation applied to -position.
+		dest.put(-(r00 * position.x + r01 * position.y + r02 * position.z));
+		dest.put(-(r10 * position.x + r11 * position.y + r12 * position.z));
+		dest.put(-(r20 * position.x + r21 * position.y + r22 * position.z));
+		dest.put(1);
+	}
+
+	// Creates and returns a ProjectionMatrix.
+	public static Matrix4f createProjectionMatrix(float fov, float aspectRatio, float nearPlane, float farPlane) {
+		float yScale = (float) ((1f / Math.tan(Math.toRadians(fov / 2f))) * aspectRatio);
+		float xScale = yScale / aspectRatio;
+		float frustumLength = farPlane - nearPlane;
+
+		Matrix4f projectionMatrix = new Matrix4f();
+		projectionMatrix.m00 = xScale;
+		projectionMatrix.m11 = yScale;
+		projectionMatrix.m22 = -((farPlane + nearPlane) / frustumLength);
+		projectionMatrix.m23 = -1;
+		projectionMatrix.m32 = -((2 * nearPlane * farPlane) / frustumLength);
+		projectionMatrix.m33 = 0;
+		return projectionMatrix;
+	}
+
 	// Creates and returns a ViewMatrix.
 	public static Matrix4f createViewMatrix(Camera camera) {
 		Matrix4f viewMatrix = new Matrix4f();
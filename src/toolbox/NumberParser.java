@@ -0,0 +1,178 @@
+package toolbox;
+
+import java.nio.ByteBuffer;
+
+/*
+ * File:	NumberParser.java
+ * Purpose:	Parses numbers straight out of ASCII bytes without creating a
+ * 			String per value.  Floats are correctly rounded, i.e. give
+ * 			exactly the same result as Float.parseFloat.  The common cases
+ * 			(up to 19 significant digits and small exponents) are handled
+ * 			with exact float/double arithmetic; anything else falls back to
+ * 			Float.parseFloat, which is the only path that allocates.
+ */
+public class NumberParser {
+
+	// Powers of ten exactly representable as floats/doubles.
+	private static final float[] FLOAT_POW10 = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f,
+			1e10f };
+	private static final double[] DOUBLE_POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// Largest integers exactly representable as a float/double.
+	private static final long MAX_FLOAT_MANTISSA = 1L << 24;
+	private static final long MAX_DOUBLE_MANTISSA = 1L << 53;
+
+	// Most significant digits that always fit into a long.
+	private static final int MAX_DIGITS = 19;
+
+	// True for the characters separating numbers in our text files.
+	public static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+	}
+
+	// Parses the float spelled out by bytes [start, end) of the buffer.
+	public static float parseFloat(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+
+		// Collect the significant digits into 'mantissa', remembering where the
+		// decimal point falls via 'exponent'.
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+		for (; pos < end; pos++) {
+			byte b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				sawDigit = true;
+				if (digits == 0 && b == '0') {
+					// Leading zeros don't count as significant.
+					if (sawPoint) {
+						exponent--;
+					}
+				} else if (digits < MAX_DIGITS) {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (sawPoint) {
+						exponent--;
+					}
+				} else {
+					// Too many digits to handle exactly here.
+					return slowParseFloat(buffer, start, end);
+				}
+			} else if (b == '.' && !sawPoint) {
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!sawDigit) {
+			return slowParseFloat(buffer, start, end);
+		}
+
+		// Optional exponent.
+		if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+				negativeExponent = buffer.get(pos) == '-';
+				pos++;
+			}
+			int explicitExponent = 0;
+			int exponentStart = pos;
+			for (; pos < end; pos++) {
+				byte b = buffer.get(pos);
+				if (b < '0' || b > '9' || explicitExponent > 100000) {
+					break;
+				}
+				explicitExponent = explicitExponent * 10 + (b - '0');
+			}
+			if (pos == exponentStart) {
+				return slowParseFloat(buffer, start, end);
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (pos != end) {
+			// Trailing characters we don't understand (e.g. 'f' suffixes, NaN).
+			return slowParseFloat(buffer, start, end);
+		}
+
+		float result;
+		if (mantissa == 0) {
+			result = 0;
+		} else if (mantissa <= MAX_FLOAT_MANTISSA && exponent >= -10 && exponent <= 10) {
+			// Both operands are exact floats, so a single float operation rounds
+			// correctly.
+			result = exponent < 0 ? (float) mantissa / FLOAT_POW10[-exponent]
+					: (float) mantissa * FLOAT_POW10[exponent];
+		} else if (mantissa <= MAX_DOUBLE_MANTISSA && exponent >= -22 && exponent <= 22) {
+			// Correctly rounded as a double.  Rounding that double on to a float
+			// is only wrong if it landed exactly halfway between two floats.
+			double value = exponent < 0 ? (double) mantissa / DOUBLE_POW10[-exponent]
+					: (double) mantissa * DOUBLE_POW10[exponent];
+			result = (float) value;
+			if (isFloatMidpoint(value, result)) {
+				return slowParseFloat(buffer, start, end);
+			}
+		} else {
+			return slowParseFloat(buffer, start, end);
+		}
+		return negative ? -result : result;
+	}
+
+	// Parses the int spelled out by bytes [start, end) of the buffer.
+	public static int parseInt(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+		if (pos == end) {
+			throw new NumberFormatException("Expected an integer but found \"" + toString(buffer, start, end) + "\"");
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			byte b = buffer.get(pos);
+			if (b < '0' || b > '9' || value > Integer.MAX_VALUE + 1L) {
+				throw new NumberFormatException(
+						"Expected an integer but found \"" + toString(buffer, start, end) + "\"");
+			}
+			value = value * 10 + (b - '0');
+		}
+		value = negative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Integer out of range:  \"" + toString(buffer, start, end) + "\"");
+		}
+		return (int) value;
+	}
+
+	// True if 'value' sits exactly halfway between 'rounded' and its neighbour.
+	private static boolean isFloatMidpoint(double value, float rounded) {
+		if (value == rounded || Float.isInfinite(rounded)) {
+			return false;
+		}
+		float neighbour = value > rounded ? Math.nextUp(rounded) : Math.nextDown(rounded);
+		// The values are within a factor of two, so these subtractions are exact.
+		return Math.abs(neighbour - value) == Math.abs(value - rounded);
+	}
+
+	private static float slowParseFloat(ByteBuffer buffer, int start, int end) {
+		return Float.parseFloat(toString(buffer, start, end));
+	}
+
+	private static String toString(ByteBuffer buffer, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) (buffer.get(i) & 0xFF);
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,121 @@
+package trajectory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * File:	BinaryTrajectoryReader.java
+ * Purpose:	Reads frames of a binary trajectory file straight out of a
+ * 			memory mapping.  Since a single mapping is limited to 2GB, the
+ * 			file is mapped in windows of whole frames which are swapped as
+ * 			the reader moves through the file.
+ */
+public class BinaryTrajectoryReader implements TrajectorySource {
+
+	// Largest window of the file we map at once.
+	private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private TrajectoryFormat format;
+
+	// Currently mapped window, covering frames [windowStart, windowEnd).
+	private MappedByteBuffer window;
+	private FloatBuffer windowFloats;
+	private int windowStart;
+	private int windowEnd;
+	private int framesPerWindow;
+
+	// Next frame handed out by nextFrame().
+	private int currentFrame = 0;
+
+	public BinaryTrajectoryReader(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				close();
+				throw new IOException("Trajectory file " + fileName + " is truncated.");
+			}
+		}
+		try {
+			format = TrajectoryFormat.readHeader(header);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		if (channel.size() < format.getFrameOffset(format.getTimesteps())) {
+			close();
+			throw new IOException("Trajectory file " + fileName + " is shorter than its header claims.");
+		}
+		framesPerWindow = (int) Math.max(1, Math.min(format.getTimesteps(), MAX_WINDOW_SIZE / format.getFrameStride()));
+	}
+
+	@Override
+	public boolean nextFrame(float[] dest) throws IOException {
+		if (currentFrame >= format.getTimesteps()) {
+			return false;
+		}
+		readFrame(currentFrame++, dest);
+		return true;
+	}
+
+	// Copies the positions of the given frame into 'dest'.
+	public void readFrame(int frame, float[] dest) throws IOException {
+		if (frame < windowStart || frame >= windowEnd || window == null) {
+			mapWindow(frame);
+		}
+		// Frame strides are a multiple of a float, so index the float view directly.
+		windowFloats.position((frame - windowStart) * (format.getFrameStride() / 4));
+		windowFloats.get(dest, 0, format.getFrameFloats());
+	}
+
+	// Moves back to the first frame.
+	public void rewind() {
+		currentFrame = 0;
+	}
+
+	// Maps the window of frames starting at the given one.
+	private void mapWindow(int frame) throws IOException {
+		windowStart = frame;
+		windowEnd = Math.min(format.getTimesteps(), frame + framesPerWindow);
+		long offset = format.getFrameOffset(windowStart);
+		long size = (long) (windowEnd - windowStart) * format.getFrameStride();
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		window.order(TrajectoryFormat.BYTE_ORDER);
+		windowFloats = window.asFloatBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		windowFloats = null;
+		channel.close();
+		file.close();
+	}
+
+	public TrajectoryFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public int getNumBodies() {
+		return format.getNumBodies();
+	}
+
+	@Override
+	public int getBodyRadius() {
+		return format.getBodyRadius();
+	}
+
+	@Override
+	public int getTimesteps() {
+		return format.getTimesteps();
+	}
+
+}
@@ -0,0 +1,62 @@
+package trajectory;
+
+/*
+ * File:	MemoryTrajectory.java
+ * Purpose:	A trajectory held entirely in memory, with one primitive float
+ * 			array of positions per frame.
+ */
+public class MemoryTrajectory implements TrajectorySource {
+
+	private int numBodies;
+	private int bodyRadius;
+	private float[][] frames;
+
+	// Next frame handed out by nextFrame().
+	private int currentFrame = 0;
+
+	public MemoryTrajectory(int numBodies, int bodyRadius, float[][] frames) {
+		this.numBodies = numBodies;
+		this.bodyRadius = bodyRadius;
+		this.frames = frames;
+	}
+
+	@Override
+	public boolean nextFrame(float[] dest) {
+		if (currentFrame >= frames.length) {
+			return false;
+		}
+		System.arraycopy(frames[currentFrame], 0, dest, 0, frames[currentFrame].length);
+		currentFrame++;
+		return true;
+	}
+
+	// Returns the positions of the given frame (not a copy).
+	public float[] getFrame(int frame) {
+		return frames[frame];
+	}
+
+	// Moves back to the first frame.
+	public void rewind() {
+		currentFrame = 0;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public int getNumBodies() {
+		return numBodies;
+	}
+
+	@Override
+	public int getBodyRadius() {
+		return bodyRadius;
+	}
+
+	@Override
+	public int getTimesteps() {
+		return frames.length;
+	}
+
+}
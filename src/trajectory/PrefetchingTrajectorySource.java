@@ -0,0 +1,175 @@
+package trajectory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * File:	PrefetchingTrajectorySource.java
+ * Purpose:	Decodes frames of another TrajectorySource ahead of time on a
+ * 			background producer thread, so the render loop never has to
+ * 			wait on disk.  Frames are decoded into a fixed ring of
+ * 			preallocated float arrays.  When the ring is full the producer
+ * 			waits for the render loop to catch up, so memory stays bounded
+ * 			no matter how long the run is.
+ */
+public class PrefetchingTrajectorySource implements TrajectorySource {
+
+	// How long the producer/blocking reads sleep between checks of the ring.
+	private static final long PARK_NANOS = 200000;
+
+	private TrajectorySource source;
+	private float[][] ring;
+
+	// Frames published by the producer, and frames the consumer is done with.
+	// Frame f lives in ring[f % ring.length].
+	private AtomicLong written = new AtomicLong();
+	private AtomicLong released = new AtomicLong();
+
+	// Next frame the consumer will take.  Only touched by the consumer.
+	private long read = 0;
+
+	private Thread producer;
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+
+	// Times the producer found the ring full (the consumer is the bottleneck),
+	// and times the consumer found no frame ready (the producer is the bottleneck).
+	private volatile long producerStalls = 0;
+	private volatile long consumerStalls = 0;
+
+	public PrefetchingTrajectorySource(TrajectorySource source, int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Prefetch ring needs room for at least 2 frames.");
+		}
+		this.source = source;
+		ring = new float[capacity][source.getNumBodies() * source.getFloatsPerBody()];
+		producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "trajectory-prefetch");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	// Producer thread: decodes frames into free ring slots until the source
+	// runs out.
+	private void produce() {
+		try {
+			while (!closed) {
+				long frame = written.get();
+				if (frame - released.get() >= ring.length) {
+					// Ring is full, wait for the consumer to release a slot.
+					producerStalls++;
+					while (!closed && frame - released.get() >= ring.length) {
+						LockSupport.parkNanos(PARK_NANOS);
+					}
+					continue;
+				}
+				if (!source.nextFrame(ring[(int) (frame % ring.length)])) {
+					break;
+				}
+				written.set(frame + 1);
+			}
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			finished = true;
+		}
+	}
+
+	// Hands out the next decoded frame without ever blocking, or returns null
+	// if the producer hasn't got one ready yet.  The returned array stays valid
+	// until the next call to pollFrame() or nextFrame().
+	public float[] pollFrame() throws IOException {
+		if (read < written.get()) {
+			float[] frame = ring[(int) (read % ring.length)];
+			// Everything before this frame is no longer in use.
+			released.set(read);
+			read++;
+			return frame;
+		}
+		if (error != null) {
+			throw error;
+		}
+		if (!finished) {
+			consumerStalls++;
+		}
+		return null;
+	}
+
+	// Blocking version of pollFrame() which copies the frame into 'dest'.
+	@Override
+	public boolean nextFrame(float[] dest) throws IOException {
+		while (true) {
+			if (read < written.get()) {
+				float[] frame = ring[(int) (read % ring.length)];
+				System.arraycopy(frame, 0, dest, 0, frame.length);
+				// Copied out, so this frame can be released as well.
+				read++;
+				released.set(read);
+				return true;
+			}
+			if (error != null) {
+				throw error;
+			}
+			if (finished && read >= written.get()) {
+				return false;
+			}
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	// True once the source has run out and every frame has been handed out.
+	public boolean isFinished() {
+		return finished && read >= written.get();
+	}
+
+	// Number of decoded frames waiting to be handed out.
+	public int getFramesBuffered() {
+		return (int) (written.get() - read);
+	}
+
+	public long getProducerStalls() {
+		return producerStalls;
+	}
+
+	public long getConsumerStalls() {
+		return consumerStalls;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			producer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+
+	@Override
+	public int getNumBodies() {
+		return source.getNumBodies();
+	}
+
+	@Override
+	public int getBodyRadius() {
+		return source.getBodyRadius();
+	}
+
+	@Override
+	public int getTimesteps() {
+		return source.getTimesteps();
+	}
+
+	@Override
+	public int getFloatsPerBody() {
+		return source.getFloatsPerBody();
+	}
+
+}
@@ -0,0 +1,154 @@
+package trajectory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * File:	SnapshotBuffer.java
+ * Purpose:	Hands the latest frame of a run from one producer thread to the
+ * 			render thread without locks, copies or either side waiting.  It
+ * 			is a triple buffer whose reader keeps one more slot:  the
+ * 			producer writes into a back slot it alone owns, then swaps it
+ * 			with the pending slot in one atomic exchange.  The reader swaps
+ * 			the oldest of the two snapshots it holds for the pending one the
+ * 			same way, keeping the previous & latest snapshots to interpolate
+ * 			between.  A published snapshot is never written again until the
+ * 			reader gives it back, and a snapshot the reader never took is
+ * 			overwritten (counted as dropped) rather than queued, so neither
+ * 			side ever runs at the other's pace.
+ *
+ * 			Usage:	producer:  write getBackSlot(), then publish().
+ * 					reader:  update() each frame, then getPrevious(),
+ * 					getLatest() & getAlpha(), or interpolate().
+ */
+public class SnapshotBuffer {
+
+	// Slots:  the producer's back slot, the pending one, & the reader's two.
+	private static final int SLOTS = 4;
+	// Set in 'pending' while its slot holds a snapshot the reader hasn't taken.
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+
+	private float[][] frames;
+	// Step # of each slot's snapshot, & the System.nanoTime() it was published.
+	private long[] steps = new long[SLOTS];
+	private long[] published = new long[SLOTS];
+
+	// Slot in the middle, & whether it is FRESH.
+	private AtomicInteger pending;
+	// Only touched by the producer.
+	private int back;
+	private long nextStep;
+	private long dropped;
+	// Only touched by the reader.
+	private int previous;
+	private int latest;
+	private long taken;
+
+	// Creates the buffer holding 'first' as both snapshots the reader starts
+	// with, published now as step 0.
+	public SnapshotBuffer(float[] first) {
+		frames = new float[SLOTS][first.length];
+		long now = System.nanoTime();
+		for (int s = 0; s < SLOTS; s++) {
+			System.arraycopy(first, 0, frames[s], 0, first.length);
+			published[s] = now;
+		}
+		previous = 0;
+		latest = 1;
+		back = 2;
+		pending = new AtomicInteger(3);
+		nextStep = 1;
+	}
+
+	// Producer:  where to write the next snapshot, all of it, before publish().
+	public float[] getBackSlot() {
+		return frames[back];
+	}
+
+	// Producer:  hands the back slot's snapshot to the reader, taking the
+	// pending slot (which the reader is done with) as the new back slot.
+	public void publish() {
+		steps[back] = nextStep++;
+		published[back] = System.nanoTime();
+		// The exchange orders the writes above (& to the slot) before the
+		// reader can see the slot.
+		int old = pending.getAndSet(back | FRESH);
+		if ((old & FRESH) != 0) {
+			dropped++;
+		}
+		back = old & INDEX;
+	}
+
+	// Reader:  takes the newest published snapshot if there is one the reader
+	// hasn't got, making the latest the previous one.  Returns true if so.
+	public boolean update() {
+		if ((pending.get() & FRESH) == 0) {
+			return false;
+		}
+		// Give back the older snapshot; the producer only ever swaps a FRESH
+		// slot in, so the one taken here is FRESH.
+		int old = pending.getAndSet(previous);
+		previous = latest;
+		latest = old & INDEX;
+		taken++;
+		return true;
+	}
+
+	// Reader:  how far from the previous snapshot to the latest to show at
+	// System.nanoTime() 'now', from 0 to 1.  The reader lags one snapshot
+	// behind, taking as long to go from the previous to the latest as the
+	// producer took between them, so motion stays smooth whatever rate
+	// either side runs at.  Holds the latest once that much time has passed.
+	public float getAlpha(long now) {
+		long interval = published[latest] - published[previous];
+		if (interval <= 0) {
+			return 1;
+		}
+		float alpha = (float) (now - published[latest]) / interval;
+		return Math.max(0, Math.min(1, alpha));
+	}
+
+	// Reader:  fills 'dest' with the previous snapshot moved 'alpha' of the
+	// way to the latest.
+	public void interpolate(float alpha, float[] dest) {
+		float[] from = frames[previous], to = frames[latest];
+		for (int i = 0; i < dest.length; i++) {
+			dest[i] = from[i] + (to[i] - from[i]) * alpha;
+		}
+	}
+
+	// Reader:  the older of the two snapshots held, not to be written.
+	public float[] getPrevious() {
+		return frames[previous];
+	}
+
+	// Reader:  the newest snapshot taken, not to be written.
+	public float[] getLatest() {
+		return frames[latest];
+	}
+
+	// Reader:  step # of the latest snapshot, counting the first as 0.
+	public long getLatestStep() {
+		return steps[latest];
+	}
+
+	public long getPreviousStep() {
+		return steps[previous];
+	}
+
+	// Reader:  snapshots taken by update().
+	public long getTaken() {
+		return taken;
+	}
+
+	// Producer:  snapshots published.
+	public long getPublished() {
+		return nextStep - 1;
+	}
+
+	// Producer:  snapshots overwritten before the reader took them.
+	public long getDropped() {
+		return dropped;
+	}
+
+}
@@ -0,0 +1,143 @@
+package trajectory;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * File:	SnapshotPlayer.java
+ * Purpose:	Steps a TrajectorySource (a file being read or a simulation
+ * 			being computed) on its own thread, publishing each frame through
+ * 			a SnapshotBuffer for the render thread to interpolate between.
+ * 			Frames are stepped at a set rate, or as fast as the source goes
+ * 			if the rate is 0; a source slower than the rate just falls
+ * 			behind, without rushing to catch up.  Neither thread waits on the
+ * 			other, so how fast the run goes and how fast it is drawn don't
+ * 			depend on each other.
+ */
+public class SnapshotPlayer {
+
+	// Longest the stepping thread sleeps at once while ahead of the rate.
+	private static final long PARK_NANOS = 1000000;
+
+	private TrajectorySource source;
+	private SnapshotBuffer snapshots;
+	// Nanoseconds between frames, or 0 to step flat out.
+	private long frameNanos;
+
+	private Thread stepper;
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	// What stopped the stepping thread, if it failed.
+	private volatile Throwable error = null;
+
+	// Times the source took longer than a frame to step, & nanoseconds spent
+	// stepping it.
+	private volatile long lateFrames = 0;
+	private volatile long steppingNanos = 0;
+
+	// Reads the source's first frame right away (blocking), then starts
+	// stepping it at 'framesPerSecond', or flat out if that is 0.
+	public SnapshotPlayer(TrajectorySource source, float framesPerSecond) throws IOException {
+		this.source = source;
+		frameNanos = framesPerSecond > 0 ? (long) (1e9 / framesPerSecond) : 0;
+		float[] first = new float[source.getNumBodies() * source.getFloatsPerBody()];
+		if (!source.nextFrame(first)) {
+			throw new IOException("Trajectory has no frames.");
+		}
+		snapshots = new SnapshotBuffer(first);
+		stepper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				step();
+			}
+		}, "snapshot-player");
+		stepper.setDaemon(true);
+		stepper.start();
+	}
+
+	// Stepping thread:  publishes frames until the source runs out.
+	private void step() {
+		try {
+			long deadline = System.nanoTime() + frameNanos;
+			while (!closed) {
+				// Wait for the frame's turn.
+				long now = System.nanoTime();
+				while (!closed && deadline - now > 0) {
+					LockSupport.parkNanos(Math.min(PARK_NANOS, deadline - now));
+					now = System.nanoTime();
+				}
+				if (closed || !source.nextFrame(snapshots.getBackSlot())) {
+					break;
+				}
+				snapshots.publish();
+				long done = System.nanoTime();
+				steppingNanos += done - now;
+				deadline += frameNanos;
+				if (done - deadline > 0 && frameNanos > 0) {
+					// Behind:  start the next frame now rather than hurry the
+					// ones after it.
+					lateFrames++;
+					deadline = done;
+				}
+			}
+		} catch (Throwable e) {
+			// Anything the source throws, a solver's RuntimeException included,
+			// is handed to the render thread.
+			error = e;
+		} finally {
+			finished = true;
+		}
+	}
+
+	// Takes the newest frame if there is one, for getSnapshots() to
+	// interpolate between.  Returns true if there was.  Never blocks.  Throws
+	// whatever stopped the stepping thread, if it failed.
+	public boolean update() throws IOException {
+		Throwable error = this.error;
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new IOException("Stepping the trajectory failed.", error);
+		}
+		return snapshots.update();
+	}
+
+	// True once the source has run out & its last frame was taken & shown
+	// in full by 'now' (a System.nanoTime()).  Never true if stepping failed,
+	// so a loop run until then reaches update() & hears of it.
+	public boolean isFinished(long now) {
+		return finished && error == null && snapshots.getLatestStep() == snapshots.getPublished()
+				&& snapshots.getAlpha(now) >= 1;
+	}
+
+	public SnapshotBuffer getSnapshots() {
+		return snapshots;
+	}
+
+	// Frames the source took longer than a frame at the set rate to step.
+	public long getLateFrames() {
+		return lateFrames;
+	}
+
+	// Frames stepped per second of stepping, i.e. how fast the source goes
+	// flat out.
+	public double getThroughput() {
+		return steppingNanos > 0 ? snapshots.getPublished() * 1e9 / steppingNanos : 0;
+	}
+
+	// Stops stepping & closes the source.
+	public void close() throws IOException {
+		closed = true;
+		try {
+			stepper.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+
+}
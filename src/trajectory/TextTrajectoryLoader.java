@@ -0,0 +1,288 @@
+package trajectory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import toolbox.NumberParser;
+
+/*
+ * File:	TextTrajectoryLoader.java
+ * Purpose:	Loads a whole text trajectory (gui_input.txt) into memory using
+ * 			every core.  The file is cut into chunks that end on whitespace,
+ * 			so no number straddles two chunks.  A first parallel pass counts
+ * 			the numbers in each chunk; a prefix sum over those counts tells
+ * 			every chunk which frame & body its first number belongs to; a
+ * 			second parallel pass then parses each chunk straight into the
+ * 			float[] of the frames it covers.  Values end up in exactly the
+ * 			order TextTrajectoryReader (and Scanner) would read them.
+ */
+public class TextTrajectoryLoader {
+
+	// Nominal size of each chunk handed to a worker.
+	private static final int CHUNK_SIZE = 4 << 20;
+	// How much of the start of the file to look at for the 3 header values.
+	private static final int HEADER_WINDOW = 4096;
+
+	private ForkJoinPool pool;
+
+	// Stats about the last load.
+	private long bytesLoaded;
+	private long loadNanos;
+
+	public TextTrajectoryLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public TextTrajectoryLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public MemoryTrajectory load(String fileName) throws IOException {
+		long start = System.nanoTime();
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+
+			// Read in # of bodies, radius of bodies, & how many timesteps.
+			MappedByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(size, HEADER_WINDOW));
+			int[] header = new int[3];
+			int dataStart = parseHeader(headerBuffer, header);
+			if (dataStart < 0) {
+				throw new IOException(fileName + " does not start with the 3 header values.");
+			}
+			int numBodies = header[0];
+			int bodyRadius = header[1];
+			int timesteps = header[2];
+			if (numBodies <= 0 || timesteps < 0) {
+				throw new IOException(fileName + " has an invalid header.");
+			}
+
+			Job job = new Job(channel, findChunkBounds(channel, dataStart, size),
+					numBodies * TrajectoryFormat.FLOATS_PER_BODY);
+
+			// Pass 1:  count the values in each chunk.
+			run(new ChunkTask(job, 0, job.chunks));
+
+			// Turn the counts into the index of each chunk's first value.
+			long total = 0;
+			for (int c = 0; c < job.chunks; c++) {
+				long count = job.firstValue[c];
+				job.firstValue[c] = total;
+				total += count;
+			}
+			if (total < (long) timesteps * job.frameFloats) {
+				throw new IOException(fileName + " holds " + total + " positional values but " + timesteps
+						+ " timesteps of " + numBodies + " bodies need " + (long) timesteps * job.frameFloats + ".");
+			}
+
+			// Pass 2:  parse every chunk straight into the frames.
+			job.frames = new float[timesteps][job.frameFloats];
+			run(new ChunkTask(job, 0, job.chunks));
+
+			bytesLoaded = size;
+			loadNanos = System.nanoTime() - start;
+			return new MemoryTrajectory(numBodies, bodyRadius, job.frames);
+		} finally {
+			file.close();
+		}
+	}
+
+	// Runs a task on the pool, passing parse & read errors back as
+	// IOExceptions.
+	private void run(ChunkTask task) throws IOException {
+		try {
+			pool.invoke(task);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed number in trajectory file.", e);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// Parses the 3 header integers, returning the offset just past them or -1.
+	private static int parseHeader(ByteBuffer buffer, int[] header) {
+		int pos = 0;
+		int limit = buffer.limit();
+		for (int i = 0; i < header.length; i++) {
+			while (pos < limit && NumberParser.isWhitespace(buffer.get(pos))) {
+				pos++;
+			}
+			int tokenStart = pos;
+			while (pos < limit && !NumberParser.isWhitespace(buffer.get(pos))) {
+				pos++;
+			}
+			if (pos == tokenStart || (pos == limit && limit == HEADER_WINDOW)) {
+				return -1;
+			}
+			header[i] = NumberParser.parseInt(buffer, tokenStart, pos);
+		}
+		return pos;
+	}
+
+	// Splits [start, end) into chunks of roughly CHUNK_SIZE bytes, moving each
+	// cut forward onto the next whitespace byte.
+	private static long[] findChunkBounds(FileChannel channel, long start, long end) throws IOException {
+		int maxChunks = (int) ((end - start) / CHUNK_SIZE) + 2;
+		long[] bounds = new long[maxChunks];
+		int count = 0;
+		bounds[count++] = start;
+		ByteBuffer probe = ByteBuffer.allocate(256);
+		long cut = start;
+		while (true) {
+			cut += CHUNK_SIZE;
+			if (cut >= end) {
+				break;
+			}
+			cut = nextWhitespace(channel, probe, cut, end);
+			if (cut >= end) {
+				break;
+			}
+			bounds[count++] = cut;
+		}
+		bounds[count++] = end;
+		long[] trimmed = new long[count];
+		System.arraycopy(bounds, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	// Returns the offset of the first whitespace byte at or after 'pos'.
+	private static long nextWhitespace(FileChannel channel, ByteBuffer probe, long pos, long end) throws IOException {
+		while (pos < end) {
+			probe.clear();
+			int read = channel.read(probe, pos);
+			if (read <= 0) {
+				return end;
+			}
+			for (int i = 0; i < read; i++) {
+				if (NumberParser.isWhitespace(probe.get(i))) {
+					return pos + i;
+				}
+			}
+			pos += read;
+		}
+		return end;
+	}
+
+	// State shared by every chunk task of one load.
+	private static class Job {
+
+		private FileChannel channel;
+		private long[] bounds;
+		private int chunks;
+		private int frameFloats;
+		// Value count of each chunk after pass 1, index of its first value after
+		// the prefix sum.
+		private long[] firstValue;
+		// Destination of pass 2; null during pass 1.
+		private float[][] frames;
+
+		private Job(FileChannel channel, long[] bounds, int frameFloats) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.chunks = bounds.length - 1;
+			this.frameFloats = frameFloats;
+			this.firstValue = new long[chunks];
+		}
+
+	}
+
+	// Counts or parses chunks [lo, hi), splitting itself until one chunk is left
+	// so idle workers can steal the rest.
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveAction {
+
+		private Job job;
+		private int lo, hi;
+
+		private ChunkTask(Job job, int lo, int hi) {
+			this.job = job;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new ChunkTask(job, lo, mid), new ChunkTask(job, mid, hi));
+				return;
+			}
+			try {
+				MappedByteBuffer chunk = job.channel.map(FileChannel.MapMode.READ_ONLY, job.bounds[lo],
+						job.bounds[lo + 1] - job.bounds[lo]);
+				if (job.frames == null) {
+					job.firstValue[lo] = countValues(chunk);
+				} else {
+					parseValues(chunk, job.firstValue[lo]);
+				}
+			} catch (IOException e) {
+				// compute() can't throw it; run() unwraps it again.
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private static long countValues(ByteBuffer chunk) {
+			long count = 0;
+			boolean inToken = false;
+			int limit = chunk.limit();
+			for (int pos = 0; pos < limit; pos++) {
+				boolean whitespace = NumberParser.isWhitespace(chunk.get(pos));
+				if (!whitespace && !inToken) {
+					count++;
+				}
+				inToken = !whitespace;
+			}
+			return count;
+		}
+
+		// Parses the chunk's values into the frames, starting at the given
+		// overall value index.  Values past the last timestep are ignored.
+		private void parseValues(ByteBuffer chunk, long firstValue) {
+			float[][] frames = job.frames;
+			int frame = (int) (firstValue / job.frameFloats);
+			int offset = (int) (firstValue % job.frameFloats);
+			int pos = 0;
+			int limit = chunk.limit();
+			while (frame < frames.length) {
+				while (pos < limit && NumberParser.isWhitespace(chunk.get(pos))) {
+					pos++;
+				}
+				if (pos >= limit) {
+					break;
+				}
+				int tokenStart = pos;
+				while (pos < limit && !NumberParser.isWhitespace(chunk.get(pos))) {
+					pos++;
+				}
+				frames[frame][offset++] = NumberParser.parseFloat(chunk, tokenStart, pos);
+				if (offset == job.frameFloats) {
+					frame++;
+					offset = 0;
+				}
+			}
+		}
+
+	}
+
+	public long getBytesLoaded() {
+		return bytesLoaded;
+	}
+
+	public long getLoadMillis() {
+		return loadNanos / 1000000;
+	}
+
+	// Throughput of the last load in MB/s.
+	public double getThroughput() {
+		return loadNanos == 0 ? 0 : (bytesLoaded / 1e6) / (loadNanos / 1e9);
+	}
+
+}
@@ -0,0 +1,67 @@
+package trajectory;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Scanner;
+
+/*
+ * File:	TextTrajectoryReader.java
+ * Purpose:	Reads the text trajectory format (gui_input.txt) one frame at a
+ * 			time.  The file holds the # of bodies, body radius and # of
+ * 			timesteps, followed by x, y, z for every body of every timestep.
+ */
+public class TextTrajectoryReader implements TrajectorySource {
+
+	private FileReader input;
+	private Scanner scan;
+
+	private int numBodies;
+	private int bodyRadius;
+	private int timesteps;
+	private int currentFrame = 0;
+
+	public TextTrajectoryReader(String fileName) throws IOException {
+		input = new FileReader(fileName);
+		scan = new Scanner(input);
+
+		// Read in # of bodies, radius of bodies, & how many timesteps.
+		numBodies = scan.nextInt();
+		bodyRadius = scan.nextInt();
+		timesteps = scan.nextInt();
+	}
+
+	@Override
+	public boolean nextFrame(float[] dest) throws IOException {
+		if (currentFrame >= timesteps) {
+			return false;
+		}
+		int frameFloats = numBodies * TrajectoryFormat.FLOATS_PER_BODY;
+		for (int i = 0; i < frameFloats; i++) {
+			dest[i] = scan.nextFloat();
+		}
+		currentFrame++;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		scan.close();
+		input.close();
+	}
+
+	@Override
+	public int getNumBodies() {
+		return numBodies;
+	}
+
+	@Override
+	public int getBodyRadius() {
+		return bodyRadius;
+	}
+
+	@Override
+	public int getTimesteps() {
+		return timesteps;
+	}
+
+}
@@ -0,0 +1,86 @@
+package trajectory;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Scanner;
+
+/*
+ * File:	TrajectoryConverter.java
+ * Purpose:	Converts the text trajectory format (gui_input.txt) into the
+ * 			binary format described by TrajectoryFormat.
+ *
+ * 			Usage:	TrajectoryConverter <input.txt> [output.bin]
+ */
+public class TrajectoryConverter {
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage:  TrajectoryConverter <input.txt> [output" + TrajectoryFormat.FILE_EXTENSION + "]");
+			System.exit(-1);
+		}
+		String output = args.length > 1 ? args[1] : toBinaryName(args[0]);
+		try {
+			long start = System.nanoTime();
+			TrajectoryFormat format = convert(args[0], output);
+			System.out.println("Wrote " + format.getTimesteps() + " frames of " + format.getNumBodies() + " bodies to "
+					+ output + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		} catch (IOException e) {
+			System.err.println("ERROR:  COULD NOT CONVERT FILE!!!");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	// Returns the binary file name that goes along with a text file name.
+	public static String toBinaryName(String textFile) {
+		int dot = textFile.lastIndexOf('.');
+		String base = dot > 0 ? textFile.substring(0, dot) : textFile;
+		return base + TrajectoryFormat.FILE_EXTENSION;
+	}
+
+	// Reads the text trajectory and writes it back out in binary form.  Values
+	// are read in the same order MainGameLoop has always read them: the three
+	// header integers, then x, y, z for every body of every timestep.
+	public static TrajectoryFormat convert(String textFile, String binaryFile) throws IOException {
+		Scanner scan = new Scanner(new FileReader(textFile));
+		RandomAccessFile out = new RandomAccessFile(binaryFile, "rw");
+		try {
+			TrajectoryFormat format = new TrajectoryFormat(scan.nextInt(), scan.nextInt(), scan.nextInt());
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+
+			ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE);
+			format.writeHeader(header);
+			writeFully(channel, header);
+
+			// Reuse one frame-sized buffer for the whole file.
+			ByteBuffer frame = ByteBuffer.allocateDirect(format.getFrameStride()).order(TrajectoryFormat.BYTE_ORDER);
+			for (int t = 0; t < format.getTimesteps(); t++) {
+				frame.clear();
+				for (int i = 0; i < format.getFrameFloats(); i++) {
+					if (!scan.hasNextFloat()) {
+						throw new IOException(textFile + " ends in the middle of timestep " + t + ".");
+					}
+					frame.putFloat(scan.nextFloat());
+				}
+				frame.clear();
+				writeFully(channel, frame);
+			}
+			return format;
+		} finally {
+			scan.close();
+			out.close();
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.rewind();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package trajectory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * File:	TrajectoryFormat.java
+ * Purpose:	Describes the layout of the binary trajectory file.  The file
+ * 			starts with a fixed-size header, followed by one frame per
+ * 			timestep.  Each frame holds the x, y, z position of every body
+ * 			as little-endian 32-bit floats, and frames start every
+ * 			'frameStride' bytes so they can be padded/aligned if desired.
+ */
+public class TrajectoryFormat {
+
+	// "NBTR" in ASCII, used to recognize our files.
+	public static final int MAGIC = 0x4E425452;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final String FILE_EXTENSION = ".bin";
+	public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	// Number of floats stored per body in each frame (x, y, z).
+	public static final int FLOATS_PER_BODY = 3;
+	// Frames that also carry each body's radius have x, y, z, radius.
+	public static final int FLOATS_PER_BODY_WITH_RADIUS = 4;
+	// bodyRadius in the header is in hundredths of a position unit.
+	public static final float RADIUS_UNIT = 0.01f;
+
+	private int numBodies;
+	private int bodyRadius;
+	private int timesteps;
+	private int frameStride;
+
+	public TrajectoryFormat(int numBodies, int bodyRadius, int timesteps) {
+		this(numBodies, bodyRadius, timesteps, numBodies * FLOATS_PER_BODY * 4);
+	}
+
+	public TrajectoryFormat(int numBodies, int bodyRadius, int timesteps, int frameStride) {
+		this.numBodies = numBodies;
+		this.bodyRadius = bodyRadius;
+		this.timesteps = timesteps;
+		this.frameStride = frameStride;
+	}
+
+	// Reads & validates a header from the start of the given buffer.
+	public static TrajectoryFormat readHeader(ByteBuffer header) throws IOException {
+		header.order(BYTE_ORDER);
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Not a binary trajectory file (bad magic number).");
+		}
+		if (header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported trajectory file version " + header.getInt(4) + ".");
+		}
+		TrajectoryFormat format = new TrajectoryFormat(header.getInt(8), header.getInt(12), header.getInt(16),
+				header.getInt(20));
+		// Frames of a float array each, so its size in bytes must fit an int.
+		if (format.numBodies <= 0 || format.numBodies > Integer.MAX_VALUE / (FLOATS_PER_BODY * 4)) {
+			throw new IOException("Number of bodies " + format.numBodies + " is invalid.");
+		}
+		if (format.timesteps < 0) {
+			throw new IOException("Number of timesteps " + format.timesteps + " is invalid.");
+		}
+		if (format.frameStride <= 0 || format.frameStride < format.getFrameFloats() * 4
+				|| format.frameStride % 4 != 0) {
+			throw new IOException("Frame stride " + format.frameStride + " is invalid for "
+					+ format.numBodies + " bodies.");
+		}
+		return format;
+	}
+
+	// Writes this header into the start of the given buffer.
+	public void writeHeader(ByteBuffer header) {
+		header.order(BYTE_ORDER);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putInt(8, numBodies);
+		header.putInt(12, bodyRadius);
+		header.putInt(16, timesteps);
+		header.putInt(20, frameStride);
+	}
+
+	// Byte offset of the given frame from the start of the file.
+	public long getFrameOffset(int frame) {
+		return HEADER_SIZE + (long) frame * frameStride;
+	}
+
+	// Number of floats making up the positions of one frame.
+	public int getFrameFloats() {
+		return numBodies * FLOATS_PER_BODY;
+	}
+
+	public int getNumBodies() {
+		return numBodies;
+	}
+
+	public int getBodyRadius() {
+		return bodyRadius;
+	}
+
+	public int getTimesteps() {
+		return timesteps;
+	}
+
+	public int getFrameStride() {
+		return frameStride;
+	}
+
+}
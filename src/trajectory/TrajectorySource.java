@@ -0,0 +1,32 @@
+package trajectory;
+
+import java.io.IOException;
+
+/*
+ * File:	TrajectorySource.java
+ * Purpose:	Anything that can hand out the body positions of a run one
+ * 			frame (timestep) at a time.  A frame is laid out as x, y, z for
+ * 			every body, i.e. numBodies * TrajectoryFormat.FLOATS_PER_BODY
+ * 			floats.  Sources whose bodies change size (e.g. by merging) add
+ * 			each body's radius after its position instead.
+ */
+public interface TrajectorySource {
+
+	public int getNumBodies();
+
+	public int getBodyRadius();
+
+	public int getTimesteps();
+
+	// Floats per body in each frame:  3 (x, y, z) or 4 (x, y, z, radius).
+	public default int getFloatsPerBody() {
+		return TrajectoryFormat.FLOATS_PER_BODY;
+	}
+
+	// Copies the positions of the next frame into 'dest', returning false once
+	// every frame has been read.
+	public boolean nextFrame(float[] dest) throws IOException;
+
+	public void close() throws IOException;
+
+}